@@ -1,17 +1,54 @@
+/**
+ * Copyright 2014 Mike Pigott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
 package mpigott.avro.xml;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.math.MathContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -20,125 +57,879 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.EncoderFactory;
-import org.apache.avro.io.JsonDecoder;
-import org.apache.avro.io.JsonEncoder;
+import org.apache.avro.xml.XmlDatumBatchWriter;
 import org.apache.avro.xml.XmlDatumConfig;
+import org.apache.avro.xml.XmlDatumField;
 import org.apache.avro.xml.XmlDatumReader;
+import org.apache.avro.xml.XmlDatumStats;
+import org.apache.avro.xml.XmlDatumStatsFileWriter;
 import org.apache.avro.xml.XmlDatumWriter;
-import org.custommonkey.xmlunit.DetailedDiff;
+import org.apache.ws.commons.schema.XmlSchemaCollection;
+import org.apache.ws.commons.schema.resolver.URIResolver;
+import org.custommonkey.xmlunit.Diff;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Command-line conversions between XML and Avro.
+ *
+ * <pre>
+ * Main schema  --schema &lt;xsd&gt; --root {ns}name [--out schema.avsc]
+ * Main toavro  --schema &lt;xsd&gt; --root {ns}name --out &lt;dir&gt; &lt;inputs&gt;
+ * Main toxml   --out &lt;dir&gt; &lt;inputs&gt;
+ * Main verify  --schema &lt;xsd&gt; --root {ns}name &lt;inputs&gt;
+ * </pre>
+ *
+ * <p>
+ * Inputs are files, directories, or file name patterns with
+ * <code>*</code> and <code>?</code>, like <code>data/*.xml</code>.
+ * Directories contribute the files in them with the command's input
+ * extension: <code>.xml</code>, or <code>.avro</code> for
+ * <code>toxml</code>.  Each XML file becomes one Avro data file of the
+ * same name, and each Avro data file becomes one XML file per datum.
+ * </p>
+ *
+ * <p>
+ * With <code>--split</code>, each child of the root element is written as
+ * a datum of its own, of {@link XmlDatumWriter#getSplitSchema()}, so very
+ * large documents are never held in memory whole.  <code>toxml</code>
+ * recognizes such files from their schema.
+ * </p>
+ *
+ * <p>
+ * With <code>--stats {ns}element</code>, or
+ * <code>--stats {ns}element/@attribute</code>, <code>toavro</code> records
+ * the smallest and largest values of each block's elements or attributes
+ * in a <code>.stats</code> file beside each data file, which
+ * {@link org.apache.avro.xml.XmlDatumQuery} uses to skip blocks.
+ * With <code>--index-ids</code>, it also indexes the IDs of the elements
+ * written as map entries in a <code>.ids</code> file, which
+ * {@link org.apache.avro.xml.XmlDatumIdLookup} uses to read them alone.
+ * </p>
+ *
+ * <p>
+ * Generating the Avro schema from a large XML Schema can take a while.
+ * With <code>--schema-cache &lt;dir&gt;</code>, the generated schema is
+ * saved there, keyed by the root element and the locations and contents
+ * of the XML Schemas, including those they import or include, and reused
+ * by later runs.
+ * </p>
+ */
+public final class Main {
+
+  private static final int EXIT_USAGE = 1;
+  private static final int EXIT_FAILURES = 2;
+
+  private static final String USAGE =
+      "Usage: Main <command> [options] [inputs]\n"
+      + "Commands:\n"
+      + "  schema   Writes the Avro schema for the XML Schema.\n"
+      + "  toavro   Converts XML files to Avro data files.\n"
+      + "  toxml    Converts Avro data files back to XML files.\n"
+      + "  verify   Checks XML files convert to Avro and back unchanged.\n"
+      + "Options:\n"
+      + "  --schema <file or URL>  An XML Schema; may be repeated.\n"
+      + "  --root {namespace}name  The root element.\n"
+      + "  --base-uri <uri>        The base URI of the XML Schemas.\n"
+      + "  --out <file or dir>     Where to write the output.\n"
+      + "  --threads <n>           Files to convert at once.\n"
+      + "  --codec <codec>         null, deflate, deflate:<level>, snappy,\n"
+      + "                          bzip2 or xz.  Defaults to deflate.\n"
+      + "  --memory <MB>           toavro's heap budget for files in flight.\n"
+      + "  --split                 One datum per child of the root element.\n"
+      + "  --stats <field>         toavro records block statistics of an\n"
+      + "                          element or element/@attribute; may be\n"
+      + "                          repeated.\n"
+      + "  --index-ids             toavro indexes the IDs of map entries.\n"
+      + "  --schema-cache <dir>    Where to keep generated Avro schemas.\n"
+      + "  --progress              Reports throughput every few seconds.\n";
+
+  /**
+   * The options common to all of the commands.
+   */
+  static final class Options {
+    final List<String> schemas = new ArrayList<String>();
+    final List<String> inputs = new ArrayList<String>();
+    final List<XmlDatumField> stats = new ArrayList<XmlDatumField>();
+    String baseUri = null;
+    QName root = null;
+    File out = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String codec = "deflate";
+    long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    boolean split = false;
+    boolean indexIds = false;
+    File schemaCache = null;
+    boolean progress = false;
+
+    static Options parse(String[] args, int start) {
+      final Options options = new Options();
+      for (int argIndex = start; argIndex < args.length; ++argIndex) {
+        final String arg = args[argIndex];
+
+        if ( !arg.startsWith("--") ) {
+          options.inputs.add(arg);
+          continue;
+        } else if ( arg.equals("--split") ) {
+          options.split = true;
+          continue;
+        } else if ( arg.equals("--progress") ) {
+          options.progress = true;
+          continue;
+        } else if ( arg.equals("--index-ids") ) {
+          options.indexIds = true;
+          continue;
+        }
+
+        if (argIndex + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing value for " + arg);
+        }
+        final String value = args[++argIndex];
+
+        if ( arg.equals("--schema") ) {
+          options.schemas.add(value);
+        } else if ( arg.equals("--root") ) {
+          options.root = QName.valueOf(value);
+        } else if ( arg.equals("--base-uri") ) {
+          options.baseUri = value;
+        } else if ( arg.equals("--out") ) {
+          options.out = new File(value);
+        } else if ( arg.equals("--threads") ) {
+          options.threads = Integer.parseInt(value);
+        } else if ( arg.equals("--codec") ) {
+          options.codec = value;
+        } else if ( arg.equals("--memory") ) {
+          options.memoryBudget = Long.parseLong(value) * 1024 * 1024;
+        } else if ( arg.equals("--stats") ) {
+          options.stats.add( XmlDatumField.valueOf(value) );
+        } else if ( arg.equals("--schema-cache") ) {
+          options.schemaCache = new File(value);
+        } else {
+          throw new IllegalArgumentException("Unrecognized option " + arg);
+        }
+      }
+
+      if (options.threads < 1) {
+        throw new IllegalArgumentException("--threads must be positive.");
+      }
+      return options;
+    }
 
-public class Main {
-
-  public String getClasspathString() {
-    StringBuffer classpath = new StringBuffer();
-    ClassLoader applicationClassLoader = this.getClass().getClassLoader();
-    if (applicationClassLoader == null) {
-        applicationClassLoader = ClassLoader.getSystemClassLoader();
+    void requireSchema() {
+      if (schemas.isEmpty() || (root == null)) {
+        throw new IllegalArgumentException("--schema and --root are required.");
+      }
     }
-    URL[] urls = ((URLClassLoader)applicationClassLoader).getURLs();
-     for(int i=0; i < urls.length; i++) {
-         classpath.append(urls[i].getFile()).append("\r\n");
-     }    
 
-     return classpath.toString();
+    void requireOut() {
+      if (out == null) {
+        throw new IllegalArgumentException("--out is required.");
+      }
+    }
   }
 
-  public static void numericMain(String[] args) throws Exception {
-    BigInteger value = new BigInteger("123456789123456789123456789");
-    BigDecimal decimal = new BigDecimal(value, Integer.MIN_VALUE);
-    System.out.println(decimal);
-    System.out.println( MathContext.DECIMAL128.getPrecision() );
+  private Main() {
   }
 
   public static void main(String[] args) throws Exception {
-    File xmlSchema = new File("C:\\Users\\Mike Pigott\\git\\xml-to-avro\\avro-to-xml\\src\\test\\resources\\complex_schema.xsd");
+    if (args.length == 0) {
+      usage("No command.");
+    }
+
+    final String command = args[0];
+    Options options = null;
+    try {
+      options = Options.parse(args, 1);
+    } catch (IllegalArgumentException e) {
+      usage( e.getMessage() );
+    }
 
-    XmlDatumConfig config = new XmlDatumConfig(xmlSchema, "http://www.test.com/AvroTest", new QName("urn:avro:complex_schema", "root"));
+    final ScheduledExecutorService progress =
+        options.progress ? startProgress(System.err) : null;
+
+    int numFailures = 0;
+    try {
+      if ( command.equals("schema") ) {
+        schema(options);
+      } else if ( command.equals("toavro") ) {
+        numFailures = toAvro(options);
+      } else if ( command.equals("toxml") ) {
+        numFailures = toXml(options);
+      } else if ( command.equals("verify") ) {
+        numFailures = verify(options);
+      } else {
+        usage("Unrecognized command " + command);
+      }
+    } catch (IllegalArgumentException e) {
+      usage( e.getMessage() );
+    } finally {
+      if (progress != null) {
+        progress.shutdownNow();
+      }
+    }
 
-    XmlDatumWriter writer = new XmlDatumWriter(config);
+    if (numFailures > 0) {
+      System.err.println(numFailures + " file(s) failed.");
+      System.exit(EXIT_FAILURES);
+    }
+  }
 
-    Schema avroSchema = writer.getSchema();
+  static void schema(Options options) throws IOException {
+    options.requireSchema();
+    final XmlDatumWriter writer = buildWriter(options);
+    final Schema schema =
+        options.split ? writer.getSplitSchema() : writer.getSchema();
 
-    FileWriter schemaWriter = new FileWriter("C:\\Users\\Mike Pigott\\git\\xml-to-avro\\avro-to-xml\\src\\main\\avro\\complex_schema.avsc");
-    schemaWriter.write( avroSchema.toString(true) );
-    schemaWriter.flush();
-    schemaWriter.close();
+    if (options.out == null) {
+      System.out.println( schema.toString(true) );
+    } else {
+      final FileWriter out = new FileWriter(options.out);
+      try {
+        out.write( schema.toString(true) );
+      } finally {
+        out.close();
+      }
+    }
   }
 
-  public static void realMain(String[] args) throws Exception {
-    final XmlDatumConfig config = new XmlDatumConfig(new URL("http://xbrl.fasb.org/us-gaap/2012/elts/us-gaap-2012-01-31.xsd"), new QName("http://www.xbrl.org/2003/instance", "xbrl"));
-    config.addSchemaUrl(new URL("http://www.sec.gov/Archives/edgar/data/1013237/000143774913004187/fds-20130228.xsd"));
-    config.addSchemaUrl(new URL("http://xbrl.sec.gov/dei/2012/dei-2012-01-31.xsd"));
+  /* Converts each XML file to an Avro data file, returning
+   * the number of files that could not be converted.
+   */
+  static int toAvro(final Options options) throws Exception {
+    options.requireSchema();
+    options.requireOut();
+
+    final List<File> xmlFiles = expand(options.inputs, ".xml");
+    checkOutputNames(xmlFiles, options.out);
+    final XmlDatumWriter writer = buildWriter(options);
+    final CodecFactory codec = getCodec(options.codec);
+
+    final long start = System.nanoTime();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(options.threads);
+    try {
+      if (!options.split) {
+        final XmlDatumBatchWriter batch =
+            new XmlDatumBatchWriter(
+                writer,
+                executor,
+                options.threads,
+                options.memoryBudget);
+        batch.setCodec(codec);
+        batch.setStatsFields(options.stats);
+        batch.setIdIndexed(options.indexIds);
+
+        final Map<File, Exception> failures =
+            batch.write(xmlFiles, options.out);
+        for (Map.Entry<File, Exception> failure : failures.entrySet()) {
+          report(failure.getKey(), failure.getValue());
+        }
+        summarize(xmlFiles, start);
+        return failures.size();
+      }
+
+      if (!options.out.isDirectory() && !options.out.mkdirs()) {
+        throw new IOException("Cannot create " + options.out);
+      }
+
+      final int numFailures =
+          forEach(executor, xmlFiles, new FileTask() {
+            @Override
+            public void run(File xmlFile) throws Exception {
+              writeSplit(
+                  writer,
+                  codec,
+                  options.stats,
+                  options.indexIds,
+                  xmlFile,
+                  options.out);
+            }
+          });
+      summarize(xmlFiles, start);
+      return numFailures;
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
-    final XmlDatumWriter writer = new XmlDatumWriter(config);
+  /* Converts each Avro data file to XML files, returning
+   * the number of files that could not be converted.
+   */
+  static int toXml(final Options options) throws Exception {
+    options.requireOut();
 
-    Schema avroSchema = writer.getSchema();
+    final List<File> avroFiles = expand(options.inputs, ".avro");
+    checkOutputNames(avroFiles, options.out);
+    if (!options.out.isDirectory() && !options.out.mkdirs()) {
+      throw new IOException("Cannot create " + options.out);
+    }
 
-    FileWriter schemaWriter = new FileWriter("xbrl.avsc");
-    schemaWriter.write( avroSchema.toString(true) );
-    schemaWriter.close();
+    final long start = System.nanoTime();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(options.threads);
+    try {
+      final int numFailures =
+          forEach(executor, avroFiles, new FileTask() {
+            @Override
+            public void run(File avroFile) throws Exception {
+              readAvro(avroFile, options.out);
+            }
+          });
+      summarize(avroFiles, start);
+      return numFailures;
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /* Converts each XML file to Avro and back, and compares the two
+   * documents, ignoring whitespace and the order of attributes.
+   * Returns the number of files that came back different.
+   */
+  static int verify(Options options) throws Exception {
+    options.requireSchema();
+
+    final List<File> xmlFiles = expand(options.inputs, ".xml");
+    final XmlDatumWriter writer = buildWriter(options);
+
+    XMLUnit.setIgnoreWhitespace(true);
+    XMLUnit.setIgnoreAttributeOrder(true);
+
+    final long start = System.nanoTime();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(options.threads);
+    try {
+      final int numFailures =
+          forEach(executor, xmlFiles, new FileTask() {
+            @Override
+            public void run(File xmlFile) throws Exception {
+              verify(writer, xmlFile);
+            }
+          });
+      summarize(xmlFiles, start);
+      return numFailures;
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void verify(XmlDatumWriter writer, File xmlFile)
+      throws Exception {
 
     final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
     dbf.setNamespaceAware(true);
-    final DocumentBuilder db = dbf.newDocumentBuilder();
-    final File xbrlFile = new File("C:\\Users\\Mike Pigott\\Google Drive\\workspace\\edgar_xbrl\\src\\test\\resources\\fds-20130228.xml");
-    final Document xbrlDoc = db.parse(xbrlFile);
+    final Document expected = dbf.newDocumentBuilder().parse(xmlFile);
 
-    final EncoderFactory ef = EncoderFactory.get();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    writer.write(xmlFile, encoder);
+    encoder.flush();
 
-    final FileOutputStream outStream = new FileOutputStream("xbrl.avro");
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+    final Document actual =
+        reader.read(
+            (Document) null,
+            DecoderFactory.get().binaryDecoder(bytes.toByteArray(), null));
 
-    final JsonEncoder encoder = ef.jsonEncoder(avroSchema, outStream, true);
+    final Diff diff = new Diff(expected, actual);
+    if ( !diff.similar() ) {
+      throw new IOException("Differs after conversion: " + diff);
+    }
+  }
 
-    writer.write(xbrlDoc, encoder);
+  private static void writeSplit(
+      XmlDatumWriter writer,
+      CodecFactory codec,
+      List<XmlDatumField> stats,
+      boolean indexIds,
+      File xmlFile,
+      File outDir) throws Exception {
+
+    final Schema splitSchema = writer.getSplitSchema();
+
+    DataFileWriter<Object> out = null;
+    if (stats.isEmpty() && !indexIds) {
+      out =
+          new DataFileWriter<Object>(
+              new GenericDatumWriter<Object>(splitSchema));
+    } else {
+      final XmlDatumStatsFileWriter statsOut =
+          new XmlDatumStatsFileWriter(splitSchema, stats);
+      statsOut.setIdIndexed(indexIds);
+      out = statsOut;
+    }
+    out.setCodec(codec);
+    out.create(splitSchema, outputFile(outDir, xmlFile, ".avro"));
+    try {
+      // Each datum is appended as it is written, so a reader can stop
+      // after any of them.
+      writer.writeSplit(xmlFile, out);
+    } finally {
+      out.close();
+    }
+  }
 
-    encoder.flush();
+  private static void readAvro(File avroFile, File outDir) throws Exception {
+    final InputStream in = new FileInputStream(avroFile);
+    try {
+      final DataFileStream<Object> stream =
+          new DataFileStream<Object>(in, new GenericDatumReader<Object>());
+
+      final Schema schema = stream.getSchema();
+      final boolean isSplit = isSplitSchema(schema);
+
+      final XmlDatumReader reader = new XmlDatumReader();
+      reader.setSchema(schema);
+
+      // The blocks of datums, decompressed, as one stream.
+      final BinaryDecoder decoder =
+          DecoderFactory.get().binaryDecoder(new BlockStream(stream), null);
+
+      int docIndex = 0;
+      while ( !decoder.isEnd() ) {
+        final Document doc =
+            isSplit
+            ? reader.readSplit(decoder)
+            : reader.read((Document) null, decoder);
+
+        final String suffix = (docIndex == 0) ? ".xml" : ("." + docIndex + ".xml");
+        final File xmlFile = outputFile(outDir, avroFile, suffix);
+        writeXml(doc, xmlFile);
+        ++docIndex;
+      }
+    } finally {
+      in.close();
+    }
+  }
 
-    outStream.close();
-    // */
-    Schema.Parser parser = new Schema.Parser();
+  /* Split data files are a UNION of the root's RECORD,
+   * its children's RECORDs, and NULL, in that order.
+   */
+  private static boolean isSplitSchema(Schema schema) {
+    if ( !schema.getType().equals(Schema.Type.UNION) ) {
+      return false;
+    }
+    final List<Schema> types = schema.getTypes();
+    return (types.size() > 1)
+        && types.get(0).getType().equals(Schema.Type.RECORD)
+        && types.get(types.size() - 1).getType().equals(Schema.Type.NULL);
+  }
 
-    /*Schema */avroSchema = parser.parse(new File("xbrl.avsc"));
+  private static void writeXml(Document doc, File xmlFile) throws Exception {
+    final Transformer transformer =
+        TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 
-    DecoderFactory df = DecoderFactory.get();
+    final OutputStream out =
+        new BufferedOutputStream( new FileOutputStream(xmlFile) );
+    try {
+      transformer.transform(new DOMSource(doc), new StreamResult(out));
+    } finally {
+      out.close();
+    }
+  }
 
-    FileInputStream inStream = new FileInputStream("xbrl.avro");
+  /* Builds the writer, using a cached Avro schema if there is one, and
+   * caching the generated one if not.
+   */
+  static XmlDatumWriter buildWriter(Options options) throws IOException {
+    final XmlDatumConfig config =
+        ThroughputHarness.buildConfig(
+            options.schemas,
+            options.baseUri,
+            options.root);
+
+    if (options.schemaCache == null) {
+      return new XmlDatumWriter(config);
+    }
+
+    final File cached =
+        new File(
+            options.schemaCache,
+            getCacheKey(options, config.getBaseUri()) + ".avsc");
 
-    JsonDecoder jd = df.jsonDecoder(avroSchema, inStream);
+    if ( cached.isFile() ) {
+      final Schema schema = new Schema.Parser().parse(cached);
+      return new XmlDatumWriter(config, schema);
+    }
 
-    XmlDatumReader reader = new XmlDatumReader();
-    reader.setSchema(avroSchema);
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
 
-    final Document doc = reader.read((Document) null, jd);
-    inStream.close();
+    if (!options.schemaCache.isDirectory() && !options.schemaCache.mkdirs()) {
+      throw new IOException("Cannot create " + options.schemaCache);
+    }
 
-    TransformerFactory transformerFactory = TransformerFactory.newInstance();
-    transformerFactory.setAttribute("indent-number", 7);
-    Transformer transformer = transformerFactory.newTransformer();
-    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-    DOMSource source = new DOMSource(doc);
- 
-    // Output to console for testing
-    FileOutputStream xbrlOutStream = new FileOutputStream("new_xbrl.xml");
-    StreamResult result = new StreamResult(xbrlOutStream);
+    // Written aside and renamed, so concurrent runs never see half of it.
+    final File temp =
+        File.createTempFile("schema", ".avsc", options.schemaCache);
+    final FileWriter out = new FileWriter(temp);
+    try {
+      out.write( writer.getSchema().toString() );
+    } finally {
+      out.close();
+    }
+    if ( !temp.renameTo(cached) ) {
+      temp.delete();
+    }
+    return writer;
+  }
 
-    transformer.transform(source, result);
+  /* A digest of the root element, the base URI, and the locations and
+   * contents of the XML Schemas, and of every schema they import, include
+   * or redefine.  Editing any of them generates the Avro schema again.
+   */
+  static String getCacheKey(Options options, String baseUri)
+      throws IOException {
+
+    MessageDigest digest = null;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available.", e);
+    }
 
-    xbrlOutStream.close();
+    update(digest, String.valueOf(options.root));
+    update(digest, String.valueOf(options.baseUri));
 
-    XMLUnit.setIgnoreWhitespace(true);
-    XMLUnit.setIgnoreAttributeOrder(true);
+    final List<String> locations = new ArrayList<String>();
+    for (String location : options.schemas) {
+      locations.add(
+          location.contains("://")
+          ? location
+          : new File(location).getAbsoluteFile().toURI().toString());
+    }
 
-    DetailedDiff diff = new DetailedDiff(XMLUnit.compareXML(xbrlDoc, doc));
+    /* The schemas are loaded, as the writer would load them, to find the
+     * locations of the ones they refer to.
+     */
+    final Set<String> referenced = new TreeSet<String>();
+    final XmlSchemaCollection collection = new XmlSchemaCollection();
+    collection.setBaseUri(baseUri);
+    final URIResolver resolver = collection.getSchemaResolver();
+    collection.setSchemaResolver(new URIResolver() {
+      @Override
+      public InputSource resolveEntity(
+          String targetNamespace,
+          String schemaLocation,
+          String schemaBaseUri) {
+
+        final InputSource source =
+            resolver.resolveEntity(
+                targetNamespace,
+                schemaLocation,
+                schemaBaseUri);
+        if ((source != null) && (source.getSystemId() != null)) {
+          referenced.add( source.getSystemId() );
+        }
+        return source;
+      }
+    });
+    for (String location : locations) {
+      collection.read( new InputSource(location) );
+    }
 
-    if ( !diff.similar() ) {
-      System.out.println("Differences found: " + diff.toString());
-    } else {
-      System.out.println("Success!");
+    for (String location : locations) {
+      updateWithContents(digest, location);
+    }
+    for (String location : referenced) {
+      updateWithContents(digest, location);
+    }
+
+    final byte[] hash = digest.digest();
+    final StringBuilder hex = new StringBuilder(2 * hash.length);
+    for (byte b : hash) {
+      hex.append( Character.forDigit((b >> 4) & 0xF, 16) );
+      hex.append( Character.forDigit(b & 0xF, 16) );
+    }
+    return hex.toString();
+  }
+
+  private static void updateWithContents(MessageDigest digest, String location)
+      throws IOException {
+
+    update(digest, location);
+
+    final InputStream in = new URL(location).openStream();
+    try {
+      final byte[] buffer = new byte[8192];
+      int read = 0;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    try {
+      digest.update( value.getBytes("UTF-8") );
+      digest.update((byte) '\n');
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is not supported.", e);
+    }
+  }
+
+  static CodecFactory getCodec(String name) {
+    if ( name.startsWith("deflate:") ) {
+      return CodecFactory.deflateCodec(
+          Integer.parseInt( name.substring("deflate:".length()) ));
+    }
+    try {
+      return CodecFactory.fromString(name);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Unrecognized codec " + name, e);
+    }
+  }
+
+  /**
+   * Expands the inputs into the files they name.  Directories contribute
+   * the files in them ending in the extension, and names with <code>*</code>
+   * or <code>?</code> in them the files they match.  The files from each
+   * input are in name order.
+   */
+  static List<File> expand(List<String> inputs, String extension) {
+    if ( inputs.isEmpty() ) {
+      throw new IllegalArgumentException("No inputs.");
+    }
+
+    final List<File> files = new ArrayList<File>();
+    for (String input : inputs) {
+      final File file = new File(input);
+
+      if ( file.isDirectory() ) {
+        addMatching(files, file, null, extension);
+
+      } else if ((file.getName().indexOf('*') >= 0)
+          || (file.getName().indexOf('?') >= 0)) {
+        final File dir =
+            (file.getParentFile() == null) ? new File(".") : file.getParentFile();
+        addMatching(files, dir, toPattern( file.getName() ), null);
+
+      } else if ( file.isFile() ) {
+        files.add(file);
+
+      } else {
+        throw new IllegalArgumentException(input + " does not exist.");
+      }
+    }
+    return files;
+  }
+
+  private static void addMatching(
+      List<File> files,
+      File dir,
+      Pattern pattern,
+      String extension) {
+
+    final File[] children = dir.listFiles();
+    if (children == null) {
+      throw new IllegalArgumentException(dir + " is not a readable directory.");
+    }
+    Arrays.sort(children);
+
+    for (File child : children) {
+      if (child.isFile()
+          && ((pattern == null) || pattern.matcher(child.getName()).matches())
+          && ((extension == null) || child.getName().endsWith(extension))) {
+        files.add(child);
+      }
+    }
+  }
+
+  static Pattern toPattern(String glob) {
+    final StringBuilder regex = new StringBuilder();
+    int literalStart = 0;
+    for (int index = 0; index < glob.length(); ++index) {
+      final char ch = glob.charAt(index);
+      if ((ch == '*') || (ch == '?')) {
+        if (literalStart < index) {
+          regex.append( Pattern.quote( glob.substring(literalStart, index) ) );
+        }
+        regex.append((ch == '*') ? ".*" : ".");
+        literalStart = index + 1;
+      }
+    }
+    if (literalStart < glob.length()) {
+      regex.append( Pattern.quote( glob.substring(literalStart) ) );
+    }
+    return Pattern.compile( regex.toString() );
+  }
+
+  /* Each input is converted to files named after it in the output
+   * directory, so inputs of the same name in different directories
+   * would overwrite each other's output.
+   */
+  static void checkOutputNames(List<File> files, File outDir) {
+    final Map<File, File> inputsByOutput = new HashMap<File, File>();
+    for (File file : files) {
+      final File output = outputFile(outDir, file, "");
+      final File other = inputsByOutput.put(output, file);
+      if (other != null) {
+        throw new IllegalArgumentException(
+            other + " and " + file + " would both be converted to "
+            + output + ".*");
+      }
+    }
+  }
+
+  private static File outputFile(File outDir, File inputFile, String suffix) {
+    final String name = inputFile.getName();
+    final int extension = name.lastIndexOf('.');
+    return new File(
+        outDir,
+        ((extension > 0) ? name.substring(0, extension) : name) + suffix);
+  }
+
+  private interface FileTask {
+    void run(File file) throws Exception;
+  }
+
+  /* Runs the task on each file, reporting the files that fail,
+   * and returns how many did.
+   */
+  private static int forEach(
+      ExecutorService executor,
+      List<File> files,
+      final FileTask task) throws InterruptedException {
+
+    final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (final File file : files) {
+      futures.add( executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          task.run(file);
+          return null;
+        }
+      }));
+    }
+
+    int numFailures = 0;
+    for (int index = 0; index < files.size(); ++index) {
+      try {
+        futures.get(index).get();
+      } catch (ExecutionException e) {
+        report(files.get(index), e.getCause());
+        ++numFailures;
+      }
+    }
+    return numFailures;
+  }
+
+  private static void report(File file, Throwable failure) {
+    System.err.println(file + ": " + failure);
+  }
+
+  private static void summarize(List<File> files, long start) {
+    long numBytes = 0;
+    for (File file : files) {
+      numBytes += file.length();
+    }
+    final double seconds = (System.nanoTime() - start) / 1000000000.0;
+    System.err.println(
+        String.format(
+            "%d file(s), %.2f MB in %.1f s: %.2f MB/s",
+            files.size(),
+            numBytes / (1024.0 * 1024.0),
+            seconds,
+            (seconds > 0.0) ? (numBytes / (1024.0 * 1024.0) / seconds) : 0.0));
+  }
+
+  // Reports the documents converted so far, from XmlDatumStats.
+  private static ScheduledExecutorService startProgress(final PrintStream out) {
+    final XmlDatumStats stats = XmlDatumStats.get();
+    stats.setEnabled(true);
+
+    final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "progress");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+
+    scheduler.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        out.println(
+            String.format(
+                "written %d (%.1f/s, %d failed), read %d (%.1f/s, %d failed)",
+                stats.getDocumentsWritten(),
+                stats.getWriteThroughput(),
+                stats.getWriteFailures(),
+                stats.getDocumentsRead(),
+                stats.getReadThroughput(),
+                stats.getReadFailures()));
+      }
+    }, 5, 5, TimeUnit.SECONDS);
+
+    return scheduler;
+  }
+
+  private static void usage(String error) {
+    System.err.println(error);
+    System.err.print(USAGE);
+    System.exit(EXIT_USAGE);
+  }
+
+  /**
+   * The blocks of an Avro data file, decompressed,
+   * as one stream of binary-encoded datums.
+   */
+  private static final class BlockStream extends InputStream {
+    private final DataFileStream<?> stream;
+    private ByteBuffer block;
+
+    BlockStream(DataFileStream<?> stream) {
+      this.stream = stream;
+      this.block = ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+      if ( !nextBlock() ) {
+        return -1;
+      }
+      return block.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      } else if ( !nextBlock() ) {
+        return -1;
+      }
+      final int length = Math.min(len, block.remaining());
+      block.get(b, off, length);
+      return length;
+    }
+
+    private boolean nextBlock() throws IOException {
+      while ( !block.hasRemaining() ) {
+        if ( !stream.hasNext() ) {
+          return false;
+        }
+        block = stream.nextBlock();
+      }
+      return true;
     }
   }
 }
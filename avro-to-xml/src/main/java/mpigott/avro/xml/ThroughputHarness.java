@@ -0,0 +1,624 @@
+/**
+ * Copyright 2014 Mike Pigott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mpigott.avro.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.xml.XmlDatumConfig;
+import org.apache.avro.xml.XmlDatumReader;
+import org.apache.avro.xml.XmlDatumWriter;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.w3c.dom.Document;
+
+/**
+ * Runs the full XML -> Avro -> XML pipeline over a directory of XML
+ * documents at an increasing number of threads, and reports throughput,
+ * per-document latency, heap and garbage collection figures for each
+ * thread count.
+ *
+ * <p>
+ * Each worker thread owns its own {@link XmlDatumWriter} and
+ * {@link XmlDatumReader}, as neither is thread-safe.  Both are built
+ * before the clock starts, so schema compilation is not included in
+ * the figures.  Documents are encoded with Avro's binary encoding.
+ * Documents that fail to convert are counted as failures, and are left
+ * out of the latency figures.
+ * </p>
+ *
+ * <p>
+ * The results are written as both JSON and CSV, one entry per thread
+ * count, so scaling curves can be plotted directly from the output.
+ * </p>
+ *
+ * <pre>
+ * ThroughputHarness --schema &lt;file or URL&gt; [--schema ...]
+ *                   --root {namespace}localName
+ *                   --corpus &lt;directory&gt;
+ *                   [--base-uri &lt;uri&gt;]
+ *                   [--threads &lt;max threads&gt;]
+ *                   [--iterations &lt;passes over the corpus per run&gt;]
+ *                   [--warmup &lt;untimed passes before each run&gt;]
+ *                   [--out &lt;report file prefix&gt;]
+ * </pre>
+ *
+ * @author  Mike Pigott
+ */
+public final class ThroughputHarness {
+
+  // Marks the latency of a document that failed to convert.
+  private static final long FAILED = -1;
+
+  private final XmlDatumConfig config;
+  private final List<File> corpus;
+  private final int iterations;
+  private final int warmupIterations;
+
+  private long corpusBytes;
+
+  /**
+   * The measurements taken for a single thread count.
+   */
+  public static final class RunResult {
+    int threads;
+    int documents;
+    int failures;
+    long inputBytes;
+    long encodedBytes;
+    long elapsedNanos;
+    long p50Nanos;
+    long p99Nanos;
+    long maxNanos;
+    long peakHeapBytes;
+    long gcCount;
+    long gcMillis;
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public int getDocuments() {
+      return documents;
+    }
+
+    public int getFailures() {
+      return failures;
+    }
+
+    public double getDocumentsPerSecond() {
+      return documents / (elapsedNanos / 1000000000.0);
+    }
+
+    public double getMegabytesPerSecond() {
+      return (inputBytes / (1024.0 * 1024.0)) / (elapsedNanos / 1000000000.0);
+    }
+
+    public long getP50Nanos() {
+      return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+      return p99Nanos;
+    }
+
+    public long getPeakHeapBytes() {
+      return peakHeapBytes;
+    }
+
+    public long getGcMillis() {
+      return gcMillis;
+    }
+  }
+
+  private static final class Worker {
+    final XmlDatumWriter writer;
+    final XmlDatumReader reader;
+    final ByteArrayOutputStream outStream;
+    BinaryEncoder encoder;
+    BinaryDecoder decoder;
+
+    Worker(XmlDatumConfig config) throws IOException {
+      writer = new XmlDatumWriter(config);
+      reader = new XmlDatumReader();
+      reader.setSchema( writer.getSchema() );
+      outStream = new ByteArrayOutputStream();
+      encoder = null;
+      decoder = null;
+    }
+
+    /**
+     * Converts the XML file to Avro and back, returning the number of
+     * Avro bytes the document was encoded into.
+     */
+    long convert(File xmlFile) throws Exception {
+      outStream.reset();
+      encoder = EncoderFactory.get().binaryEncoder(outStream, encoder);
+      writer.write(xmlFile, encoder);
+      encoder.flush();
+
+      final byte[] encoded = outStream.toByteArray();
+      decoder =
+          DecoderFactory.get().binaryDecoder(
+              new ByteArrayInputStream(encoded),
+              decoder);
+      reader.read((Document) null, decoder);
+
+      return encoded.length;
+    }
+  }
+
+  public ThroughputHarness(
+      XmlDatumConfig config,
+      List<File> corpus,
+      int iterations,
+      int warmupIterations) {
+
+    if ((corpus == null) || corpus.isEmpty()) {
+      throw new IllegalArgumentException("The corpus cannot be empty.");
+    }
+    if (iterations < 1) {
+      throw new IllegalArgumentException(
+          "At least one iteration is required, not " + iterations);
+    }
+
+    this.config = config;
+    this.corpus = corpus;
+    this.iterations = iterations;
+    this.warmupIterations = warmupIterations;
+
+    corpusBytes = 0;
+    for (File file : corpus) {
+      corpusBytes += file.length();
+    }
+  }
+
+  /**
+   * Converts the corpus <code>iterations</code> times
+   * using <code>numThreads</code> threads.
+   */
+  public RunResult run(int numThreads) throws Exception {
+    final Worker[] workers = new Worker[numThreads];
+    for (int workerIndex = 0; workerIndex < numThreads; ++workerIndex) {
+      workers[workerIndex] = new Worker(config);
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      if (warmupIterations > 0) {
+        runPasses(executor, workers, warmupIterations, null, null);
+      }
+
+      System.gc();
+
+      final List<MemoryPoolMXBean> heapPools = getHeapPools();
+      for (MemoryPoolMXBean pool : heapPools) {
+        pool.resetPeakUsage();
+      }
+      final long gcCountBefore = getGcCount();
+      final long gcMillisBefore = getGcMillis();
+
+      final int numDocs = corpus.size() * iterations;
+      final long[] latencies = new long[numDocs];
+      final AtomicLong encodedBytes = new AtomicLong();
+
+      final long start = System.nanoTime();
+      final int failures =
+          runPasses(executor, workers, iterations, latencies, encodedBytes);
+      final long elapsed = System.nanoTime() - start;
+
+      final RunResult result = new RunResult();
+      result.threads = numThreads;
+      result.documents = numDocs;
+      result.failures = failures;
+      result.inputBytes = corpusBytes * iterations;
+      result.encodedBytes = encodedBytes.get();
+      result.elapsedNanos = elapsed;
+
+      // Failed documents sort first, and are left out of the latencies.
+      Arrays.sort(latencies);
+      final long[] succeeded =
+          Arrays.copyOfRange(latencies, failures, latencies.length);
+      if (succeeded.length > 0) {
+        result.p50Nanos = percentile(succeeded, 50);
+        result.p99Nanos = percentile(succeeded, 99);
+        result.maxNanos = succeeded[succeeded.length - 1];
+      }
+
+      long peakHeap = 0;
+      for (MemoryPoolMXBean pool : heapPools) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+      result.peakHeapBytes = peakHeap;
+      result.gcCount = getGcCount() - gcCountBefore;
+      result.gcMillis = getGcMillis() - gcMillisBefore;
+
+      return result;
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs the corpus through the workers <code>passes</code> times.  If
+   * <code>latencies</code> is not <code>null</code>, the latency of each
+   * converted document is recorded in it, and failed documents are marked
+   * {@link #FAILED}.  Returns the number of failed documents.
+   */
+  private int runPasses(
+      ExecutorService executor,
+      Worker[] workers,
+      int passes,
+      final long[] latencies,
+      final AtomicLong encodedBytes) throws Exception {
+
+    final int numDocs = corpus.size() * passes;
+    final AtomicInteger nextDoc = new AtomicInteger(0);
+    final AtomicInteger failures = new AtomicInteger(0);
+
+    final List<Future<?>> futures = new ArrayList<Future<?>>(workers.length);
+    for (final Worker worker : workers) {
+      futures.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          int docIndex = nextDoc.getAndIncrement();
+          while (docIndex < numDocs) {
+            final File xmlFile = corpus.get(docIndex % corpus.size());
+            final long start = System.nanoTime();
+            try {
+              final long numBytes = worker.convert(xmlFile);
+              if (latencies != null) {
+                latencies[docIndex] = System.nanoTime() - start;
+              }
+              if (encodedBytes != null) {
+                encodedBytes.addAndGet(numBytes);
+              }
+            } catch (Exception e) {
+              failures.incrementAndGet();
+              if (latencies != null) {
+                latencies[docIndex] = FAILED;
+              }
+              System.err.println("Failed to convert " + xmlFile + ": " + e);
+            }
+            docIndex = nextDoc.getAndIncrement();
+          }
+        }
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      future.get();
+    }
+
+    return failures.get();
+  }
+
+  private static long percentile(long[] sortedValues, int percentile) {
+    int rank = (int) Math.ceil((percentile / 100.0) * sortedValues.length);
+    if (rank < 1) {
+      rank = 1;
+    }
+    return sortedValues[rank - 1];
+  }
+
+  private static List<MemoryPoolMXBean> getHeapPools() {
+    final List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if ( pool.getType().equals(MemoryType.HEAP) ) {
+        heapPools.add(pool);
+      }
+    }
+    return heapPools;
+  }
+
+  private static long getGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc :
+           ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (gc.getCollectionCount() > 0) {
+        count += gc.getCollectionCount();
+      }
+    }
+    return count;
+  }
+
+  private static long getGcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc :
+           ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (gc.getCollectionTime() > 0) {
+        millis += gc.getCollectionTime();
+      }
+    }
+    return millis;
+  }
+
+  /**
+   * Writes the results as a JSON document containing
+   * the corpus description and an array of runs.
+   */
+  public void writeJson(List<RunResult> results, File jsonFile)
+      throws IOException {
+
+    final FileOutputStream outStream = new FileOutputStream(jsonFile);
+    try {
+      final JsonGenerator json =
+          new JsonFactory().createJsonGenerator(outStream, JsonEncoding.UTF8);
+      json.useDefaultPrettyPrinter();
+
+      json.writeStartObject();
+      json.writeStringField(
+          "rootTag", config.getRootTagName().toString());
+      json.writeNumberField("corpusDocuments", corpus.size());
+      json.writeNumberField("corpusBytes", corpusBytes);
+      json.writeNumberField("iterations", iterations);
+      json.writeNumberField(
+          "availableProcessors",
+          Runtime.getRuntime().availableProcessors());
+      json.writeNumberField("maxHeapBytes", Runtime.getRuntime().maxMemory());
+
+      json.writeArrayFieldStart("runs");
+      for (RunResult result : results) {
+        json.writeStartObject();
+        json.writeNumberField("threads", result.threads);
+        json.writeNumberField("documents", result.documents);
+        json.writeNumberField("failures", result.failures);
+        json.writeNumberField("inputBytes", result.inputBytes);
+        json.writeNumberField("encodedBytes", result.encodedBytes);
+        json.writeNumberField("elapsedMillis", result.elapsedNanos / 1000000);
+        json.writeNumberField("docsPerSecond", result.getDocumentsPerSecond());
+        json.writeNumberField("mbPerSecond", result.getMegabytesPerSecond());
+        json.writeNumberField("p50Micros", result.p50Nanos / 1000);
+        json.writeNumberField("p99Micros", result.p99Nanos / 1000);
+        json.writeNumberField("maxMicros", result.maxNanos / 1000);
+        json.writeNumberField("peakHeapBytes", result.peakHeapBytes);
+        json.writeNumberField("gcCount", result.gcCount);
+        json.writeNumberField("gcMillis", result.gcMillis);
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+
+      json.writeEndObject();
+      json.flush();
+    } finally {
+      outStream.close();
+    }
+  }
+
+  /**
+   * Writes the results as CSV, one row per thread count.
+   */
+  public static void writeCsv(List<RunResult> results, File csvFile)
+      throws IOException {
+
+    final PrintWriter csv = new PrintWriter(new FileWriter(csvFile));
+    try {
+      csv.println(
+          "threads,documents,failures,input_bytes,encoded_bytes,"
+          + "elapsed_ms,docs_per_sec,mb_per_sec,p50_us,p99_us,max_us,"
+          + "peak_heap_bytes,gc_count,gc_ms");
+
+      for (RunResult result : results) {
+        csv.print(result.threads);
+        csv.print(',');
+        csv.print(result.documents);
+        csv.print(',');
+        csv.print(result.failures);
+        csv.print(',');
+        csv.print(result.inputBytes);
+        csv.print(',');
+        csv.print(result.encodedBytes);
+        csv.print(',');
+        csv.print(result.elapsedNanos / 1000000);
+        csv.print(',');
+        csv.print(result.getDocumentsPerSecond());
+        csv.print(',');
+        csv.print(result.getMegabytesPerSecond());
+        csv.print(',');
+        csv.print(result.p50Nanos / 1000);
+        csv.print(',');
+        csv.print(result.p99Nanos / 1000);
+        csv.print(',');
+        csv.print(result.maxNanos / 1000);
+        csv.print(',');
+        csv.print(result.peakHeapBytes);
+        csv.print(',');
+        csv.print(result.gcCount);
+        csv.print(',');
+        csv.println(result.gcMillis);
+      }
+    } finally {
+      csv.close();
+    }
+  }
+
+  /**
+   * Lists the <code>.xml</code> files in the directory, in name order.
+   */
+  static List<File> listCorpus(File corpusDir) {
+    final File[] files = corpusDir.listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException(
+          corpusDir + " is not a readable directory.");
+    }
+    Arrays.sort(files);
+
+    final List<File> corpus = new ArrayList<File>(files.length);
+    for (File file : files) {
+      if (file.isFile() && file.getName().toLowerCase().endsWith(".xml")) {
+        corpus.add(file);
+      }
+    }
+    return corpus;
+  }
+
+  /**
+   * Builds an {@link XmlDatumConfig} from the schema locations, which may
+   * be either URLs or file paths, the base URI, and the root tag.
+   */
+  static XmlDatumConfig buildConfig(
+      List<String> schemaLocations,
+      String baseUri,
+      QName rootTag) {
+
+    if (schemaLocations.isEmpty()) {
+      throw new IllegalArgumentException("At least one --schema is required.");
+    }
+
+    XmlDatumConfig config = null;
+    for (String location : schemaLocations) {
+      URL url = null;
+      if (location.contains("://")) {
+        try {
+          url = new URL(location);
+        } catch (MalformedURLException e) {
+          throw new IllegalArgumentException(location + " is not a URL.", e);
+        }
+      }
+
+      if (config == null) {
+        if (url != null) {
+          config = new XmlDatumConfig(url, rootTag);
+        } else {
+          final File schemaFile = new File(location);
+          config =
+              new XmlDatumConfig(
+                  schemaFile,
+                  (baseUri != null)
+                    ? baseUri
+                    : schemaFile.getAbsoluteFile().getParentFile().toURI()
+                        .toString(),
+                  rootTag);
+        }
+      } else if (url != null) {
+        config.addSchemaUrl(url);
+      } else {
+        config.addSchemaFile( new File(location) );
+      }
+    }
+    return config;
+  }
+
+  private static void usage(String error) {
+    System.err.println(error);
+    System.err.println(
+        "Usage: ThroughputHarness --schema <file or URL> [--schema ...]"
+        + " --root {namespace}localName --corpus <directory>"
+        + " [--base-uri <uri>] [--threads <max threads>]"
+        + " [--iterations <n>] [--warmup <n>] [--out <report prefix>]");
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    final List<String> schemas = new ArrayList<String>();
+    String baseUri = null;
+    QName rootTag = null;
+    File corpusDir = null;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    int iterations = 1;
+    int warmup = 1;
+    String outPrefix = "throughput";
+
+    for (int argIndex = 0; argIndex < args.length; ++argIndex) {
+      final String arg = args[argIndex];
+      if (argIndex + 1 >= args.length) {
+        usage("Missing value for " + arg);
+      }
+      final String value = args[++argIndex];
+
+      if (arg.equals("--schema")) {
+        schemas.add(value);
+      } else if (arg.equals("--base-uri")) {
+        baseUri = value;
+      } else if (arg.equals("--root")) {
+        rootTag = QName.valueOf(value);
+      } else if (arg.equals("--corpus")) {
+        corpusDir = new File(value);
+      } else if (arg.equals("--threads")) {
+        maxThreads = Integer.parseInt(value);
+      } else if (arg.equals("--iterations")) {
+        iterations = Integer.parseInt(value);
+      } else if (arg.equals("--warmup")) {
+        warmup = Integer.parseInt(value);
+      } else if (arg.equals("--out")) {
+        outPrefix = value;
+      } else {
+        usage("Unrecognized argument " + arg);
+      }
+    }
+
+    if ((rootTag == null) || (corpusDir == null) || schemas.isEmpty()) {
+      usage("--schema, --root and --corpus are required.");
+    }
+
+    final ThroughputHarness harness =
+        new ThroughputHarness(
+            buildConfig(schemas, baseUri, rootTag),
+            listCorpus(corpusDir),
+            iterations,
+            warmup);
+
+    final List<RunResult> results = new ArrayList<RunResult>(maxThreads);
+    for (int numThreads = 1; numThreads <= maxThreads; ++numThreads) {
+      final RunResult result = harness.run(numThreads);
+      results.add(result);
+
+      System.out.println(
+          String.format(
+              "%3d threads: %10.1f docs/s %8.2f MB/s  p50 %8d us  "
+              + "p99 %8d us  peak heap %6d MB  gc %6d ms  failures %d",
+              result.threads,
+              result.getDocumentsPerSecond(),
+              result.getMegabytesPerSecond(),
+              result.p50Nanos / 1000,
+              result.p99Nanos / 1000,
+              result.peakHeapBytes / (1024 * 1024),
+              result.gcMillis,
+              result.failures));
+    }
+
+    harness.writeJson(results, new File(outPrefix + ".json"));
+    writeCsv(results, new File(outPrefix + ".csv"));
+  }
+}
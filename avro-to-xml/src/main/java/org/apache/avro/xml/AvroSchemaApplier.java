@@ -158,14 +158,45 @@ final class AvroSchemaApplier {
   void apply(
       XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> pathStart) {
 
+    apply(pathStart, null);
+  }
+
+  /**
+   * Applies the Avro schema to the path, recording the time spent in
+   * each step to the provided {@link XmlDatumMetrics}, if not null.
+   */
+  void apply(
+      XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> pathStart,
+      XmlDatumMetrics metrics) {
+
+    long start = (metrics == null) ? 0 : System.nanoTime();
+
     // Add schema information to the document tree.
     apply(pathStart.getDocumentNode());
 
+    if (metrics != null) {
+      final long now = System.nanoTime();
+      metrics.addPhaseNanos(XmlDatumMetrics.Phase.SCHEMA_APPLY, now - start);
+      start = now;
+    }
+
     // Count maps.
     findMaps(pathStart);
 
+    if (metrics != null) {
+      final long now = System.nanoTime();
+      metrics.addPhaseNanos(XmlDatumMetrics.Phase.MAP_DISCOVERY, now - start);
+      start = now;
+    }
+
     // Update child count for mixed elements.
     applyContent(pathStart);
+
+    if (metrics != null) {
+      metrics.addPhaseNanos(
+          XmlDatumMetrics.Phase.CONTENT_APPLY,
+          System.nanoTime() - start);
+    }
   }
 
   private void apply(XmlSchemaDocumentNode<AvroRecordInfo> docNode) {
@@ -212,63 +243,11 @@ final class AvroSchemaApplier {
     int mapSchemaIndex = -1;
 
     if (validNextElements != null) {
-      for (; schemaIndex < validNextElements.size(); ++schemaIndex) {
-        Schema possibleSchema = validNextElements.get(schemaIndex);
-        Schema valueType = possibleSchema;
-
-        if ( possibleSchema.getType().equals(Schema.Type.MAP) ) {
-          valueType = possibleSchema.getValueType();
-
-          if ( valueType.getType().equals(Schema.Type.UNION) ) {
-            /* This XML document has multiple sibling tags representable as
-             * MAPs.  We need to cycle through them and find the best fit.
-             */
-            for (mapSchemaIndex = 0;
-                mapSchemaIndex < valueType.getTypes().size();
-                ++mapSchemaIndex) {
-              final Schema unionType = valueType.getTypes().get(mapSchemaIndex);
-              if ( !unionType.getType().equals(Schema.Type.RECORD) ) {
-                throw new IllegalStateException(
-                    "MAPs in Avro Schemas for XML documents must have a value"
-                    + " type of either RECORD or UNION of RECORD, not UNION"
-                    + " with "
-                    + unionType.getType());
-              }
-              if (typeMatchesElement(unionType, element)) {
-                elemSchema = possibleSchema;
-                break;
-              }
-            }
-
-            /* If we walked through all of the map elements and did
-             * not find a matching UNION, reset the mapSchemaIndex
-             * and check the next candidate.
-             */
-            if (elemSchema == null) {
-              mapSchemaIndex = -1;
-              continue;
-            } else {
-              // We found the element!  Stop looking.
-              break;
-            }
-          }
-        }
-
-        if ( !valueType.getType().equals(Schema.Type.RECORD) ) {
-          throw new IllegalStateException(
-              "RECORD, MAP of RECORD, and MAP of UNION of RECORD are allowed. "
-              + valueType.getType()
-              + " cannot exist in any level of that hierarchy.");
-        }
-
-        /* If we reach here, we have not found the schema, and valueType is of
-         * type RECORD (either the original RECORD or the child of a MAP) and
-         * needs to be checked.
-         */
-        if (typeMatchesElement(valueType, element)) {
-          elemSchema = possibleSchema;
-          break;
-        }
+      final UnionMember member = findUnionMember(validNextElements, element);
+      if (member != null) {
+        schemaIndex = member.index;
+        mapSchemaIndex = member.mapIndex;
+        elemSchema = validNextElements.get(schemaIndex);
       }
     }
 
@@ -614,6 +593,106 @@ final class AvroSchemaApplier {
     }
   }
 
+  /**
+   * The member of a UNION of elements that an element is written as.
+   */
+  static final class UnionMember {
+
+    /**
+     * The index of the RECORD, or MAP of RECORDs, in the UNION.
+     */
+    final int index;
+
+    /**
+     * The index of the element's RECORD in the UNION of the MAP's
+     * values, or <code>-1</code> if the member is not such a MAP.
+     */
+    final int mapIndex;
+
+    UnionMember(int index, int mapIndex) {
+      this.index = index;
+      this.mapIndex = mapIndex;
+    }
+  }
+
+  /**
+   * Finds the first member of the UNION that is the element's RECORD, or
+   * a MAP of it, or <code>null</code> if none is.  The writer, and plans
+   * for trusted documents, write the element as the member found here.
+   */
+  static UnionMember findUnionMember(
+      List<Schema> validNextElements,
+      XmlSchemaElement element) {
+
+    for (int schemaIndex = 0;
+        schemaIndex < validNextElements.size();
+        ++schemaIndex) {
+
+      final Schema possibleSchema = validNextElements.get(schemaIndex);
+      Schema valueType = possibleSchema;
+
+      if ( possibleSchema.getType().equals(Schema.Type.STRING) ) {
+        // The mixed content of the parent element, not an element.
+        continue;
+
+      } else if ( possibleSchema.getType().equals(Schema.Type.MAP) ) {
+        valueType = possibleSchema.getValueType();
+
+        if ( valueType.getType().equals(Schema.Type.UNION) ) {
+          /* This XML document has multiple sibling tags representable as
+           * MAPs.  We need to cycle through them and find the best fit.
+           */
+          for (int mapSchemaIndex = 0;
+              mapSchemaIndex < valueType.getTypes().size();
+              ++mapSchemaIndex) {
+            final Schema unionType = valueType.getTypes().get(mapSchemaIndex);
+            if ( !unionType.getType().equals(Schema.Type.RECORD) ) {
+              throw new IllegalStateException(
+                  "MAPs in Avro Schemas for XML documents must have a value"
+                  + " type of either RECORD or UNION of RECORD, not UNION"
+                  + " with "
+                  + unionType.getType());
+            }
+            if (typeMatchesElement(unionType, element)) {
+              return new UnionMember(schemaIndex, mapSchemaIndex);
+            }
+          }
+
+          // None of the map's values match; check the next candidate.
+          continue;
+        }
+      }
+
+      if ( !valueType.getType().equals(Schema.Type.RECORD) ) {
+        throw new IllegalStateException(
+            "RECORD, MAP of RECORD, and MAP of UNION of RECORD are allowed. "
+            + valueType.getType()
+            + " cannot exist in any level of that hierarchy.");
+      }
+
+      /* valueType is of type RECORD (either the original RECORD
+       * or the child of a MAP) and needs to be checked.
+       */
+      if (typeMatchesElement(valueType, element)) {
+        return new UnionMember(schemaIndex, -1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The index of the first STRING in the UNION of an element's children,
+   * which its mixed content is written as, or <code>-1</code> if none.
+   */
+  static int findStringIndex(List<Schema> unionTypes) {
+    for (int index = 0; index < unionTypes.size(); ++index) {
+      if ( unionTypes.get(index).getType().equals(Schema.Type.STRING) ) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
   private static boolean typeMatchesElement(Schema type, XmlSchemaElement element) {
     boolean match = false;
 
@@ -877,11 +956,7 @@ final class AvroSchemaApplier {
 
             mostRecentlyLeftMap = null;
 
-            if (stackEntry
-                  .docNode
-                  .getUserDefinedContent()
-                  .getAvroSchema()
-                  .getType().equals(Schema.Type.MAP) ) {
+            if ( isMap(stackEntry.docNode) ) {
 
               mostRecentlyLeftMap =
                   new AvroPathNode(
@@ -963,11 +1038,7 @@ final class AvroSchemaApplier {
             }
 
             mostRecentlyLeftMap = null;
-            if (stackEntry
-                  .docNode
-                  .getUserDefinedContent()
-                  .getAvroSchema()
-                  .getType().equals(Schema.Type.MAP) ) {
+            if ( isMap(stackEntry.docNode) ) {
 
               mostRecentlyLeftMap =
                   new AvroPathNode(
@@ -997,6 +1068,11 @@ final class AvroSchemaApplier {
       path = path.getNext();
     }
 
+    // A map cluster may be the last thing in the document.
+    if (mostRecentlyLeftMap != null) {
+      addEndNode(occurrencesByName, mostRecentlyLeftMap);
+    }
+
     /* Will be 1 if the root is an element,
      * and 0 if the root is a substitution group.
      */
@@ -1020,6 +1096,15 @@ final class AvroSchemaApplier {
     }
   }
 
+  /* Elements without Avro record information are not in the Avro schema,
+   * and are skipped by the writer, so they are never the end of a map.
+   */
+  private static boolean isMap(XmlSchemaDocumentNode<AvroRecordInfo> docNode) {
+    final AvroRecordInfo record = docNode.getUserDefinedContent();
+    return (record != null)
+        && record.getAvroSchema().getType().equals(Schema.Type.MAP);
+  }
+
   private static void addEndNode(
       Map<QName, List<List<AvroPathNode>>> occurrencesByName,
       AvroPathNode mostRecentlyLeftMap) {
@@ -1126,6 +1211,11 @@ final class AvroSchemaApplier {
           final AvroRecordInfo recordInfo =
               entry.docNode.getUserDefinedContent();
 
+          if (recordInfo == null) {
+            // The element is not in the Avro schema, and will be skipped.
+            break;
+          }
+
           Schema schema = recordInfo.getAvroSchema();
           if (schema.getType().equals(Schema.Type.MAP)) {
             schema = schema.getValueType();
@@ -1151,18 +1241,9 @@ final class AvroSchemaApplier {
                      .getElementType()
                      .getType()
                      .equals(Schema.Type.UNION)) {
-              final List<Schema> unionTypes =
-                  schema.getElementType().getTypes();
-
-              for (unionIdx = 0; unionIdx < unionTypes.size(); ++unionIdx) {
-                if (unionTypes
-                      .get(unionIdx)
-                      .getType()
-                      .equals(Schema.Type.STRING)) {
-                  break;
-                }
-              }
-              if (unionIdx == unionTypes.size()) {
+              unionIdx =
+                  findStringIndex( schema.getElementType().getTypes() );
+              if (unionIdx < 0) {
                 throw new IllegalStateException(
                     "Element "
                     + elem.getQName()
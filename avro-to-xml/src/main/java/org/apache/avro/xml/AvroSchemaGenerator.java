@@ -22,11 +22,13 @@ import java.io.File;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.namespace.QName;
 
@@ -62,6 +64,8 @@ final class AvroSchemaGenerator implements XmlSchemaVisitor {
   private final List<URL> schemaUrls;
   private final List<File> schemaFiles;
   private final String baseUri;
+  private final XmlDatumConfig pruning;
+  private final Set<QName> excludedElements;
 
   private final ArrayList<StackEntry> stack;
   private final Map<QName, Schema> schemasByElement;
@@ -105,9 +109,34 @@ final class AvroSchemaGenerator implements XmlSchemaVisitor {
       List<URL> schemaUrls,
       List<File> schemaFiles) {
 
+    this(baseUri, schemaUrls, schemaFiles, null, Collections.<QName>emptySet());
+  }
+
+  /**
+   * Creates a generator that leaves the excluded elements, and the
+   * attributes the {@link XmlDatumConfig} excludes, out of the schema.
+   */
+  AvroSchemaGenerator(XmlDatumConfig config, Set<QName> excludedElements) {
+    this(
+        config.getBaseUri(),
+        config.getSchemaUrls(),
+        config.getSchemaFiles(),
+        config,
+        excludedElements);
+  }
+
+  private AvroSchemaGenerator(
+      String baseUri,
+      List<URL> schemaUrls,
+      List<File> schemaFiles,
+      XmlDatumConfig pruning,
+      Set<QName> excludedElements) {
+
     this.baseUri = baseUri;
     this.schemaUrls = schemaUrls;
     this.schemaFiles = schemaFiles;
+    this.pruning = pruning;
+    this.excludedElements = excludedElements;
 
     root = null;
     stack = new ArrayList<StackEntry>();
@@ -176,7 +205,9 @@ final class AvroSchemaGenerator implements XmlSchemaVisitor {
               + "\" was previously visited, but has no schema.");
         }
 
-        addSchemaToParent(schema);
+        if ( !excludedElements.contains(elemQName) ) {
+          addSchemaToParent(schema);
+        }
       }
 
       return;
@@ -448,6 +479,11 @@ final class AvroSchemaGenerator implements XmlSchemaVisitor {
     final QName elemQName = element.getQName();
     final QName attrQName = attribute.getQName();
 
+    if ((pruning != null) && pruning.isAttributeExcluded(elemQName, attrQName)) {
+      // The writer only writes the attributes in the record.
+      return;
+    }
+
     final String documentation =
         getDocumentationFor( attribute.getAnnotation() );
 
@@ -530,16 +566,18 @@ final class AvroSchemaGenerator implements XmlSchemaVisitor {
         substitutionSchemas = new ArrayList<Schema>();
         substitutionGroups.put(substGrp.elementQName, substitutionSchemas);
       }
-      substitutionSchemas.add(record);
+      if ( !excludedElements.contains(elemQName) ) {
+        substitutionSchemas.add(record);
+      }
 
     } else if ( stack.isEmpty() ) {
       // This is the root element!
       root = record;
       addXmlSchemasListToRoot( element.getQName() );
 
-    } else {
-      /* This is not part of a substitution group,
-       * and not the root.  Add it to its parent.
+    } else if ( !excludedElements.contains(elemQName) ) {
+      /* This is not part of a substitution group, not the
+       * root, and not excluded.  Add it to its parent.
        */
       addSchemaToParent(record);
     }
@@ -763,6 +801,11 @@ final class AvroSchemaGenerator implements XmlSchemaVisitor {
       schemasNode.put("baseUri", baseUri);
     }
 
+    // Documents missing parts of the XML Schema cannot be validated by it.
+    if ((pruning != null) && pruning.isPruned()) {
+      schemasNode.put("pruned", true);
+    }
+
     final ObjectNode rootTagNode = JsonNodeFactory.instance.objectNode();
     rootTagNode.put("namespace", rootTagQName.getNamespaceURI());
     rootTagNode.put("localPart", rootTagQName.getLocalPart());
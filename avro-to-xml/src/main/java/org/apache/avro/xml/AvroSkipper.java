@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.Decoder;
+
+/**
+ * Skips over a datum of an Avro {@link Schema} in a {@link Decoder} without
+ * building anything from it.  The schema is walked once, when the skipper
+ * is compiled, so skipping does no more than the decoder's own skip calls:
+ * strings and bytes are skipped by length, and arrays and maps written with
+ * block sizes are skipped a block at a time.
+ */
+abstract class AvroSkipper {
+
+  abstract void skip(Decoder in) throws IOException;
+
+  /**
+   * Compiles a skipper for the schema.  Skippers for the schemas nested
+   * in it are shared through <code>compiled</code>, which also lets
+   * recursive schemas refer back to the skipper being compiled.
+   */
+  static AvroSkipper compile(
+      Schema schema,
+      Map<Schema, AvroSkipper> compiled) {
+
+    final AvroSkipper existing = compiled.get(schema);
+    if (existing != null) {
+      return existing;
+    }
+
+    switch ( schema.getType() ) {
+    case RECORD:
+      {
+        final RecordSkipper skipper = new RecordSkipper();
+        compiled.put(schema, skipper);
+
+        final List<Schema.Field> fields = schema.getFields();
+        final AvroSkipper[] fieldSkippers = new AvroSkipper[fields.size()];
+        for (int index = 0; index < fieldSkippers.length; ++index) {
+          fieldSkippers[index] =
+              compile(fields.get(index).schema(), compiled);
+        }
+        skipper.fields = fieldSkippers;
+        return skipper;
+      }
+    case UNION:
+      {
+        final UnionSkipper skipper = new UnionSkipper();
+        compiled.put(schema, skipper);
+
+        final List<Schema> types = schema.getTypes();
+        final AvroSkipper[] branches = new AvroSkipper[types.size()];
+        for (int index = 0; index < branches.length; ++index) {
+          branches[index] = compile(types.get(index), compiled);
+        }
+        skipper.branches = branches;
+        return skipper;
+      }
+    case ARRAY:
+      {
+        final ArraySkipper skipper = new ArraySkipper();
+        compiled.put(schema, skipper);
+        skipper.items = compile(schema.getElementType(), compiled);
+        return skipper;
+      }
+    case MAP:
+      {
+        final MapSkipper skipper = new MapSkipper();
+        compiled.put(schema, skipper);
+        skipper.values = compile(schema.getValueType(), compiled);
+        return skipper;
+      }
+    case FIXED:
+      {
+        final AvroSkipper skipper = new FixedSkipper( schema.getFixedSize() );
+        compiled.put(schema, skipper);
+        return skipper;
+      }
+    default:
+      {
+        final AvroSkipper skipper = new PrimitiveSkipper( schema.getType() );
+        compiled.put(schema, skipper);
+        return skipper;
+      }
+    }
+  }
+
+  static AvroSkipper compile(Schema schema) {
+    return compile(schema, new IdentityHashMap<Schema, AvroSkipper>());
+  }
+
+  private static final class RecordSkipper extends AvroSkipper {
+    AvroSkipper[] fields;
+
+    @Override
+    void skip(Decoder in) throws IOException {
+      for (AvroSkipper field : fields) {
+        field.skip(in);
+      }
+    }
+  }
+
+  private static final class UnionSkipper extends AvroSkipper {
+    AvroSkipper[] branches;
+
+    @Override
+    void skip(Decoder in) throws IOException {
+      branches[ in.readIndex() ].skip(in);
+    }
+  }
+
+  /* Decoder.skipArray() skips whole blocks when their sizes in bytes
+   * were written, and otherwise returns the number of items to skip.
+   */
+  private static final class ArraySkipper extends AvroSkipper {
+    AvroSkipper items;
+
+    @Override
+    void skip(Decoder in) throws IOException {
+      for (long blockSize = in.skipArray();
+           blockSize != 0;
+           blockSize = in.skipArray()) {
+        for (long index = 0; index < blockSize; ++index) {
+          items.skip(in);
+        }
+      }
+    }
+  }
+
+  private static final class MapSkipper extends AvroSkipper {
+    AvroSkipper values;
+
+    @Override
+    void skip(Decoder in) throws IOException {
+      for (long blockSize = in.skipMap();
+           blockSize != 0;
+           blockSize = in.skipMap()) {
+        for (long index = 0; index < blockSize; ++index) {
+          in.skipString();
+          values.skip(in);
+        }
+      }
+    }
+  }
+
+  private static final class FixedSkipper extends AvroSkipper {
+    private final int size;
+
+    FixedSkipper(int size) {
+      this.size = size;
+    }
+
+    @Override
+    void skip(Decoder in) throws IOException {
+      in.skipFixed(size);
+    }
+  }
+
+  private static final class PrimitiveSkipper extends AvroSkipper {
+    private final Schema.Type type;
+
+    PrimitiveSkipper(Schema.Type type) {
+      this.type = type;
+    }
+
+    @Override
+    void skip(Decoder in) throws IOException {
+      switch (type) {
+      case NULL:
+        in.readNull();
+        break;
+      case BOOLEAN:
+        in.readBoolean();
+        break;
+      case INT:
+        in.readInt();
+        break;
+      case LONG:
+        in.readLong();
+        break;
+      case FLOAT:
+        in.readFloat();
+        break;
+      case DOUBLE:
+        in.readDouble();
+        break;
+      case STRING:
+        in.skipString();
+        break;
+      case BYTES:
+        in.skipBytes();
+        break;
+      case ENUM:
+        in.readEnum();
+        break;
+      default:
+        throw new IllegalStateException("Cannot skip a " + type);
+      }
+    }
+  }
+}
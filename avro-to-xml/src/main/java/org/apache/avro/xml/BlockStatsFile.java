@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Reads and writes the JSON file of {@link XmlDatumBlockStats} kept beside
+ * an Avro data file, named after it with {@link #SUFFIX} added.  It looks
+ * like this, with the statistics of each block in the same order as the
+ * fields, and numbers written exactly:
+ *
+ * <pre>
+ * {"fields": ["{ns}element", "{ns}element/@attribute"],
+ *  "blocks": [
+ *    {"position": 120, "datums": 40,
+ *     "stats": [{"count": 38, "nulls": 2, "min": 1, "max": 9,
+ *                "distinct": [1, 4, 9], "complete": true}, ...]},
+ *    ...]}
+ * </pre>
+ */
+final class BlockStatsFile {
+
+  static final String SUFFIX = ".stats";
+
+  private BlockStatsFile() {
+  }
+
+  static File getStatsFile(File avroFile) {
+    return new File(avroFile.getPath() + SUFFIX);
+  }
+
+  static void write(
+      File statsFile,
+      List<XmlDatumField> fields,
+      List<XmlDatumBlockStats> blocks) throws IOException {
+
+    final JsonGenerator json =
+        new JsonFactory().createJsonGenerator(statsFile, JsonEncoding.UTF8);
+    try {
+      json.writeStartObject();
+
+      json.writeArrayFieldStart("fields");
+      for (XmlDatumField field : fields) {
+        json.writeString( field.toString() );
+      }
+      json.writeEndArray();
+
+      json.writeArrayFieldStart("blocks");
+      for (XmlDatumBlockStats block : blocks) {
+        json.writeStartObject();
+        json.writeNumberField("position", block.getPosition());
+        json.writeNumberField("datums", block.getDatumCount());
+
+        json.writeArrayFieldStart("stats");
+        for (XmlDatumField field : fields) {
+          final XmlDatumValueStats stats = block.getStats(field);
+          json.writeStartObject();
+          json.writeNumberField("count", stats.getCount());
+          json.writeNumberField("nulls", stats.getNullCount());
+          if (stats.getMin() != null) {
+            json.writeFieldName("min");
+            writeValue(json, stats.getMin());
+            json.writeFieldName("max");
+            writeValue(json, stats.getMax());
+          }
+          json.writeArrayFieldStart("distinct");
+          for (Object value : stats.getDistinctValues()) {
+            writeValue(json, value);
+          }
+          json.writeEndArray();
+          json.writeBooleanField("complete", stats.isSampleComplete());
+          json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+
+      json.writeEndObject();
+    } finally {
+      json.close();
+    }
+  }
+
+  private static void writeValue(JsonGenerator json, Object value)
+      throws IOException {
+
+    if (value instanceof BigDecimal) {
+      json.writeNumber( (BigDecimal) value );
+    } else if (value instanceof Boolean) {
+      json.writeBoolean( (Boolean) value );
+    } else {
+      json.writeString( value.toString() );
+    }
+  }
+
+  /**
+   * Reads the statistics of each block, in the order they were written.
+   */
+  static List<XmlDatumBlockStats> read(File statsFile) throws IOException {
+    final ObjectMapper mapper = new ObjectMapper();
+    mapper.configure(
+        DeserializationConfig.Feature.USE_BIG_DECIMAL_FOR_FLOATS,
+        true);
+
+    final JsonNode root = mapper.readTree(statsFile);
+    final JsonNode fieldsNode = root.get("fields");
+    final JsonNode blocksNode = root.get("blocks");
+    if ((fieldsNode == null) || (blocksNode == null)) {
+      throw new IOException(statsFile + " is not a block statistics file.");
+    }
+
+    final List<XmlDatumField> fields = new ArrayList<XmlDatumField>();
+    for (JsonNode fieldNode : fieldsNode) {
+      fields.add( XmlDatumField.valueOf( fieldNode.getTextValue() ) );
+    }
+
+    final List<XmlDatumBlockStats> blocks = new ArrayList<XmlDatumBlockStats>();
+    for (JsonNode blockNode : blocksNode) {
+      final JsonNode statsNode = blockNode.get("stats");
+      if ((statsNode == null) || (statsNode.size() != fields.size())) {
+        throw new IOException(
+            statsFile + " does not have statistics for all of the fields.");
+      }
+
+      final Map<XmlDatumField, XmlDatumValueStats> fieldStats =
+          new LinkedHashMap<XmlDatumField, XmlDatumValueStats>();
+      for (int index = 0; index < fields.size(); ++index) {
+        fieldStats.put(fields.get(index), readStats( statsNode.get(index) ));
+      }
+
+      blocks.add(
+          new XmlDatumBlockStats(
+              blockNode.get("position").getLongValue(),
+              blockNode.get("datums").getLongValue(),
+              fieldStats));
+    }
+    return Collections.unmodifiableList(blocks);
+  }
+
+  private static XmlDatumValueStats readStats(JsonNode statsNode) {
+    final SortedSet<Object> distinctValues =
+        new TreeSet<Object>(XmlDatumValueStats.VALUE_ORDER);
+    for (JsonNode valueNode : statsNode.get("distinct")) {
+      distinctValues.add( readValue(valueNode) );
+    }
+
+    return new XmlDatumValueStats(
+        statsNode.get("count").getLongValue(),
+        statsNode.get("nulls").getLongValue(),
+        readValue( statsNode.get("min") ),
+        readValue( statsNode.get("max") ),
+        distinctValues,
+        statsNode.get("complete").getBooleanValue());
+  }
+
+  private static Object readValue(JsonNode valueNode) {
+    if (valueNode == null) {
+      return null;
+    } else if ( valueNode.isNumber() ) {
+      return valueNode.getDecimalValue();
+    } else if ( valueNode.isBoolean() ) {
+      return valueNode.getBooleanValue();
+    }
+    return valueNode.getTextValue();
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
+
+/**
+ * An {@link OutputStream} that collects its bytes in pooled, off-heap
+ * chunks, and hands them to a {@link GatheringByteChannel} in a single
+ * scatter-gather write.
+ *
+ * <p>
+ * This lets encoded documents go from the encoder to a
+ * {@link java.nio.channels.FileChannel} without being copied through
+ * growing heap arrays.  Any number of documents may be written before
+ * calling {@link #writeTo(GatheringByteChannel)}, and the stream may be
+ * reused after {@link #reset()}.  The chunks are borrowed from a pool
+ * local to the thread, so a stream should be used and reset on the same
+ * thread, and reset or closed once it is no longer needed.
+ * </p>
+ *
+ * <p>
+ * To bound the off-heap memory held for very large documents, the
+ * stream can be given a channel to write its chunks to as they fill,
+ * with {@link #setFlushChannel(GatheringByteChannel, long)}.
+ * </p>
+ *
+ * <p>
+ * Only channels in blocking mode are supported.  A non-blocking channel
+ * may accept none of the bytes, and there is nothing to wait on here
+ * until it will.
+ * </p>
+ */
+public final class DirectBufferOutputStream extends OutputStream {
+
+  private final ArrayList<ByteBuffer> chunks;
+  private ByteBuffer currChunk;
+  private long size;
+
+  private GatheringByteChannel flushChannel;
+  private long flushThreshold;
+  private long flushed;
+
+  /**
+   * Creates an empty stream.  No chunks are taken
+   * from the pool until the first byte is written.
+   */
+  public DirectBufferOutputStream() {
+    chunks = new ArrayList<ByteBuffer>();
+    currChunk = null;
+    size = 0;
+    flushChannel = null;
+    flushThreshold = Long.MAX_VALUE;
+    flushed = 0;
+  }
+
+  /**
+   * The number of bytes written since the last {@link #reset()},
+   * including any already flushed to the flush channel.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * The number of bytes written to the flush channel
+   * since the last {@link #reset()}.
+   */
+  public long flushed() {
+    return flushed;
+  }
+
+  /**
+   * Writes the full chunks to the channel, and returns them to the pool,
+   * whenever at least <code>flushThreshold</code> bytes are held, so no
+   * more than about that many are ever held at once.  The rest are left
+   * for {@link #writeTo(GatheringByteChannel)}.  Lasts until the next
+   * {@link #reset()}.
+   *
+   * @throws IllegalArgumentException If the channel is not blocking.
+   */
+  public void setFlushChannel(
+      GatheringByteChannel channel,
+      long flushThreshold) {
+
+    if (channel == null) {
+      throw new IllegalArgumentException("The channel cannot be null.");
+    } else if (flushThreshold < 1) {
+      throw new IllegalArgumentException(
+          "Flush threshold must be positive, not " + flushThreshold);
+    }
+    checkBlocking(channel);
+
+    this.flushChannel = channel;
+    this.flushThreshold = flushThreshold;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if ((currChunk == null) || !currChunk.hasRemaining()) {
+      nextChunk();
+    }
+    currChunk.put((byte) b);
+    ++size;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if ((currChunk == null) || !currChunk.hasRemaining()) {
+        nextChunk();
+      }
+      final int numBytes = Math.min(len, currChunk.remaining());
+      currChunk.put(b, off, numBytes);
+      off += numBytes;
+      len -= numBytes;
+      size += numBytes;
+    }
+  }
+
+  /**
+   * Writes all of the bytes collected so far, other than those already
+   * flushed, to the channel, using as few gathering writes as the channel
+   * allows.  The bytes remain in this stream until {@link #reset()} is
+   * called.
+   *
+   * @return The number of bytes written.
+   * @throws IllegalArgumentException If the channel is not blocking.
+   */
+  public long writeTo(GatheringByteChannel channel) throws IOException {
+    checkBlocking(channel);
+    return writeChunks(channel, size - flushed);
+  }
+
+  /**
+   * Discards the bytes written, returning the chunks to the pool,
+   * and forgets the flush channel.
+   */
+  public void reset() {
+    releaseChunks();
+    currChunk = null;
+    size = 0;
+    flushChannel = null;
+    flushThreshold = Long.MAX_VALUE;
+    flushed = 0;
+  }
+
+  /**
+   * Equivalent to {@link #reset()}.
+   */
+  @Override
+  public void close() {
+    reset();
+  }
+
+  // Only called when the current chunk, and so every chunk, is full.
+  private void nextChunk() throws IOException {
+    if ((flushChannel != null) && (size - flushed >= flushThreshold)) {
+      flushed += writeChunks(flushChannel, size - flushed);
+      releaseChunks();
+    }
+    currChunk = DirectBufferPool.acquire();
+    chunks.add(currChunk);
+  }
+
+  private long writeChunks(GatheringByteChannel channel, long numBytes)
+      throws IOException {
+
+    final ByteBuffer[] views = new ByteBuffer[chunks.size()];
+    for (int index = 0; index < views.length; ++index) {
+      final ByteBuffer view = chunks.get(index).duplicate();
+      view.flip();
+      views[index] = view;
+    }
+
+    long written = 0;
+    int first = 0;
+    while (written < numBytes) {
+      written += channel.write(views, first, views.length - first);
+      while ((first < views.length) && !views[first].hasRemaining()) {
+        ++first;
+      }
+    }
+    return written;
+  }
+
+  private void releaseChunks() {
+    for (ByteBuffer chunk : chunks) {
+      DirectBufferPool.release(chunk);
+    }
+    chunks.clear();
+  }
+
+  private static void checkBlocking(GatheringByteChannel channel) {
+    if ((channel instanceof SelectableChannel)
+        && !((SelectableChannel) channel).isBlocking()) {
+      throw new IllegalArgumentException(
+          "Only blocking channels are supported.");
+    }
+  }
+}
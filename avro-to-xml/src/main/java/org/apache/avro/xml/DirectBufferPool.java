@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of fixed-size direct {@link ByteBuffer}s, kept in one arena
+ * per thread so that acquiring and releasing a chunk never contends.
+ *
+ * <p>
+ * Direct buffers are expensive to allocate and are only freed when the
+ * garbage collector gets to them, so reusing them is what makes them
+ * worth using.  Each arena holds on to at most {@link #MAX_POOLED_CHUNKS}
+ * idle chunks; any more are left for the garbage collector.
+ * </p>
+ */
+final class DirectBufferPool {
+
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  static final int MAX_POOLED_CHUNKS = 256;
+
+  private static final ThreadLocal<ArrayDeque<ByteBuffer>> ARENAS =
+      new ThreadLocal<ArrayDeque<ByteBuffer>>() {
+        @Override
+        protected ArrayDeque<ByteBuffer> initialValue() {
+          return new ArrayDeque<ByteBuffer>();
+        }
+      };
+
+  private DirectBufferPool() {
+  }
+
+  /**
+   * Returns an empty chunk of {@link #CHUNK_SIZE} bytes, ready for writing.
+   */
+  static ByteBuffer acquire() {
+    final ByteBuffer chunk = ARENAS.get().pollLast();
+    if (chunk == null) {
+      return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+    chunk.clear();
+    return chunk;
+  }
+
+  /**
+   * Returns a chunk to the calling thread's arena.  The chunk
+   * must not be used by the caller after it is released.
+   */
+  static void release(ByteBuffer chunk) {
+    final ArrayDeque<ByteBuffer> arena = ARENAS.get();
+    if (arena.size() < MAX_POOLED_CHUNKS) {
+      arena.addLast(chunk);
+    }
+  }
+}
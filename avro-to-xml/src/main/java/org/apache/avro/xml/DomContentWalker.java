@@ -0,0 +1,421 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Walks a DOM {@link Node} tree and reports it to a single
+ * {@link ContentHandler}, reading element names, attributes, and text
+ * straight from the nodes.
+ *
+ * <p>
+ * This produces the same events as
+ * {@link org.apache.ws.commons.schema.docpath.SaxWalkerOverDom}, but
+ * without building a new {@link Attributes} copy of every element's
+ * attributes, or a new character array for every text node.  Instead,
+ * one {@link Attributes} view over the current element's
+ * {@link NamedNodeMap}, and one character buffer, are reused for the
+ * whole walk.  As SAX requires, neither may be held on to by the
+ * {@link ContentHandler} past the callback it was passed to.
+ * </p>
+ *
+ * <p>
+ * Comments and processing instructions are skipped.  A walker may be
+ * used for any number of walks, but only by one thread at a time.
+ * </p>
+ */
+final class DomContentWalker {
+
+  private static final String XMLNS_NS_URI = "http://www.w3.org/2000/xmlns/";
+
+  private final ContentHandler handler;
+  private final NodeAttributes attributes;
+  private char[] chars;
+
+  DomContentWalker(ContentHandler handler) {
+    this.handler = handler;
+    this.attributes = new NodeAttributes();
+    this.chars = new char[256];
+  }
+
+  /**
+   * Walks the {@link Document}, or the subtree starting at
+   * the {@link Element}, reporting it as a full document.
+   */
+  void walk(Node node) throws SAXException {
+    if (node instanceof Document) {
+      handler.startDocument();
+      final Element docElem = ((Document) node).getDocumentElement();
+      if (docElem != null) {
+        walkElement(docElem, null);
+      }
+      handler.endDocument();
+
+    } else if (node instanceof Element) {
+      walk((Element) node, null);
+
+    } else {
+      throw new IllegalArgumentException(
+          "Only a Document or an Element can be walked, not a "
+          + node.getClass().getName());
+    }
+  }
+
+  /**
+   * Walks the subtree starting at the {@link Element} as if it were a
+   * document of its own, without copying it out of its owner document.
+   *
+   * <p>
+   * The namespaces declared by the element's ancestors are reported as
+   * prefix mappings around the subtree, so prefixes in attribute values
+   * and text still resolve.  If <code>rootName</code> is not
+   * <code>null</code>, the subtree's root element is reported with that
+   * namespace and local name instead of its own.
+   * </p>
+   */
+  void walk(Element element, QName rootName) throws SAXException {
+    final List<String> inherited = getInheritedPrefixes(element);
+
+    handler.startDocument();
+    for (int index = 0; index < inherited.size(); index += 2) {
+      handler.startPrefixMapping(
+          inherited.get(index),
+          inherited.get(index + 1));
+    }
+
+    walkElement(element, rootName);
+
+    for (int index = inherited.size() - 2; index >= 0; index -= 2) {
+      handler.endPrefixMapping( inherited.get(index) );
+    }
+    handler.endDocument();
+  }
+
+  /* Returns the prefixes and namespace URIs, in pairs, in scope at the
+   * element's parent.  Where a prefix is declared more than once, the
+   * declaration closest to the element wins.
+   */
+  static List<String> getInheritedPrefixes(Element element) {
+    final List<String> inherited = new ArrayList<String>();
+    final Set<String> seen = new HashSet<String>();
+
+    for (Node ancestor = element.getParentNode();
+        ancestor instanceof Element;
+        ancestor = ancestor.getParentNode()) {
+
+      final NamedNodeMap attrs = ancestor.getAttributes();
+      final int numAttrs = attrs.getLength();
+      for (int index = 0; index < numAttrs; ++index) {
+        final Node attr = attrs.item(index);
+        if (isNamespaceDecl(attr) && seen.add( getDeclaredPrefix(attr) )) {
+          inherited.add( getDeclaredPrefix(attr) );
+          inherited.add( nullToEmpty( attr.getNodeValue() ) );
+        }
+      }
+    }
+    return inherited;
+  }
+
+  private void walkElement(Element element, QName name)
+      throws SAXException {
+
+    final NamedNodeMap attrs = element.getAttributes();
+
+    String uri = null;
+    String localName = null;
+    if (name == null) {
+      uri = nullToEmpty( element.getNamespaceURI() );
+      localName = nullToEmpty( element.getLocalName() );
+    } else {
+      uri = name.getNamespaceURI();
+      localName = name.getLocalPart();
+    }
+    final String qName = nullToEmpty( element.getNodeName() );
+
+    startPrefixMappings(attrs, handler);
+
+    attributes.setAttributes(attrs);
+    handler.startElement(uri, localName, qName, attributes);
+    attributes.setAttributes(null);
+
+    walkChildren(element);
+
+    handler.endElement(uri, localName, qName);
+
+    endPrefixMappings(attrs, handler);
+  }
+
+  private void walkChildren(Node parent) throws SAXException {
+    for (Node child = parent.getFirstChild();
+        child != null;
+        child = child.getNextSibling()) {
+
+      switch ( child.getNodeType() ) {
+      case Node.ELEMENT_NODE:
+        walkElement((Element) child, null);
+        break;
+      case Node.TEXT_NODE:
+      case Node.CDATA_SECTION_NODE:
+        characters((Text) child);
+        break;
+      case Node.ENTITY_REFERENCE_NODE:
+        walkChildren(child);
+        break;
+      default:
+        // Comments and processing instructions carry no content.
+      }
+    }
+  }
+
+  private void characters(Text text) throws SAXException {
+    final String data = text.getData();
+    final int length = data.length();
+    if (length == 0) {
+      return;
+    }
+    if (chars.length < length) {
+      chars = new char[Math.max(length, 2 * chars.length)];
+    }
+    data.getChars(0, length, chars, 0);
+    handler.characters(chars, 0, length);
+  }
+
+  /**
+   * Reports the namespaces declared by the attributes of an element as
+   * prefix mappings, as a namespace-aware parser would before the element.
+   */
+  static void startPrefixMappings(NamedNodeMap attrs, ContentHandler handler)
+      throws SAXException {
+
+    final int numAttrs = attrs.getLength();
+    for (int index = 0; index < numAttrs; ++index) {
+      final Node attr = attrs.item(index);
+      if ( isNamespaceDecl(attr) ) {
+        handler.startPrefixMapping(
+            getDeclaredPrefix(attr),
+            nullToEmpty( attr.getNodeValue() ));
+      }
+    }
+  }
+
+  /**
+   * Ends the prefix mappings started by
+   * {@link #startPrefixMappings(NamedNodeMap, ContentHandler)}.
+   */
+  static void endPrefixMappings(NamedNodeMap attrs, ContentHandler handler)
+      throws SAXException {
+
+    final int numAttrs = attrs.getLength();
+    for (int index = 0; index < numAttrs; ++index) {
+      final Node attr = attrs.item(index);
+      if ( isNamespaceDecl(attr) ) {
+        handler.endPrefixMapping( getDeclaredPrefix(attr) );
+      }
+    }
+  }
+
+  /**
+   * The namespace and local name of an element, as it is reported.
+   * Elements created without a namespace are named by their node name.
+   */
+  static QName getQName(Node element) {
+    final String localName = element.getLocalName();
+    return new QName(
+        nullToEmpty( element.getNamespaceURI() ),
+        (localName == null) ? element.getNodeName() : localName);
+  }
+
+  /**
+   * Appends the text of the node and its siblings to <code>text</code>,
+   * reading through entity references as the walk does.  Comments,
+   * processing instructions, and elements with the text inside of them
+   * are left out.
+   */
+  static void appendText(Node firstChild, StringBuilder text) {
+    for (Node child = firstChild;
+        child != null;
+        child = child.getNextSibling()) {
+
+      switch ( child.getNodeType() ) {
+      case Node.TEXT_NODE:
+      case Node.CDATA_SECTION_NODE:
+        text.append( ((Text) child).getData() );
+        break;
+      case Node.ENTITY_REFERENCE_NODE:
+        appendText(child.getFirstChild(), text);
+        break;
+      default:
+        // Comments and processing instructions carry no content.
+      }
+    }
+  }
+
+  static boolean isNamespaceDecl(Node attr) {
+    return XMLNS_NS_URI.equals( attr.getNamespaceURI() );
+  }
+
+  // xmlns="..." declares the default namespace; xmlns:p="..." declares p.
+  static String getDeclaredPrefix(Node attr) {
+    final String localName = attr.getLocalName();
+    if ((localName == null) || localName.equals("xmlns")) {
+      return "";
+    }
+    return localName;
+  }
+
+  private static String nullToEmpty(String str) {
+    return (str == null) ? "" : str;
+  }
+
+  /**
+   * An {@link Attributes} view over the non-namespace-declaration
+   * attributes in a {@link NamedNodeMap}.  Only the attributes' indices
+   * are copied; names and values are read from the nodes when asked for.
+   */
+  static final class NodeAttributes implements Attributes {
+    private NamedNodeMap attrs;
+    private int[] indices;
+    private int length;
+
+    NodeAttributes() {
+      indices = new int[8];
+      length = 0;
+    }
+
+    void setAttributes(NamedNodeMap attrs) {
+      this.attrs = attrs;
+      this.length = 0;
+
+      if (attrs == null) {
+        return;
+      }
+
+      final int numAttrs = attrs.getLength();
+      if (indices.length < numAttrs) {
+        indices = new int[numAttrs];
+      }
+      for (int index = 0; index < numAttrs; ++index) {
+        if ( !isNamespaceDecl( attrs.item(index) ) ) {
+          indices[length++] = index;
+        }
+      }
+    }
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public String getURI(int index) {
+      final Node attr = item(index);
+      return (attr == null) ? null : nullToEmpty( attr.getNamespaceURI() );
+    }
+
+    @Override
+    public String getLocalName(int index) {
+      final Node attr = item(index);
+      if (attr == null) {
+        return null;
+      }
+      final String localName = attr.getLocalName();
+      return (localName == null) ? attr.getNodeName() : localName;
+    }
+
+    @Override
+    public String getQName(int index) {
+      final Node attr = item(index);
+      return (attr == null) ? null : attr.getNodeName();
+    }
+
+    @Override
+    public String getType(int index) {
+      return (item(index) == null) ? null : "CDATA";
+    }
+
+    @Override
+    public String getValue(int index) {
+      final Node attr = item(index);
+      return (attr == null) ? null : attr.getNodeValue();
+    }
+
+    @Override
+    public int getIndex(String uri, String localName) {
+      for (int index = 0; index < length; ++index) {
+        if (nullToEmpty(uri).equals( getURI(index) )
+            && localName.equals( getLocalName(index) )) {
+          return index;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public int getIndex(String qName) {
+      for (int index = 0; index < length; ++index) {
+        if ( qName.equals( getQName(index) ) ) {
+          return index;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public String getType(String uri, String localName) {
+      return getType( getIndex(uri, localName) );
+    }
+
+    @Override
+    public String getType(String qName) {
+      return getType( getIndex(qName) );
+    }
+
+    @Override
+    public String getValue(String uri, String localName) {
+      return getValue( getIndex(uri, localName) );
+    }
+
+    @Override
+    public String getValue(String qName) {
+      return getValue( getIndex(qName) );
+    }
+
+    private Node item(int index) {
+      if ((index < 0) || (index >= length)) {
+        return null;
+      }
+      return attrs.item( indices[index] );
+    }
+  }
+}
@@ -0,0 +1,419 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Scans the raw bytes of an XML document, without parsing it, for the
+ * start tags of the root element's children with a particular
+ * {@link QName}.  The document can then be cut into chunks at those
+ * tags, and each chunk parsed on its own inside a copy of the root.
+ *
+ * <p>
+ * Only enough of the markup is understood to track the depth of each
+ * tag: comments, CDATA sections, processing instructions, and quoted
+ * attribute values are skipped over.  Documents with a DOCTYPE, which
+ * may declare entities the chunks could not resolve on their own, or in
+ * an encoding that is not a superset of ASCII, are not scanned.
+ * </p>
+ */
+final class ElementBoundaryScanner {
+
+  private static final String XMLNS = "xmlns";
+
+  /**
+   * Where the root element starts and ends, and where the document
+   * may be cut before the children being looked for.
+   */
+  static final class Result {
+    long rootStartTagEnd;
+    long rootEndTagStart;
+
+    // Offsets of the '<' of the chosen start tags, in document order.
+    long[] boundaries = new long[16];
+
+    /* Whether the sibling just before each boundary
+     * has the same QName as the one after it.
+     */
+    boolean[] followsSameQName = new boolean[16];
+
+    int numBoundaries = 0;
+
+    void add(long boundary, boolean sameQName) {
+      if (numBoundaries == boundaries.length) {
+        final long[] newBoundaries = new long[2 * boundaries.length];
+        System.arraycopy(boundaries, 0, newBoundaries, 0, numBoundaries);
+        boundaries = newBoundaries;
+
+        final boolean[] newSame = new boolean[2 * followsSameQName.length];
+        System.arraycopy(followsSameQName, 0, newSame, 0, numBoundaries);
+        followsSameQName = newSame;
+      }
+      boundaries[numBoundaries] = boundary;
+      followsSameQName[numBoundaries] = sameQName;
+      ++numBoundaries;
+    }
+  }
+
+  private final InputStream in;
+  private final byte[] buffer;
+  private int bufferPos;
+  private int bufferLen;
+  private long position;
+
+  private Charset charset;
+  private final Map<String, String> rootNamespaces;
+  private final ByteArrayOutputStream token;
+
+  private ElementBoundaryScanner(InputStream in) {
+    this.in = in;
+    this.buffer = new byte[64 * 1024];
+    this.bufferPos = 0;
+    this.bufferLen = 0;
+    this.position = 0;
+    this.charset = Charset.forName("UTF-8");
+    this.rootNamespaces = new HashMap<String, String>();
+    this.token = new ByteArrayOutputStream();
+  }
+
+  /**
+   * Scans the input for the start tags of children of the root element
+   * named <code>elemQName</code>.  A boundary is only kept if it is at
+   * least <code>minChunkSize</code> bytes after the previous one, so the
+   * chunks between them are not too small to be worth parsing separately.
+   *
+   * @return The boundaries found, or <code>null</code> if the
+   *         document cannot be scanned or its root element is empty.
+   */
+  static Result scan(
+      MappedFileInput input,
+      QName elemQName,
+      long minChunkSize) throws IOException {
+
+    return new ElementBoundaryScanner( input.openStream() ).scan(
+        elemQName,
+        minChunkSize);
+  }
+
+  private Result scan(QName elemQName, long minChunkSize)
+      throws IOException {
+
+    if ( !readByteOrderMark() ) {
+      return null;
+    }
+
+    final Result result = new Result();
+
+    int depth = 0;
+    long lastBoundary = 0;
+    boolean prevSiblingMatched = false;
+
+    int next = 0;
+    while ((next = read()) >= 0) {
+      if (next != '<') {
+        continue;
+      }
+      final long tagStart = position - 1;
+
+      next = read();
+      if (next == '?') {
+        final String instruction = skipPast('?', '>', true);
+        if (instruction.startsWith("xml ") && !readDeclaration(instruction)) {
+          return null;
+        }
+
+      } else if (next == '!') {
+        next = read();
+        if (next == '-') {
+          skipPast('-', '-', '>');
+        } else if (next == '[') {
+          skipPast(']', ']', '>');
+        } else {
+          // A DOCTYPE, which may declare entities the chunks cannot see.
+          return null;
+        }
+
+      } else if (next == '/') {
+        skipPast('>');
+        if (--depth == 0) {
+          result.rootEndTagStart = tagStart;
+          break;
+        }
+        if (depth < 0) {
+          throw new IOException("Unbalanced end tag at byte " + tagStart);
+        }
+
+      } else if (next >= 0) {
+        final Map<String, String> namespaces =
+            (depth <= 1) ? new HashMap<String, String>() : null;
+
+        final String name = readName(next);
+        final boolean isEmpty = readAttributes(namespaces);
+
+        if (depth == 0) {
+          if (isEmpty) {
+            // An empty root has no children to cut the document between.
+            return null;
+          }
+          rootNamespaces.putAll(namespaces);
+          result.rootStartTagEnd = position;
+
+        } else if (depth == 1) {
+          final boolean matches = elemQName.equals( resolve(name, namespaces) );
+
+          if (matches
+              && (result.numBoundaries == 0
+                  ? (tagStart - result.rootStartTagEnd >= minChunkSize)
+                  : (tagStart - lastBoundary >= minChunkSize))) {
+            result.add(tagStart, prevSiblingMatched);
+            lastBoundary = tagStart;
+          }
+          prevSiblingMatched = matches;
+        }
+
+        if (!isEmpty) {
+          ++depth;
+        }
+      }
+    }
+
+    if (result.rootEndTagStart == 0) {
+      throw new IOException("The document ended before its root element.");
+    }
+    return result;
+  }
+
+  // Only UTF-8, with or without a byte order mark, is scanned.
+  private boolean readByteOrderMark() throws IOException {
+    final int first = peek();
+    if ((first == 0xFE) || (first == 0xFF) || (first == 0)) {
+      return false;
+    }
+    if (first == 0xEF) {
+      read();
+      return (read() == 0xBB) && (read() == 0xBF);
+    }
+    return true;
+  }
+
+  private boolean readDeclaration(String declaration) {
+    final int encodingAt = declaration.indexOf("encoding");
+    if (encodingAt < 0) {
+      return true;
+    }
+    int quote = encodingAt + "encoding".length();
+    while ((quote < declaration.length())
+        && (declaration.charAt(quote) != '"')
+        && (declaration.charAt(quote) != '\'')) {
+      ++quote;
+    }
+
+    /* A value without its quotes is left for the parser to report,
+     * when the file is written sequentially.
+     */
+    if (quote == declaration.length()) {
+      return false;
+    }
+    final int end = declaration.indexOf(declaration.charAt(quote), quote + 1);
+    if (end < 0) {
+      return false;
+    }
+    final String encoding = declaration.substring(quote + 1, end).trim();
+
+    if (encoding.equalsIgnoreCase("UTF-8")
+        || encoding.equalsIgnoreCase("UTF8")
+        || encoding.equalsIgnoreCase("US-ASCII")
+        || encoding.equalsIgnoreCase("ASCII")) {
+      return true;
+
+    } else if (encoding.equalsIgnoreCase("ISO-8859-1")
+        || encoding.equalsIgnoreCase("Latin1")) {
+      charset = Charset.forName("ISO-8859-1");
+      return true;
+    }
+    return false;
+  }
+
+  private QName resolve(String name, Map<String, String> namespaces) {
+    final int colon = name.indexOf(':');
+    final String prefix = (colon < 0) ? "" : name.substring(0, colon);
+    final String localName = (colon < 0) ? name : name.substring(colon + 1);
+
+    String namespace = namespaces.get(prefix);
+    if (namespace == null) {
+      namespace = rootNamespaces.get(prefix);
+    }
+    return new QName((namespace == null) ? "" : namespace, localName);
+  }
+
+  private String readName(int first) throws IOException {
+    token.reset();
+    int next = first;
+    while ((next >= 0)
+        && (next != '>')
+        && (next != '/')
+        && !isWhitespace(next)) {
+      token.write(next);
+      next = read();
+    }
+    if (next >= 0) {
+      unread();
+    }
+    return new String(token.toByteArray(), charset);
+  }
+
+  /* Reads the rest of the start tag, recording namespace declarations
+   * if namespaces is not null.  Returns whether the tag was empty.
+   */
+  private boolean readAttributes(Map<String, String> namespaces)
+      throws IOException {
+
+    int next = 0;
+    while ((next = read()) >= 0) {
+      if (next == '>') {
+        return false;
+      } else if (next == '/') {
+        // Only valid as the end of an empty element.
+        skipPast('>');
+        return true;
+      } else if ( isWhitespace(next) ) {
+        continue;
+      }
+
+      token.reset();
+      while ((next >= 0) && (next != '=') && !isWhitespace(next)) {
+        token.write(next);
+        next = read();
+      }
+      final String attrName = new String(token.toByteArray(), charset);
+
+      while ((next >= 0) && (next != '"') && (next != '\'')) {
+        next = read();
+      }
+      final int quote = next;
+
+      token.reset();
+      while (((next = read()) >= 0) && (next != quote)) {
+        token.write(next);
+      }
+
+      if ((namespaces != null) && attrName.startsWith(XMLNS)) {
+        final String value =
+            unescape( new String(token.toByteArray(), charset) );
+        if ( attrName.equals(XMLNS) ) {
+          namespaces.put("", value);
+        } else if (attrName.charAt(XMLNS.length()) == ':') {
+          namespaces.put(attrName.substring(XMLNS.length() + 1), value);
+        }
+      }
+    }
+    throw new IOException("The document ended inside a start tag.");
+  }
+
+  private static String unescape(String value) {
+    if (value.indexOf('&') < 0) {
+      return value;
+    }
+    return value
+        .replace("&lt;", "<")
+        .replace("&gt;", ">")
+        .replace("&quot;", "\"")
+        .replace("&apos;", "'")
+        .replace("&amp;", "&");
+  }
+
+  private void skipPast(int last) throws IOException {
+    int next = 0;
+    while (((next = read()) >= 0) && (next != last)) {
+      // Skip.
+    }
+  }
+
+  // Skips past the first occurrence of the two bytes in a row.
+  private String skipPast(int first, int last, boolean keep)
+      throws IOException {
+
+    token.reset();
+    int prev = -1;
+    int next = 0;
+    while ((next = read()) >= 0) {
+      if ((prev == first) && (next == last)) {
+        break;
+      }
+      if (keep && (prev >= 0)) {
+        token.write(prev);
+      }
+      prev = next;
+    }
+    return keep ? new String(token.toByteArray(), charset) : null;
+  }
+
+  // Skips past the first occurrence of the three bytes in a row.
+  private void skipPast(int first, int second, int last) throws IOException {
+    int prevPrev = -1;
+    int prev = -1;
+    int next = 0;
+    while ((next = read()) >= 0) {
+      if ((prevPrev == first) && (prev == second) && (next == last)) {
+        return;
+      }
+      prevPrev = prev;
+      prev = next;
+    }
+  }
+
+  private static boolean isWhitespace(int b) {
+    return (b == ' ') || (b == '\t') || (b == '\r') || (b == '\n');
+  }
+
+  private int peek() throws IOException {
+    final int next = read();
+    if (next >= 0) {
+      unread();
+    }
+    return next;
+  }
+
+  private int read() throws IOException {
+    if (bufferPos == bufferLen) {
+      bufferLen = in.read(buffer, 0, buffer.length);
+      bufferPos = 0;
+      if (bufferLen <= 0) {
+        bufferLen = 0;
+        return -1;
+      }
+    }
+    ++position;
+    return buffer[bufferPos++] & 0xFF;
+  }
+
+  // Only ever called right after a successful read().
+  private void unread() {
+    --bufferPos;
+    --position;
+  }
+}
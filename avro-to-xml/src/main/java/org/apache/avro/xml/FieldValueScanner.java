@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.math.BigDecimal;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericEnumSymbol;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Finds the values of {@link XmlDatumField}s in a datum decoded by a
+ * {@link org.apache.avro.generic.GenericDatumReader}, as the values
+ * {@link XmlDatumValueStats} compares.
+ */
+final class FieldValueScanner {
+
+  /**
+   * Receives the values found, by their field's index.
+   */
+  interface Sink {
+    void add(int field, Object value);
+
+    void addNull(int field);
+  }
+
+  // Where a field is in its element's RECORD.
+  private static final class FieldRef {
+    final int field;
+    final int position;
+
+    FieldRef(int field, int position) {
+      this.field = field;
+      this.position = position;
+    }
+  }
+
+  private static final List<FieldRef> NO_FIELDS =
+      new ArrayList<FieldRef>(0);
+
+  private final List<XmlDatumField> fields;
+  private final Map<Schema, List<FieldRef>> refsByRecord;
+
+  FieldValueScanner(List<XmlDatumField> fields) {
+    this.fields = fields;
+    this.refsByRecord = new IdentityHashMap<Schema, List<FieldRef>>();
+  }
+
+  void scan(Object datum, Schema schema, Sink sink) {
+    switch ( schema.getType() ) {
+    case RECORD:
+      {
+        final GenericRecord record = (GenericRecord) datum;
+        final List<Schema.Field> recordFields = schema.getFields();
+
+        for (FieldRef ref : getFieldRefs(schema)) {
+          final Schema.Field field = recordFields.get(ref.position);
+          addValue(ref.field, record.get(ref.position), field.schema(), sink);
+        }
+
+        for (Schema.Field field : recordFields) {
+          scan(record.get( field.pos() ), field.schema(), sink);
+        }
+        break;
+      }
+    case UNION:
+      {
+        final int branch = GenericData.get().resolveUnion(schema, datum);
+        scan(datum, schema.getTypes().get(branch), sink);
+        break;
+      }
+    case ARRAY:
+      for (Object item : (Collection<?>) datum) {
+        scan(item, schema.getElementType(), sink);
+      }
+      break;
+    case MAP:
+      for (Object value : ((Map<?, ?>) datum).values()) {
+        scan(value, schema.getValueType(), sink);
+      }
+      break;
+    default:
+      // Simple values are only added through their element's RECORD.
+    }
+  }
+
+  /**
+   * The schema of the field's values, found in the RECORD of its element
+   * nested in <code>schema</code>, or <code>null</code> if there is none.
+   */
+  Schema getValueSchema(Schema schema, int field) {
+    return findValueSchema(
+        schema,
+        field,
+        new IdentityHashMap<Schema, Schema>());
+  }
+
+  private Schema findValueSchema(
+      Schema schema,
+      int field,
+      Map<Schema, Schema> visited) {
+
+    if (visited.put(schema, schema) != null) {
+      return null;
+    }
+
+    switch ( schema.getType() ) {
+    case RECORD:
+      for (FieldRef ref : getFieldRefs(schema)) {
+        if (ref.field == field) {
+          return schema.getFields().get(ref.position).schema();
+        }
+      }
+      for (Schema.Field recordField : schema.getFields()) {
+        final Schema found =
+            findValueSchema(recordField.schema(), field, visited);
+        if (found != null) {
+          return found;
+        }
+      }
+      return null;
+    case UNION:
+      for (Schema type : schema.getTypes()) {
+        final Schema found = findValueSchema(type, field, visited);
+        if (found != null) {
+          return found;
+        }
+      }
+      return null;
+    case ARRAY:
+      return findValueSchema(schema.getElementType(), field, visited);
+    case MAP:
+      return findValueSchema(schema.getValueType(), field, visited);
+    default:
+      return null;
+    }
+  }
+
+  private List<FieldRef> getFieldRefs(Schema record) {
+    List<FieldRef> refs = refsByRecord.get(record);
+    if (refs == null) {
+      refs = findFieldRefs(record);
+      refsByRecord.put(record, refs);
+    }
+    return refs;
+  }
+
+  /* The attributes are the RECORD's first fields, and its
+   * content is the last, named after the element itself.
+   */
+  private List<FieldRef> findFieldRefs(Schema record) {
+    List<FieldRef> refs = null;
+    final List<Schema.Field> recordFields = record.getFields();
+
+    for (int index = 0; index < fields.size(); ++index) {
+      final XmlDatumField field = fields.get(index);
+      if ( !isRecordOf(record, field) || recordFields.isEmpty() ) {
+        continue;
+      }
+
+      final int contentPosition = recordFields.size() - 1;
+      int position = -1;
+      if ( field.isAttribute() ) {
+        final Schema.Field attribute =
+            record.getField( field.getAttribute().getLocalPart() );
+        if ((attribute != null) && (attribute.pos() < contentPosition)) {
+          position = attribute.pos();
+        }
+      } else if (isSimpleContent(
+                     recordFields.get(contentPosition).schema())) {
+        position = contentPosition;
+      }
+
+      if (position >= 0) {
+        if (refs == null) {
+          refs = new ArrayList<FieldRef>();
+        }
+        refs.add( new FieldRef(index, position) );
+      }
+    }
+    return (refs == null) ? NO_FIELDS : refs;
+  }
+
+  private static boolean isRecordOf(Schema record, XmlDatumField field) {
+    if ( !record.getName().equals( field.getElement().getLocalPart() ) ) {
+      return false;
+    }
+    try {
+      return Utils
+          .getAvroNamespaceFor( field.getElement().getNamespaceURI() )
+          .equals( record.getNamespace() );
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(
+          "The namespace of " + field + " is not a valid URI.", e);
+    }
+  }
+
+  // Complex content is an ARRAY of the element's children.
+  private static boolean isSimpleContent(Schema schema) {
+    switch ( schema.getType() ) {
+    case NULL:
+    case RECORD:
+    case MAP:
+      return false;
+    case ARRAY:
+      return isSimpleContent( schema.getElementType() );
+    case UNION:
+      for (Schema type : schema.getTypes()) {
+        if (!type.getType().equals(Schema.Type.NULL)
+            && !isSimpleContent(type)) {
+          return false;
+        }
+      }
+      return true;
+    default:
+      return true;
+    }
+  }
+
+  private static void addValue(
+      int field,
+      Object value,
+      Schema schema,
+      Sink sink) {
+
+    if (value == null) {
+      sink.addNull(field);
+      return;
+    }
+
+    if ( schema.getType().equals(Schema.Type.UNION) ) {
+      final int branch = GenericData.get().resolveUnion(schema, value);
+      schema = schema.getTypes().get(branch);
+    }
+
+    // Each item of a list is a value of its own.
+    if ( schema.getType().equals(Schema.Type.ARRAY) ) {
+      for (Object item : (Collection<?>) value) {
+        addValue(field, item, schema.getElementType(), sink);
+      }
+      return;
+    }
+
+    sink.add(field, normalize(value, schema));
+  }
+
+  /**
+   * Converts a value read by a generic datum reader to one
+   * {@link XmlDatumValueStats} compares, or returns it
+   * unchanged if it cannot be compared.
+   */
+  static Object normalize(Object value, Schema schema) {
+    if ((value instanceof Integer) || (value instanceof Long)) {
+      return BigDecimal.valueOf( ((Number) value).longValue() );
+
+    } else if ((value instanceof Float) || (value instanceof Double)) {
+      final double number = ((Number) value).doubleValue();
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        return value;
+      }
+      return new BigDecimal( Double.toString(number) );
+
+    } else if ((value instanceof CharSequence)
+               || (value instanceof GenericEnumSymbol)) {
+      return value.toString();
+
+    } else if ((value instanceof ByteBuffer)
+               && "decimal".equals( schema.getProp("logicalType") )) {
+      final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+      final byte[] bytes = new byte[ buffer.remaining() ];
+      buffer.get(bytes);
+      return Utils.createBigDecimalFrom(bytes, schema);
+    }
+
+    return value;
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+/**
+ * A Bloom filter of the IDs of the map entries in one block of a data
+ * file.  If it does not contain an ID, the block does not either, and
+ * does not need to be read to find it.  IDs it does contain may still be
+ * missing from the block, at about the false positive rate it was sized
+ * for.
+ *
+ * <p>
+ * Each ID is hashed twice, with {@link String#hashCode()} and FNV-1a, and
+ * the bits are chosen by combining the two, as Kirsch and Mitzenmacher
+ * describe.  Both hashes are fixed by their definitions, so filters can
+ * be written and read back by different JVMs.
+ * </p>
+ */
+final class IdBloomFilter {
+
+  private static final double LN_2 = Math.log(2);
+
+  private final byte[] bits;
+  private final int numBits;
+  private final int numHashes;
+
+  /**
+   * Creates an empty filter sized for the number of IDs,
+   * at the given false positive rate.
+   */
+  IdBloomFilter(int expectedIds, double falsePositiveRate) {
+    if ((falsePositiveRate <= 0.0) || (falsePositiveRate >= 1.0)) {
+      throw new IllegalArgumentException(
+          "The false positive rate must be between zero and one, not "
+          + falsePositiveRate);
+    }
+
+    final int ids = Math.max(1, expectedIds);
+    final long optimalBits =
+        (long) Math.ceil(-ids * Math.log(falsePositiveRate) / (LN_2 * LN_2));
+    final int numBytes =
+        (int) Math.min(Integer.MAX_VALUE / 8, (optimalBits + 7) / 8);
+
+    this.bits = new byte[numBytes];
+    this.numBits = numBytes * 8;
+    this.numHashes =
+        Math.max(1, (int) Math.round(((double) numBits / ids) * LN_2));
+  }
+
+  /**
+   * Restores a filter from its {@link #getBits()}
+   * and {@link #getNumHashes()}.
+   */
+  IdBloomFilter(byte[] bits, int numHashes) {
+    if ((bits == null) || (bits.length == 0)) {
+      throw new IllegalArgumentException("A Bloom filter needs bits.");
+    } else if (numHashes < 1) {
+      throw new IllegalArgumentException(
+          "A Bloom filter needs at least one hash, not " + numHashes);
+    }
+    this.bits = bits.clone();
+    this.numBits = bits.length * 8;
+    this.numHashes = numHashes;
+  }
+
+  void add(String id) {
+    final int hash1 = mix( id.hashCode() );
+    final int hash2 = fnv1a(id);
+    for (int index = 0; index < numHashes; ++index) {
+      final int bit = bitFor(hash1, hash2, index);
+      bits[bit >>> 3] |= (byte) (1 << (bit & 7));
+    }
+  }
+
+  boolean mightContain(String id) {
+    final int hash1 = mix( id.hashCode() );
+    final int hash2 = fnv1a(id);
+    for (int index = 0; index < numHashes; ++index) {
+      final int bit = bitFor(hash1, hash2, index);
+      if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  byte[] getBits() {
+    return bits.clone();
+  }
+
+  int getNumHashes() {
+    return numHashes;
+  }
+
+  private int bitFor(int hash1, int hash2, int index) {
+    final long combined = (hash1 & 0xFFFFFFFFL) + index * (hash2 & 0xFFFFFFFFL);
+    return (int) (combined % numBits);
+  }
+
+  // The finalizer of MurmurHash3, to spread String.hashCode()'s bits.
+  private static int mix(int hash) {
+    int mixed = hash;
+    mixed ^= mixed >>> 16;
+    mixed *= 0x85ebca6b;
+    mixed ^= mixed >>> 13;
+    mixed *= 0xc2b2ae35;
+    mixed ^= mixed >>> 16;
+    return mixed;
+  }
+
+  private static int fnv1a(String id) {
+    int hash = 0x811c9dc5;
+    for (int index = 0; index < id.length(); ++index) {
+      final char ch = id.charAt(index);
+      hash ^= (ch & 0xFF);
+      hash *= 0x01000193;
+      hash ^= (ch >>> 8);
+      hash *= 0x01000193;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,296 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Reads and writes the JSON index of the IDs of the map entries in an Avro
+ * data file, kept beside it and named after it with {@link #SUFFIX} added.
+ * Each block has a Bloom filter of its IDs, and, unless it had too many,
+ * where each of them is: the datum it is in, the offset of its element's
+ * RECORD in the uncompressed block, and the full name of that RECORD,
+ * from the <code>elements</code>.  It looks like this:
+ *
+ * <pre>
+ * {"elements": ["org.apache.avro.avrotest.map"],
+ *  "blocks": [
+ *    {"position": 120, "datums": 40, "hashes": 7, "bloom": "base64...",
+ *     "ids": [{"id": "id1", "datum": 0, "offset": 37, "element": 0},
+ *             ...]},
+ *    ...]}
+ * </pre>
+ */
+final class IdIndexFile {
+
+  static final String SUFFIX = ".ids";
+
+  /**
+   * Where an element with an ID is.
+   */
+  static final class Entry {
+    private final String id;
+    private final long datum;
+    private final int offset;
+    private final String element;
+
+    Entry(String id, long datum, int offset, String element) {
+      this.id = id;
+      this.datum = datum;
+      this.offset = offset;
+      this.element = element;
+    }
+
+    String getId() {
+      return id;
+    }
+
+    /**
+     * The index of the datum in its block.
+     */
+    long getDatum() {
+      return datum;
+    }
+
+    /**
+     * Where the element's RECORD starts, in the uncompressed block.
+     */
+    int getOffset() {
+      return offset;
+    }
+
+    /**
+     * The full name of the element's RECORD.
+     */
+    String getElement() {
+      return element;
+    }
+  }
+
+  /**
+   * The IDs in one block.
+   */
+  static final class Block {
+    private final long position;
+    private final long datumCount;
+    private final IdBloomFilter filter;
+    private final List<Entry> entries;
+    private final Map<String, List<Entry>> entriesById;
+
+    /**
+     * <code>entries</code> may be <code>null</code>
+     * if only the Bloom filter was kept.
+     */
+    Block(
+        long position,
+        long datumCount,
+        IdBloomFilter filter,
+        List<Entry> entries) {
+
+      this.position = position;
+      this.datumCount = datumCount;
+      this.filter = filter;
+
+      if (entries == null) {
+        this.entries = null;
+        this.entriesById = null;
+      } else {
+        this.entries =
+            Collections.unmodifiableList( new ArrayList<Entry>(entries) );
+        this.entriesById = new LinkedHashMap<String, List<Entry>>();
+        for (Entry entry : entries) {
+          List<Entry> withId = entriesById.get( entry.getId() );
+          if (withId == null) {
+            withId = new ArrayList<Entry>(1);
+            entriesById.put(entry.getId(), withId);
+          }
+          withId.add(entry);
+        }
+      }
+    }
+
+    long getPosition() {
+      return position;
+    }
+
+    long getDatumCount() {
+      return datumCount;
+    }
+
+    IdBloomFilter getFilter() {
+      return filter;
+    }
+
+    boolean hasEntries() {
+      return (entries != null);
+    }
+
+    /**
+     * All of the entries in the block, in the order they were written,
+     * or <code>null</code> if only the Bloom filter was kept.
+     */
+    List<Entry> getEntries() {
+      return entries;
+    }
+
+    /**
+     * The entries with the ID, in the order they were written.
+     * Only blocks that kept their entries can be asked.
+     */
+    List<Entry> getEntries(String id) {
+      if (entriesById == null) {
+        throw new IllegalStateException(
+            "The block at " + position + " only kept its Bloom filter.");
+      }
+      final List<Entry> withId = entriesById.get(id);
+      if (withId == null) {
+        return Collections.emptyList();
+      }
+      return Collections.unmodifiableList(withId);
+    }
+  }
+
+  private IdIndexFile() {
+  }
+
+  static File getIndexFile(File avroFile) {
+    return new File(avroFile.getPath() + SUFFIX);
+  }
+
+  static void write(File indexFile, List<Block> blocks) throws IOException {
+    final Map<String, Integer> elements = new LinkedHashMap<String, Integer>();
+    for (Block block : blocks) {
+      if ( block.hasEntries() ) {
+        for (Entry entry : block.getEntries()) {
+          if ( !elements.containsKey( entry.getElement() ) ) {
+            elements.put(entry.getElement(), elements.size());
+          }
+        }
+      }
+    }
+
+    final JsonGenerator json =
+        new JsonFactory().createJsonGenerator(indexFile, JsonEncoding.UTF8);
+    try {
+      json.writeStartObject();
+
+      json.writeArrayFieldStart("elements");
+      for (String element : elements.keySet()) {
+        json.writeString(element);
+      }
+      json.writeEndArray();
+
+      json.writeArrayFieldStart("blocks");
+      for (Block block : blocks) {
+        json.writeStartObject();
+        json.writeNumberField("position", block.getPosition());
+        json.writeNumberField("datums", block.getDatumCount());
+        json.writeNumberField("hashes", block.getFilter().getNumHashes());
+        json.writeFieldName("bloom");
+        json.writeBinary( block.getFilter().getBits() );
+
+        if ( block.hasEntries() ) {
+          json.writeArrayFieldStart("ids");
+          for (Entry entry : block.getEntries()) {
+            json.writeStartObject();
+            json.writeStringField("id", entry.getId());
+            json.writeNumberField("datum", entry.getDatum());
+            json.writeNumberField("offset", entry.getOffset());
+            json.writeNumberField(
+                "element",
+                elements.get( entry.getElement() ));
+            json.writeEndObject();
+          }
+          json.writeEndArray();
+        }
+
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+
+      json.writeEndObject();
+    } finally {
+      json.close();
+    }
+  }
+
+  /**
+   * Reads the IDs of each block, in the order they were written.
+   */
+  static List<Block> read(File indexFile) throws IOException {
+    final JsonNode root = new ObjectMapper().readTree(indexFile);
+    final JsonNode elementsNode = root.get("elements");
+    final JsonNode blocksNode = root.get("blocks");
+    if ((elementsNode == null) || (blocksNode == null)) {
+      throw new IOException(indexFile + " is not an ID index file.");
+    }
+
+    final List<String> elements = new ArrayList<String>();
+    for (JsonNode elementNode : elementsNode) {
+      elements.add( elementNode.getTextValue() );
+    }
+
+    final List<Block> blocks = new ArrayList<Block>();
+    for (JsonNode blockNode : blocksNode) {
+      final IdBloomFilter filter =
+          new IdBloomFilter(
+              blockNode.get("bloom").getBinaryValue(),
+              blockNode.get("hashes").getIntValue());
+
+      List<Entry> entries = null;
+      final JsonNode idsNode = blockNode.get("ids");
+      if (idsNode != null) {
+        entries = new ArrayList<Entry>( idsNode.size() );
+        for (JsonNode entryNode : idsNode) {
+          final int element = entryNode.get("element").getIntValue();
+          if ((element < 0) || (element >= elements.size())) {
+            throw new IOException(
+                indexFile + " refers to an unknown element, " + element);
+          }
+          entries.add(
+              new Entry(
+                  entryNode.get("id").getTextValue(),
+                  entryNode.get("datum").getLongValue(),
+                  entryNode.get("offset").getIntValue(),
+                  elements.get(element)));
+        }
+      }
+
+      blocks.add(
+          new Block(
+              blockNode.get("position").getLongValue(),
+              blockNode.get("datums").getLongValue(),
+              filter,
+              entries));
+    }
+    return Collections.unmodifiableList(blocks);
+  }
+}
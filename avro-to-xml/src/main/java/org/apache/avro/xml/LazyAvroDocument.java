@@ -0,0 +1,453 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.xml.sax.Attributes;
+
+/**
+ * A read-only document over the bytes of an Avro datum, which decodes
+ * each element only when it is first navigated to.
+ *
+ * <p>
+ * An element's name is known from its RECORD's schema, so the document
+ * element is ready at once.  The first time an element's attributes or
+ * children are asked for, its RECORD is decoded: its attributes and text
+ * are read, and each child element is recorded by its schema and the
+ * offset of its RECORD, which is then skipped without being decoded.
+ * </p>
+ *
+ * <p>
+ * If the document is evictable, what each element decoded is held by a
+ * {@link SoftReference}, so a large document that was navigated through
+ * can be let go under memory pressure, and is decoded again if it is
+ * returned to.  The nodes decoded again are new objects, so they should
+ * be compared with {@link org.w3c.dom.Node#isEqualNode(org.w3c.dom.Node)}
+ * rather than by identity.
+ * </p>
+ */
+final class LazyAvroDocument extends ReadOnlyDocument {
+
+  private final XmlDatumReader reader;
+  private final byte[] bytes;
+  private final int end;
+  private final boolean evictable;
+  private final LazyElement root;
+
+  private final Map<Schema, AvroSkipper> skippers;
+  private final Map<Schema, QName> names;
+  private BinaryDecoder decoder;
+  private long elementsDecoded;
+
+  /**
+   * @param reader The reader to decode with, whose schema is set.
+   * @param schema The schema of the datum.
+   * @param bytes The bytes holding the datum, which must not change.
+   */
+  LazyAvroDocument(
+      XmlDatumReader reader,
+      Schema schema,
+      byte[] bytes,
+      int offset,
+      int length,
+      boolean evictable) throws IOException {
+
+    this.reader = reader;
+    this.bytes = bytes;
+    this.end = offset + length;
+    this.evictable = evictable;
+
+    skippers = new IdentityHashMap<Schema, AvroSkipper>();
+    names = new IdentityHashMap<Schema, QName>();
+
+    // The root may be one of a substitution group.
+    final PositionedInput in = new PositionedInput(bytes, offset, length);
+    decoder = DecoderFactory.get().directBinaryDecoder(in, null);
+
+    Schema rootSchema = schema;
+    if ( rootSchema.getType().equals(Schema.Type.UNION) ) {
+      rootSchema = rootSchema.getTypes().get( decoder.readIndex() );
+    }
+    root = new LazyElement(this, 0, rootSchema, in.position());
+  }
+
+  @Override
+  public ReadOnlyElement getDocumentElement() {
+    return root;
+  }
+
+  /**
+   * The number of elements decoded so far, including those decoded
+   * again after being evicted.
+   */
+  long getElementsDecoded() {
+    return elementsDecoded;
+  }
+
+  private QName getName(Schema elemSchema) {
+    QName name = names.get(elemSchema);
+    if (name == null) {
+      name = reader.getElementQName(elemSchema);
+      names.put(elemSchema, name);
+    }
+    return name;
+  }
+
+  private Content decode(LazyElement element) {
+    final PositionedInput in =
+        new PositionedInput(bytes, element.offset, end - element.offset);
+    decoder = DecoderFactory.get().directBinaryDecoder(in, decoder);
+    ++elementsDecoded;
+
+    try {
+      final XmlDatumReader.ElementStart start =
+          reader.readElementStart(element.schema, decoder);
+      try {
+        final List<ReadOnlyAttr> attrs = new ArrayList<ReadOnlyAttr>();
+
+        // The reader declares its prefixes on the document element.
+        if (element == root) {
+          for (String prefix : reader.getDeclaredPrefixes()) {
+            addNamespace(element, prefix, attrs);
+          }
+        }
+        if (start.newPrefixes != null) {
+          for (String prefix : start.newPrefixes) {
+            addNamespace(element, prefix, attrs);
+          }
+        }
+
+        final Attributes attributes = start.attributes;
+        for (int index = 0; index < attributes.getLength(); ++index) {
+          QName name = new QName( attributes.getLocalName(index) );
+          if ( start.isAttributeQualified(index) ) {
+            final String qualifiedName = attributes.getQName(index);
+            final int colon = qualifiedName.indexOf(':');
+            name =
+                new QName(
+                    attributes.getURI(index),
+                    attributes.getLocalName(index),
+                    (colon < 0) ? "" : qualifiedName.substring(0, colon));
+          }
+          attrs.add(
+              new ReadOnlyAttr(
+                  element,
+                  attrs.size(),
+                  name,
+                  attributes.getValue(index)));
+        }
+
+        final ChildBuilder children = new ChildBuilder(element);
+        if ( !start.isComplex() ) {
+          children.addText(start.content);
+        } else {
+          readChildren(start, in, children);
+        }
+        final List<ReadOnlyNode> childList = children.finish();
+
+        // As DomBuilderFromSax marks them, and locates the XML Schemas.
+        if (childList.isEmpty() && start.nillable) {
+          addInstanceAttribute(element, "nil", "true", attrs);
+        }
+        if (element == root) {
+          final String schemaLocation = reader.getSchemaLocation();
+          if ((schemaLocation != null)
+              && !hasInstanceAttribute(attrs, "schemaLocation")) {
+            addInstanceAttribute(
+                element,
+                "schemaLocation",
+                schemaLocation,
+                attrs);
+          }
+        }
+
+        return new Content(attrs, childList);
+
+      } finally {
+        reader.endElementStart(start);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Cannot decode " + element.getQName() + " at offset "
+          + element.offset + '.',
+          e);
+    }
+  }
+
+  private void addNamespace(
+      LazyElement element,
+      String prefix,
+      List<ReadOnlyAttr> attrs) {
+
+    final QName name =
+        prefix.isEmpty()
+        ? new QName(
+              XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+              XMLConstants.XMLNS_ATTRIBUTE)
+        : new QName(
+              XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+              prefix,
+              XMLConstants.XMLNS_ATTRIBUTE);
+
+    attrs.add(
+        new ReadOnlyAttr(
+            element,
+            attrs.size(),
+            name,
+            reader.getNamespaceURI(prefix)));
+  }
+
+  private static void addInstanceAttribute(
+      LazyElement element,
+      String localName,
+      String value,
+      List<ReadOnlyAttr> attrs) {
+
+    attrs.add(
+        new ReadOnlyAttr(
+            element,
+            attrs.size(),
+            new QName(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, localName),
+            value));
+  }
+
+  private static boolean hasInstanceAttribute(
+      List<ReadOnlyAttr> attrs,
+      String localName) {
+
+    for (ReadOnlyAttr attr : attrs) {
+      if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(
+              attr.getNamespaceURI())
+          && localName.equals( attr.getLocalName() )) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /* The children are read as XmlDatumReader.processComplexChildren()
+   * reads them, but each element is only noted and skipped.
+   */
+  private void readChildren(
+      XmlDatumReader.ElementStart start,
+      PositionedInput in,
+      ChildBuilder children) throws IOException {
+
+    final Schema fieldSchema = start.childField.schema();
+
+    switch ( fieldSchema.getType() ) {
+    case NULL:
+      break;
+    case STRING:
+      children.addText( decoder.readString() );
+      break;
+    case ARRAY:
+      {
+        final Schema unionSchema = fieldSchema.getElementType();
+        for (long arrayBlockSize = decoder.readArrayStart();
+            arrayBlockSize > 0;
+            arrayBlockSize = decoder.arrayNext()) {
+
+          for (long index = 0; index < arrayBlockSize; ++index) {
+            final Schema itemSchema =
+                unionSchema.getTypes().get( decoder.readIndex() );
+
+            switch ( itemSchema.getType() ) {
+            case RECORD:
+              addElement(itemSchema, in, children);
+              break;
+            case MAP:
+              {
+                final Schema valueType = itemSchema.getValueType();
+                for (long mapBlockSize = decoder.readMapStart();
+                    mapBlockSize > 0;
+                    mapBlockSize = decoder.mapNext()) {
+                  for (long mapIdx = 0; mapIdx < mapBlockSize; ++mapIdx) {
+                    decoder.skipString(); // The key is irrelevant.
+
+                    if ( valueType.getType().equals(Schema.Type.UNION) ) {
+                      addElement(
+                          valueType.getTypes().get( decoder.readIndex() ),
+                          in,
+                          children);
+                    } else {
+                      addElement(valueType, in, children);
+                    }
+                  }
+                }
+                break;
+              }
+            case STRING:
+              children.addText( decoder.readString() );
+              break;
+            default:
+              throw new IOException(
+                  start.qName
+                  + " has a child field of ARRAY of UNION with "
+                  + itemSchema.getType()
+                  + " where ARRAY of UNION of either MAP or RECORD was"
+                  + " expected.");
+            }
+          }
+        }
+        break;
+      }
+    default:
+      throw new IOException(
+          start.qName
+          + " has an invalid complex content of type "
+          + fieldSchema.getType() + '.');
+    }
+  }
+
+  private void addElement(
+      Schema elemSchema,
+      PositionedInput in,
+      ChildBuilder children) throws IOException {
+
+    children.addElement(elemSchema, in.position());
+
+    AvroSkipper skipper = skippers.get(elemSchema);
+    if (skipper == null) {
+      skipper = AvroSkipper.compile(elemSchema, skippers);
+    }
+    skipper.skip(decoder);
+  }
+
+  // Builds an element's children, merging adjacent text into one node.
+  private final class ChildBuilder {
+    private final LazyElement parent;
+    private final List<ReadOnlyNode> children;
+    private StringBuilder text;
+
+    ChildBuilder(LazyElement parent) {
+      this.parent = parent;
+      this.children = new ArrayList<ReadOnlyNode>();
+    }
+
+    void addText(String content) {
+      if ((content == null) || content.isEmpty()) {
+        return;
+      } else if (text == null) {
+        text = new StringBuilder();
+      }
+      text.append(content);
+    }
+
+    void addElement(Schema elemSchema, int offset) {
+      flushText();
+      children.add(
+          new LazyElement(parent, children.size(), elemSchema, offset));
+    }
+
+    private void flushText() {
+      if (text != null) {
+        children.add(
+            new ReadOnlyText(parent, children.size(), text.toString()));
+        text = null;
+      }
+    }
+
+    List<ReadOnlyNode> finish() {
+      flushText();
+      return children.isEmpty()
+             ? Collections.<ReadOnlyNode>emptyList()
+             : children;
+    }
+  }
+
+  private static final class Content {
+    final List<ReadOnlyAttr> attributes;
+    final List<ReadOnlyNode> children;
+
+    Content(List<ReadOnlyAttr> attributes, List<ReadOnlyNode> children) {
+      this.attributes = attributes;
+      this.children = children;
+    }
+  }
+
+  private static final class LazyElement extends ReadOnlyElement {
+    private final LazyAvroDocument document;
+    private final Schema schema;
+    private final int offset;
+
+    private Content content;
+    private SoftReference<Content> softContent;
+
+    LazyElement(LazyAvroDocument parent, int index, Schema schema, int offset) {
+      super(parent, index, parent.getName(schema));
+      this.document = parent;
+      this.schema = schema;
+      this.offset = offset;
+    }
+
+    LazyElement(LazyElement parent, int index, Schema schema, int offset) {
+      super(parent, index, parent.document.getName(schema));
+      this.document = parent.document;
+      this.schema = schema;
+      this.offset = offset;
+    }
+
+    private Content getContent() {
+      Content decoded =
+          document.evictable
+          ? ((softContent == null) ? null : softContent.get())
+          : content;
+
+      if (decoded == null) {
+        decoded = document.decode(this);
+        if (document.evictable) {
+          softContent = new SoftReference<Content>(decoded);
+        } else {
+          content = decoded;
+        }
+      }
+      return decoded;
+    }
+
+    @Override
+    ReadOnlyDocument getDocument() {
+      return document;
+    }
+
+    @Override
+    List<? extends ReadOnlyAttr> getAttributeList() {
+      return getContent().attributes;
+    }
+
+    @Override
+    List<? extends ReadOnlyNode> getChildren() {
+      return getContent().children;
+    }
+  }
+}
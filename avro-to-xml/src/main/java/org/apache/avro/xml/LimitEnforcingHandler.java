@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import javax.xml.namespace.QName;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Checks the depth, element count, text length, and attribute count
+ * limits of an {@link XmlDatumConfig} as SAX events pass through it to
+ * another {@link ContentHandler}.  The first event to exceed a limit
+ * throws a {@link SAXException} wrapping an
+ * {@link XmlDatumLimitExceededException}, which stops the parse before
+ * the next handler sees the offending event.
+ */
+final class LimitEnforcingHandler extends DefaultHandler {
+
+  private final ContentHandler next;
+  private final int maxDepth;
+  private final long maxElements;
+  private final int maxTextLength;
+  private final int maxAttributes;
+
+  private int depth;
+  private long elements;
+  private long textLength;
+  private QName currElemQName;
+
+  LimitEnforcingHandler(ContentHandler next, XmlDatumConfig config) {
+    this.next = next;
+    this.maxDepth = config.getMaxDepth();
+    this.maxElements = config.getMaxElements();
+    this.maxTextLength = config.getMaxTextLength();
+    this.maxAttributes = config.getMaxAttributes();
+  }
+
+  /**
+   * Whether any of the limits checked here are set.
+   * If not, there is no reason to use this handler.
+   */
+  static boolean isLimited(XmlDatumConfig config) {
+    return (config.getMaxDepth() != Integer.MAX_VALUE)
+        || (config.getMaxElements() != Long.MAX_VALUE)
+        || (config.getMaxTextLength() != Integer.MAX_VALUE)
+        || (config.getMaxAttributes() != Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void setDocumentLocator(Locator locator) {
+    next.setDocumentLocator(locator);
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    depth = 0;
+    elements = 0;
+    textLength = 0;
+    currElemQName = null;
+    next.startDocument();
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    next.endDocument();
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri)
+      throws SAXException {
+
+    next.startPrefixMapping(prefix, uri);
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    next.endPrefixMapping(prefix);
+  }
+
+  @Override
+  public void startElement(
+      String uri,
+      String localName,
+      String qName,
+      Attributes atts) throws SAXException {
+
+    currElemQName = new QName(uri, localName);
+    textLength = 0;
+
+    if (++depth > maxDepth) {
+      exceeded(XmlDatumLimitExceededException.Limit.DEPTH, maxDepth);
+    }
+    if (++elements > maxElements) {
+      exceeded(XmlDatumLimitExceededException.Limit.ELEMENTS, maxElements);
+    }
+    if (atts.getLength() > maxAttributes) {
+      exceeded(
+          XmlDatumLimitExceededException.Limit.ATTRIBUTES,
+          maxAttributes);
+    }
+
+    next.startElement(uri, localName, qName, atts);
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName)
+      throws SAXException {
+
+    --depth;
+    textLength = 0;
+    next.endElement(uri, localName, qName);
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+
+    /* Parsers may split one run of text across several
+     * calls, so the length is kept until the next tag.
+     */
+    textLength += length;
+    if (textLength > maxTextLength) {
+      exceeded(
+          XmlDatumLimitExceededException.Limit.TEXT_LENGTH,
+          maxTextLength);
+    }
+    next.characters(ch, start, length);
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length)
+      throws SAXException {
+
+    next.ignorableWhitespace(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data)
+      throws SAXException {
+
+    next.processingInstruction(target, data);
+  }
+
+  @Override
+  public void skippedEntity(String name) throws SAXException {
+    next.skippedEntity(name);
+  }
+
+  private void exceeded(XmlDatumLimitExceededException.Limit limit, long max)
+      throws SAXException {
+
+    throw new SAXException(
+        new XmlDatumLimitExceededException(limit, max, currElemQName));
+  }
+}
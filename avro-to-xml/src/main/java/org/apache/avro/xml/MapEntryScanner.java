@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.Decoder;
+
+/**
+ * Walks a datum in a direct {@link org.apache.avro.io.BinaryDecoder},
+ * reporting the ID of each map entry, the element its value holds, and
+ * where in the input that element's RECORD starts.  {@link XmlDatumWriter}
+ * writes the elements with a single, required <code>ID</code> attribute
+ * as maps keyed by that ID, so these are the elements that can be looked
+ * up by it.
+ *
+ * <p>
+ * Parts of the schema no map can be nested in are skipped with an
+ * {@link AvroSkipper}, rather than walked.
+ * </p>
+ */
+final class MapEntryScanner {
+
+  interface Sink {
+    void entry(String id, Schema elemSchema, int position) throws IOException;
+  }
+
+  private final Schema schema;
+  private final Map<Schema, Boolean> hasMaps;
+  private final Map<Schema, AvroSkipper> skippers;
+  private final Map<String, Schema> records;
+
+  MapEntryScanner(Schema schema) {
+    this.schema = schema;
+    this.hasMaps = findMaps(schema);
+    this.skippers = new IdentityHashMap<Schema, AvroSkipper>();
+
+    this.records = new HashMap<String, Schema>();
+    for (Schema reachable : hasMaps.keySet()) {
+      if ( reachable.getType().equals(Schema.Type.RECORD) ) {
+        records.put(reachable.getFullName(), reachable);
+      }
+    }
+  }
+
+  /**
+   * The RECORD with the full name in the schema, or
+   * <code>null</code> if there is not one.
+   */
+  Schema getRecordSchema(String fullName) {
+    return records.get(fullName);
+  }
+
+  /**
+   * Walks the next datum in the decoder, which must be a direct
+   * binary decoder reading from <code>in</code>.
+   */
+  void scan(PositionedInput in, Decoder decoder, Sink sink)
+      throws IOException {
+
+    walk(schema, in, decoder, sink);
+  }
+
+  private void walk(
+      Schema current,
+      PositionedInput in,
+      Decoder decoder,
+      Sink sink) throws IOException {
+
+    if ( !hasMaps.get(current) ) {
+      AvroSkipper skipper = skippers.get(current);
+      if (skipper == null) {
+        skipper = AvroSkipper.compile(current, skippers);
+      }
+      skipper.skip(decoder);
+      return;
+    }
+
+    switch ( current.getType() ) {
+    case RECORD:
+      for (Schema.Field field : current.getFields()) {
+        walk(field.schema(), in, decoder, sink);
+      }
+      break;
+    case UNION:
+      walk(current.getTypes().get( decoder.readIndex() ), in, decoder, sink);
+      break;
+    case ARRAY:
+      for (long blockSize = decoder.readArrayStart();
+           blockSize > 0;
+           blockSize = decoder.arrayNext()) {
+        for (long index = 0; index < blockSize; ++index) {
+          walk(current.getElementType(), in, decoder, sink);
+        }
+      }
+      break;
+    case MAP:
+      for (long blockSize = decoder.readMapStart();
+           blockSize > 0;
+           blockSize = decoder.mapNext()) {
+        for (long index = 0; index < blockSize; ++index) {
+          final String id = decoder.readString();
+
+          // MAP of RECORD or MAP of UNION of RECORD
+          Schema valueSchema = current.getValueType();
+          if ( valueSchema.getType().equals(Schema.Type.UNION) ) {
+            valueSchema = valueSchema.getTypes().get( decoder.readIndex() );
+          }
+          if ( valueSchema.getType().equals(Schema.Type.RECORD) ) {
+            sink.entry(id, valueSchema, in.position());
+          }
+          walk(valueSchema, in, decoder, sink);
+        }
+      }
+      break;
+    default:
+      throw new IllegalStateException(
+          "A " + current.getType() + " cannot hold a map.");
+    }
+  }
+
+  /* Whether a map can be nested in each schema reachable from the root.
+   * Schemas may be recursive, so this is repeated until nothing changes,
+   * rather than worked out depth-first.
+   */
+  private static Map<Schema, Boolean> findMaps(Schema root) {
+    final List<Schema> schemas = new ArrayList<Schema>();
+    final Map<Schema, Boolean> hasMaps = new IdentityHashMap<Schema, Boolean>();
+    hasMaps.put(root, Boolean.FALSE);
+    schemas.add(root);
+    for (int index = 0; index < schemas.size(); ++index) {
+      for (Schema child : childrenOf( schemas.get(index) )) {
+        if ( !hasMaps.containsKey(child) ) {
+          hasMaps.put(child, Boolean.FALSE);
+          schemas.add(child);
+        }
+      }
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Schema schema : schemas) {
+        if ( hasMaps.get(schema) ) {
+          continue;
+        }
+        boolean hasMap = schema.getType().equals(Schema.Type.MAP);
+        for (Schema child : childrenOf(schema)) {
+          hasMap |= hasMaps.get(child);
+        }
+        if (hasMap) {
+          hasMaps.put(schema, Boolean.TRUE);
+          changed = true;
+        }
+      }
+    }
+    return hasMaps;
+  }
+
+  private static List<Schema> childrenOf(Schema schema) {
+    final List<Schema> children = new ArrayList<Schema>();
+    switch ( schema.getType() ) {
+    case RECORD:
+      for (Schema.Field field : schema.getFields()) {
+        children.add( field.schema() );
+      }
+      break;
+    case UNION:
+      children.addAll( schema.getTypes() );
+      break;
+    case ARRAY:
+      children.add( schema.getElementType() );
+      break;
+    case MAP:
+      children.add( schema.getValueType() );
+      break;
+    default:
+      // Nothing nested.
+    }
+    return children;
+  }
+}
@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import org.xml.sax.InputSource;
+
+/**
+ * The contents of a file, read into memory once so they can be parsed
+ * as many times as needed without going back to the disk.
+ *
+ * <p>
+ * Large files are memory-mapped, letting the operating system page them
+ * in ahead of the parser as it reads sequentially through them.  Small
+ * files are cheaper to read outright than to map, so they are read into
+ * a single heap buffer instead.  Either way, every stream opened with
+ * {@link #openStream()} shares the same memory.
+ * </p>
+ */
+final class MappedFileInput {
+
+  // Files smaller than this are read rather than mapped.
+  static final int MIN_MAPPED_SIZE = 64 * 1024;
+
+  // A single MappedByteBuffer can address at most 2GB.
+  private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+  private final ByteBuffer[] chunks;
+  private final String systemId;
+
+  private MappedFileInput(ByteBuffer[] chunks, String systemId) {
+    this.chunks = chunks;
+    this.systemId = systemId;
+  }
+
+  /**
+   * Maps, or reads, the provided file.  The file is not
+   * kept open; the mapping remains valid without it.
+   */
+  static MappedFileInput open(File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final long size = channel.size();
+
+      ByteBuffer[] chunks = null;
+
+      if (size < MIN_MAPPED_SIZE) {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while ( buffer.hasRemaining() ) {
+          if (channel.read(buffer) < 0) {
+            throw new IOException(
+                file + " was truncated while it was being read.");
+          }
+        }
+        buffer.flip();
+        chunks = new ByteBuffer[] { buffer };
+
+      } else {
+        final int numChunks =
+            (int) ((size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        chunks = new ByteBuffer[numChunks];
+        for (int chunk = 0; chunk < numChunks; ++chunk) {
+          final long position = chunk * MAX_CHUNK_SIZE;
+          chunks[chunk] =
+              channel.map(
+                  FileChannel.MapMode.READ_ONLY,
+                  position,
+                  Math.min(MAX_CHUNK_SIZE, size - position));
+        }
+      }
+
+      return new MappedFileInput(chunks, file.toURI().toString());
+
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Creates an input over the concatenation of the provided buffers,
+   * from each one's position to its limit.  The buffers are shared,
+   * not copied, and must not be changed while the input is in use.
+   */
+  static MappedFileInput concat(String systemId, ByteBuffer[]... parts) {
+    int numChunks = 0;
+    for (ByteBuffer[] part : parts) {
+      numChunks += part.length;
+    }
+    final ByteBuffer[] chunks = new ByteBuffer[numChunks];
+    int chunk = 0;
+    for (ByteBuffer[] part : parts) {
+      for (ByteBuffer buffer : part) {
+        chunks[chunk++] = buffer.slice();
+      }
+    }
+    return new MappedFileInput(chunks, systemId);
+  }
+
+  /**
+   * The number of bytes in the file.
+   */
+  long size() {
+    long size = 0;
+    for (ByteBuffer chunk : chunks) {
+      size += chunk.remaining();
+    }
+    return size;
+  }
+
+  /**
+   * The system ID of the file, its URI.
+   */
+  String getSystemId() {
+    return systemId;
+  }
+
+  /**
+   * Returns views of the bytes from <code>start</code>, inclusive, to
+   * <code>end</code>, exclusive, sharing the file's memory.
+   */
+  ByteBuffer[] slice(long start, long end) {
+    final ArrayList<ByteBuffer> views = new ArrayList<ByteBuffer>(2);
+    long chunkStart = 0;
+    for (ByteBuffer chunk : chunks) {
+      final long chunkEnd = chunkStart + chunk.remaining();
+      if ((start < chunkEnd) && (end > chunkStart)) {
+        final ByteBuffer view = chunk.duplicate();
+        final int from =
+            chunk.position() + (int) Math.max(0, start - chunkStart);
+        final int to =
+            chunk.position() + (int) (Math.min(end, chunkEnd) - chunkStart);
+        view.limit(to);
+        view.position(from);
+        views.add(view);
+      }
+      chunkStart = chunkEnd;
+    }
+    return views.toArray(new ByteBuffer[views.size()]);
+  }
+
+  /**
+   * Opens a new stream over the file's contents, starting at the
+   * beginning.  Streams are independent of each other.
+   */
+  InputStream openStream() {
+    final ByteBuffer[] views = new ByteBuffer[chunks.length];
+    for (int chunk = 0; chunk < chunks.length; ++chunk) {
+      views[chunk] = chunks[chunk].duplicate();
+    }
+    return new ChunkInputStream(views);
+  }
+
+  /**
+   * Opens a new {@link InputSource} over the file's contents, with the
+   * file's URI as its system ID so relative references still resolve.
+   */
+  InputSource openInputSource() {
+    final InputSource source = new InputSource( openStream() );
+    source.setSystemId(systemId);
+    return source;
+  }
+
+  private static final class ChunkInputStream extends InputStream {
+    private final ByteBuffer[] chunks;
+    private int currChunk;
+
+    ChunkInputStream(ByteBuffer[] chunks) {
+      this.chunks = chunks;
+      this.currChunk = 0;
+    }
+
+    @Override
+    public int read() {
+      final ByteBuffer chunk = nextChunk();
+      if (chunk == null) {
+        return -1;
+      }
+      return chunk.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      final ByteBuffer chunk = nextChunk();
+      if (chunk == null) {
+        return -1;
+      }
+      final int numBytes = Math.min(len, chunk.remaining());
+      chunk.get(b, off, numBytes);
+      return numBytes;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = 0;
+      while (skipped < n) {
+        final ByteBuffer chunk = nextChunk();
+        if (chunk == null) {
+          break;
+        }
+        final int numBytes = (int) Math.min(n - skipped, chunk.remaining());
+        chunk.position(chunk.position() + numBytes);
+        skipped += numBytes;
+      }
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      final ByteBuffer chunk = nextChunk();
+      return (chunk == null) ? 0 : chunk.remaining();
+    }
+
+    private ByteBuffer nextChunk() {
+      while (currChunk < chunks.length) {
+        if ( chunks[currChunk].hasRemaining() ) {
+          return chunks[currChunk];
+        }
+        ++currChunk;
+      }
+      return null;
+    }
+  }
+}
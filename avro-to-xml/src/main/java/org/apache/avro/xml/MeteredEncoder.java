@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.avro.io.Encoder;
+import org.apache.avro.util.Utf8;
+
+/**
+ * An {@link Encoder} that forwards all calls to another {@link Encoder},
+ * keeping a running count of the number of bytes the same calls would
+ * produce in the Avro binary encoding.
+ *
+ * <p>
+ * The count is computed from the values themselves rather than from the
+ * underlying stream, so it is the same regardless of whether the wrapped
+ * {@link Encoder} is a binary, JSON, or validating one.
+ * </p>
+ */
+class MeteredEncoder extends Encoder {
+
+  private final Encoder out;
+  private long position;
+
+  MeteredEncoder(Encoder out) {
+    this.out = out;
+    this.position = 0;
+  }
+
+  /**
+   * The number of Avro binary-encoded bytes written so far.
+   */
+  long getPosition() {
+    return position;
+  }
+
+  @Override
+  public void writeNull() throws IOException {
+    out.writeNull();
+  }
+
+  @Override
+  public void writeBoolean(boolean b) throws IOException {
+    out.writeBoolean(b);
+    position += 1;
+  }
+
+  @Override
+  public void writeInt(int n) throws IOException {
+    out.writeInt(n);
+    position += varLongSize(n);
+  }
+
+  @Override
+  public void writeLong(long n) throws IOException {
+    out.writeLong(n);
+    position += varLongSize(n);
+  }
+
+  @Override
+  public void writeFloat(float f) throws IOException {
+    out.writeFloat(f);
+    position += 4;
+  }
+
+  @Override
+  public void writeDouble(double d) throws IOException {
+    out.writeDouble(d);
+    position += 8;
+  }
+
+  @Override
+  public void writeString(Utf8 utf8) throws IOException {
+    out.writeString(utf8);
+    position += varLongSize( utf8.getByteLength() ) + utf8.getByteLength();
+  }
+
+  @Override
+  public void writeString(String str) throws IOException {
+    // Converting once here avoids converting again to count the bytes.
+    writeString( new Utf8(str) );
+  }
+
+  @Override
+  public void writeBytes(ByteBuffer bytes) throws IOException {
+    final int length = bytes.remaining();
+    out.writeBytes(bytes);
+    position += varLongSize(length) + length;
+  }
+
+  @Override
+  public void writeBytes(byte[] bytes, int start, int len)
+      throws IOException {
+
+    out.writeBytes(bytes, start, len);
+    position += varLongSize(len) + len;
+  }
+
+  @Override
+  public void writeFixed(byte[] bytes, int start, int len)
+      throws IOException {
+
+    out.writeFixed(bytes, start, len);
+    position += len;
+  }
+
+  @Override
+  public void writeEnum(int e) throws IOException {
+    out.writeEnum(e);
+    position += varLongSize(e);
+  }
+
+  @Override
+  public void writeArrayStart() throws IOException {
+    out.writeArrayStart();
+  }
+
+  @Override
+  public void setItemCount(long itemCount) throws IOException {
+    out.setItemCount(itemCount);
+    if (itemCount > 0) {
+      position += varLongSize(itemCount);
+    }
+  }
+
+  @Override
+  public void startItem() throws IOException {
+    out.startItem();
+  }
+
+  @Override
+  public void writeArrayEnd() throws IOException {
+    out.writeArrayEnd();
+    position += 1; // The zero-length block ending the array.
+  }
+
+  @Override
+  public void writeMapStart() throws IOException {
+    out.writeMapStart();
+  }
+
+  @Override
+  public void writeMapEnd() throws IOException {
+    out.writeMapEnd();
+    position += 1; // The zero-length block ending the map.
+  }
+
+  @Override
+  public void writeIndex(int unionIndex) throws IOException {
+    out.writeIndex(unionIndex);
+    position += varLongSize(unionIndex);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * The number of bytes needed to write
+   * <code>n</code> as a zig-zag variable-length long.
+   */
+  static int varLongSize(long n) {
+    long zigZag = (n << 1) ^ (n >> 63);
+    int size = 1;
+    while ((zigZag & ~0x7FL) != 0) {
+      zigZag >>>= 7;
+      ++size;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Exposes how far a datum reader has read.  Used with a direct
+ * {@link org.apache.avro.io.BinaryDecoder}, which does not read ahead,
+ * to find where each datum, or each part of one, starts and ends.
+ */
+final class PositionedInput extends ByteArrayInputStream {
+
+  PositionedInput(byte[] buf, int offset, int length) {
+    super(buf, offset, length);
+  }
+
+  int position() {
+    return pos;
+  }
+}
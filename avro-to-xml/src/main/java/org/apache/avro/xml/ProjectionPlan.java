@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.Decoder;
+
+/**
+ * An {@link XmlDatumProjection} compiled against the Avro {@link Schema} of
+ * the documents being read.  For each element's RECORD, the plan knows
+ * whether it is selected, and whether any selected element can be nested
+ * in it, so {@link XmlDatumReader} can decide what to do with an element
+ * from its schema alone, before decoding any of it.
+ */
+final class ProjectionPlan {
+
+  /**
+   * What to do with an element.
+   */
+  enum Action {
+    /** The element is selected; read all of it. */
+    READ,
+
+    /** A selected element may be inside; read it as a bare element. */
+    ENTER,
+
+    /** Nothing selected can be inside; skip it. */
+    SKIP
+  }
+
+  /**
+   * A step in the selected paths.  The root step has no element;
+   * its children are the root elements the paths start with.
+   */
+  static final class PathNode {
+    private final Map<QName, PathNode> children;
+    private boolean selected;
+
+    PathNode() {
+      children = new HashMap<QName, PathNode>();
+      selected = false;
+    }
+  }
+
+  private static final class RecordPlan {
+    final QName element;
+    final List<Schema> childRecords;
+    boolean selected;
+    boolean containsSelected;
+
+    RecordPlan(QName element) {
+      this.element = element;
+      this.childRecords = new ArrayList<Schema>();
+    }
+  }
+
+  private final PathNode rootPath;
+  private final Map<Schema, RecordPlan> records;
+  private final Map<Schema, AvroSkipper> skippers;
+
+  /**
+   * Compiles the projection.
+   *
+   * @param projection The elements to select.
+   * @param schema The schema of the documents to read.
+   * @param elementsByRecordName The element each RECORD's full name is for.
+   */
+  ProjectionPlan(
+      XmlDatumProjection projection,
+      Schema schema,
+      Map<String, QName> elementsByRecordName) {
+
+    rootPath = new PathNode();
+    for (List<QName> path : projection.getPaths()) {
+      PathNode node = rootPath;
+      for (QName step : path) {
+        PathNode child = node.children.get(step);
+        if (child == null) {
+          child = new PathNode();
+          node.children.put(step, child);
+        }
+        node = child;
+      }
+      node.selected = true;
+    }
+
+    /* Compiling the skipper visits every schema nested in this
+     * one, which also finds all of the elements' RECORDs.
+     */
+    skippers = new IdentityHashMap<Schema, AvroSkipper>();
+    AvroSkipper.compile(schema, skippers);
+
+    final Set<QName> selectedElements = projection.getElements();
+    records = new IdentityHashMap<Schema, RecordPlan>();
+    for (Schema nested : skippers.keySet()) {
+      if ( nested.getType().equals(Schema.Type.RECORD) ) {
+        final QName element = elementsByRecordName.get( nested.getFullName() );
+        if (element != null) {
+          final RecordPlan plan = new RecordPlan(element);
+          plan.selected = selectedElements.contains(element);
+          records.put(nested, plan);
+        }
+      }
+    }
+
+    // An element's children are the RECORDs in its last field.
+    for (Map.Entry<Schema, RecordPlan> entry : records.entrySet()) {
+      final List<Schema.Field> fields = entry.getKey().getFields();
+      if ( !fields.isEmpty() ) {
+        addChildRecords(
+            fields.get(fields.size() - 1).schema(),
+            entry.getValue().childRecords);
+      }
+    }
+
+    /* Selected elements spread up to the elements they can be nested in
+     * until nothing changes, which also handles recursive elements.
+     */
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (RecordPlan plan : records.values()) {
+        if (plan.containsSelected) {
+          continue;
+        }
+        for (Schema child : plan.childRecords) {
+          final RecordPlan childPlan = records.get(child);
+          if (childPlan.selected || childPlan.containsSelected) {
+            plan.containsSelected = true;
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private void addChildRecords(Schema schema, List<Schema> childRecords) {
+    switch ( schema.getType() ) {
+    case RECORD:
+      if (records.containsKey(schema) && !childRecords.contains(schema)) {
+        childRecords.add(schema);
+      }
+      break;
+    case UNION:
+      for (Schema type : schema.getTypes()) {
+        addChildRecords(type, childRecords);
+      }
+      break;
+    case ARRAY:
+      addChildRecords(schema.getElementType(), childRecords);
+      break;
+    case MAP:
+      addChildRecords(schema.getValueType(), childRecords);
+      break;
+    default:
+      // Simple content has no child elements.
+    }
+  }
+
+  /**
+   * The step before the root element.
+   */
+  PathNode getRootPath() {
+    return rootPath;
+  }
+
+  /**
+   * What to do with an element of the RECORD, inside an element
+   * at the <code>parentPath</code>, or <code>null</code> if none
+   * of the selected paths lead there.
+   */
+  Action getAction(Schema record, PathNode parentPath) {
+    final RecordPlan plan = records.get(record);
+    if (plan == null) {
+      // Not an element we know; reading it reports why.
+      return Action.READ;
+    }
+
+    final PathNode path = getChildPath(record, parentPath);
+    if (plan.selected || ((path != null) && path.selected)) {
+      return Action.READ;
+    } else if ((path != null) || plan.containsSelected) {
+      return Action.ENTER;
+    }
+    return Action.SKIP;
+  }
+
+  /**
+   * The step for an element of the RECORD inside an element at the
+   * <code>parentPath</code>, or <code>null</code> if no paths lead there.
+   */
+  PathNode getChildPath(Schema record, PathNode parentPath) {
+    if (parentPath == null) {
+      return null;
+    }
+    final RecordPlan plan = records.get(record);
+    return (plan == null) ? null : parentPath.children.get(plan.element);
+  }
+
+  /**
+   * Skips a datum of the schema, which must be nested in
+   * the one this plan was compiled against.
+   */
+  void skip(Schema schema, Decoder in) throws IOException {
+    AvroSkipper skipper = skippers.get(schema);
+    if (skipper == null) {
+      skipper = AvroSkipper.compile(schema, skippers);
+    }
+    skipper.skip(in);
+  }
+}
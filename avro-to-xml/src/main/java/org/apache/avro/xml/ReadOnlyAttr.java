@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.TypeInfo;
+
+/**
+ * A read-only {@link Attr}, whose value is its only child.
+ */
+final class ReadOnlyAttr extends ReadOnlyNode implements Attr {
+
+  private final ReadOnlyElement owner;
+  private final QName name;
+  private final String qualifiedName;
+  private final String value;
+  private List<ReadOnlyText> children;
+
+  /**
+   * @param owner The element the attribute belongs to.
+   * @param index The attribute's index among the element's attributes.
+   * @param name The attribute's namespace, local name, and the prefix
+   *             of its qualified name.
+   */
+  ReadOnlyAttr(ReadOnlyElement owner, int index, QName name, String value) {
+    super(owner, index);
+    this.owner = owner;
+    this.name = name;
+    this.qualifiedName = ReadOnlyElement.getQualifiedName(name);
+    this.value = value;
+  }
+
+  @Override
+  ReadOnlyDocument getDocument() {
+    return owner.getDocument();
+  }
+
+  @Override
+  List<? extends ReadOnlyNode> getChildren() {
+    if (children == null) {
+      children = Collections.singletonList(new ReadOnlyText(this, 0, value));
+    }
+    return children;
+  }
+
+  @Override
+  Node getNamespaceScope() {
+    return owner;
+  }
+
+  @Override
+  public String getNodeName() {
+    return qualifiedName;
+  }
+
+  @Override
+  public String getNodeValue() {
+    return value;
+  }
+
+  @Override
+  public short getNodeType() {
+    return ATTRIBUTE_NODE;
+  }
+
+  // Attributes are not children of their elements.
+  @Override
+  public Node getParentNode() {
+    return null;
+  }
+
+  @Override
+  public String getNamespaceURI() {
+    return name.getNamespaceURI().isEmpty() ? null : name.getNamespaceURI();
+  }
+
+  @Override
+  public String getPrefix() {
+    return name.getPrefix().isEmpty() ? null : name.getPrefix();
+  }
+
+  @Override
+  public String getLocalName() {
+    return name.getLocalPart();
+  }
+
+  @Override
+  public String getTextContent() {
+    return value;
+  }
+
+  @Override
+  public String getName() {
+    return qualifiedName;
+  }
+
+  @Override
+  public boolean getSpecified() {
+    return true;
+  }
+
+  @Override
+  public String getValue() {
+    return value;
+  }
+
+  @Override
+  public void setValue(String value) {
+    throw readOnly();
+  }
+
+  @Override
+  public Element getOwnerElement() {
+    return owner;
+  }
+
+  @Override
+  public TypeInfo getSchemaTypeInfo() {
+    return NO_TYPE_INFO;
+  }
+
+  @Override
+  public boolean isId() {
+    return false;
+  }
+}
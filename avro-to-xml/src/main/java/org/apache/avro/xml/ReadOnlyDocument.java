@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+
+/**
+ * A read-only {@link Document}, whose document element is provided by
+ * the subclass.  Nodes cannot be created for it, nor imported into it.
+ */
+abstract class ReadOnlyDocument extends ReadOnlyNode implements Document {
+
+  private boolean strictErrorChecking;
+
+  ReadOnlyDocument() {
+    super(null, 0);
+    strictErrorChecking = true;
+  }
+
+  @Override
+  public abstract ReadOnlyElement getDocumentElement();
+
+  @Override
+  ReadOnlyDocument getDocument() {
+    return this;
+  }
+
+  @Override
+  List<? extends ReadOnlyNode> getChildren() {
+    return Collections.singletonList( getDocumentElement() );
+  }
+
+  @Override
+  Node getNamespaceScope() {
+    return getDocumentElement();
+  }
+
+  @Override
+  public Document getOwnerDocument() {
+    return null;
+  }
+
+  @Override
+  public String getNodeName() {
+    return "#document";
+  }
+
+  @Override
+  public String getNodeValue() {
+    return null;
+  }
+
+  @Override
+  public short getNodeType() {
+    return DOCUMENT_NODE;
+  }
+
+  @Override
+  public String getTextContent() {
+    return null;
+  }
+
+  /**
+   * Copies the document into a modifiable one of the shared
+   * {@link DOMImplementation}, as a read-only document cannot
+   * own a copy of itself.
+   */
+  @Override
+  public Node cloneNode(boolean deep) {
+    final Document copy =
+        getSharedImplementation().createDocument(null, null, null);
+    if (deep) {
+      copy.appendChild( copy.importNode(getDocumentElement(), true) );
+    }
+    return copy;
+  }
+
+  @Override
+  public DocumentType getDoctype() {
+    return null;
+  }
+
+  @Override
+  public DOMImplementation getImplementation() {
+    return getSharedImplementation();
+  }
+
+  @Override
+  public Element createElement(String tagName) {
+    throw notSupported("Creating an element");
+  }
+
+  @Override
+  public DocumentFragment createDocumentFragment() {
+    throw notSupported("Creating a document fragment");
+  }
+
+  @Override
+  public Text createTextNode(String data) {
+    throw notSupported("Creating text");
+  }
+
+  @Override
+  public Comment createComment(String data) {
+    throw notSupported("Creating a comment");
+  }
+
+  @Override
+  public CDATASection createCDATASection(String data) {
+    throw notSupported("Creating a CDATA section");
+  }
+
+  @Override
+  public ProcessingInstruction createProcessingInstruction(
+      String target,
+      String data) {
+    throw notSupported("Creating a processing instruction");
+  }
+
+  @Override
+  public Attr createAttribute(String name) {
+    throw notSupported("Creating an attribute");
+  }
+
+  @Override
+  public EntityReference createEntityReference(String name) {
+    throw notSupported("Creating an entity reference");
+  }
+
+  @Override
+  public Element createElementNS(String namespaceURI, String qualifiedName) {
+    throw notSupported("Creating an element");
+  }
+
+  @Override
+  public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+    throw notSupported("Creating an attribute");
+  }
+
+  @Override
+  public NodeList getElementsByTagName(String tagname) {
+    final List<Element> found = new ArrayList<Element>();
+    ReadOnlyElement.findElements(this, null, tagname, found);
+    return new ReadOnlyNodeList(found);
+  }
+
+  @Override
+  public NodeList getElementsByTagNameNS(
+      String namespaceURI,
+      String localName) {
+
+    final List<Element> found = new ArrayList<Element>();
+    ReadOnlyElement.findElements(
+        this,
+        (namespaceURI == null) ? "" : namespaceURI,
+        localName,
+        found);
+    return new ReadOnlyNodeList(found);
+  }
+
+  /**
+   * Always <code>null</code>, as no attribute is known to be an ID.
+   */
+  @Override
+  public Element getElementById(String elementId) {
+    return null;
+  }
+
+  @Override
+  public Node importNode(Node importedNode, boolean deep) {
+    throw notSupported("Importing a node");
+  }
+
+  @Override
+  public Node adoptNode(Node source) {
+    throw notSupported("Adopting a node");
+  }
+
+  @Override
+  public Node renameNode(Node n, String namespaceURI, String qualifiedName) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getInputEncoding() {
+    return null;
+  }
+
+  @Override
+  public String getXmlEncoding() {
+    return null;
+  }
+
+  @Override
+  public boolean getXmlStandalone() {
+    return false;
+  }
+
+  @Override
+  public void setXmlStandalone(boolean xmlStandalone) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getXmlVersion() {
+    return "1.0";
+  }
+
+  @Override
+  public void setXmlVersion(String xmlVersion) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean getStrictErrorChecking() {
+    return strictErrorChecking;
+  }
+
+  @Override
+  public void setStrictErrorChecking(boolean strictErrorChecking) {
+    this.strictErrorChecking = strictErrorChecking;
+  }
+
+  @Override
+  public String getDocumentURI() {
+    return null;
+  }
+
+  @Override
+  public void setDocumentURI(String documentURI) {
+    throw readOnly();
+  }
+
+  @Override
+  public DOMConfiguration getDomConfig() {
+    throw notSupported("Configuring normalization");
+  }
+
+  @Override
+  public void normalizeDocument() {
+    // Nothing in the document can be changed.
+  }
+}
@@ -0,0 +1,318 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.TypeInfo;
+
+/**
+ * A read-only {@link Element}, whose attributes and children are
+ * provided by the subclass.
+ */
+abstract class ReadOnlyElement extends ReadOnlyNode implements Element {
+
+  private final QName name;
+  private final String tagName;
+
+  /**
+   * @param name The element's namespace, local name, and the prefix
+   *             of its qualified name.
+   */
+  ReadOnlyElement(ReadOnlyNode parent, int index, QName name) {
+    super(parent, index);
+    this.name = name;
+    this.tagName = getQualifiedName(name);
+  }
+
+  static String getQualifiedName(QName name) {
+    if ( name.getPrefix().isEmpty() ) {
+      return name.getLocalPart();
+    }
+    return name.getPrefix() + ':' + name.getLocalPart();
+  }
+
+  /**
+   * The element's attributes, including its namespace declarations.
+   */
+  abstract List<? extends ReadOnlyAttr> getAttributeList();
+
+  QName getQName() {
+    return name;
+  }
+
+  @Override
+  public String getNodeName() {
+    return tagName;
+  }
+
+  @Override
+  public String getNodeValue() {
+    return null;
+  }
+
+  @Override
+  public short getNodeType() {
+    return ELEMENT_NODE;
+  }
+
+  @Override
+  public String getTagName() {
+    return tagName;
+  }
+
+  @Override
+  public String getNamespaceURI() {
+    return name.getNamespaceURI().isEmpty() ? null : name.getNamespaceURI();
+  }
+
+  @Override
+  public String getPrefix() {
+    return name.getPrefix().isEmpty() ? null : name.getPrefix();
+  }
+
+  @Override
+  public String getLocalName() {
+    return name.getLocalPart();
+  }
+
+  @Override
+  public NamedNodeMap getAttributes() {
+    return new ReadOnlyNamedNodeMap( getAttributeList() );
+  }
+
+  @Override
+  public boolean hasAttributes() {
+    return !getAttributeList().isEmpty();
+  }
+
+  @Override
+  public String getAttribute(String name) {
+    final Attr attr = getAttributeNode(name);
+    return (attr == null) ? "" : attr.getValue();
+  }
+
+  @Override
+  public Attr getAttributeNode(String name) {
+    return (Attr) getAttributes().getNamedItem(name);
+  }
+
+  @Override
+  public String getAttributeNS(String namespaceURI, String localName) {
+    final Attr attr = getAttributeNodeNS(namespaceURI, localName);
+    return (attr == null) ? "" : attr.getValue();
+  }
+
+  @Override
+  public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+    return (Attr) getAttributes().getNamedItemNS(namespaceURI, localName);
+  }
+
+  @Override
+  public boolean hasAttribute(String name) {
+    return (getAttributeNode(name) != null);
+  }
+
+  @Override
+  public boolean hasAttributeNS(String namespaceURI, String localName) {
+    return (getAttributeNodeNS(namespaceURI, localName) != null);
+  }
+
+  @Override
+  public void setAttribute(String name, String value) {
+    throw readOnly();
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    throw readOnly();
+  }
+
+  @Override
+  public Attr setAttributeNode(Attr newAttr) {
+    throw readOnly();
+  }
+
+  @Override
+  public Attr removeAttributeNode(Attr oldAttr) {
+    throw readOnly();
+  }
+
+  @Override
+  public void setAttributeNS(
+      String namespaceURI,
+      String qualifiedName,
+      String value) {
+    throw readOnly();
+  }
+
+  @Override
+  public void removeAttributeNS(String namespaceURI, String localName) {
+    throw readOnly();
+  }
+
+  @Override
+  public Attr setAttributeNodeNS(Attr newAttr) {
+    throw readOnly();
+  }
+
+  @Override
+  public void setIdAttribute(String name, boolean isId) {
+    throw readOnly();
+  }
+
+  @Override
+  public void setIdAttributeNS(
+      String namespaceURI,
+      String localName,
+      boolean isId) {
+    throw readOnly();
+  }
+
+  @Override
+  public void setIdAttributeNode(Attr idAttr, boolean isId) {
+    throw readOnly();
+  }
+
+  @Override
+  public TypeInfo getSchemaTypeInfo() {
+    return NO_TYPE_INFO;
+  }
+
+  @Override
+  public NodeList getElementsByTagName(String name) {
+    final List<Element> found = new ArrayList<Element>();
+    findElements(this, null, name, found);
+    return new ReadOnlyNodeList(found);
+  }
+
+  @Override
+  public NodeList getElementsByTagNameNS(
+      String namespaceURI,
+      String localName) {
+
+    final List<Element> found = new ArrayList<Element>();
+    findElements(
+        this,
+        (namespaceURI == null) ? "" : namespaceURI,
+        localName,
+        found);
+    return new ReadOnlyNodeList(found);
+  }
+
+  /* Adds the descendants of the node with the tag name, or the namespace
+   * and local name if the namespace is not null, in document order.
+   * Either may be "*" to match any.
+   */
+  static void findElements(
+      ReadOnlyNode node,
+      String namespaceURI,
+      String name,
+      List<Element> found) {
+
+    for (ReadOnlyNode child : node.getChildren()) {
+      if (child.getNodeType() != ELEMENT_NODE) {
+        continue;
+      }
+      final ReadOnlyElement element = (ReadOnlyElement) child;
+      final QName qName = element.name;
+
+      boolean matches = false;
+      if (namespaceURI == null) {
+        matches = name.equals("*") || name.equals(element.tagName);
+      } else {
+        matches =
+            (namespaceURI.equals("*")
+                || namespaceURI.equals( qName.getNamespaceURI() ))
+            && (name.equals("*") || name.equals( qName.getLocalPart() ));
+      }
+
+      if (matches) {
+        found.add(element);
+      }
+      findElements(element, namespaceURI, name, found);
+    }
+  }
+
+  @Override
+  Node getNamespaceScope() {
+    return this;
+  }
+
+  @Override
+  public String lookupNamespaceURI(String prefix) {
+    final String ns = getNamespaceURI();
+    if ((ns != null) && equal(prefix, getPrefix())) {
+      return ns;
+    }
+
+    for (ReadOnlyAttr attr : getAttributeList()) {
+      if ( !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(
+              attr.getNamespaceURI()) ) {
+        continue;
+      }
+      if (((prefix == null) && (attr.getPrefix() == null))
+          || ((prefix != null)
+              && (attr.getPrefix() != null)
+              && prefix.equals( attr.getLocalName() ))) {
+        return attr.getValue().isEmpty() ? null : attr.getValue();
+      }
+    }
+
+    final Node parent = getParentNode();
+    return (parent == null) ? null : parent.lookupNamespaceURI(prefix);
+  }
+
+  @Override
+  public String lookupPrefix(String namespaceURI) {
+    if ((namespaceURI == null) || namespaceURI.isEmpty()) {
+      return null;
+    }
+
+    if (namespaceURI.equals( getNamespaceURI() ) && (getPrefix() != null)) {
+      return getPrefix();
+    }
+
+    for (ReadOnlyAttr attr : getAttributeList()) {
+      if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+          && (attr.getPrefix() != null)
+          && namespaceURI.equals( attr.getValue() )) {
+        return attr.getLocalName();
+      }
+    }
+
+    final Node parent = getParentNode();
+    return (parent == null) ? null : parent.lookupPrefix(namespaceURI);
+  }
+
+  @Override
+  public boolean isDefaultNamespace(String namespaceURI) {
+    return equal(namespaceURI, lookupNamespaceURI(null));
+  }
+}
@@ -0,0 +1,573 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * The base of a read-only DOM, whose nodes are built by a subclass of
+ * {@link ReadOnlyDocument} from something other than parsed XML.
+ *
+ * <p>
+ * Every method that would change the document throws a
+ * {@link DOMException} of <code>NO_MODIFICATION_ALLOWED_ERR</code>, and
+ * those that would create nodes owned by it, such as
+ * {@link #cloneNode(boolean)}, throw <code>NOT_SUPPORTED_ERR</code>.
+ * Only the document itself can be cloned, into a modifiable copy of
+ * another implementation.  Node lists are not live, as there is nothing
+ * to change them.
+ * </p>
+ *
+ * <p>
+ * Subclasses may build their children on demand, and may build them again
+ * after letting them go, so nodes are placed in document order by their
+ * index in their parent rather than by identity.  Indexes need only
+ * increase from one sibling to the next; a subclass numbering its nodes
+ * some other way overrides {@link #getChildBefore(ReadOnlyNode)} and
+ * {@link #getChildAfter(ReadOnlyNode)} to find siblings.
+ * </p>
+ */
+abstract class ReadOnlyNode implements Node {
+
+  static final TypeInfo NO_TYPE_INFO = new TypeInfo() {
+    @Override
+    public String getTypeName() {
+      return null;
+    }
+
+    @Override
+    public String getTypeNamespace() {
+      return null;
+    }
+
+    @Override
+    public boolean isDerivedFrom(
+        String typeNamespaceArg,
+        String typeNameArg,
+        int derivationMethod) {
+      return false;
+    }
+  };
+
+  private static DOMImplementation implementation;
+
+  private final ReadOnlyNode parent;
+  private final int index;
+  private Map<String, Object> userData;
+
+  /**
+   * @param parent The parent node, or the owner of an attribute.
+   * @param index The node's index among its parent's children or
+   *              attributes.
+   */
+  ReadOnlyNode(ReadOnlyNode parent, int index) {
+    this.parent = parent;
+    this.index = index;
+  }
+
+  abstract ReadOnlyDocument getDocument();
+
+  /**
+   * The node's children, in document order.
+   */
+  List<? extends ReadOnlyNode> getChildren() {
+    return Collections.emptyList();
+  }
+
+  int getIndex() {
+    return index;
+  }
+
+  ReadOnlyNode getParent() {
+    return parent;
+  }
+
+  static DOMException readOnly() {
+    return new DOMException(
+        DOMException.NO_MODIFICATION_ALLOWED_ERR,
+        "The document is read-only.");
+  }
+
+  static DOMException notSupported(String operation) {
+    return new DOMException(
+        DOMException.NOT_SUPPORTED_ERR,
+        operation + " is not supported by a read-only document.");
+  }
+
+  static synchronized DOMImplementation getSharedImplementation() {
+    if (implementation == null) {
+      try {
+        implementation =
+            DocumentBuilderFactory
+              .newInstance()
+              .newDocumentBuilder()
+              .getDOMImplementation();
+      } catch (ParserConfigurationException e) {
+        throw new IllegalStateException(
+            "Cannot find a DOM implementation.", e);
+      }
+    }
+    return implementation;
+  }
+
+  @Override
+  public void setNodeValue(String nodeValue) throws DOMException {
+    // Setting a value the node does not have has no effect.
+    if (getNodeValue() != null) {
+      throw readOnly();
+    }
+  }
+
+  @Override
+  public Node getParentNode() {
+    return parent;
+  }
+
+  @Override
+  public NodeList getChildNodes() {
+    return new ReadOnlyNodeList( getChildren() );
+  }
+
+  @Override
+  public Node getFirstChild() {
+    final List<? extends ReadOnlyNode> children = getChildren();
+    return children.isEmpty() ? null : children.get(0);
+  }
+
+  @Override
+  public Node getLastChild() {
+    final List<? extends ReadOnlyNode> children = getChildren();
+    return children.isEmpty() ? null : children.get(children.size() - 1);
+  }
+
+  @Override
+  public Node getPreviousSibling() {
+    return (getParentNode() == null) ? null : parent.getChildBefore(this);
+  }
+
+  @Override
+  public Node getNextSibling() {
+    return (getParentNode() == null) ? null : parent.getChildAfter(this);
+  }
+
+  /**
+   * The child before the given one, or <code>null</code> if it is the
+   * first.  By default, the child's index is its position in
+   * {@link #getChildren()}.
+   */
+  Node getChildBefore(ReadOnlyNode child) {
+    return (child.index == 0) ? null : getChildren().get(child.index - 1);
+  }
+
+  /**
+   * The child after the given one, or <code>null</code> if it is the last.
+   */
+  Node getChildAfter(ReadOnlyNode child) {
+    final List<? extends ReadOnlyNode> children = getChildren();
+    return (child.index + 1 < children.size())
+           ? children.get(child.index + 1)
+           : null;
+  }
+
+  @Override
+  public NamedNodeMap getAttributes() {
+    return null;
+  }
+
+  @Override
+  public Document getOwnerDocument() {
+    return getDocument();
+  }
+
+  @Override
+  public Node insertBefore(Node newChild, Node refChild) {
+    throw readOnly();
+  }
+
+  @Override
+  public Node replaceChild(Node newChild, Node oldChild) {
+    throw readOnly();
+  }
+
+  @Override
+  public Node removeChild(Node oldChild) {
+    throw readOnly();
+  }
+
+  @Override
+  public Node appendChild(Node newChild) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean hasChildNodes() {
+    return !getChildren().isEmpty();
+  }
+
+  @Override
+  public Node cloneNode(boolean deep) {
+    throw notSupported("Cloning");
+  }
+
+  @Override
+  public void normalize() {
+    // Adjacent text is merged as the nodes are built.
+  }
+
+  @Override
+  public boolean isSupported(String feature, String version) {
+    return getSharedImplementation().hasFeature(feature, version);
+  }
+
+  @Override
+  public String getNamespaceURI() {
+    return null;
+  }
+
+  @Override
+  public String getPrefix() {
+    return null;
+  }
+
+  @Override
+  public void setPrefix(String prefix) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getLocalName() {
+    return null;
+  }
+
+  @Override
+  public boolean hasAttributes() {
+    return false;
+  }
+
+  @Override
+  public String getBaseURI() {
+    return null;
+  }
+
+  @Override
+  public short compareDocumentPosition(Node other) {
+    if (other == this) {
+      return 0;
+    }
+
+    if (!(other instanceof ReadOnlyNode)
+        || (((ReadOnlyNode) other).getDocument() != getDocument())) {
+      // Any consistent order will do.
+      final short order =
+          (System.identityHashCode(this) < System.identityHashCode(other))
+          ? DOCUMENT_POSITION_FOLLOWING
+          : DOCUMENT_POSITION_PRECEDING;
+      return (short) (DOCUMENT_POSITION_DISCONNECTED
+                      | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC
+                      | order);
+    }
+
+    final List<ReadOnlyNode> path = getPath();
+    final List<ReadOnlyNode> otherPath = ((ReadOnlyNode) other).getPath();
+
+    final int common = Math.min(path.size(), otherPath.size());
+    for (int depth = 1; depth < common; ++depth) {
+      final int order =
+          compareSiblings(path.get(depth), otherPath.get(depth));
+      if (order < 0) {
+        return DOCUMENT_POSITION_FOLLOWING;
+      } else if (order > 0) {
+        return DOCUMENT_POSITION_PRECEDING;
+      }
+    }
+
+    if (path.size() < otherPath.size()) {
+      return (short) (DOCUMENT_POSITION_CONTAINED_BY
+                      | DOCUMENT_POSITION_FOLLOWING);
+    } else if (path.size() > otherPath.size()) {
+      return (short) (DOCUMENT_POSITION_CONTAINS
+                      | DOCUMENT_POSITION_PRECEDING);
+    }
+
+    // The same node, built twice.
+    return 0;
+  }
+
+  // The nodes from the document to this one.
+  private List<ReadOnlyNode> getPath() {
+    final List<ReadOnlyNode> path = new ArrayList<ReadOnlyNode>();
+    for (ReadOnlyNode node = this; node != null; node = node.parent) {
+      path.add(node);
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
+  // An element's attributes come before its children.
+  private static int compareSiblings(ReadOnlyNode node, ReadOnlyNode other) {
+    final boolean isAttr = (node.getNodeType() == ATTRIBUTE_NODE);
+    final boolean isOtherAttr = (other.getNodeType() == ATTRIBUTE_NODE);
+    if (isAttr != isOtherAttr) {
+      return isAttr ? -1 : 1;
+    }
+    if (node.index == other.index) {
+      return 0;
+    }
+    return (node.index < other.index) ? -1 : 1;
+  }
+
+  @Override
+  public String getTextContent() {
+    final StringBuilder text = new StringBuilder();
+    appendText(this, text);
+    return text.toString();
+  }
+
+  private static void appendText(ReadOnlyNode node, StringBuilder text) {
+    for (ReadOnlyNode child : node.getChildren()) {
+      if (child.getNodeType() == TEXT_NODE) {
+        text.append( child.getNodeValue() );
+      } else {
+        appendText(child, text);
+      }
+    }
+  }
+
+  @Override
+  public void setTextContent(String textContent) {
+    throw readOnly();
+  }
+
+  // Nodes built more than once are the same if they are in the same place.
+  @Override
+  public boolean isSameNode(Node other) {
+    return (this == other)
+        || ((other instanceof ReadOnlyNode)
+            && (((ReadOnlyNode) other).getDocument() == getDocument())
+            && (compareDocumentPosition(other) == 0));
+  }
+
+  /* Namespaces are looked up from the nearest element, which
+   * ReadOnlyElement and ReadOnlyDocument override to provide.
+   */
+  Node getNamespaceScope() {
+    return getParentNode();
+  }
+
+  @Override
+  public String lookupPrefix(String namespaceURI) {
+    final Node scope = getNamespaceScope();
+    return (scope == null) ? null : scope.lookupPrefix(namespaceURI);
+  }
+
+  @Override
+  public boolean isDefaultNamespace(String namespaceURI) {
+    final Node scope = getNamespaceScope();
+    return (scope != null) && scope.isDefaultNamespace(namespaceURI);
+  }
+
+  @Override
+  public String lookupNamespaceURI(String prefix) {
+    final Node scope = getNamespaceScope();
+    return (scope == null) ? null : scope.lookupNamespaceURI(prefix);
+  }
+
+  @Override
+  public boolean isEqualNode(Node arg) {
+    return isEqualNode(this, arg);
+  }
+
+  static boolean isEqualNode(Node node, Node other) {
+    if (other == null) {
+      return false;
+    } else if (node == other) {
+      return true;
+    }
+
+    if ((node.getNodeType() != other.getNodeType())
+        || !equal(node.getNodeName(), other.getNodeName())
+        || !equal(node.getLocalName(), other.getLocalName())
+        || !equal(node.getNamespaceURI(), other.getNamespaceURI())
+        || !equal(node.getPrefix(), other.getPrefix())
+        || !equal(node.getNodeValue(), other.getNodeValue())) {
+      return false;
+    }
+
+    // Attributes are equal in any order.
+    final NamedNodeMap attrs = node.getAttributes();
+    final NamedNodeMap otherAttrs = other.getAttributes();
+    if ((attrs == null) != (otherAttrs == null)) {
+      return false;
+    } else if (attrs != null) {
+      if (attrs.getLength() != otherAttrs.getLength()) {
+        return false;
+      }
+      for (int index = 0; index < attrs.getLength(); ++index) {
+        final Node attr = attrs.item(index);
+        final Node otherAttr =
+            (attr.getLocalName() == null)
+            ? otherAttrs.getNamedItem( attr.getNodeName() )
+            : otherAttrs.getNamedItemNS(
+                  attr.getNamespaceURI(),
+                  attr.getLocalName());
+        if ( !isEqualNode(attr, otherAttr) ) {
+          return false;
+        }
+      }
+    }
+
+    final NodeList children = node.getChildNodes();
+    final NodeList otherChildren = other.getChildNodes();
+    if (children.getLength() != otherChildren.getLength()) {
+      return false;
+    }
+    for (int index = 0; index < children.getLength(); ++index) {
+      if ( !isEqualNode(children.item(index), otherChildren.item(index)) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean equal(String value, String other) {
+    return (value == null) ? (other == null) : value.equals(other);
+  }
+
+  @Override
+  public Object getFeature(String feature, String version) {
+    return isSupported(feature, version) ? this : null;
+  }
+
+  /**
+   * User data is kept, but its handlers are never called, as read-only
+   * nodes are neither cloned, renamed nor adopted.
+   */
+  @Override
+  public Object setUserData(String key, Object data, UserDataHandler handler) {
+    if (userData == null) {
+      if (data == null) {
+        return null;
+      }
+      userData = new HashMap<String, Object>();
+    }
+    return (data == null) ? userData.remove(key) : userData.put(key, data);
+  }
+
+  @Override
+  public Object getUserData(String key) {
+    return (userData == null) ? null : userData.get(key);
+  }
+
+  static final class ReadOnlyNodeList implements NodeList {
+    private final List<? extends Node> nodes;
+
+    ReadOnlyNodeList(List<? extends Node> nodes) {
+      this.nodes = nodes;
+    }
+
+    @Override
+    public Node item(int index) {
+      return ((index < 0) || (index >= nodes.size())) ? null : nodes.get(index);
+    }
+
+    @Override
+    public int getLength() {
+      return nodes.size();
+    }
+  }
+
+  static final class ReadOnlyNamedNodeMap implements NamedNodeMap {
+    private final List<? extends Attr> attrs;
+
+    ReadOnlyNamedNodeMap(List<? extends Attr> attrs) {
+      this.attrs = attrs;
+    }
+
+    @Override
+    public Node getNamedItem(String name) {
+      for (Attr attr : attrs) {
+        if ( attr.getName().equals(name) ) {
+          return attr;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Node getNamedItemNS(String namespaceURI, String localName) {
+      final String ns = (namespaceURI == null) ? "" : namespaceURI;
+      for (Attr attr : attrs) {
+        final String attrNs =
+            (attr.getNamespaceURI() == null) ? "" : attr.getNamespaceURI();
+        if (attrNs.equals(ns) && attr.getLocalName().equals(localName)) {
+          return attr;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Node setNamedItem(Node arg) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node removeNamedItem(String name) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node item(int index) {
+      return ((index < 0) || (index >= attrs.size())) ? null : attrs.get(index);
+    }
+
+    @Override
+    public int getLength() {
+      return attrs.size();
+    }
+
+    @Override
+    public Node setNamedItemNS(Node arg) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node removeNamedItemNS(String namespaceURI, String localName) {
+      throw readOnly();
+    }
+  }
+}
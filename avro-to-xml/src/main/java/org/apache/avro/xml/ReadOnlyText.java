@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Text;
+
+/**
+ * Read-only {@link Text}.
+ */
+final class ReadOnlyText extends ReadOnlyNode implements Text {
+
+  private final String data;
+
+  ReadOnlyText(ReadOnlyNode parent, int index, String data) {
+    super(parent, index);
+    this.data = data;
+  }
+
+  @Override
+  ReadOnlyDocument getDocument() {
+    return getParent().getDocument();
+  }
+
+  @Override
+  public String getNodeName() {
+    return "#text";
+  }
+
+  @Override
+  public String getNodeValue() {
+    return data;
+  }
+
+  @Override
+  public short getNodeType() {
+    return TEXT_NODE;
+  }
+
+  @Override
+  public String getTextContent() {
+    return data;
+  }
+
+  @Override
+  public String getData() {
+    return data;
+  }
+
+  @Override
+  public void setData(String data) {
+    throw readOnly();
+  }
+
+  @Override
+  public int getLength() {
+    return data.length();
+  }
+
+  @Override
+  public String substringData(int offset, int count) {
+    if ((offset < 0) || (offset > data.length()) || (count < 0)) {
+      throw new DOMException(
+          DOMException.INDEX_SIZE_ERR,
+          "Cannot read " + count + " characters from " + offset
+          + " of text with " + data.length() + '.');
+    }
+    return data.substring(offset, Math.min(data.length(), offset + count));
+  }
+
+  @Override
+  public void appendData(String arg) {
+    throw readOnly();
+  }
+
+  @Override
+  public void insertData(int offset, String arg) {
+    throw readOnly();
+  }
+
+  @Override
+  public void deleteData(int offset, int count) {
+    throw readOnly();
+  }
+
+  @Override
+  public void replaceData(int offset, int count, String arg) {
+    throw readOnly();
+  }
+
+  @Override
+  public Text splitText(int offset) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean isElementContentWhitespace() {
+    return false;
+  }
+
+  /**
+   * The node's text, as adjacent text is always merged into one node.
+   */
+  @Override
+  public String getWholeText() {
+    return data;
+  }
+
+  @Override
+  public Text replaceWholeText(String content) {
+    throw readOnly();
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Builds a DOM from SAX events one child of the root element at a time,
+ * handing each child to a {@link Listener} as soon as its end tag is
+ * reached, and then discarding it.
+ *
+ * <p>
+ * Only the root element, with its attributes and namespace declarations,
+ * and the child currently being parsed are ever held in memory.  The
+ * children are built under the root element, so they can still resolve
+ * the namespace prefixes it declares.
+ * </p>
+ */
+final class SubtreeSplitter extends DefaultHandler {
+
+  private static final String XMLNS_NS_URI = "http://www.w3.org/2000/xmlns/";
+
+  /**
+   * Notified as the root element starts, and as each of its children
+   * ends.  An {@link IOException} thrown here stops the parse, and is
+   * the cause of the {@link SAXException} the parser throws.
+   */
+  interface Listener {
+    void rootStarted(Element root) throws IOException;
+
+    void childFinished(Element child) throws IOException;
+  }
+
+  private final Listener listener;
+  private final List<String> pendingPrefixes;
+
+  private Document doc;
+  private Element root;
+  private Node currNode;
+  private int depth;
+
+  SubtreeSplitter(Listener listener) {
+    this.listener = listener;
+    this.pendingPrefixes = new ArrayList<String>();
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    try {
+      final DocumentBuilderFactory factory =
+          DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      doc = factory.newDocumentBuilder().newDocument();
+    } catch (ParserConfigurationException e) {
+      throw new SAXException("Cannot create a document to split into.", e);
+    }
+    root = null;
+    currNode = doc;
+    depth = 0;
+    pendingPrefixes.clear();
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) {
+    pendingPrefixes.add(prefix);
+    pendingPrefixes.add(uri);
+  }
+
+  @Override
+  public void startElement(
+      String uri,
+      String localName,
+      String qName,
+      Attributes atts) throws SAXException {
+
+    final Element element =
+        doc.createElementNS(uri.isEmpty() ? null : uri, qName);
+
+    for (int index = 0; index < pendingPrefixes.size(); index += 2) {
+      final String prefix = pendingPrefixes.get(index);
+      element.setAttributeNS(
+          XMLNS_NS_URI,
+          prefix.isEmpty() ? "xmlns" : ("xmlns:" + prefix),
+          pendingPrefixes.get(index + 1));
+    }
+    pendingPrefixes.clear();
+
+    for (int index = 0; index < atts.getLength(); ++index) {
+      final String attrUri = atts.getURI(index);
+      element.setAttributeNS(
+          ((attrUri == null) || attrUri.isEmpty()) ? null : attrUri,
+          atts.getQName(index),
+          atts.getValue(index));
+    }
+
+    currNode.appendChild(element);
+    currNode = element;
+
+    if (depth++ == 0) {
+      root = element;
+      try {
+        listener.rootStarted(root);
+      } catch (IOException e) {
+        throw new SAXException(e);
+      }
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName)
+      throws SAXException {
+
+    final Node element = currNode;
+    currNode = element.getParentNode();
+
+    if (--depth == 1) {
+      try {
+        listener.childFinished((Element) element);
+      } catch (IOException e) {
+        throw new SAXException(e);
+      } finally {
+        root.removeChild(element);
+      }
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+
+    if (depth == 1) {
+      // Text directly under the root has no datum to be written in.
+      for (int index = start; index < start + length; ++index) {
+        if ( !Character.isWhitespace(ch[index]) ) {
+          throw new SAXException(
+              new IOException(
+                  "Text directly under the root element cannot be split: \""
+                  + new String(ch, start, length).trim()
+                  + '"'));
+        }
+      }
+      return;
+    }
+
+    final Node lastChild = currNode.getLastChild();
+    if ((lastChild != null) && (lastChild.getNodeType() == Node.TEXT_NODE)) {
+      ((Text) lastChild).appendData(new String(ch, start, length));
+    } else {
+      currNode.appendChild( doc.createTextNode(new String(ch, start, length)) );
+    }
+  }
+}
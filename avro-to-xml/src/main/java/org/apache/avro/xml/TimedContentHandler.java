@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Forwards SAX events to another {@link ContentHandler}, adding the time
+ * spent in it to one of the phases of an {@link XmlDatumMetrics}.
+ *
+ * <p>
+ * This is only placed in front of a handler when metrics are being
+ * collected, so the cost of reading the clock is not paid otherwise.
+ * </p>
+ */
+final class TimedContentHandler implements ContentHandler {
+
+  private final ContentHandler handler;
+  private final XmlDatumMetrics metrics;
+  private final XmlDatumMetrics.Phase phase;
+
+  TimedContentHandler(
+      ContentHandler handler,
+      XmlDatumMetrics metrics,
+      XmlDatumMetrics.Phase phase) {
+
+    this.handler = handler;
+    this.metrics = metrics;
+    this.phase = phase;
+  }
+
+  @Override
+  public void setDocumentLocator(Locator locator) {
+    handler.setDocumentLocator(locator);
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    final long start = System.nanoTime();
+    try {
+      handler.startDocument();
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    final long start = System.nanoTime();
+    try {
+      handler.endDocument();
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri)
+      throws SAXException {
+
+    final long start = System.nanoTime();
+    try {
+      handler.startPrefixMapping(prefix, uri);
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    final long start = System.nanoTime();
+    try {
+      handler.endPrefixMapping(prefix);
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void startElement(
+      String uri,
+      String localName,
+      String qName,
+      Attributes atts) throws SAXException {
+
+    final long start = System.nanoTime();
+    try {
+      handler.startElement(uri, localName, qName, atts);
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName)
+      throws SAXException {
+
+    final long start = System.nanoTime();
+    try {
+      handler.endElement(uri, localName, qName);
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+
+    final long begin = System.nanoTime();
+    try {
+      handler.characters(ch, start, length);
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - begin);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length)
+      throws SAXException {
+
+    final long begin = System.nanoTime();
+    try {
+      handler.ignorableWhitespace(ch, start, length);
+    } finally {
+      metrics.addPhaseNanos(phase, System.nanoTime() - begin);
+    }
+  }
+
+  @Override
+  public void processingInstruction(String target, String data)
+      throws SAXException {
+
+    handler.processingInstruction(target, data);
+  }
+
+  @Override
+  public void skippedEntity(String name) throws SAXException {
+    handler.skippedEntity(name);
+  }
+}
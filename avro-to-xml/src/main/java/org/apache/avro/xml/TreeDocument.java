@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.w3c.dom.Node;
+
+/**
+ * The read-only DOM over an {@link XmlDatumTree}.  Each node's index is
+ * its node number in the tree, which increases in document order, and
+ * siblings are found through the tree rather than a list of children.
+ */
+final class TreeDocument extends ReadOnlyDocument {
+
+  private final XmlDatumTree tree;
+  private final TreeElement root;
+
+  TreeDocument(XmlDatumTree tree) {
+    this.tree = tree;
+    this.root = new TreeElement(this, this, tree.getRoot());
+  }
+
+  @Override
+  public ReadOnlyElement getDocumentElement() {
+    return root;
+  }
+
+  private ReadOnlyNode wrap(TreeElement parent, int node) {
+    if (node == XmlDatumTree.NONE) {
+      return null;
+    } else if ( tree.isElement(node) ) {
+      return new TreeElement(this, parent, node);
+    }
+    return new ReadOnlyText(parent, node, tree.getText(node));
+  }
+
+  private static final class TreeElement extends ReadOnlyElement {
+    private final TreeDocument document;
+    private final int node;
+
+    TreeElement(TreeDocument document, ReadOnlyNode parent, int node) {
+      super(parent, node, document.tree.getName(node));
+      this.document = document;
+      this.node = node;
+    }
+
+    @Override
+    ReadOnlyDocument getDocument() {
+      return document;
+    }
+
+    @Override
+    List<? extends ReadOnlyAttr> getAttributeList() {
+      final int count = document.tree.getAttributeCount(node);
+      if (count == 0) {
+        return Collections.emptyList();
+      }
+
+      final List<ReadOnlyAttr> attrs = new ArrayList<ReadOnlyAttr>(count);
+      for (int index = 0; index < count; ++index) {
+        attrs.add(
+            new ReadOnlyAttr(
+                this,
+                index,
+                document.tree.getAttributeName(node, index),
+                document.tree.getAttributeValue(node, index)));
+      }
+      return attrs;
+    }
+
+    @Override
+    List<? extends ReadOnlyNode> getChildren() {
+      final XmlDatumTree tree = document.tree;
+      if (tree.getFirstChild(node) == XmlDatumTree.NONE) {
+        return Collections.emptyList();
+      }
+
+      final List<ReadOnlyNode> children = new ArrayList<ReadOnlyNode>();
+      for (int child = tree.getFirstChild(node);
+          child != XmlDatumTree.NONE;
+          child = tree.getNextSibling(child)) {
+        children.add( document.wrap(this, child) );
+      }
+      return children;
+    }
+
+    @Override
+    public Node getFirstChild() {
+      return document.wrap(this, document.tree.getFirstChild(node));
+    }
+
+    @Override
+    public boolean hasChildNodes() {
+      return (document.tree.getFirstChild(node) != XmlDatumTree.NONE);
+    }
+
+    @Override
+    Node getChildAfter(ReadOnlyNode child) {
+      return document.wrap(
+          this,
+          document.tree.getNextSibling( child.getIndex() ));
+    }
+
+    // Siblings are only linked forward.
+    @Override
+    Node getChildBefore(ReadOnlyNode child) {
+      final XmlDatumTree tree = document.tree;
+      int previous = XmlDatumTree.NONE;
+      for (int sibling = tree.getFirstChild(node);
+          sibling != child.getIndex();
+          sibling = tree.getNextSibling(sibling)) {
+        previous = sibling;
+      }
+      return document.wrap(this, previous);
+    }
+
+    @Override
+    public String getTextContent() {
+      return document.tree.getTextContent(node);
+    }
+  }
+}
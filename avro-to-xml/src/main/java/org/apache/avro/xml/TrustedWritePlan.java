@@ -0,0 +1,316 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.Schema;
+import org.apache.ws.commons.schema.XmlSchemaAttribute;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.constants.Constants;
+import org.apache.ws.commons.schema.docpath.XmlSchemaStateMachineNode;
+import org.apache.ws.commons.schema.walker.XmlSchemaAttrInfo;
+import org.apache.ws.commons.schema.walker.XmlSchemaTypeInfo;
+
+/**
+ * The decisions {@link XmlDatumWriter} makes for the elements of trusted
+ * documents, made once for each RECORD in the Avro schema rather than
+ * found again in every document by the path finder and
+ * {@link AvroSchemaApplier}.
+ *
+ * <p>
+ * For each element, the plan holds how each of its attributes is written,
+ * and which member of the UNION of its children each child element is
+ * written as, found by {@link AvroSchemaApplier#findUnionMember} as it
+ * is for documents written with the path finder.  Plans are made the
+ * first time their RECORD is written, and are shared by every thread
+ * writing with the same {@link XmlDatumWriter}.
+ * </p>
+ */
+final class TrustedWritePlan {
+
+  /**
+   * How one element, and the children in it, is written.
+   */
+  static final class ElementPlan {
+    final QName qName;
+    final XmlSchemaStateMachineNode stateMachine;
+    final XmlSchemaTypeInfo type;
+    final Schema contentSchema;
+
+    // The attributes, in the order of the RECORD's fields.
+    final Schema.Field[] attrFields;
+    final XmlSchemaTypeInfo[] attrTypes;
+    final XmlSchemaAttribute[] attrs;
+
+    // The ID attribute that keys the element in a MAP, if any.
+    final int keyAttr;
+
+    // Only elements with an ARRAY of children have these.
+    final boolean hasChildren;
+    final Map<QName, ChildPlan> children;
+    final Set<QName> excludedChildren;
+    final boolean allowsAny;
+    final int mixedIndex;
+
+    ElementPlan(Schema record, XmlSchemaStateMachineNode stateMachine) {
+
+      this.stateMachine = stateMachine;
+      this.qName = stateMachine.getElement().getQName();
+      this.type = stateMachine.getElementType();
+
+      final List<Schema.Field> fields = record.getFields();
+      this.contentSchema = fields.get(fields.size() - 1).schema();
+
+      final Map<String, XmlSchemaAttrInfo> attrsByName =
+          new HashMap<String, XmlSchemaAttrInfo>();
+      for (XmlSchemaAttrInfo attribute : stateMachine.getAttributes()) {
+        attrsByName.put(attribute.getAttribute().getName(), attribute);
+      }
+
+      attrFields = new Schema.Field[fields.size() - 1];
+      attrTypes = new XmlSchemaTypeInfo[attrFields.length];
+      attrs = new XmlSchemaAttribute[attrFields.length];
+
+      int idAttr = -1;
+      for (int index = 0; index < attrFields.length; ++index) {
+        final Schema.Field field = fields.get(index);
+        final XmlSchemaAttrInfo attribute = attrsByName.get( field.name() );
+        if (attribute == null) {
+          throw new IllegalStateException(
+              "Element \""
+              + qName
+              + "\" has no attribute named \""
+              + field.name()
+              + "\" for its field in "
+              + record.getFullName());
+        }
+
+        attrFields[index] = field;
+        attrTypes[index] = attribute.getType();
+        attrs[index] = attribute.getAttribute();
+
+        if ((idAttr < 0)
+            && Constants.XSD_ID.equals(
+                   attribute.getType().getUserRecognizedType())) {
+          idAttr = index;
+        }
+      }
+      keyAttr = idAttr;
+
+      hasChildren =
+          type.getType().equals(XmlSchemaTypeInfo.Type.COMPLEX)
+          && contentSchema.getType().equals(Schema.Type.ARRAY);
+
+      if (!hasChildren) {
+        children = Collections.emptyMap();
+        excludedChildren = Collections.emptySet();
+        allowsAny = false;
+        mixedIndex = -1;
+        return;
+      }
+
+      /* Each child the XML Schema declares is written as the member of
+       * the UNION the path finder's documents are written as.  Children
+       * with no member were left out of the Avro schema, and are skipped.
+       */
+      final List<Schema> unionTypes =
+          contentSchema.getElementType().getTypes();
+
+      final Map<QName, XmlSchemaElement> declared =
+          new LinkedHashMap<QName, XmlSchemaElement>();
+      allowsAny =
+          addDeclaredChildren(
+              stateMachine,
+              declared,
+              new HashSet<XmlSchemaStateMachineNode>());
+
+      final Map<QName, ChildPlan> childPlans = new HashMap<QName, ChildPlan>();
+      final Set<QName> excluded = new HashSet<QName>();
+      for (Map.Entry<QName, XmlSchemaElement> child : declared.entrySet()) {
+        final AvroSchemaApplier.UnionMember member =
+            AvroSchemaApplier.findUnionMember(unionTypes, child.getValue());
+        if (member == null) {
+          excluded.add( child.getKey() );
+        } else {
+          childPlans.put(
+              child.getKey(),
+              new ChildPlan(member, unionTypes.get(member.index)));
+        }
+      }
+      children = Collections.unmodifiableMap(childPlans);
+      excludedChildren = Collections.unmodifiableSet(excluded);
+
+      mixedIndex =
+          type.isMixed() ? AvroSchemaApplier.findStringIndex(unionTypes) : -1;
+    }
+
+    /* The elements that may be children, found as the writer finds
+     * excluded elements, and whether there are any wildcards among them.
+     * Where two children share a name, the first is kept.
+     */
+    private static boolean addDeclaredChildren(
+        XmlSchemaStateMachineNode node,
+        Map<QName, XmlSchemaElement> children,
+        Set<XmlSchemaStateMachineNode> visited) {
+
+      if (node.getPossibleNextStates() == null) {
+        return false;
+      }
+
+      boolean hasAny = false;
+      for (XmlSchemaStateMachineNode next : node.getPossibleNextStates()) {
+        if ( !visited.add(next) ) {
+          continue;
+        }
+        switch ( next.getNodeType() ) {
+        case ELEMENT:
+          {
+            final XmlSchemaElement element = next.getElement();
+            if ( !children.containsKey( element.getQName() ) ) {
+              children.put(element.getQName(), element);
+            }
+            break;
+          }
+        case ANY:
+          hasAny = true;
+          break;
+        default:
+          hasAny |= addDeclaredChildren(next, children, visited);
+        }
+      }
+      return hasAny;
+    }
+  }
+
+  /**
+   * Which member of the parent's UNION of children an element is.
+   */
+  static final class ChildPlan {
+    final int unionIndex;
+    final Schema record;
+    final boolean isMap;
+    final int mapUnionIndex;
+
+    ChildPlan(AvroSchemaApplier.UnionMember member, Schema unionType) {
+      this.unionIndex = member.index;
+      this.mapUnionIndex = member.mapIndex;
+      this.isMap = unionType.getType().equals(Schema.Type.MAP);
+
+      if (!isMap) {
+        record = unionType;
+      } else if (mapUnionIndex < 0) {
+        record = unionType.getValueType();
+      } else {
+        record = unionType.getValueType().getTypes().get(mapUnionIndex);
+      }
+    }
+  }
+
+  private final Map<String, XmlSchemaStateMachineNode> stateByRecordName;
+  private final ConcurrentHashMap<String, ElementPlan> plans;
+
+  TrustedWritePlan(Map<QName, XmlSchemaStateMachineNode> stateMachineNodes) {
+    stateByRecordName =
+        new HashMap<String, XmlSchemaStateMachineNode>(
+            stateMachineNodes.size());
+
+    for (Map.Entry<QName, XmlSchemaStateMachineNode> entry :
+           stateMachineNodes.entrySet()) {
+
+      stateByRecordName.put(getRecordName( entry.getKey() ), entry.getValue());
+    }
+
+    plans = new ConcurrentHashMap<String, ElementPlan>();
+  }
+
+  /* The full name of the RECORD AvroSchemaGenerator creates for the
+   * element, which AvroSchemaApplier matches elements to.
+   */
+  private static String getRecordName(QName elemQName) {
+    final String ns = elemQName.getNamespaceURI();
+    if ((ns == null) || ns.isEmpty()) {
+      return elemQName.getLocalPart();
+    }
+
+    try {
+      return Utils.getAvroNamespaceFor(ns) + '.' + elemQName.getLocalPart();
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(
+          "Element \"" + elemQName + "\" has a namespace that is not a URI.",
+          e);
+    }
+  }
+
+  /**
+   * The plan for the element the RECORD describes, made the first time it
+   * is asked for.  Two threads may make the same plan at once; as plans
+   * are immutable, either may be kept.
+   */
+  ElementPlan getPlan(Schema record) {
+    final String recordName = record.getFullName();
+    ElementPlan plan = plans.get(recordName);
+    if (plan == null) {
+      final XmlSchemaStateMachineNode stateMachine =
+          stateByRecordName.get(recordName);
+      if (stateMachine == null) {
+        throw new IllegalStateException(
+            "RECORD "
+            + recordName
+            + " does not describe an element in the XML Schema.");
+      }
+      plan = new ElementPlan(record, stateMachine);
+      plans.put(recordName, plan);
+    }
+    return plan;
+  }
+
+  /**
+   * The index of the RECORD in a UNION of roots, for a root element of a
+   * substitution group, or <code>-1</code> if none is for the element.
+   */
+  int getRootIndex(Schema union, QName elemQName) {
+    final List<Schema> types = union.getTypes();
+    for (int index = 0; index < types.size(); ++index) {
+      if ( describes(types.get(index), elemQName) ) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Whether the schema is the RECORD for the element.
+   */
+  boolean describes(Schema schema, QName elemQName) {
+    return schema.getType().equals(Schema.Type.RECORD)
+        && schema.getFullName().equals( getRecordName(elemQName) );
+  }
+}
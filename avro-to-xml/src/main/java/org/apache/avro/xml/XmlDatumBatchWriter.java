@@ -0,0 +1,430 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Converts many XML files, each to an Avro data file of its own, with an
+ * {@link XmlDatumWriter} on several threads, without running out of heap
+ * when some of the files are much larger than the others.
+ *
+ * <p>
+ * Each file's heap use is estimated from its size, as
+ * {@link #getHeapPerInputByte()} times the number of bytes in it.  The
+ * estimate does not look at the schema: the ratio is fixed, and fitting
+ * it to the schema is left to the caller.  A file is only started once
+ * its estimate fits within what is left of the
+ * {@link #getMemoryBudget()}.  A file larger than the whole budget waits
+ * until nothing else is running, and then runs alone.
+ * </p>
+ *
+ * <p>
+ * The largest files are started first, so they do not become stragglers
+ * at the end of the batch.  Each worker takes the largest file that still
+ * fits in the budget when it is ready for more, so while a large file
+ * waits for memory, the smaller ones behind it fill the space that is
+ * left, and the workers balance themselves without being assigned files.
+ * </p>
+ */
+public class XmlDatumBatchWriter {
+
+  /* The path through the schema and the encoded datum both grow with the
+   * input, at a rate that depends on the schema; this is a guess for any.
+   */
+  private static final double DEFAULT_HEAP_PER_INPUT_BYTE = 4.0;
+
+  private final XmlDatumWriter writer;
+  private final ExecutorService executor;
+  private final int numWorkers;
+  private final long memoryBudget;
+
+  private double heapPerInputByte;
+  private CodecFactory codec;
+  private List<XmlDatumField> statsFields;
+  private boolean idIndexed;
+
+  /**
+   * Creates a new <code>XmlDatumBatchWriter</code>.
+   *
+   * @param writer The writer to convert each file with.
+   * @param executor The executor to run the workers on.
+   * @param numWorkers The most files to convert at once.
+   * @param memoryBudget The most heap, in bytes, the files being
+   *                     converted at once may be estimated to use.
+   */
+  public XmlDatumBatchWriter(
+      XmlDatumWriter writer,
+      ExecutorService executor,
+      int numWorkers,
+      long memoryBudget) {
+
+    if (writer == null) {
+      throw new IllegalArgumentException("XmlDatumWriter cannot be null.");
+    } else if (executor == null) {
+      throw new IllegalArgumentException("ExecutorService cannot be null.");
+    } else if (numWorkers < 1) {
+      throw new IllegalArgumentException(
+          "The number of workers must be positive, not " + numWorkers);
+    } else if (memoryBudget < 1) {
+      throw new IllegalArgumentException(
+          "The memory budget must be positive, not " + memoryBudget);
+    }
+
+    this.writer = writer;
+    this.executor = executor;
+    this.numWorkers = numWorkers;
+    this.memoryBudget = memoryBudget;
+    this.heapPerInputByte = DEFAULT_HEAP_PER_INPUT_BYTE;
+    this.codec = CodecFactory.nullCodec();
+    this.statsFields = Collections.emptyList();
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * The number of bytes of heap each byte of an XML file is expected to
+   * need while it is converted.  This depends on the schema: documents
+   * with many small elements build larger paths through it than documents
+   * with a few large text values.  The {@link XmlDatumMetrics} of a few
+   * representative files are a good guide.
+   *
+   * <p>
+   * Defaults to 4 for every schema.  The default is not derived from the
+   * writer's schema, so callers whose documents are dense with small
+   * elements should measure and set their own.
+   * </p>
+   */
+  public void setHeapPerInputByte(double heapPerInputByte) {
+    if (!(heapPerInputByte > 0.0)) {
+      throw new IllegalArgumentException(
+          "Heap per input byte must be positive, not " + heapPerInputByte);
+    }
+    this.heapPerInputByte = heapPerInputByte;
+  }
+
+  public double getHeapPerInputByte() {
+    return heapPerInputByte;
+  }
+
+  /**
+   * The codec to compress the Avro data files with.
+   * Defaults to {@link CodecFactory#nullCodec()}.
+   */
+  public void setCodec(CodecFactory codec) {
+    if (codec == null) {
+      throw new IllegalArgumentException("Codec cannot be null.");
+    }
+    this.codec = codec;
+  }
+
+  public CodecFactory getCodec() {
+    return codec;
+  }
+
+  /**
+   * The fields to record the statistics of in a file beside each Avro
+   * data file, with an {@link XmlDatumStatsFileWriter}, so they can be
+   * queried by an {@link XmlDatumQuery}.  None by default.
+   */
+  public void setStatsFields(Collection<XmlDatumField> statsFields) {
+    if (statsFields == null) {
+      throw new IllegalArgumentException("Stats fields cannot be null.");
+    }
+    this.statsFields =
+        Collections.unmodifiableList(
+            new ArrayList<XmlDatumField>(statsFields));
+  }
+
+  public List<XmlDatumField> getStatsFields() {
+    return statsFields;
+  }
+
+  /**
+   * Whether to index the IDs of the map entries in a file beside each
+   * Avro data file, with an {@link XmlDatumStatsFileWriter}, so they can
+   * be looked up by an {@link XmlDatumIdLookup}.  Off by default.
+   */
+  public void setIdIndexed(boolean idIndexed) {
+    this.idIndexed = idIndexed;
+  }
+
+  public boolean isIdIndexed() {
+    return idIndexed;
+  }
+
+  /**
+   * Converts each of the files ending in <code>.xml</code> in the input
+   * directory to a file of the same name, ending in <code>.avro</code>,
+   * in the output directory.
+   *
+   * @return The files that could not be converted, and why.
+   */
+  public Map<File, Exception> write(File inputDir, File outputDir)
+      throws IOException {
+
+    final File[] xmlFiles =
+        inputDir.listFiles(new FileFilter() {
+          @Override
+          public boolean accept(File file) {
+            return file.isFile() && file.getName().endsWith(".xml");
+          }
+        });
+
+    if (xmlFiles == null) {
+      throw new IOException(inputDir + " is not a readable directory.");
+    }
+    return write(Arrays.asList(xmlFiles), outputDir);
+  }
+
+  /**
+   * Converts each of the XML files to a file of the same name, with its
+   * extension replaced by <code>.avro</code>, in the output directory.
+   * One file failing to convert does not stop the others.
+   *
+   * @return The files that could not be converted, and why.
+   * @throws IllegalArgumentException If two of the XML files, such as
+   *         files of the same name in different directories, would be
+   *         converted to the same Avro data file.
+   */
+  public Map<File, Exception> write(List<File> xmlFiles, File outputDir)
+      throws IOException {
+
+    final Map<File, File> xmlFilesByAvroFile = new HashMap<File, File>();
+    for (File xmlFile : xmlFiles) {
+      final File avroFile = getAvroFile(xmlFile, outputDir);
+      final File other = xmlFilesByAvroFile.put(avroFile, xmlFile);
+      if (other != null) {
+        throw new IllegalArgumentException(
+            other + " and " + xmlFile + " would both be written to "
+            + avroFile);
+      }
+    }
+
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Cannot create " + outputDir);
+    }
+
+    final Scheduler scheduler = new Scheduler(xmlFiles);
+
+    final List<Future<Map<File, Exception>>> workers =
+        new ArrayList<Future<Map<File, Exception>>>(numWorkers);
+
+    final int numToStart = Math.min(numWorkers, xmlFiles.size());
+    for (int worker = 0; worker < numToStart; ++worker) {
+      workers.add( executor.submit( new Worker(scheduler, outputDir) ) );
+    }
+
+    final Map<File, Exception> failures = new LinkedHashMap<File, Exception>();
+    try {
+      for (Future<Map<File, Exception>> worker : workers) {
+        failures.putAll( worker.get() );
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      scheduler.cancel();
+      for (Future<Map<File, Exception>> worker : workers) {
+        worker.cancel(true);
+      }
+      throw new InterruptedIOException("Interrupted while converting files.");
+
+    } catch (ExecutionException e) {
+      scheduler.cancel();
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("A worker failed.", cause);
+    }
+
+    return failures;
+  }
+
+  /* The estimated heap needed to convert a file of the given length,
+   * never more than the whole budget, so the largest files can still
+   * run on their own.
+   */
+  long estimateHeap(long fileLength) {
+    final double estimate = heapPerInputByte * fileLength;
+    return (long) Math.max(1, Math.min(memoryBudget, estimate));
+  }
+
+  private static File getAvroFile(File xmlFile, File outputDir) {
+    final String name = xmlFile.getName();
+    final int extension = name.lastIndexOf('.');
+    return new File(
+        outputDir,
+        ((extension > 0) ? name.substring(0, extension) : name) + ".avro");
+  }
+
+  private void convert(File xmlFile, File outputDir) throws Exception {
+    final ByteArrayOutputStream bytes =
+        new ByteArrayOutputStream(
+            (int) Math.min(xmlFile.length(), 1 << 20));
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    final File avroFile = getAvroFile(xmlFile, outputDir);
+
+    DataFileWriter<Object> out = null;
+    if (statsFields.isEmpty() && !idIndexed) {
+      out =
+          new DataFileWriter<Object>(
+              new GenericDatumWriter<Object>( writer.getSchema() ));
+    } else {
+      final XmlDatumStatsFileWriter statsOut =
+          new XmlDatumStatsFileWriter(writer.getSchema(), statsFields);
+      statsOut.setIdIndexed(idIndexed);
+      out = statsOut;
+    }
+    out.setCodec(codec);
+    out.create(writer.getSchema(), avroFile);
+    try {
+      out.appendEncoded( ByteBuffer.wrap( bytes.toByteArray() ) );
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Hands out the largest file whose estimated heap use fits in
+   * the budget, waiting for running files to finish if none fit.
+   */
+  private final class Scheduler {
+    // Largest first.
+    private final List<File> pending;
+
+    // Sizes are read once, so files growing mid-batch cannot skew the budget.
+    private final Map<File, Long> estimates;
+
+    private long available;
+    private boolean cancelled;
+
+    Scheduler(List<File> xmlFiles) {
+      final Map<File, Long> lengths = new HashMap<File, Long>();
+      estimates = new HashMap<File, Long>();
+      for (File xmlFile : xmlFiles) {
+        final long length = xmlFile.length();
+        lengths.put(xmlFile, length);
+        estimates.put(xmlFile, estimateHeap(length));
+      }
+
+      pending = new ArrayList<File>(xmlFiles);
+      Collections.sort(pending, new Comparator<File>() {
+        @Override
+        public int compare(File o1, File o2) {
+          final long len1 = lengths.get(o1);
+          final long len2 = lengths.get(o2);
+          return (len1 < len2) ? 1 : ((len1 == len2) ? 0 : -1);
+        }
+      });
+      available = memoryBudget;
+      cancelled = false;
+    }
+
+    /* Returns the next file to convert, having reserved its estimated
+     * heap use, or null if there are none left.
+     */
+    synchronized File take() throws InterruptedException {
+      while (!cancelled && !pending.isEmpty()) {
+        for (int index = 0; index < pending.size(); ++index) {
+          final File xmlFile = pending.get(index);
+          final long estimate = estimates.get(xmlFile);
+          if (estimate <= available) {
+            pending.remove(index);
+            available -= estimate;
+            return xmlFile;
+          }
+        }
+        wait();
+      }
+      return null;
+    }
+
+    synchronized void release(File xmlFile) {
+      available += estimates.get(xmlFile);
+      notifyAll();
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      notifyAll();
+    }
+  }
+
+  private final class Worker implements Callable<Map<File, Exception>> {
+
+    private final Scheduler scheduler;
+    private final File outputDir;
+
+    Worker(Scheduler scheduler, File outputDir) {
+      this.scheduler = scheduler;
+      this.outputDir = outputDir;
+    }
+
+    @Override
+    public Map<File, Exception> call() throws InterruptedException {
+      final Map<File, Exception> failures =
+          new LinkedHashMap<File, Exception>();
+
+      File xmlFile = null;
+      while ((xmlFile = scheduler.take()) != null) {
+        try {
+          convert(xmlFile, outputDir);
+        } catch (Exception e) {
+          failures.put(xmlFile, e);
+        } finally {
+          scheduler.release(xmlFile);
+        }
+      }
+      return failures;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The statistics of one block of an Avro data file written by an
+ * {@link XmlDatumStatsFileWriter}: where the block starts, how many
+ * datums are in it, and the {@link XmlDatumValueStats} of each of
+ * the {@link XmlDatumField}s in them.
+ */
+public final class XmlDatumBlockStats {
+
+  private final long position;
+  private final long datumCount;
+  private final Map<XmlDatumField, XmlDatumValueStats> fieldStats;
+
+  XmlDatumBlockStats(
+      long position,
+      long datumCount,
+      Map<XmlDatumField, XmlDatumValueStats> fieldStats) {
+
+    this.position = position;
+    this.datumCount = datumCount;
+    this.fieldStats =
+        new LinkedHashMap<XmlDatumField, XmlDatumValueStats>(fieldStats);
+  }
+
+  /**
+   * Where the block starts, as {@link
+   * org.apache.avro.file.DataFileReader#seek(long)} expects.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  public long getDatumCount() {
+    return datumCount;
+  }
+
+  /**
+   * The statistics of the field, or <code>null</code> if it was not tracked.
+   */
+  public XmlDatumValueStats getStats(XmlDatumField field) {
+    return fieldStats.get(field);
+  }
+
+  public Map<XmlDatumField, XmlDatumValueStats> getFieldStats() {
+    return Collections.unmodifiableMap(fieldStats);
+  }
+
+  @Override
+  public String toString() {
+    return "XmlDatumBlockStats[position=" + position
+        + ", datums=" + datumCount
+        + ", fields=" + fieldStats
+        + ']';
+  }
+}
@@ -22,7 +22,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.stream.StreamSource;
@@ -45,12 +50,30 @@ public class XmlDatumConfig {
   private ArrayList<File> schemaFiles;
   private String baseUri;
   private QName baseTagName;
+  private int maxDepth;
+  private long maxElements;
+  private int maxTextLength;
+  private int maxAttributes;
+  private long maxMapSize;
+  private final Set<QName> includedElements;
+  private final Set<QName> excludedElements;
+  private final Set<QName> excludedAttributes;
+  private final Map<QName, Set<QName>> excludedAttributesByElement;
 
   private XmlDatumConfig(QName rootTagName) {
     baseTagName = rootTagName;
     schemaUrls = null;
     schemaFiles = null;
     baseUri = null;
+    maxDepth = Integer.MAX_VALUE;
+    maxElements = Long.MAX_VALUE;
+    maxTextLength = Integer.MAX_VALUE;
+    maxAttributes = Integer.MAX_VALUE;
+    maxMapSize = Long.MAX_VALUE;
+    includedElements = new LinkedHashSet<QName>();
+    excludedElements = new LinkedHashSet<QName>();
+    excludedAttributes = new LinkedHashSet<QName>();
+    excludedAttributesByElement = new HashMap<QName, Set<QName>>();
   }
 
   /**
@@ -151,6 +174,236 @@ public class XmlDatumConfig {
     schemaFiles.add(file);
   }
 
+  /**
+   * The deepest an element may be nested in a document, where the root
+   * element is at depth one.  Unlimited by default.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Sets the deepest an element may be nested in a document written by
+   * an {@link XmlDatumWriter}.  The root element is at depth one.
+   *
+   * <p>
+   * Like all limits, this is checked as the document is first parsed,
+   * before any of it is written.  A document that exceeds a limit causes
+   * the write to fail with an {@link XmlDatumLimitExceededException}.
+   * </p>
+   */
+  public void setMaxDepth(int maxDepth) {
+    if (maxDepth < 1) {
+      throw new IllegalArgumentException(
+          "The maximum depth must be positive, not " + maxDepth + '.');
+    }
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * The most elements a document may contain.  Unlimited by default.
+   */
+  public long getMaxElements() {
+    return maxElements;
+  }
+
+  /**
+   * Sets the most elements, including the root,
+   * a document written may contain.
+   *
+   * @see #setMaxDepth(int)
+   */
+  public void setMaxElements(long maxElements) {
+    if (maxElements < 1) {
+      throw new IllegalArgumentException(
+          "The maximum element count must be positive, not "
+          + maxElements
+          + '.');
+    }
+    this.maxElements = maxElements;
+  }
+
+  /**
+   * The most characters a single run of text between two tags
+   * may contain.  Unlimited by default.
+   */
+  public int getMaxTextLength() {
+    return maxTextLength;
+  }
+
+  /**
+   * Sets the most characters a single run of text between
+   * two tags may contain in a document written.
+   *
+   * @see #setMaxDepth(int)
+   */
+  public void setMaxTextLength(int maxTextLength) {
+    if (maxTextLength < 0) {
+      throw new IllegalArgumentException(
+          "The maximum text length cannot be negative: "
+          + maxTextLength
+          + '.');
+    }
+    this.maxTextLength = maxTextLength;
+  }
+
+  /**
+   * The most attributes a single element may have.  Unlimited by default.
+   */
+  public int getMaxAttributes() {
+    return maxAttributes;
+  }
+
+  /**
+   * Sets the most attributes a single element may
+   * have in a document written.
+   *
+   * @see #setMaxDepth(int)
+   */
+  public void setMaxAttributes(int maxAttributes) {
+    if (maxAttributes < 0) {
+      throw new IllegalArgumentException(
+          "The maximum attribute count cannot be negative: "
+          + maxAttributes
+          + '.');
+    }
+    this.maxAttributes = maxAttributes;
+  }
+
+  /**
+   * The most sibling elements that may be grouped
+   * into a single Avro map.  Unlimited by default.
+   */
+  public long getMaxMapSize() {
+    return maxMapSize;
+  }
+
+  /**
+   * Sets the most sibling elements that may be grouped into a single
+   * Avro map in a document written.  Unlike the other limits, this is
+   * checked once the whole document has been parsed, as that is when
+   * the maps are discovered, but still before any of it is written.
+   *
+   * @see #setMaxDepth(int)
+   */
+  public void setMaxMapSize(long maxMapSize) {
+    if (maxMapSize < 1) {
+      throw new IllegalArgumentException(
+          "The maximum map size must be positive, not " + maxMapSize + '.');
+    }
+    this.maxMapSize = maxMapSize;
+  }
+
+  /**
+   * Keeps only this element, everything inside it, and the elements it
+   * can be nested in, along with any other included elements.  All other
+   * elements are left out of the generated Avro schema, as if they had
+   * been excluded with {@link #addExcludedElement(QName)}.  If no elements
+   * are included, all of them are, except those excluded.
+   *
+   * <p>
+   * The Avro schema has one RECORD per element name, so an element kept
+   * anywhere is kept everywhere it appears.
+   * </p>
+   */
+  public void addIncludedElement(QName element) {
+    if (element == null) {
+      throw new IllegalArgumentException("Element QName cannot be null.");
+    }
+    includedElements.add(element);
+  }
+
+  /**
+   * The elements added with {@link #addIncludedElement(QName)}.
+   */
+  public Set<QName> getIncludedElements() {
+    return Collections.unmodifiableSet(includedElements);
+  }
+
+  /**
+   * Leaves this element, and everything inside it, out of the generated
+   * Avro schema, wherever it appears.  {@link XmlDatumWriter} skips over
+   * them in documents, as it does wildcard elements, without converting
+   * any of their content.  The root element cannot be excluded.
+   *
+   * <p>
+   * Documents read back are missing the excluded elements, and are not
+   * validated against the XML Schema, as they may no longer conform.
+   * </p>
+   */
+  public void addExcludedElement(QName element) {
+    if (element == null) {
+      throw new IllegalArgumentException("Element QName cannot be null.");
+    }
+    excludedElements.add(element);
+  }
+
+  /**
+   * The elements added with {@link #addExcludedElement(QName)}.
+   */
+  public Set<QName> getExcludedElements() {
+    return Collections.unmodifiableSet(excludedElements);
+  }
+
+  /**
+   * Leaves this attribute out of the generated Avro schema on every
+   * element that has it.  Attributes that are not in a namespace are
+   * named by a {@link QName} with only a local part.
+   *
+   * <p>
+   * An element with exactly one required ID attribute is written as a
+   * member of an Avro MAP, keyed by that attribute.  Excluding the ID
+   * attribute writes the element as a RECORD instead.
+   * </p>
+   */
+  public void addExcludedAttribute(QName attribute) {
+    if (attribute == null) {
+      throw new IllegalArgumentException("Attribute QName cannot be null.");
+    }
+    excludedAttributes.add(attribute);
+  }
+
+  /**
+   * Leaves this attribute of this element out of the generated Avro schema.
+   *
+   * @see #addExcludedAttribute(QName)
+   */
+  public void addExcludedAttribute(QName element, QName attribute) {
+    if (element == null) {
+      throw new IllegalArgumentException("Element QName cannot be null.");
+    } else if (attribute == null) {
+      throw new IllegalArgumentException("Attribute QName cannot be null.");
+    }
+
+    Set<QName> attributes = excludedAttributesByElement.get(element);
+    if (attributes == null) {
+      attributes = new LinkedHashSet<QName>();
+      excludedAttributesByElement.put(element, attributes);
+    }
+    attributes.add(attribute);
+  }
+
+  /**
+   * Whether the attribute of the element was excluded by either
+   * {@link #addExcludedAttribute(QName)} or
+   * {@link #addExcludedAttribute(QName, QName)}.
+   */
+  public boolean isAttributeExcluded(QName element, QName attribute) {
+    if ( excludedAttributes.contains(attribute) ) {
+      return true;
+    }
+    final Set<QName> attributes = excludedAttributesByElement.get(element);
+    return (attributes != null) && attributes.contains(attribute);
+  }
+
+  // Whether any elements or attributes are left out of the Avro schema.
+  boolean isPruned() {
+    return !includedElements.isEmpty()
+        || !excludedElements.isEmpty()
+        || !excludedAttributes.isEmpty()
+        || !excludedAttributesByElement.isEmpty();
+  }
+
   @SuppressWarnings("resource")
   List<StreamSource> getSources() throws IOException {
     final ArrayList<StreamSource> sources =
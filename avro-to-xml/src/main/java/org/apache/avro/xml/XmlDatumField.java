@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The values of an element with simple content, or of one of an element's
+ * attributes, wherever that element appears in a document.  The Avro schema
+ * has one RECORD per element name, so the element is named rather than its
+ * path from the root.
+ *
+ * <p>
+ * Written as <code>{namespace}element</code> for the element's content,
+ * and <code>{namespace}element/@{namespace}attribute</code> for one of its
+ * attributes, which {@link #valueOf(String)} reads back.
+ * </p>
+ */
+public final class XmlDatumField {
+
+  private static final String ATTRIBUTE_SEPARATOR = "/@";
+
+  private final QName element;
+  private final QName attribute;
+
+  /**
+   * The content of the element.
+   */
+  public XmlDatumField(QName element) {
+    this(element, null);
+  }
+
+  /**
+   * An attribute of the element, or its content if
+   * <code>attribute</code> is <code>null</code>.
+   */
+  public XmlDatumField(QName element, QName attribute) {
+    if (element == null) {
+      throw new IllegalArgumentException("Element QName cannot be null.");
+    }
+    this.element = element;
+    this.attribute = attribute;
+  }
+
+  /**
+   * Reads a field written by {@link #toString()}.
+   */
+  public static XmlDatumField valueOf(String field) {
+    if ((field == null) || field.isEmpty()) {
+      throw new IllegalArgumentException("The field cannot be empty.");
+    }
+
+    // The separator cannot be in the element's namespace.
+    final int nsEnd = field.startsWith("{") ? field.indexOf('}') : -1;
+    final int separator =
+        field.indexOf(ATTRIBUTE_SEPARATOR, Math.max(nsEnd, 0));
+
+    if (separator < 0) {
+      return new XmlDatumField( QName.valueOf(field) );
+    }
+    return new XmlDatumField(
+        QName.valueOf( field.substring(0, separator) ),
+        QName.valueOf(
+            field.substring(separator + ATTRIBUTE_SEPARATOR.length()) ));
+  }
+
+  public QName getElement() {
+    return element;
+  }
+
+  /**
+   * The attribute, or <code>null</code> if this is the element's content.
+   */
+  public QName getAttribute() {
+    return attribute;
+  }
+
+  public boolean isAttribute() {
+    return (attribute != null);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if ( !(obj instanceof XmlDatumField) ) {
+      return false;
+    }
+    final XmlDatumField other = (XmlDatumField) obj;
+    return element.equals(other.element)
+        && ((attribute == null)
+            ? (other.attribute == null)
+            : attribute.equals(other.attribute));
+  }
+
+  @Override
+  public int hashCode() {
+    return (31 * element.hashCode())
+        + ((attribute == null) ? 0 : attribute.hashCode());
+  }
+
+  @Override
+  public String toString() {
+    return (attribute == null)
+        ? element.toString()
+        : (element.toString() + ATTRIBUTE_SEPARATOR + attribute);
+  }
+}
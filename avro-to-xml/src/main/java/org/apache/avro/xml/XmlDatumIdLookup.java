@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.w3c.dom.Element;
+
+/**
+ * Finds the elements with an ID in an Avro data file written by an
+ * {@link XmlDatumStatsFileWriter} that indexed its IDs, and reads only
+ * those elements back to XML.
+ *
+ * <p>
+ * {@link XmlDatumWriter} writes the elements with a single, required
+ * <code>ID</code> attribute as the entries of a map, keyed by that ID.
+ * The index beside the data file has a Bloom filter of each block's IDs,
+ * so blocks without the ID are not read, and where in the uncompressed
+ * block each element starts, so only the elements with the ID are decoded.
+ * Blocks that only kept their Bloom filter are read and walked to find
+ * their elements with the ID, which is still much cheaper than decoding
+ * their documents.
+ * </p>
+ *
+ * <p>
+ * Each element is returned, with all of its attributes and children, as
+ * the root of a document of its own.  IDs are only unique within a
+ * document, so there may be more than one element for an ID in the file.
+ * </p>
+ */
+public class XmlDatumIdLookup implements Closeable {
+
+  private final File avroFile;
+  private final List<IdIndexFile.Block> blocks;
+  private final DataFileReader<Object> fileReader;
+  private final MapEntryScanner scanner;
+  private final XmlDatumReader xmlReader;
+
+  private BinaryDecoder decoder;
+  private long blocksRead;
+  private long blocksSkipped;
+
+  /**
+   * Opens the data file and reads its ID index.
+   *
+   * @throws IOException If the data file cannot be read, or if it does
+   *                     not have an index, or has one older than it.
+   */
+  public XmlDatumIdLookup(File avroFile) throws IOException {
+    // An index older than the data file is not for it.
+    final File indexFile = IdIndexFile.getIndexFile(avroFile);
+    if ( !indexFile.isFile() ) {
+      throw new IOException(avroFile + " does not have an ID index.");
+    } else if (indexFile.lastModified() < avroFile.lastModified()) {
+      throw new IOException(avroFile + " is newer than its ID index.");
+    }
+
+    this.avroFile = avroFile;
+    this.blocks = IdIndexFile.read(indexFile);
+    this.fileReader =
+        new DataFileReader<Object>(avroFile, new GenericDatumReader<Object>());
+
+    try {
+      final Schema schema = fileReader.getSchema();
+      this.scanner = new MapEntryScanner(schema);
+      this.xmlReader = new XmlDatumReader();
+      xmlReader.setSchema(schema);
+    } catch (RuntimeException e) {
+      fileReader.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the elements with the ID, in the order they were written.
+   */
+  public List<Element> lookup(String id) throws IOException {
+    if (id == null) {
+      throw new IllegalArgumentException("The ID cannot be null.");
+    }
+
+    final List<Element> elements = new ArrayList<Element>();
+    for (IdIndexFile.Block block : blocks) {
+      if ( !block.getFilter().mightContain(id) ) {
+        ++blocksSkipped;
+        continue;
+      }
+
+      if ( block.hasEntries() ) {
+        final List<IdIndexFile.Entry> entries = block.getEntries(id);
+        if ( entries.isEmpty() ) {
+          // The Bloom filter was wrong.
+          ++blocksSkipped;
+          continue;
+        }
+
+        final ByteBuffer bytes = readBlock(block);
+        for (IdIndexFile.Entry entry : entries) {
+          elements.add(
+              readElement(
+                  bytes,
+                  entry.getOffset(),
+                  getElementSchema( entry.getElement() )));
+        }
+
+      } else {
+        findInBlock(id, block, elements);
+      }
+    }
+    return elements;
+  }
+
+  /**
+   * The number of blocks read by {@link #lookup(String)} so far.
+   */
+  public long getBlocksRead() {
+    return blocksRead;
+  }
+
+  /**
+   * The number of blocks {@link #lookup(String)} skipped so far,
+   * as their IDs ruled them out.
+   */
+  public long getBlocksSkipped() {
+    return blocksSkipped;
+  }
+
+  @Override
+  public void close() throws IOException {
+    fileReader.close();
+  }
+
+  private ByteBuffer readBlock(IdIndexFile.Block block) throws IOException {
+    fileReader.seek( block.getPosition() );
+    if ( !fileReader.hasNext()
+        || (fileReader.getBlockCount() != block.getDatumCount()) ) {
+      throw new IOException("The ID index does not match " + avroFile);
+    }
+    ++blocksRead;
+
+    final ByteBuffer bytes = fileReader.nextBlock();
+    if ( bytes.hasArray() ) {
+      return bytes;
+    }
+    final byte[] copy = new byte[ bytes.remaining() ];
+    bytes.duplicate().get(copy);
+    return ByteBuffer.wrap(copy);
+  }
+
+  // Walks each datum in a block that only kept its Bloom filter.
+  private void findInBlock(
+      final String id,
+      IdIndexFile.Block block,
+      List<Element> elements) throws IOException {
+
+    final ByteBuffer bytes = readBlock(block);
+    final int start = bytes.arrayOffset() + bytes.position();
+
+    final List<Integer> offsets = new ArrayList<Integer>();
+    final List<Schema> schemas = new ArrayList<Schema>();
+    final MapEntryScanner.Sink sink =
+        new MapEntryScanner.Sink() {
+          @Override
+          public void entry(String entryId, Schema elemSchema, int position) {
+            if ( entryId.equals(id) ) {
+              offsets.add(position - start);
+              schemas.add(elemSchema);
+            }
+          }
+        };
+
+    // A direct decoder does not read ahead, so each entry's start is known.
+    final PositionedInput in =
+        new PositionedInput(bytes.array(), start, bytes.remaining());
+    final BinaryDecoder scanDecoder =
+        DecoderFactory.get().directBinaryDecoder(in, null);
+    for (long index = 0; index < block.getDatumCount(); ++index) {
+      scanner.scan(in, scanDecoder, sink);
+    }
+
+    for (int index = 0; index < offsets.size(); ++index) {
+      elements.add(readElement(bytes, offsets.get(index), schemas.get(index)));
+    }
+  }
+
+  private Element readElement(ByteBuffer block, int offset, Schema elemSchema)
+      throws IOException {
+
+    if ((offset < 0) || (offset >= block.remaining())) {
+      throw new IOException(
+          "The ID index points past the end of a block in " + avroFile);
+    }
+    decoder =
+        DecoderFactory.get().binaryDecoder(
+            block.array(),
+            block.arrayOffset() + block.position() + offset,
+            block.remaining() - offset,
+            decoder);
+    return xmlReader.readElement(elemSchema, decoder);
+  }
+
+  private Schema getElementSchema(String fullName) throws IOException {
+    final Schema elemSchema = scanner.getRecordSchema(fullName);
+    if (elemSchema == null) {
+      throw new IOException(
+          "The ID index refers to " + fullName
+          + ", which is not in " + avroFile);
+    }
+    return elemSchema;
+  }
+}
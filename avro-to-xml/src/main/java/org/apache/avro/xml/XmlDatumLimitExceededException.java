@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Thrown by {@link XmlDatumWriter} when a document exceeds one of the
+ * limits set in its {@link XmlDatumConfig}.  The document is rejected
+ * before any of it is written to the output, unless the writer trusts
+ * its input, which checks the limits as it writes.
+ */
+public class XmlDatumLimitExceededException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The limits that may be exceeded.
+   */
+  public enum Limit {
+    DEPTH,
+    ELEMENTS,
+    TEXT_LENGTH,
+    ATTRIBUTES,
+    MAP_SIZE
+  }
+
+  private final Limit limit;
+  private final long maximum;
+  private final QName elementQName;
+
+  XmlDatumLimitExceededException(
+      Limit limit,
+      long maximum,
+      QName elementQName) {
+
+    super(
+        "The document exceeds the "
+        + limit
+        + " limit of "
+        + maximum
+        + " at element "
+        + elementQName
+        + '.');
+
+    this.limit = limit;
+    this.maximum = maximum;
+    this.elementQName = elementQName;
+  }
+
+  /**
+   * The limit that was exceeded.
+   */
+  public Limit getLimit() {
+    return limit;
+  }
+
+  /**
+   * The configured value of the limit that was exceeded.
+   */
+  public long getMaximum() {
+    return maximum;
+  }
+
+  /**
+   * The element where the limit was exceeded.
+   */
+  public QName getElementQName() {
+    return elementQName;
+  }
+
+  /**
+   * Returns the {@link XmlDatumLimitExceededException} in the cause chain
+   * of <code>t</code>, or <code>null</code> if there is none.  Limits are
+   * enforced from inside SAX handlers, so they arrive wrapped.
+   */
+  static XmlDatumLimitExceededException findIn(Throwable t) {
+    while (t != null) {
+      if (t instanceof XmlDatumLimitExceededException) {
+        return (XmlDatumLimitExceededException) t;
+      }
+      t = t.getCause();
+    }
+    return null;
+  }
+}
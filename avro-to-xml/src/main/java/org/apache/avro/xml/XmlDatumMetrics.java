@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+/**
+ * The timings and counters collected while a single document was written
+ * by an {@link XmlDatumWriter} or read by an {@link XmlDatumReader}.
+ *
+ * <p>
+ * An instance is only created when an {@link XmlDatumMetricsListener} is
+ * registered, and is handed to that listener once the document is done.
+ * All durations are in nanoseconds.
+ * </p>
+ */
+public final class XmlDatumMetrics {
+
+  /**
+   * The phases a document passes through.  The writer reports
+   * {@link #PATH_FINDING}, {@link #SCHEMA_APPLY}, {@link #MAP_DISCOVERY},
+   * {@link #CONTENT_APPLY}, and {@link #ENCODE}.  The reader reports
+   * {@link #DECODE} and the portion of it spent in {@link #PATH_FINDING}.
+   */
+  public enum Phase {
+    PATH_FINDING,
+    SCHEMA_APPLY,
+    MAP_DISCOVERY,
+    CONTENT_APPLY,
+    ENCODE,
+    DECODE
+  }
+
+  private final boolean isWrite;
+  private final long[] phaseNanos;
+  private long totalNanos;
+  private long elements;
+  private long attributes;
+  private long bytes;
+  private long unionFallbacks;
+  private long mapClusters;
+  private Throwable failure;
+
+  XmlDatumMetrics(boolean isWrite) {
+    this.isWrite = isWrite;
+    this.phaseNanos = new long[Phase.values().length];
+  }
+
+  /**
+   * Returns <code>true</code> if these metrics describe a document written
+   * by an {@link XmlDatumWriter}, or <code>false</code> if they describe a
+   * document read by an {@link XmlDatumReader}.
+   */
+  public boolean isWrite() {
+    return isWrite;
+  }
+
+  /**
+   * The time spent in the provided phase, or zero
+   * if the phase does not apply to this document.
+   */
+  public long getPhaseNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /**
+   * The time between the start of the read or write call and its end.
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * The number of elements written or read.  Elements
+   * inside of wildcards are not included in this count.
+   */
+  public long getElementCount() {
+    return elements;
+  }
+
+  /**
+   * The number of attributes written or read, including those
+   * that took on a default or fixed value from the XML Schema.
+   */
+  public long getAttributeCount() {
+    return attributes;
+  }
+
+  /**
+   * The number of bytes the document occupies in the Avro binary encoding.
+   * This is only counted by the writer; for the reader it is always zero.
+   */
+  public long getByteCount() {
+    return bytes;
+  }
+
+  /**
+   * The number of values that could not be written as any of the typed
+   * members of their union, and were written as text instead.
+   */
+  public long getUnionFallbackCount() {
+    return unionFallbacks;
+  }
+
+  /**
+   * The number of runs of sibling elements that were grouped into maps.
+   */
+  public long getMapClusterCount() {
+    return mapClusters;
+  }
+
+  /**
+   * The exception that stopped the document from being
+   * processed, or <code>null</code> if it completed.
+   */
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  void addPhaseNanos(Phase phase, long nanos) {
+    phaseNanos[phase.ordinal()] += nanos;
+  }
+
+  void setTotalNanos(long totalNanos) {
+    this.totalNanos = totalNanos;
+  }
+
+  void incrementElements() {
+    ++elements;
+  }
+
+  void incrementAttributes() {
+    ++attributes;
+  }
+
+  void addBytes(long numBytes) {
+    bytes += numBytes;
+  }
+
+  void incrementUnionFallbacks() {
+    ++unionFallbacks;
+  }
+
+  void incrementMapClusters() {
+    ++mapClusters;
+  }
+
+  void setFailure(Throwable failure) {
+    this.failure = failure;
+  }
+
+  // Adds the counts and phase times of one part of the same document.
+  void add(XmlDatumMetrics part) {
+    for (int phase = 0; phase < phaseNanos.length; ++phase) {
+      phaseNanos[phase] += part.phaseNanos[phase];
+    }
+    elements += part.elements;
+    attributes += part.attributes;
+    unionFallbacks += part.unionFallbacks;
+    mapClusters += part.mapClusters;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder str = new StringBuilder();
+    str.append(isWrite ? "write" : "read");
+    str.append(" [total=").append(totalNanos).append("ns");
+    for (Phase phase : Phase.values()) {
+      final long nanos = phaseNanos[phase.ordinal()];
+      if (nanos > 0) {
+        str.append(", ").append(phase).append('=').append(nanos).append("ns");
+      }
+    }
+    str.append(", elements=").append(elements);
+    str.append(", attributes=").append(attributes);
+    str.append(", bytes=").append(bytes);
+    str.append(", unionFallbacks=").append(unionFallbacks);
+    str.append(", mapClusters=").append(mapClusters);
+    if (failure != null) {
+      str.append(", failure=").append(failure);
+    }
+    str.append(']');
+    return str.toString();
+  }
+}
@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+/**
+ * Receives the {@link XmlDatumMetrics} of each document written by an
+ * {@link XmlDatumWriter} or read by an {@link XmlDatumReader}.
+ *
+ * <p>
+ * The listener is called on the thread that processed the document, after
+ * the document has been completely written or read, or once it has failed.
+ * When no listener is registered, no metrics are collected at all.
+ * </p>
+ */
+public interface XmlDatumMetricsListener {
+
+  /**
+   * Called once per document with the metrics collected for it.
+   * If the document failed, {@link XmlDatumMetrics#getFailure()}
+   * returns the reason.
+   */
+  void documentFinished(XmlDatumMetrics metrics);
+}
@@ -0,0 +1,724 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryData;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Writes a single large XML file or {@link Document} with an
+ * {@link XmlDatumWriter} on several threads, by cutting it into chunks
+ * before the root's children with a particular {@link QName} and
+ * encoding each chunk separately.
+ *
+ * <p>
+ * Each chunk of a file is parsed as its own document: the file's prolog and
+ * the root's start tag, with the namespaces it declares, then the
+ * chunk's children, and then the root's end tag.  The root's content
+ * model must accept any such run of its children, which is the case
+ * for the long, repeated sequences of elements this is meant for.
+ * </p>
+ *
+ * <p>
+ * The root's children are encoded as an Avro array.  The chunks are
+ * joined in document order as consecutive blocks of one array, so the
+ * result reads back as the same datum {@link XmlDatumWriter#write(File,
+ * org.apache.avro.io.Encoder)} would have written.  When a chunk starts
+ * in the middle of a run of map elements, the run is continued as
+ * another block of the map the previous chunk ended with.
+ * </p>
+ *
+ * <p>
+ * However many chunks it is cut into, each file or <code>Document</code>
+ * is reported to the writer's {@link XmlDatumMetricsListener}, and
+ * counted in the {@link XmlDatumStats}, as one document.
+ * </p>
+ *
+ * <p>
+ * Files that cannot be cut safely, such as those with a DOCTYPE, or in
+ * an encoding other than UTF-8, US-ASCII or ISO-8859-1, are written
+ * sequentially on the calling thread.
+ * </p>
+ */
+public class XmlDatumParallelWriter {
+
+  private static final long DEFAULT_CHUNK_SIZE = 16L * 1024 * 1024;
+
+  private final XmlDatumWriter writer;
+  private final QName splitElement;
+  private final ExecutorService executor;
+
+  private long chunkSize;
+  private int maxChunksInFlight;
+
+  /**
+   * Creates a new <code>XmlDatumParallelWriter</code>.
+   *
+   * @param writer The writer to encode each chunk with.
+   * @param splitElement The children of the root to cut the file before.
+   * @param executor The executor to encode the chunks on.
+   */
+  public XmlDatumParallelWriter(
+      XmlDatumWriter writer,
+      QName splitElement,
+      ExecutorService executor) {
+
+    if (writer == null) {
+      throw new IllegalArgumentException("XmlDatumWriter cannot be null.");
+    } else if (splitElement == null) {
+      throw new IllegalArgumentException("Split element cannot be null.");
+    } else if (executor == null) {
+      throw new IllegalArgumentException("ExecutorService cannot be null.");
+    }
+
+    this.writer = writer;
+    this.splitElement = splitElement;
+    this.executor = executor;
+    this.chunkSize = DEFAULT_CHUNK_SIZE;
+    this.maxChunksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * The smallest number of bytes in each chunk, other than the last.
+   * Chunks are cut at the first boundary after this many bytes.
+   * Defaults to 16MB.
+   */
+  public void setChunkSize(long chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException(
+          "Chunk size must be positive, not " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  public long getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * The most chunks to have encoded, or be encoding, but not yet spliced
+   * together.  This bounds the memory held by encoded chunks, as they
+   * are spliced in document order.  Defaults to twice the number of
+   * available processors.
+   */
+  public void setMaxChunksInFlight(int maxChunksInFlight) {
+    if (maxChunksInFlight < 1) {
+      throw new IllegalArgumentException(
+          "Max chunks in flight must be positive, not " + maxChunksInFlight);
+    }
+    this.maxChunksInFlight = maxChunksInFlight;
+  }
+
+  public int getMaxChunksInFlight() {
+    return maxChunksInFlight;
+  }
+
+  /**
+   * Writes the XML in the provided {@link File} to the {@link BinaryEncoder}
+   * in accordance with {@link XmlDatumWriter#getSchema()}.
+   *
+   * <p>
+   * Each chunk is spliced into the encoder as soon as it and the chunks
+   * before it have been encoded, so the datum is never held whole.  If a
+   * chunk fails, the chunks before it may already have been written,
+   * leaving a partial datum in the encoder.
+   * </p>
+   */
+  public void write(File xmlFile, BinaryEncoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final MappedFileInput input = MappedFileInput.open(xmlFile);
+
+    final Schema rootSchema = writer.getSchema();
+    final Schema childrenSchema = getChildrenSchema(rootSchema);
+
+    final ElementBoundaryScanner.Result boundaries =
+        (childrenSchema == null)
+        ? null
+        : ElementBoundaryScanner.scan(input, splitElement, chunkSize);
+
+    if ((boundaries == null) || (boundaries.numBoundaries == 0)) {
+      writer.write(input, out);
+      return;
+    }
+
+    final int numChunks = boundaries.numBoundaries + 1;
+    final List<Chunk> chunks = new ArrayList<Chunk>(numChunks);
+    for (int chunk = 0; chunk < numChunks; ++chunk) {
+      final int index = chunk;
+      chunks.add(new Chunk() {
+        @Override
+        public Callable<byte[]> prepare(XmlDatumWriter.PartedWrite parts) {
+          return encode(parts, input, boundaries, index);
+        }
+      });
+    }
+
+    writeChunks(
+        chunks,
+        boundaries.followsSameQName,
+        rootSchema,
+        childrenSchema,
+        out);
+  }
+
+  /**
+   * Writes the {@link Document} to the {@link BinaryEncoder} in accordance
+   * with {@link XmlDatumWriter#getSchema()}.
+   *
+   * <p>
+   * The root's children are divided into runs of roughly
+   * {@link #getChunkSize()} characters of names, attribute values and
+   * text, each starting at a child with the split element's name.
+   * Each run has its path through the XML Schema found, its Avro schema
+   * information applied, and its children encoded separately.
+   * </p>
+   *
+   * <p>
+   * The DOM does not promise that its nodes may be read from several
+   * threads at once, and lazily-built DOMs change as they are read.
+   * So the document is only ever read on the calling thread: once to
+   * size the runs, and then again to copy each run, with the root element,
+   * into a <code>Document</code> of its own just before it is encoded.
+   * At most {@link #getMaxChunksInFlight()} such copies are held at once.
+   * </p>
+   *
+   * <p>
+   * As with files, each run is spliced into the encoder as it completes,
+   * and a run that fails may leave a partial datum in the encoder.
+   * </p>
+   */
+  public void write(Document doc, BinaryEncoder out) throws IOException {
+    final Schema rootSchema = writer.getSchema();
+    final Schema childrenSchema = getChildrenSchema(rootSchema);
+    final Element root = doc.getDocumentElement();
+
+    final List<Node> firstChildren = new ArrayList<Node>();
+    final List<Boolean> followsSameQName = new ArrayList<Boolean>();
+
+    if ((childrenSchema != null) && (root != null)) {
+      long runSize = 0;
+      QName prevSibling = null;
+      for (Node child = root.getFirstChild();
+          child != null;
+          child = child.getNextSibling()) {
+
+        if (child.getNodeType() == Node.ELEMENT_NODE) {
+          final QName childQName =
+              new QName(
+                  (child.getNamespaceURI() == null)
+                    ? ""
+                    : child.getNamespaceURI(),
+                  child.getLocalName());
+
+          if ((runSize >= chunkSize)
+              && childQName.equals(splitElement)) {
+            firstChildren.add(child);
+            followsSameQName.add( childQName.equals(prevSibling) );
+            runSize = 0;
+          }
+          prevSibling = childQName;
+        }
+        runSize += estimateSize(child);
+      }
+    }
+
+    if ( firstChildren.isEmpty() ) {
+      writer.write(doc, out);
+      return;
+    }
+
+    final int numChunks = firstChildren.size() + 1;
+    final List<Chunk> chunks = new ArrayList<Chunk>(numChunks);
+    final boolean[] continuesMap = new boolean[numChunks - 1];
+
+    for (int chunk = 0; chunk < numChunks; ++chunk) {
+      final Node firstChild =
+          (chunk == 0) ? root.getFirstChild() : firstChildren.get(chunk - 1);
+      final Node endChild =
+          (chunk == numChunks - 1) ? null : firstChildren.get(chunk);
+
+      chunks.add(new Chunk() {
+        @Override
+        public Callable<byte[]> prepare(XmlDatumWriter.PartedWrite parts) {
+          return encode(parts, copyRun(root, firstChild, endChild));
+        }
+      });
+      if (chunk > 0) {
+        continuesMap[chunk - 1] = followsSameQName.get(chunk - 1);
+      }
+    }
+
+    try {
+      writeChunks(chunks, continuesMap, rootSchema, childrenSchema, out);
+    } catch (ParserConfigurationException e) {
+      throw new IOException("Unable to encode the document.", e);
+    } catch (SAXException e) {
+      throw new IOException("Unable to encode the document.", e);
+    }
+  }
+
+  /* Encodes the chunks on the executor, with at most maxChunksInFlight
+   * of them outstanding at once, and splices them into out in order.
+   * The chunks are recorded in the metrics and statistics as the one
+   * document they are parts of.
+   */
+  private void writeChunks(
+      List<Chunk> chunks,
+      boolean[] followsSameQName,
+      Schema rootSchema,
+      Schema childrenSchema,
+      BinaryEncoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final int numChunks = chunks.size();
+    final ArrayDeque<Future<byte[]>> inFlight =
+        new ArrayDeque<Future<byte[]>>(maxChunksInFlight);
+
+    final XmlDatumWriter.PartedWrite parts = writer.startParts(out);
+    final Splicer splicer =
+        new Splicer(rootSchema, childrenSchema, parts.getEncoder());
+
+    int nextChunk = 0;
+    boolean succeeded = false;
+    try {
+      for (int chunk = 0; chunk < numChunks; ++chunk) {
+        while ((nextChunk < numChunks)
+            && (inFlight.size() < maxChunksInFlight)) {
+          inFlight.add(
+              executor.submit( chunks.get(nextChunk).prepare(parts) ));
+          ++nextChunk;
+        }
+
+        final boolean continuesMap =
+            (chunk > 0) && followsSameQName[chunk - 1];
+
+        splicer.append(get(inFlight.remove()), continuesMap);
+      }
+      splicer.finish();
+      succeeded = true;
+
+    } catch (IOException e) {
+      throw parts.failed(e);
+    } catch (ParserConfigurationException e) {
+      throw parts.failed(e);
+    } catch (SAXException e) {
+      throw parts.failed(e);
+    } catch (RuntimeException e) {
+      throw parts.failed(e);
+    } finally {
+      if (!succeeded) {
+        for (Future<byte[]> future : inFlight) {
+          future.cancel(true);
+        }
+      }
+      writer.finishParts(parts, succeeded);
+    }
+  }
+
+  private Callable<byte[]> encode(
+      final XmlDatumWriter.PartedWrite parts,
+      final Document run) {
+
+    return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BinaryEncoder encoder =
+            EncoderFactory.get().binaryEncoder(bytes, null);
+
+        writer.writePart(parts, run, encoder);
+        encoder.flush();
+        return bytes.toByteArray();
+      }
+    };
+  }
+
+  /* Copies the root element, with its children from firstChild up to
+   * endChild, into a new Document.  Entity references are replaced by
+   * their content.
+   */
+  private static Document copyRun(
+      Element root,
+      Node firstChild,
+      Node endChild) {
+
+    final Document run =
+        root.getOwnerDocument().getImplementation().createDocument(
+            null,
+            null,
+            null);
+
+    final Node rootCopy = run.appendChild( copyNode(run, root) );
+    for (Node child = firstChild;
+        child != endChild;
+        child = child.getNextSibling()) {
+      copyTree(run, child, rootCopy);
+    }
+    return run;
+  }
+
+  private static void copyTree(Document run, Node node, Node parent) {
+    if (node.getNodeType() == Node.ENTITY_REFERENCE_NODE) {
+      copyChildren(run, node, parent);
+    } else {
+      copyChildren(run, node, parent.appendChild( copyNode(run, node) ));
+    }
+  }
+
+  private static void copyChildren(Document run, Node node, Node parent) {
+    for (Node child = node.getFirstChild();
+        child != null;
+        child = child.getNextSibling()) {
+      copyTree(run, child, parent);
+    }
+  }
+
+  /* Copies the node without its children.  Elements are copied with all
+   * of their attributes, including any defaulted ones, which importing
+   * the element would leave out.
+   */
+  private static Node copyNode(Document run, Node node) {
+    if (node.getNodeType() != Node.ELEMENT_NODE) {
+      return run.importNode(node, false);
+    }
+
+    final Element copy =
+        run.createElementNS(node.getNamespaceURI(), node.getNodeName());
+    final NamedNodeMap attrs = node.getAttributes();
+    final int numAttrs = attrs.getLength();
+    for (int index = 0; index < numAttrs; ++index) {
+      final Node attr = attrs.item(index);
+      copy.setAttributeNS(
+          attr.getNamespaceURI(),
+          attr.getNodeName(),
+          attr.getNodeValue());
+    }
+    return copy;
+  }
+
+  // The number of characters in the names, attribute values, and text.
+  private static long estimateSize(Node node) {
+    switch ( node.getNodeType() ) {
+    case Node.ELEMENT_NODE:
+      {
+        long size = node.getNodeName().length();
+        final NamedNodeMap attrs = node.getAttributes();
+        final int numAttrs = attrs.getLength();
+        for (int index = 0; index < numAttrs; ++index) {
+          final Node attr = attrs.item(index);
+          size += attr.getNodeName().length();
+          size += attr.getNodeValue().length();
+        }
+        return size + estimateChildrenSize(node);
+      }
+    case Node.ENTITY_REFERENCE_NODE:
+      return estimateChildrenSize(node);
+    case Node.TEXT_NODE:
+    case Node.CDATA_SECTION_NODE:
+      return ((CharacterData) node).getData().length();
+    default:
+      // Comments and processing instructions are not encoded.
+      return 0;
+    }
+  }
+
+  private static long estimateChildrenSize(Node node) {
+    long size = 0;
+    for (Node child = node.getFirstChild();
+        child != null;
+        child = child.getNextSibling()) {
+      size += estimateSize(child);
+    }
+    return size;
+  }
+
+  private Callable<byte[]> encode(
+      final XmlDatumWriter.PartedWrite parts,
+      final MappedFileInput input,
+      final ElementBoundaryScanner.Result boundaries,
+      final int chunk) {
+
+    final long start =
+        (chunk == 0)
+        ? boundaries.rootStartTagEnd
+        : boundaries.boundaries[chunk - 1];
+
+    final long end =
+        (chunk == boundaries.numBoundaries)
+        ? boundaries.rootEndTagStart
+        : boundaries.boundaries[chunk];
+
+    return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        final MappedFileInput chunkInput =
+            MappedFileInput.concat(
+                input.getSystemId(),
+                input.slice(0, boundaries.rootStartTagEnd),
+                input.slice(start, end),
+                input.slice(boundaries.rootEndTagStart, input.size()));
+
+        final ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream((int) Math.min(end - start, 1 << 20));
+        final BinaryEncoder encoder =
+            EncoderFactory.get().binaryEncoder(bytes, null);
+
+        writer.writePart(parts, chunkInput, encoder);
+        encoder.flush();
+        return bytes.toByteArray();
+      }
+    };
+  }
+
+  /* A chunk to encode.  It is prepared on the calling thread, in document
+   * order, just before it is submitted to the executor.
+   */
+  private interface Chunk {
+    Callable<byte[]> prepare(XmlDatumWriter.PartedWrite parts);
+  }
+
+  private static byte[] get(Future<byte[]> future)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    try {
+      return future.get();
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a chunk.", e);
+
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof SAXException) {
+        throw (SAXException) cause;
+      } else if (cause instanceof ParserConfigurationException) {
+        throw (ParserConfigurationException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Unable to encode a chunk.", cause);
+    }
+  }
+
+  /* The schema of the root's children, the last field of the root's
+   * RECORD, or null if the root's children are not written as an array.
+   */
+  private static Schema getChildrenSchema(Schema rootSchema) {
+    if ((rootSchema == null) || !rootSchema.getType().equals(Schema.Type.RECORD)) {
+      return null;
+    }
+    final List<Schema.Field> fields = rootSchema.getFields();
+    if ( fields.isEmpty() ) {
+      return null;
+    }
+    final Schema childrenSchema = fields.get(fields.size() - 1).schema();
+    if ( !childrenSchema.getType().equals(Schema.Type.ARRAY) ) {
+      return null;
+    }
+    return childrenSchema;
+  }
+
+  /**
+   * Joins the encoded chunks into one datum.  Each chunk is the root's
+   * attributes, followed by the one block of children it was encoded
+   * with, and the array's terminating zero.  The root's attributes are
+   * written once, followed by each chunk's block of children.
+   *
+   * <p>
+   * The last byte of each chunk's children is held back until the next
+   * chunk arrives.  If the next chunk continues a map the previous one
+   * ended with, that byte - the map's terminating zero - is dropped, and
+   * the map's entries in the next chunk are written as another block of
+   * the same map.
+   * </p>
+   */
+  private static final class Splicer {
+    private final Schema rootSchema;
+    private final Schema childSchema;
+    private final Encoder out;
+
+    private byte[] prefix;
+    private boolean hasHeldByte;
+    private byte heldByte;
+
+    private BinaryDecoder decoder;
+    private final byte[] countBytes;
+
+    Splicer(Schema rootSchema, Schema childrenSchema, Encoder out) {
+      this.rootSchema = rootSchema;
+      this.childSchema = childrenSchema.getElementType();
+      this.out = out;
+      this.prefix = null;
+      this.hasHeldByte = false;
+      this.countBytes = new byte[10];
+    }
+
+    void append(byte[] chunk, boolean continuesMap) throws IOException {
+      if (prefix == null) {
+        prefix = readPrefix(chunk);
+        out.writeFixed(prefix);
+      } else {
+        checkPrefix(chunk);
+      }
+
+      final int end = chunk.length - 1;
+      int start = prefix.length;
+
+      if (start == end) {
+        // A chunk with no children.
+        return;
+      }
+
+      if (continuesMap && hasHeldByte) {
+        start = continueMap(chunk, start, end);
+        if (start == end) {
+          return;
+        }
+      }
+
+      if (hasHeldByte) {
+        out.writeFixed(new byte[] { heldByte });
+        hasHeldByte = false;
+      }
+
+      if (start < end) {
+        out.writeFixed(chunk, start, end - start - 1);
+        heldByte = chunk[end - 1];
+        hasHeldByte = true;
+      }
+    }
+
+    void finish() throws IOException {
+      if (hasHeldByte) {
+        out.writeFixed(new byte[] { heldByte });
+        hasHeldByte = false;
+      }
+      out.writeArrayEnd();
+    }
+
+    /* Writes the map starting this chunk's children as another block of
+     * the map the previous chunk ended with, followed by the count of the
+     * remaining children.  Returns where those remaining children start,
+     * or end if the map was the chunk's only child.
+     */
+    private int continueMap(byte[] chunk, int start, int end)
+        throws IOException {
+
+      decoder = DecoderFactory.get().binaryDecoder(
+          chunk,
+          start,
+          end - start,
+          decoder);
+
+      final long numChildren = decoder.readArrayStart();
+
+      Schema mapSchema = childSchema;
+      if ( childSchema.getType().equals(Schema.Type.UNION) ) {
+        mapSchema = childSchema.getTypes().get( decoder.readIndex() );
+      }
+
+      if ( !mapSchema.getType().equals(Schema.Type.MAP) ) {
+        // The previous sibling was not the end of a map after all.
+        return start;
+      }
+
+      final int mapStart = end - decoder.inputStream().available();
+      new GenericDatumReader<Object>(mapSchema).read(null, decoder);
+      final int mapEnd = end - decoder.inputStream().available();
+
+      // Drops the previous map's terminating zero.
+      hasHeldByte = false;
+
+      if (numChildren == 1) {
+        out.writeFixed(chunk, mapStart, mapEnd - mapStart - 1);
+        heldByte = chunk[mapEnd - 1];
+        hasHeldByte = true;
+        return end;
+      }
+
+      out.writeFixed(chunk, mapStart, mapEnd - mapStart);
+      final int countLength =
+          BinaryData.encodeLong(numChildren - 1, countBytes, 0);
+      out.writeFixed(countBytes, 0, countLength);
+      return mapEnd;
+    }
+
+    // The root's attributes: every field but the last.
+    private byte[] readPrefix(byte[] chunk) throws IOException {
+      final BinaryDecoder prefixDecoder =
+          DecoderFactory.get().binaryDecoder(chunk, null);
+
+      final List<Schema.Field> fields = rootSchema.getFields();
+      for (int field = 0; field < fields.size() - 1; ++field) {
+        new GenericDatumReader<Object>( fields.get(field).schema() ).read(
+            null,
+            prefixDecoder);
+      }
+
+      final int length =
+          chunk.length - prefixDecoder.inputStream().available();
+
+      final byte[] prefix = new byte[length];
+      System.arraycopy(chunk, 0, prefix, 0, length);
+      return prefix;
+    }
+
+    private void checkPrefix(byte[] chunk) {
+      boolean matches = (chunk.length > prefix.length);
+      for (int index = 0; matches && (index < prefix.length); ++index) {
+        matches = (chunk[index] == prefix[index]);
+      }
+      if (!matches) {
+        throw new IllegalStateException(
+            "A chunk's root element was not encoded the same as the first.");
+      }
+    }
+  }
+}
@@ -0,0 +1,484 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Writes a stream of XML files to an Avro {@link DataFileWriter} with an
+ * {@link XmlDatumWriter}, in three stages that run at the same time on
+ * different documents:
+ *
+ * <ol>
+ *   <li>
+ *     Each file is parsed to find its path through the XML Schema,
+ *     on the parsing {@link ExecutorService}.
+ *   </li>
+ *   <li>
+ *     The Avro schema is applied to the path, and the file is parsed
+ *     again to encode it, on the encoding {@link ExecutorService}.
+ *   </li>
+ *   <li>
+ *     The encoded documents are appended to the {@link DataFileWriter}
+ *     in the order the files were provided, where they are compressed
+ *     with its codec, on a single thread of the output
+ *     {@link ExecutorService}.
+ *   </li>
+ * </ol>
+ *
+ * <p>
+ * Documents pass from one stage to the next as soon as they are ready,
+ * so large documents do not hold up the smaller ones behind them in the
+ * first two stages.  At most {@link #getMaxDocumentsInFlight()} documents
+ * are between the first and last stages at once, which bounds the memory
+ * the pipeline holds.
+ * </p>
+ *
+ * <p>
+ * The first document that cannot be written stops the pipeline: no
+ * more files are started, the documents before it are still appended,
+ * and {@link #write(Iterator, DataFileWriter)} throws its failure.
+ * A document whose task an executor discards, as
+ * {@link ExecutorService#shutdownNow()} does, fails once that executor
+ * has terminated, as do all of the documents if the output stage's task
+ * is discarded.
+ * </p>
+ */
+public class XmlDatumPipeline {
+
+  // Marks the end of the documents in the output queue.
+  private static final Slot END = new Slot(null, null);
+
+  // How often a document still waited for checks its stage's executor.
+  private static final long STAGE_CHECK_MILLIS = 100;
+
+  private final XmlDatumWriter writer;
+  private final ExecutorService parseExecutor;
+  private final ExecutorService encodeExecutor;
+  private final ExecutorService outputExecutor;
+
+  private int maxDocumentsInFlight;
+
+  /**
+   * Creates a new <code>XmlDatumPipeline</code>.  The parsing and encoding
+   * executors never wait on each other, and may be the same.  The output
+   * stage holds one thread of its executor for the whole of each write,
+   * waiting on the others, so it needs a thread to itself.
+   *
+   * @param writer The writer to write each document with.
+   * @param parseExecutor Finds each document's path through the schema.
+   * @param encodeExecutor Applies the Avro schema and encodes each document.
+   * @param outputExecutor Appends the documents to the output.
+   */
+  public XmlDatumPipeline(
+      XmlDatumWriter writer,
+      ExecutorService parseExecutor,
+      ExecutorService encodeExecutor,
+      ExecutorService outputExecutor) {
+
+    if (writer == null) {
+      throw new IllegalArgumentException("XmlDatumWriter cannot be null.");
+    } else if ((parseExecutor == null)
+        || (encodeExecutor == null)
+        || (outputExecutor == null)) {
+      throw new IllegalArgumentException("ExecutorServices cannot be null.");
+    }
+
+    this.writer = writer;
+    this.parseExecutor = parseExecutor;
+    this.encodeExecutor = encodeExecutor;
+    this.outputExecutor = outputExecutor;
+    this.maxDocumentsInFlight =
+        4 * Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * The most documents to have started, but not yet appended to the
+   * output.  Defaults to four times the number of available processors.
+   */
+  public void setMaxDocumentsInFlight(int maxDocumentsInFlight) {
+    if (maxDocumentsInFlight < 1) {
+      throw new IllegalArgumentException(
+          "Max documents in flight must be positive, not "
+          + maxDocumentsInFlight);
+    }
+    this.maxDocumentsInFlight = maxDocumentsInFlight;
+  }
+
+  public int getMaxDocumentsInFlight() {
+    return maxDocumentsInFlight;
+  }
+
+  /**
+   * Writes each of the XML files to the {@link DataFileWriter}, which must
+   * have been created with {@link XmlDatumWriter#getSchema()}, as one
+   * datum per file, in order.  The {@link DataFileWriter} is not closed.
+   *
+   * @return The number of documents written.
+   */
+  public long write(Iterator<File> xmlFiles, DataFileWriter<?> out)
+      throws IOException {
+
+    final int capacity = maxDocumentsInFlight;
+    final Semaphore permits = new Semaphore(capacity);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+
+    // One more than the permits, so the END marker always fits.
+    final BlockingQueue<Slot> outputQueue =
+        new ArrayBlockingQueue<Slot>(capacity + 1);
+
+    final Future<Long> output =
+        outputExecutor.submit(
+            new Output(writer, outputQueue, permits, failed, out));
+
+    IOException interrupted = null;
+    try {
+      while ( !failed.get() && xmlFiles.hasNext() ) {
+        if ( !acquire(permits, output) ) {
+          break;
+        }
+
+        final Slot slot = new Slot(xmlFiles.next(), parseExecutor);
+        outputQueue.add(slot);
+
+        try {
+          parseExecutor.execute( new Parse(slot) );
+        } catch (RejectedExecutionException e) {
+          slot.fail(e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      interrupted =
+          new InterruptedIOException("Interrupted while starting documents.");
+    } finally {
+      outputQueue.add(END);
+    }
+
+    long numWritten = 0;
+    try {
+      numWritten = awaitOutput(output, outputQueue);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      output.cancel(true);
+      throw new InterruptedIOException("Interrupted while writing output.");
+    } catch (ExecutionException e) {
+      throw rethrow( e.getCause() );
+    }
+
+    if (interrupted != null) {
+      throw interrupted;
+    }
+    return numWritten;
+  }
+
+  /* Waits for a permit, unless the output stage has stopped releasing
+   * them: it has finished, or its executor terminated without running it.
+   */
+  private boolean acquire(Semaphore permits, Future<Long> output)
+      throws InterruptedException {
+
+    while ( !permits.tryAcquire(STAGE_CHECK_MILLIS, TimeUnit.MILLISECONDS) ) {
+      if (output.isDone() || outputExecutor.isTerminated()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Waits for the output stage.  If its executor terminates without
+   * running it, the documents it would have written are waited for here,
+   * so the writes they started are finished or abandoned, and then fail.
+   */
+  private long awaitOutput(Future<Long> output, BlockingQueue<Slot> queue)
+      throws InterruptedException, ExecutionException, IOException {
+
+    while (true) {
+      try {
+        return output.get(STAGE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        if (outputExecutor.isTerminated() && !output.isDone()) {
+          break;
+        }
+      }
+    }
+
+    Slot slot = null;
+    while ((slot = queue.take()) != END) {
+      try {
+        slot.await(writer);
+      } catch (IOException e) {
+        // Not written either way.
+      }
+    }
+    throw new IOException(
+        "Unable to write the documents.",
+        new RejectedExecutionException(
+            "The output executor terminated without running the task."));
+  }
+
+  private static IOException rethrow(Throwable failure) {
+    if (failure instanceof IOException) {
+      return (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    return new IOException("Unable to write a document.", failure);
+  }
+
+  /**
+   * A document on its way through the pipeline.  It is
+   * done when it has been encoded, or has failed.
+   */
+  private static final class Slot {
+    final File xmlFile;
+    private final CountDownLatch done;
+    private volatile byte[] datum;
+    private volatile Throwable failure;
+
+    // The executor running the document's current stage.
+    private volatile ExecutorService stage;
+
+    // Set once the document's path has been found.
+    private volatile XmlDatumWriter.PendingWrite pending;
+
+    Slot(File xmlFile, ExecutorService stage) {
+      this.xmlFile = xmlFile;
+      this.done = new CountDownLatch(1);
+      this.stage = stage;
+    }
+
+    void startEncoding(
+        ExecutorService encodeExecutor,
+        XmlDatumWriter.PendingWrite pendingWrite) {
+
+      pending = pendingWrite;
+      stage = encodeExecutor;
+    }
+
+    void complete(byte[] encoded) {
+      datum = encoded;
+      done.countDown();
+    }
+
+    void fail(Throwable cause) {
+      failure = cause;
+      done.countDown();
+    }
+
+    /* Waits for the document to be done.  If the executor of its current
+     * stage terminates first, the stage's task was discarded, and so the
+     * document fails, and any write it started is abandoned.
+     */
+    byte[] await(XmlDatumWriter writer)
+        throws InterruptedException, IOException {
+
+      while ( !done.await(STAGE_CHECK_MILLIS, TimeUnit.MILLISECONDS) ) {
+        final ExecutorService executor = stage;
+        if (executor.isTerminated()
+            && (executor == stage)
+            && (done.getCount() > 0)) {
+
+          final Throwable cause =
+              new RejectedExecutionException(
+                  "The executor terminated without running the task.");
+          if (pending != null) {
+            writer.abandon(pending, cause);
+          }
+          fail(cause);
+        }
+      }
+
+      if (failure != null) {
+        throw new IOException("Unable to write " + xmlFile, failure);
+      }
+      return datum;
+    }
+  }
+
+  // The first stage: finds the document's path through the XML Schema.
+  private final class Parse implements Runnable {
+    private final Slot slot;
+
+    Parse(Slot slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    public void run() {
+      XmlDatumWriter.PendingWrite pending = null;
+      try {
+        pending = writer.findPath( MappedFileInput.open(slot.xmlFile) );
+
+        slot.startEncoding(encodeExecutor, pending);
+        encodeExecutor.execute( new Encode(slot, pending) );
+
+      } catch (Throwable t) {
+        // Encode finishes the write, unless it never got the chance to.
+        if (pending != null) {
+          writer.abandon(pending, t);
+        }
+        slot.fail(t);
+      }
+    }
+  }
+
+  // The second stage: applies the Avro schema and encodes the document.
+  private final class Encode implements Runnable {
+    private final Slot slot;
+    private final XmlDatumWriter.PendingWrite pending;
+
+    Encode(Slot slot, XmlDatumWriter.PendingWrite pending) {
+      this.slot = slot;
+      this.pending = pending;
+    }
+
+    @Override
+    public void run() {
+      try {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BinaryEncoder encoder =
+            EncoderFactory.get().binaryEncoder(bytes, null);
+
+        writer.encode(pending, encoder);
+        encoder.flush();
+
+        slot.complete( bytes.toByteArray() );
+
+      } catch (Throwable t) {
+        slot.fail(t);
+      }
+    }
+  }
+
+  /* The last stage: appends the documents to the output in order.
+   * After a failure, including an interrupt or a failed append, the
+   * remaining documents are still waited for, so their permits are
+   * released, but are not written.
+   */
+  private static final class Output implements Callable<Long> {
+    private final XmlDatumWriter writer;
+    private final BlockingQueue<Slot> queue;
+    private final Semaphore permits;
+    private final AtomicBoolean failed;
+    private final DataFileWriter<?> out;
+    private boolean interrupted;
+
+    Output(
+        XmlDatumWriter writer,
+        BlockingQueue<Slot> queue,
+        Semaphore permits,
+        AtomicBoolean failed,
+        DataFileWriter<?> out) {
+
+      this.writer = writer;
+      this.queue = queue;
+      this.permits = permits;
+      this.failed = failed;
+      this.out = out;
+    }
+
+    @Override
+    public Long call() throws Exception {
+      long numWritten = 0;
+      Exception failure = null;
+
+      Slot slot = null;
+      while ((slot = take()) != END) {
+        try {
+          final byte[] datum = await(slot);
+          if (failure == null) {
+            out.appendEncoded( ByteBuffer.wrap(datum) );
+            ++numWritten;
+          }
+        } catch (Exception e) {
+          if (failure == null) {
+            failure = e;
+            failed.set(true);
+          }
+        } finally {
+          permits.release();
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+        if (failure == null) {
+          failure =
+              new InterruptedIOException("Interrupted while writing output.");
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return numWritten;
+    }
+
+    /* An interrupt stops the pipeline, but the queue is still drained,
+     * so the permits of the documents in it are released.
+     */
+    private Slot take() {
+      while (true) {
+        try {
+          return queue.take();
+        } catch (InterruptedException e) {
+          interrupted();
+        }
+      }
+    }
+
+    private byte[] await(Slot slot) throws IOException {
+      while (true) {
+        try {
+          return slot.await(writer);
+        } catch (InterruptedException e) {
+          interrupted();
+        }
+      }
+    }
+
+    private void interrupted() {
+      interrupted = true;
+      failed.set(true);
+    }
+  }
+}
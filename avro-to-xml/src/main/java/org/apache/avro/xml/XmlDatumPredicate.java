@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+
+/**
+ * Matches the documents in which an {@link XmlDatumField} has at least one
+ * value between a lower and an upper bound, inclusive.  Either bound may be
+ * left open, and {@link #equalTo(XmlDatumField, Object)} sets both to the
+ * same value.
+ *
+ * <p>
+ * The bounds are compared with the values as Avro stores them, as
+ * {@link XmlDatumValueStats} describes.  They may be given as any
+ * {@link Number}, {@link CharSequence} or {@link Boolean}.  A {@link Date}
+ * is converted to the number of days since the epoch for fields of
+ * <code>xs:date</code>, and the number of milliseconds otherwise, as
+ * {@link XmlDatumWriter} writes dates and times.
+ * </p>
+ */
+public final class XmlDatumPredicate {
+
+  private final XmlDatumField field;
+  private final Object lower;
+  private final Object upper;
+
+  private XmlDatumPredicate(XmlDatumField field, Object lower, Object upper) {
+    if (field == null) {
+      throw new IllegalArgumentException("The field cannot be null.");
+    } else if ((lower == null) && (upper == null)) {
+      throw new IllegalArgumentException(
+          "At least one bound is required for " + field);
+    }
+    checkValue(lower);
+    checkValue(upper);
+
+    this.field = field;
+    this.lower = lower;
+    this.upper = upper;
+  }
+
+  public static XmlDatumPredicate equalTo(XmlDatumField field, Object value) {
+    if (value == null) {
+      throw new IllegalArgumentException(
+          "The value " + field + " is equal to cannot be null.");
+    }
+    return new XmlDatumPredicate(field, value, value);
+  }
+
+  /**
+   * Values between the two, inclusive.  Either may be
+   * <code>null</code> to leave that end of the range open.
+   */
+  public static XmlDatumPredicate between(
+      XmlDatumField field,
+      Object lower,
+      Object upper) {
+
+    return new XmlDatumPredicate(field, lower, upper);
+  }
+
+  public static XmlDatumPredicate atLeast(XmlDatumField field, Object lower) {
+    return new XmlDatumPredicate(field, lower, null);
+  }
+
+  public static XmlDatumPredicate atMost(XmlDatumField field, Object upper) {
+    return new XmlDatumPredicate(field, null, upper);
+  }
+
+  private static void checkValue(Object value) {
+    if ((value != null)
+        && !(value instanceof Number)
+        && !(value instanceof CharSequence)
+        && !(value instanceof Boolean)
+        && !(value instanceof Date)) {
+      throw new IllegalArgumentException(
+          "Cannot compare values with a " + value.getClass().getName());
+
+    } else if (((value instanceof Double) || (value instanceof Float))
+               && (Double.isNaN( ((Number) value).doubleValue() )
+                   || Double.isInfinite( ((Number) value).doubleValue() ))) {
+      throw new IllegalArgumentException(
+          "Cannot compare values with " + value);
+    }
+  }
+
+  public XmlDatumField getField() {
+    return field;
+  }
+
+  /**
+   * The lower bound, or <code>null</code> if the range is open below.
+   */
+  public Object getLower() {
+    return lower;
+  }
+
+  /**
+   * The upper bound, or <code>null</code> if the range is open above.
+   */
+  public Object getUpper() {
+    return upper;
+  }
+
+  /**
+   * The same predicate, with its bounds converted to the values
+   * {@link XmlDatumValueStats} compares, for a field of the schema.
+   */
+  XmlDatumPredicate bind(Schema valueSchema) {
+    return new XmlDatumPredicate(
+        field,
+        normalize(lower, valueSchema),
+        normalize(upper, valueSchema));
+  }
+
+  private static Object normalize(Object value, Schema valueSchema) {
+    if (value instanceof Date) {
+      final long millis = ((Date) value).getTime();
+      if ( isDate(valueSchema) ) {
+        return BigDecimal.valueOf(
+            TimeUnit.DAYS.convert(millis, TimeUnit.MILLISECONDS));
+      }
+      return BigDecimal.valueOf(millis);
+
+    } else if (value instanceof BigDecimal) {
+      return value;
+    } else if (value instanceof BigInteger) {
+      return new BigDecimal( (BigInteger) value );
+    } else if (value instanceof Number) {
+      return new BigDecimal( value.toString() );
+    } else if (value instanceof CharSequence) {
+      return value.toString();
+    }
+    return value;
+  }
+
+  private static boolean isDate(Schema schema) {
+    if (schema == null) {
+      return false;
+    } else if ( schema.getType().equals(Schema.Type.UNION) ) {
+      for (Schema type : schema.getTypes()) {
+        if ( isDate(type) ) {
+          return true;
+        }
+      }
+      return false;
+    } else if ( schema.getType().equals(Schema.Type.ARRAY) ) {
+      return isDate( schema.getElementType() );
+    }
+    return "date".equals( schema.getProp("logicalType") );
+  }
+
+  /**
+   * Whether a block with these statistics could have a matching value.
+   */
+  boolean mayMatch(XmlDatumValueStats stats) {
+    return stats.mayContain(lower, upper);
+  }
+
+  /**
+   * Whether the value, as {@link XmlDatumValueStats} compares
+   * them, matches.  Only bound predicates can match values.
+   */
+  boolean matches(Object value) {
+    // Values of another kind are outside of even an open range.
+    final Object bound = (lower != null) ? lower : upper;
+    if ( !XmlDatumValueStats.isComparable(value)
+        || !XmlDatumValueStats.isSameKind(bound, value) ) {
+      return false;
+    }
+    return ((lower == null)
+            || (XmlDatumValueStats.VALUE_ORDER.compare(lower, value) <= 0))
+        && ((upper == null)
+            || (XmlDatumValueStats.VALUE_ORDER.compare(value, upper) <= 0));
+  }
+
+  @Override
+  public String toString() {
+    if ((lower != null) && lower.equals(upper)) {
+      return field + " = " + lower;
+    }
+    return ((lower == null) ? "" : (lower + " <= "))
+        + field
+        + ((upper == null) ? "" : (" <= " + upper));
+  }
+}
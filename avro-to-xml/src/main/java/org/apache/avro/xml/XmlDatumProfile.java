@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Aggregates the encoding cost of each element and attribute written by an
+ * {@link XmlDatumWriter}, across every document written while the profile
+ * is set with {@link XmlDatumWriter#setProfile(XmlDatumProfile)}.
+ *
+ * <p>
+ * For each element {@link QName}, and each attribute of each element, the
+ * profile records how often it occurred, how many Avro binary bytes it
+ * produced, how many characters of text it started from, and how long the
+ * conversion from text to its Avro type took.  An element's own bytes
+ * exclude those of its child elements, which are counted separately in
+ * its total.  Attribute bytes are counted in both the attribute's entry
+ * and its element's.
+ * </p>
+ *
+ * <p>
+ * Documents are added to the profile once they are successfully written,
+ * so a profile may be shared by writers on several threads.
+ * </p>
+ */
+public final class XmlDatumProfile {
+
+  /**
+   * The costs of a single element or attribute.
+   */
+  public static final class Entry {
+    private final QName elementQName;
+    private final String attributeName;
+    private long count;
+    private long bytes;
+    private long totalBytes;
+    private long chars;
+    private long nanos;
+
+    Entry(QName elementQName, String attributeName) {
+      this.elementQName = elementQName;
+      this.attributeName = attributeName;
+    }
+
+    /**
+     * The element, or the element owning the attribute.
+     */
+    public QName getElementQName() {
+      return elementQName;
+    }
+
+    /**
+     * The name of the attribute, or <code>null</code>
+     * if this entry describes the element itself.
+     */
+    public String getAttributeName() {
+      return attributeName;
+    }
+
+    /**
+     * The number of times the element or attribute was written.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * The number of Avro binary bytes written for the element or attribute
+     * itself, not including the bytes of any child elements.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * The number of Avro binary bytes written for the element or
+     * attribute, including the bytes of all of its descendants.
+     */
+    public long getTotalBytes() {
+      return totalBytes;
+    }
+
+    /**
+     * The number of characters of text converted for
+     * the element's content or the attribute's value.
+     */
+    public long getChars() {
+      return chars;
+    }
+
+    /**
+     * The time, in nanoseconds, spent converting the element's content
+     * or the attribute's value into its Avro type and writing it.
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * The element QName, followed by <code>/@</code> and the
+     * attribute name if this entry describes an attribute.
+     */
+    public String getName() {
+      if (attributeName == null) {
+        return elementQName.toString();
+      }
+      return elementQName.toString() + "/@" + attributeName;
+    }
+
+    void add(long numBytes, long numTotalBytes, long numChars, long time) {
+      ++count;
+      bytes += numBytes;
+      totalBytes += numTotalBytes;
+      chars += numChars;
+      nanos += time;
+    }
+
+    void merge(Entry other) {
+      count += other.count;
+      bytes += other.bytes;
+      totalBytes += other.totalBytes;
+      chars += other.chars;
+      nanos += other.nanos;
+    }
+  }
+
+  private static final Comparator<Entry> BY_COST = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry o1, Entry o2) {
+      if (o1.bytes != o2.bytes) {
+        return (o1.bytes > o2.bytes) ? -1 : 1;
+      }
+      if (o1.nanos != o2.nanos) {
+        return (o1.nanos > o2.nanos) ? -1 : 1;
+      }
+      return o1.getName().compareTo( o2.getName() );
+    }
+  };
+
+  private final Map<QName, Entry> elements;
+  private final Map<QName, Map<String, Entry>> attributes;
+
+  /**
+   * Creates an empty profile.
+   */
+  public XmlDatumProfile() {
+    elements = new HashMap<QName, Entry>();
+    attributes = new HashMap<QName, Map<String, Entry>>();
+  }
+
+  /**
+   * Returns a snapshot of the element and attribute entries, ordered from
+   * the most to the least bytes written, then by time spent converting.
+   */
+  public synchronized List<Entry> getEntries() {
+    final ArrayList<Entry> entries = new ArrayList<Entry>();
+    for (Entry entry : elements.values()) {
+      entries.add( copyOf(entry) );
+    }
+    for (Map<String, Entry> attrEntries : attributes.values()) {
+      for (Entry entry : attrEntries.values()) {
+        entries.add( copyOf(entry) );
+      }
+    }
+    Collections.sort(entries, BY_COST);
+    return entries;
+  }
+
+  /**
+   * Removes all entries from the profile.
+   */
+  public synchronized void clear() {
+    elements.clear();
+    attributes.clear();
+  }
+
+  /**
+   * Writes a table of the entries, in the order of {@link #getEntries()},
+   * with the percentage of all bytes written each is responsible for.
+   */
+  public void writeReport(Appendable out) throws IOException {
+    final List<Entry> entries = getEntries();
+
+    long allBytes = 0;
+    for (Entry entry : entries) {
+      if (entry.getAttributeName() == null) {
+        allBytes += entry.getBytes();
+      }
+    }
+
+    out.append(
+        String.format(
+            "%7s %12s %12s %10s %12s %10s  %s%n",
+            "bytes%",
+            "self bytes",
+            "total bytes",
+            "count",
+            "chars",
+            "convert ms",
+            "name"));
+
+    for (Entry entry : entries) {
+      final double percent =
+          (allBytes == 0) ? 0.0 : (100.0 * entry.getBytes()) / allBytes;
+
+      out.append(
+          String.format(
+              "%6.2f%% %12d %12d %10d %12d %10.3f  %s%n",
+              percent,
+              entry.getBytes(),
+              entry.getTotalBytes(),
+              entry.getCount(),
+              entry.getChars(),
+              entry.getNanos() / 1000000.0,
+              entry.getName()));
+    }
+  }
+
+  Entry getElementEntry(QName elemQName) {
+    Entry entry = elements.get(elemQName);
+    if (entry == null) {
+      entry = new Entry(elemQName, null);
+      elements.put(elemQName, entry);
+    }
+    return entry;
+  }
+
+  Entry getAttributeEntry(QName elemQName, String attrName) {
+    Map<String, Entry> attrEntries = attributes.get(elemQName);
+    if (attrEntries == null) {
+      attrEntries = new HashMap<String, Entry>();
+      attributes.put(elemQName, attrEntries);
+    }
+
+    Entry entry = attrEntries.get(attrName);
+    if (entry == null) {
+      entry = new Entry(elemQName, attrName);
+      attrEntries.put(attrName, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Adds the entries of a single document's profile to this one.
+   * The other profile must not be modified concurrently.
+   */
+  synchronized void merge(XmlDatumProfile other) {
+    for (Entry entry : other.elements.values()) {
+      getElementEntry( entry.getElementQName() ).merge(entry);
+    }
+    for (Map<String, Entry> attrEntries : other.attributes.values()) {
+      for (Entry entry : attrEntries.values()) {
+        getAttributeEntry(
+            entry.getElementQName(),
+            entry.getAttributeName()).merge(entry);
+      }
+    }
+  }
+
+  private static Entry copyOf(Entry entry) {
+    final Entry copy =
+        new Entry(entry.getElementQName(), entry.getAttributeName());
+    copy.merge(entry);
+    return copy;
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The parts of a document an {@link XmlDatumReader} should read, when only
+ * a few of its elements are needed.  Elements are selected either by name,
+ * wherever they appear, or by their path from the root element.
+ *
+ * <p>
+ * A selected element is read in full: its attributes, content, and all of
+ * its descendants.  The elements it is nested in are read as bare elements,
+ * without their attributes or text, so the selected elements keep their
+ * place in the document.  Everything else is skipped in the Avro datum
+ * without being decoded.
+ * </p>
+ *
+ * <p>
+ * The documents read with a projection are not validated against the
+ * XML Schema, as they are missing the parts that were not selected.
+ * </p>
+ *
+ * @see XmlDatumReader#setProjection(XmlDatumProjection)
+ */
+public class XmlDatumProjection {
+
+  private final Set<QName> elements;
+  private final List<List<QName>> paths;
+
+  public XmlDatumProjection() {
+    elements = new LinkedHashSet<QName>();
+    paths = new ArrayList<List<QName>>();
+  }
+
+  /**
+   * Selects every element with this name, wherever it is in the document.
+   */
+  public void addElement(QName element) {
+    if (element == null) {
+      throw new IllegalArgumentException("Element QName cannot be null.");
+    }
+    elements.add(element);
+  }
+
+  /**
+   * Selects the elements at the end of this path.  The path starts at the
+   * root element, and each step is the name of a child of the step before.
+   */
+  public void addPath(QName... path) {
+    if ((path == null) || (path.length == 0)) {
+      throw new IllegalArgumentException("The path cannot be empty.");
+    }
+    for (QName step : path) {
+      if (step == null) {
+        throw new IllegalArgumentException(
+            "The path cannot have null steps: " + Arrays.toString(path));
+      }
+    }
+    paths.add( Collections.unmodifiableList( Arrays.asList(path.clone()) ) );
+  }
+
+  /**
+   * The elements selected by {@link #addElement(QName)}.
+   */
+  public Set<QName> getElements() {
+    return Collections.unmodifiableSet(elements);
+  }
+
+  /**
+   * The paths selected by {@link #addPath(QName...)}.
+   */
+  public List<List<QName>> getPaths() {
+    return Collections.unmodifiableList(paths);
+  }
+
+  public boolean isEmpty() {
+    return elements.isEmpty() && paths.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "XmlDatumProjection[elements=" + elements + ", paths=" + paths + ']';
+  }
+}
@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.w3c.dom.Document;
+
+/**
+ * Finds the documents in an Avro data file that match all of its
+ * {@link XmlDatumPredicate}s, and reads only those back to XML.
+ *
+ * <p>
+ * If the data file was written by an {@link XmlDatumStatsFileWriter}, the
+ * {@link XmlDatumBlockStats} beside it are checked first, and the blocks
+ * that cannot match are skipped without being read or decompressed.  The
+ * datums in the remaining blocks are decoded generically, which is cheap,
+ * and only the ones that match are read back to XML by an
+ * {@link XmlDatumReader}.  Predicates on fields without statistics cannot
+ * skip blocks, but are still checked against each datum, as is every
+ * datum of a file without statistics.
+ * </p>
+ *
+ * <p>
+ * Data files of split documents, written with
+ * {@link XmlDatumWriter#writeSplit(Document, org.apache.avro.io.Encoder)},
+ * cannot be queried, as their datums are not whole documents.
+ * </p>
+ */
+public class XmlDatumQuery {
+
+  private final List<XmlDatumPredicate> predicates;
+
+  private long blocksRead;
+  private long blocksSkipped;
+  private long datumsScanned;
+  private long datumsMatched;
+
+  public XmlDatumQuery() {
+    predicates = new ArrayList<XmlDatumPredicate>();
+  }
+
+  public void addPredicate(XmlDatumPredicate predicate) {
+    if (predicate == null) {
+      throw new IllegalArgumentException("The predicate cannot be null.");
+    }
+    predicates.add(predicate);
+  }
+
+  public List<XmlDatumPredicate> getPredicates() {
+    return Collections.unmodifiableList(predicates);
+  }
+
+  /**
+   * Reads the documents in the data file that match every predicate,
+   * in the order they were written.
+   */
+  public List<Document> read(File avroFile) throws IOException {
+    blocksRead = 0;
+    blocksSkipped = 0;
+    datumsScanned = 0;
+    datumsMatched = 0;
+
+    // Statistics older than the data file are not for it.
+    final File statsFile = BlockStatsFile.getStatsFile(avroFile);
+    List<XmlDatumBlockStats> blocks = null;
+    if (statsFile.isFile()
+        && (statsFile.lastModified() >= avroFile.lastModified())) {
+      blocks = BlockStatsFile.read(statsFile);
+    }
+
+    final DataFileReader<Object> fileReader =
+        new DataFileReader<Object>(avroFile, new GenericDatumReader<Object>());
+    try {
+      final Schema schema = fileReader.getSchema();
+      if ( !schema.getType().equals(Schema.Type.RECORD) ) {
+        throw new IllegalArgumentException(
+            avroFile + " does not hold whole documents to query.");
+      }
+
+      final Matcher matcher = new Matcher(schema);
+      final List<Document> documents = new ArrayList<Document>();
+
+      if (blocks == null) {
+        while ( fileReader.hasNext() ) {
+          readBlock(fileReader, matcher, documents);
+        }
+      } else {
+        for (XmlDatumBlockStats block : blocks) {
+          if ( matcher.mayMatch(block) ) {
+            fileReader.seek( block.getPosition() );
+            readBlock(fileReader, matcher, documents);
+          } else {
+            ++blocksSkipped;
+          }
+        }
+      }
+      return documents;
+
+    } finally {
+      fileReader.close();
+    }
+  }
+
+  private void readBlock(
+      DataFileReader<Object> fileReader,
+      Matcher matcher,
+      List<Document> documents) throws IOException {
+
+    if ( !fileReader.hasNext() ) {
+      throw new IOException("The block statistics do not match the file.");
+    }
+    final long datumCount = fileReader.getBlockCount();
+    final ByteBuffer block = fileReader.nextBlock();
+    ++blocksRead;
+
+    byte[] bytes = null;
+    int offset = 0;
+    final int length = block.remaining();
+    if ( block.hasArray() ) {
+      bytes = block.array();
+      offset = block.arrayOffset() + block.position();
+    } else {
+      bytes = new byte[length];
+      block.duplicate().get(bytes);
+    }
+
+    // A direct decoder does not read ahead, so each datum's end is known.
+    final PositionedInput in = new PositionedInput(bytes, offset, length);
+    final Decoder scanDecoder =
+        DecoderFactory.get().directBinaryDecoder(in, null);
+
+    for (long index = 0; index < datumCount; ++index) {
+      final int start = in.position();
+      final boolean matches = matcher.matches(scanDecoder);
+      ++datumsScanned;
+
+      if (matches) {
+        matcher.xmlDecoder =
+            DecoderFactory.get().binaryDecoder(
+                bytes,
+                start,
+                in.position() - start,
+                matcher.xmlDecoder);
+        documents.add(
+            matcher.xmlReader.read((Document) null, matcher.xmlDecoder));
+        ++datumsMatched;
+      }
+    }
+  }
+
+  /**
+   * The number of blocks read by the last call to {@link #read(File)}.
+   */
+  public long getBlocksRead() {
+    return blocksRead;
+  }
+
+  /**
+   * The number of blocks the last call to {@link #read(File)}
+   * skipped, as their statistics ruled out any matches.
+   */
+  public long getBlocksSkipped() {
+    return blocksSkipped;
+  }
+
+  /**
+   * The number of datums the last call to {@link #read(File)} decoded
+   * to check against the predicates.
+   */
+  public long getDatumsScanned() {
+    return datumsScanned;
+  }
+
+  /**
+   * The number of documents the last call to {@link #read(File)} found.
+   */
+  public long getDatumsMatched() {
+    return datumsMatched;
+  }
+
+  /**
+   * The predicates, bound to the file's schema.
+   */
+  private final class Matcher implements FieldValueScanner.Sink {
+    private final Schema schema;
+    private final FieldValueScanner scanner;
+    private final XmlDatumPredicate[] bound;
+    private final boolean[] satisfied;
+    private final GenericDatumReader<Object> datumReader;
+    private final XmlDatumReader xmlReader;
+
+    private Object datum;
+    private BinaryDecoder xmlDecoder;
+
+    Matcher(Schema schema) {
+      this.schema = schema;
+
+      final List<XmlDatumField> fields =
+          new ArrayList<XmlDatumField>( predicates.size() );
+      for (XmlDatumPredicate predicate : predicates) {
+        fields.add( predicate.getField() );
+      }
+      scanner = new FieldValueScanner(fields);
+
+      bound = new XmlDatumPredicate[ predicates.size() ];
+      for (int index = 0; index < bound.length; ++index) {
+        final Schema valueSchema = scanner.getValueSchema(schema, index);
+        bound[index] = predicates.get(index).bind(valueSchema);
+      }
+      satisfied = new boolean[bound.length];
+
+      datumReader = new GenericDatumReader<Object>(schema);
+      xmlReader = new XmlDatumReader();
+      xmlReader.setSchema(schema);
+    }
+
+    boolean mayMatch(XmlDatumBlockStats block) {
+      for (XmlDatumPredicate predicate : bound) {
+        final XmlDatumValueStats stats =
+            block.getStats( predicate.getField() );
+        if ((stats != null) && !predicate.mayMatch(stats)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean matches(Decoder in) throws IOException {
+      datum = datumReader.read(datum, in);
+      if (bound.length == 0) {
+        return true;
+      }
+
+      Arrays.fill(satisfied, false);
+      scanner.scan(datum, schema, this);
+      for (boolean isSatisfied : satisfied) {
+        if (!isSatisfied) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void add(int field, Object value) {
+      if (!satisfied[field] && bound[field].matches(value)) {
+        satisfied[field] = true;
+      }
+    }
+
+    @Override
+    public void addNull(int field) {
+      // Null matches no range.
+    }
+  }
+}
@@ -31,11 +31,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import javax.xml.XMLConstants;
 import javax.xml.bind.DatatypeConverter;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.Duration;
+import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.avro.Schema;
@@ -55,9 +58,11 @@ import org.apache.ws.commons.schema.walker.XmlSchemaTypeInfo;
 import org.apache.ws.commons.schema.walker.XmlSchemaWalker;
 import org.codehaus.jackson.JsonNode;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * Reads an XML {@link Document} from a {@link Decoder}.
@@ -75,13 +80,22 @@ public class XmlDatumReader implements DatumReader<Document> {
   private Schema inputSchema;
   private XmlSchemaCollection xmlSchemaCollection;
   private HashMap<String, String> namespaceToLocationMapping;
-  private XmlSchemaPathFinder pathFinder;
+  private XmlSchemaStateMachineNode rootStateMachine;
   private DomBuilderFromSax domBuilder;
+  private XmlDatumTreeBuilder treeBuilder;
   private Map<AvroRecordName, XmlSchemaStateMachineNode> stateByAvroName;
   private XmlSchemaNamespaceContext nsContext;
   private int currNsNum;
   private ArrayList<QName> newlyAddedQNamesToNs;
   private ByteBuffer bytesBuffer;
+  private volatile XmlDatumMetricsListener metricsListener;
+  private XmlDatumMetrics currMetrics;
+  private XmlDatumProjection projection;
+  private ProjectionPlan projectionPlan;
+  private boolean pruned;
+  private boolean trustedInput;
+  private int validationInterval;
+  private long unvalidatedReads;
 
   private static class AvroRecordName implements Comparable<AvroRecordName> {
 
@@ -206,16 +220,19 @@ public class XmlDatumReader implements DatumReader<Document> {
     final QName qName;
     final String qualifiedName;
     final String value;
+    final boolean topLevel;
 
     AvroAttribute(
         String namespace,
         String localName,
         String qualName,
-        String val) {
+        String val,
+        boolean isTopLevel) {
 
       qName = new QName(namespace, localName);
       qualifiedName = qualName;
       value = val;
+      topLevel = isTopLevel;
     }
   }
 
@@ -369,6 +386,57 @@ public class XmlDatumReader implements DatumReader<Document> {
     }
   }
 
+  /**
+   * Passes SAX events through to another {@link ContentHandler}, except
+   * for the end of the root element, which is held back until
+   * {@link #releaseRoot()} is called.  This lets the children of a split
+   * document be read into the root element one datum at a time.
+   */
+  private static class RootHoldingHandler extends XMLFilterImpl {
+    private int depth;
+    private String rootUri;
+    private String rootLocalName;
+    private String rootQName;
+
+    RootHoldingHandler(ContentHandler next) {
+      setContentHandler(next);
+      depth = 0;
+    }
+
+    @Override
+    public void startElement(
+        String uri,
+        String localName,
+        String qName,
+        Attributes atts) throws SAXException {
+
+      ++depth;
+      super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+        throws SAXException {
+
+      if (depth == 1) {
+        // The root stays open for the children that follow.
+        rootUri = uri;
+        rootLocalName = localName;
+        rootQName = qName;
+      } else {
+        --depth;
+        super.endElement(uri, localName, qName);
+      }
+    }
+
+    void releaseRoot() throws SAXException {
+      if (rootQName == null) {
+        throw new IllegalStateException("The root element was never read.");
+      }
+      super.endElement(rootUri, rootLocalName, rootQName);
+    }
+  }
+
   /**
    * Creates an {@link XmlDatumReader} with the {@link XmlSchemaCollection}
    * to use when decoding XML {@link Document}s from {@link Decoder}s.
@@ -377,10 +445,13 @@ public class XmlDatumReader implements DatumReader<Document> {
     inputSchema = null;
     xmlSchemaCollection = null;
     namespaceToLocationMapping = null;
-    pathFinder = null;
+    rootStateMachine = null;
     domBuilder = null;
+    treeBuilder = null;
     bytesBuffer = null;
     nsContext = new XmlSchemaNamespaceContext();
+    projection = null;
+    projectionPlan = null;
   }
 
   /**
@@ -405,6 +476,21 @@ public class XmlDatumReader implements DatumReader<Document> {
       throw new IllegalArgumentException("Input schema cannot be null.");
     }
 
+    /* Readers of container files set the schema once per file; when it
+     * is the same Schema, the state machine built for it can be kept.
+     * Schemas are compared by identity, as a deep comparison would cost
+     * every call a walk of the schema.
+     */
+    final XmlDatumStats stats = XmlDatumStats.get();
+    if ((rootStateMachine != null) && (schema == inputSchema)) {
+      stats.schemaCacheHit();
+      return;
+    }
+    stats.schemaCacheMiss();
+
+    final boolean counted = stats.isEnabled();
+    final long compileStart = counted ? System.nanoTime() : 0;
+
     JsonNode xmlSchemasNode = schema.getJsonProp("xmlSchemas");
 
     if ((xmlSchemasNode == null)
@@ -429,6 +515,10 @@ public class XmlDatumReader implements DatumReader<Document> {
     final JsonNode filesNode   = xmlSchemasNode.get("files");
     final JsonNode rootTagNode = xmlSchemasNode.get("rootTag");
 
+    // Documents written with elements left out do not match the XML Schema.
+    final JsonNode prunedNode = xmlSchemasNode.get("pruned");
+    pruned = (prunedNode != null) && prunedNode.getBooleanValue();
+
     XmlDatumConfig config = null;
 
     // 1. Build the root tag QName.
@@ -558,8 +648,139 @@ public class XmlDatumReader implements DatumReader<Document> {
 
     domBuilder.setStateMachinesByQName(stateMachineNodesByQName);
 
+    treeBuilder =
+        new XmlDatumTreeBuilder(
+            xmlSchemaCollection,
+            stateMachineNodesByQName,
+            getSchemaLocation());
+
     inputSchema = schema;
-    pathFinder = new XmlSchemaPathFinder(stateMachine);
+    rootStateMachine = stateMachine;
+    projectionPlan = compileProjection();
+
+    if (counted) {
+      stats.schemaCompiled(System.nanoTime() - compileStart);
+    }
+  }
+
+  /**
+   * Reads only the parts of each document selected by the projection,
+   * skipping the rest of the datum without decoding it.  The projection
+   * is compiled against the schema when it is set, and again whenever
+   * the schema changes; later changes to it are not seen until it is set
+   * again.  <code>null</code>, or an empty projection, reads whole
+   * documents again.
+   *
+   * <p>
+   * Projected documents are not validated against the XML Schema, as
+   * they are missing the parts that were skipped.
+   * </p>
+   */
+  public void setProjection(XmlDatumProjection projection) {
+    if ((projection == null) || projection.isEmpty()) {
+      this.projection = null;
+    } else {
+      this.projection = projection;
+    }
+    projectionPlan = compileProjection();
+  }
+
+  /**
+   * The projection set by {@link #setProjection(XmlDatumProjection)},
+   * or <code>null</code> if whole documents are read.
+   */
+  public XmlDatumProjection getProjection() {
+    return projection;
+  }
+
+  private ProjectionPlan compileProjection() {
+    if ((projection == null) || (inputSchema == null)) {
+      return null;
+    }
+
+    final Map<String, QName> elementsByRecordName =
+        new HashMap<String, QName>( stateByAvroName.size() );
+
+    for (Map.Entry<AvroRecordName, XmlSchemaStateMachineNode> entry :
+      stateByAvroName.entrySet()) {
+
+      final AvroRecordName recordName = entry.getKey();
+      final XmlSchemaStateMachineNode stateMachine = entry.getValue();
+      if ( stateMachine
+             .getNodeType()
+             .equals(XmlSchemaStateMachineNode.Type.ELEMENT) ) {
+
+        elementsByRecordName.put(
+            (recordName.namespace == null)
+            ? recordName.name
+            : (recordName.namespace + '.' + recordName.name),
+            stateMachine.getElement().getQName());
+      }
+    }
+
+    return new ProjectionPlan(projection, inputSchema, elementsByRecordName);
+  }
+
+  /**
+   * Whether the datums read are trusted to conform to the XML Schema,
+   * such as when they were written by an {@link XmlDatumWriter} with the
+   * same schema.  Trusted datums are not validated by the path finder as
+   * they are read, which takes a large share of the time spent reading.
+   * A datum that does not conform may then be read back to a document
+   * that does not either.  Datums are not trusted by default.
+   *
+   * @see #setValidationInterval(int)
+   * @see #validate(Decoder)
+   */
+  public void setTrustedInput(boolean trustedInput) {
+    this.trustedInput = trustedInput;
+    unvalidatedReads = 0;
+  }
+
+  public boolean isTrustedInput() {
+    return trustedInput;
+  }
+
+  /**
+   * Validates one in every <code>interval</code> trusted datums read,
+   * as a sample of the rest, or none if it is zero.  It has no effect
+   * unless the input is trusted, and is zero by default.
+   *
+   * @see #setTrustedInput(boolean)
+   */
+  public void setValidationInterval(int interval) {
+    if (interval < 0) {
+      throw new IllegalArgumentException(
+          "The validation interval cannot be negative: " + interval);
+    }
+    this.validationInterval = interval;
+    unvalidatedReads = 0;
+  }
+
+  public int getValidationInterval() {
+    return validationInterval;
+  }
+
+  /**
+   * Validates the datum at the start of the input {@link Decoder} against
+   * the XML Schema, without building a document from it, whether or not
+   * the input is trusted.  Projected and pruned datums cannot be
+   * validated, as they are incomplete.
+   *
+   * <p>
+   * Validation is not a read: the {@link XmlDatumMetricsListener} is not
+   * notified of it, and it is not counted in the {@link XmlDatumStats}.
+   * </p>
+   *
+   * @throws IOException If the datum cannot be read, or does not
+   *                     conform to the XML Schema.
+   */
+  public void validate(Decoder in) throws IOException {
+    if ((projectionPlan != null) || pruned) {
+      throw new IllegalStateException(
+          "Projected and pruned documents cannot be validated.");
+    }
+    read(null, in, false);
   }
 
   /**
@@ -575,6 +796,22 @@ public class XmlDatumReader implements DatumReader<Document> {
     return domBuilder.getDocument();
   }
 
+  /**
+   * Reads the XML document from the input {@link Decoder} into a compact,
+   * immutable {@link XmlDatumTree}, which takes far less memory than a
+   * {@link Document} and can be shared between threads.
+   */
+  public XmlDatumTree readTree(Decoder in) throws IOException {
+    if (treeBuilder == null) {
+      throw new IllegalStateException(
+          "The Avro and XML Schemas must be defined before reading from an "
+          + "Avro Decoder.  Please call XmlDatumReader.setSchema(Schema) "
+          + "before calling this function.");
+    }
+    read(treeBuilder, in);
+    return treeBuilder.getTree();
+  }
+
   /**
    * Reads the XML data from the input {@link Decoder} and feeds it through
    * the provided <code>saxContentHandler</code>.
@@ -586,37 +823,296 @@ public class XmlDatumReader implements DatumReader<Document> {
   public void read(ContentHandler saxContentHandler, Decoder in)
       throws IOException {
 
+    read(saxContentHandler, in, false);
+  }
+
+  /**
+   * Reads a document written by
+   * {@link XmlDatumWriter#writeSplit(Document, org.apache.avro.io.Encoder)}
+   * from the input {@link Decoder}, stitching the header and each of the
+   * root's children back together into one {@link Document}.  The
+   * {@link Schema} must have been set to the one returned by
+   * {@link XmlDatumWriter#getSplitSchema()}.
+   */
+  public Document readSplit(Decoder in) throws IOException {
+    read(domBuilder, in, true);
+    return domBuilder.getDocument();
+  }
+
+  /**
+   * Reads a document written by
+   * {@link XmlDatumWriter#writeSplit(Document, org.apache.avro.io.Encoder)}
+   * from the input {@link Decoder}, and feeds it through the provided
+   * <code>saxContentHandler</code> as one document.
+   *
+   * @see #readSplit(Decoder)
+   */
+  public void readSplit(ContentHandler saxContentHandler, Decoder in)
+      throws IOException {
+
+    read(saxContentHandler, in, true);
+  }
+
+  /**
+   * Reads one element, and everything in it, from the RECORD of
+   * <code>elemSchema</code> at the start of the input {@link Decoder}.
+   * The element is returned as the root of a document of its own.
+   * The path finder is not used, as a fragment cannot be validated
+   * against the schema's root, nor is any projection applied.
+   */
+  Element readElement(Schema elemSchema, Decoder in) throws IOException {
+    if ((inputSchema == null) || (domBuilder == null)) {
+      throw new IllegalStateException(
+          "The Avro and XML Schemas must be defined before reading from an "
+          + "Avro Decoder.  Please call XmlDatumReader.setSchema(Schema) "
+          + "before calling this function.");
+    }
+
+    final List<ContentHandler> contentHandlers =
+        new ArrayList<ContentHandler>(1);
+    contentHandlers.add(domBuilder);
+
+    final String[] prefixes = startDocument(contentHandlers);
+    processElement(contentHandlers, elemSchema, in);
+    endDocument(contentHandlers, prefixes);
+
+    return domBuilder.getDocument().getDocumentElement();
+  }
+
+  /**
+   * Returns a read-only {@link Document} over the datum's bytes, which
+   * decodes each element only when it is first navigated to.  Navigating
+   * to part of a large document decodes only that part, and what is
+   * never looked at is only skipped over.
+   *
+   * <p>
+   * The document is read with this reader, and, like it, cannot be used
+   * by more than one thread at once, nor after the reader's schema is
+   * changed.  The datum's bytes must not change while the document is in
+   * use.  As with {@link #readElement(Schema, Decoder)}, the document is
+   * not validated by the path finder, and no projection is applied.
+   * Split documents cannot be read lazily.
+   * </p>
+   *
+   * @param datum The bytes of one datum, from its position to its limit.
+   * @param evictable Whether the decoded elements may be let go under
+   *                  memory pressure, to be decoded again if navigated
+   *                  to again.
+   * @throws IOException If the root of the document cannot be read.
+   */
+  public Document readLazily(ByteBuffer datum, boolean evictable)
+      throws IOException {
+
+    if ((inputSchema == null) || (stateByAvroName == null)) {
+      throw new IllegalStateException(
+          "The Avro and XML Schemas must be defined before reading from an "
+          + "Avro Decoder.  Please call XmlDatumReader.setSchema(Schema) "
+          + "before calling this function.");
+    } else if ( inputSchema.getType().equals(Schema.Type.UNION) ) {
+      for (Schema type : inputSchema.getTypes()) {
+        if ( type.getType().equals(Schema.Type.NULL) ) {
+          throw new IllegalStateException(
+              "Split documents cannot be read lazily.");
+        }
+      }
+    }
+
+    if ( datum.hasArray() ) {
+      return new LazyAvroDocument(
+          this,
+          inputSchema,
+          datum.array(),
+          datum.arrayOffset() + datum.position(),
+          datum.remaining(),
+          evictable);
+    }
+
+    final byte[] bytes = new byte[ datum.remaining() ];
+    datum.duplicate().get(bytes);
+    return new LazyAvroDocument(
+        this,
+        inputSchema,
+        bytes,
+        0,
+        bytes.length,
+        evictable);
+  }
+
+  /**
+   * Reads the datum lazily, holding on to everything decoded.
+   *
+   * @see #readLazily(ByteBuffer, boolean)
+   */
+  public Document readLazily(ByteBuffer datum) throws IOException {
+    return readLazily(datum, false);
+  }
+
+  /**
+   * Returns an {@link XMLStreamReader} that reads the XML document from
+   * the input {@link Decoder} one event at a time, decoding only as much
+   * of the datum as has been pulled from it.  A caller that stops early,
+   * and closes the stream reader, never decodes the rest of the datum;
+   * the decoder is then left part way through it.
+   *
+   * <p>
+   * The stream reader shares this reader's state, so only one may be in
+   * use at a time, and it must be closed or read to the end before this
+   * reader is used again.  As with {@link #readLazily(ByteBuffer)}, the
+   * document is not validated by the path finder, and no projection is
+   * applied.  Split documents cannot be streamed.
+   * </p>
+   */
+  public XMLStreamReader createXMLStreamReader(Decoder in) {
+    if ((inputSchema == null) || (stateByAvroName == null)) {
+      throw new IllegalStateException(
+          "The Avro and XML Schemas must be defined before reading from an "
+          + "Avro Decoder.  Please call XmlDatumReader.setSchema(Schema) "
+          + "before calling this function.");
+    } else if ( inputSchema.getType().equals(Schema.Type.UNION) ) {
+      for (Schema type : inputSchema.getTypes()) {
+        if ( type.getType().equals(Schema.Type.NULL) ) {
+          throw new IllegalStateException(
+              "Split documents cannot be streamed.");
+        }
+      }
+    }
+    return new XmlDatumStreamReader(this, inputSchema, in);
+  }
+
+  private void read(ContentHandler saxContentHandler, Decoder in, boolean split)
+      throws IOException {
+
     if ((inputSchema == null)
         || (xmlSchemaCollection == null)
         || (domBuilder == null)
-        || (pathFinder == null)) {
+        || (rootStateMachine == null)) {
       throw new IllegalStateException(
           "The Avro and XML Schemas must be defined before reading from an "
           + "Avro Decoder.  Please call XmlDatumReader.setSchema(Schema) "
           + "before calling this function.");
     }
 
+    /* Only validating, with a null content handler, reads no document,
+     * so it is neither reported to the listener nor counted as a read.
+     */
+    final boolean reading = (saxContentHandler != null);
+    final XmlDatumMetrics metrics =
+        (!reading || (metricsListener == null))
+        ? null
+        : new XmlDatumMetrics(false);
+    final boolean counted = reading && XmlDatumStats.get().readStarted();
+
+    // The clock is only read for the metrics or statistics that need it.
+    final long start =
+        ((metrics == null) && !counted) ? 0 : System.nanoTime();
+
     final List<ContentHandler> contentHandlers =
         new ArrayList<ContentHandler>(2);
 
-    contentHandlers.add(pathFinder);
-    contentHandlers.add(saxContentHandler);
+    /* The path finder keeps the traversal state of the document it
+     * validated, so a new one is needed for each document read.
+     * Projected and pruned documents are incomplete, and cannot be
+     * validated.  A null content handler only validates.
+     */
+    if ((projectionPlan == null)
+        && !pruned
+        && ((saxContentHandler == null) || isValidationDue())) {
+      ContentHandler pathFinder = new XmlSchemaPathFinder(rootStateMachine);
+      if (metrics != null) {
+        pathFinder =
+            new TimedContentHandler(
+                pathFinder,
+                metrics,
+                XmlDatumMetrics.Phase.PATH_FINDING);
+      }
+      contentHandlers.add(pathFinder);
+    }
+    if (saxContentHandler != null) {
+      contentHandlers.add(saxContentHandler);
+    }
 
-    final String[] prefixes = nsContext.getDeclaredPrefixes();
+    boolean succeeded = false;
+    currMetrics = metrics;
     try {
-      for (ContentHandler contentHandler : contentHandlers) {
-        contentHandler.startDocument();
-
-        for (String prefix : prefixes) {
-          contentHandler.startPrefixMapping(
-              prefix,
-              nsContext.getNamespaceURI(prefix));
+      if (split) {
+        readSplit(contentHandlers, in);
+      } else {
+        read(contentHandlers, in);
+      }
+      succeeded = true;
+    } catch (IOException e) {
+      if (metrics != null) {
+        metrics.setFailure(e);
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      if (metrics != null) {
+        metrics.setFailure(e);
+      }
+      throw e;
+    } finally {
+      currMetrics = null;
+      if ((metrics != null) || counted) {
+        final long end = System.nanoTime();
+        if (counted) {
+          XmlDatumStats.get().readFinished(succeeded, start, end);
+        }
+        if (metrics != null) {
+          finishMetrics(metrics, end - start);
         }
       }
+    }
+  }
 
-    } catch (Exception e) {
-      throw new IOException("Unable to create the new document.", e);
+  private boolean isValidationDue() {
+    if (!trustedInput) {
+      return true;
+    } else if (validationInterval == 0) {
+      return false;
+    }
+
+    ++unvalidatedReads;
+    if (unvalidatedReads >= validationInterval) {
+      unvalidatedReads = 0;
+      return true;
     }
+    return false;
+  }
+
+  /**
+   * Registers the {@link XmlDatumMetricsListener} to notify after each
+   * document is read, or <code>null</code> to stop collecting metrics.
+   */
+  public void setMetricsListener(XmlDatumMetricsListener listener) {
+    this.metricsListener = listener;
+  }
+
+  /**
+   * The {@link XmlDatumMetricsListener} notified after each
+   * document is read, or <code>null</code> if none.
+   */
+  public XmlDatumMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  private void finishMetrics(XmlDatumMetrics metrics, long total) {
+    metrics.setTotalNanos(total);
+
+    // Decoding is everything not spent confirming the path.
+    metrics.addPhaseNanos(
+        XmlDatumMetrics.Phase.DECODE,
+        total - metrics.getPhaseNanos(XmlDatumMetrics.Phase.PATH_FINDING));
+
+    final XmlDatumMetricsListener listener = metricsListener;
+    if (listener != null) {
+      listener.documentFinished(metrics);
+    }
+  }
+
+  private void read(List<ContentHandler> contentHandlers, Decoder in)
+      throws IOException {
+
+    final String[] prefixes = startDocument(contentHandlers);
 
     /* If the root node is part of a substitution
      * group, retrieve the corresponding schema.
@@ -627,33 +1123,119 @@ public class XmlDatumReader implements DatumReader<Document> {
       rootSchema = rootSchema.getTypes().get(unionIndex);
     }
 
-    processElement(contentHandlers, rootSchema, in);
+    if ( isProjected(rootSchema) ) {
+      enterElement(
+          contentHandlers,
+          rootSchema,
+          projectionPlan.getChildPath(rootSchema, projectionPlan.getRootPath()),
+          in);
+    } else {
+      processElement(contentHandlers, rootSchema, in);
+    }
+
+    endDocument(contentHandlers, prefixes);
+  }
+
+  /* The header of a split document is the root element, without any
+   * children.  The root element is held open while each of its children
+   * are read, until the NULL that ends the document.
+   */
+  private void readSplit(List<ContentHandler> contentHandlers, Decoder in)
+      throws IOException {
+
+    if ( !inputSchema.getType().equals(Schema.Type.UNION) ) {
+      throw new IllegalStateException(
+          "Split documents must be read with the UNION from "
+          + "XmlDatumWriter.getSplitSchema(), not a "
+          + inputSchema.getType());
+    }
+    final List<Schema> types = inputSchema.getTypes();
+
+    final List<RootHoldingHandler> holders =
+        new ArrayList<RootHoldingHandler>( contentHandlers.size() );
+    for (ContentHandler contentHandler : contentHandlers) {
+      holders.add( new RootHoldingHandler(contentHandler) );
+    }
+    final List<ContentHandler> heldHandlers =
+        new ArrayList<ContentHandler>(holders);
+
+    final String[] prefixes = startDocument(contentHandlers);
+
+    final Schema rootSchema = types.get( in.readIndex() );
+    final boolean projected = isProjected(rootSchema);
+
+    ProjectionPlan.PathNode rootPath = null;
+    if (projected) {
+      rootPath =
+          projectionPlan.getChildPath(rootSchema, projectionPlan.getRootPath());
+      enterElement(heldHandlers, rootSchema, rootPath, in);
+    } else {
+      processElement(heldHandlers, rootSchema, in);
+    }
+
+    while (true) {
+      final Schema childSchema = types.get( in.readIndex() );
+      if ( childSchema.getType().equals(Schema.Type.NULL) ) {
+        in.readNull();
+        break;
+      }
+      if (projected) {
+        projectChild(heldHandlers, childSchema, rootPath, in);
+      } else {
+        processElement(heldHandlers, childSchema, in);
+      }
+    }
 
+    try {
+      for (RootHoldingHandler holder : holders) {
+        holder.releaseRoot();
+      }
+    } catch (Exception e) {
+      throw new IOException("Unable to end the root element.", e);
+    }
+
+    endDocument(contentHandlers, prefixes);
+  }
+
+  private String[] startDocument(List<ContentHandler> contentHandlers)
+      throws IOException {
+
+    final String[] prefixes = nsContext.getDeclaredPrefixes();
     try {
       for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.startDocument();
+
         for (String prefix : prefixes) {
-          contentHandler.endPrefixMapping(prefix);
+          contentHandler.startPrefixMapping(
+              prefix,
+              nsContext.getNamespaceURI(prefix));
         }
-
-        contentHandler.endDocument();
       }
+
     } catch (Exception e) {
       throw new IOException("Unable to create the new document.", e);
     }
+    return prefixes;
   }
 
-  private void processElement(
+  private static void endDocument(
       List<ContentHandler> contentHandlers,
-      Schema elemSchema,
-      Decoder in) throws IOException {
+      String[] prefixes) throws IOException {
 
-    if ( !elemSchema.getType().equals(Schema.Type.RECORD) ) {
-      throw new IllegalStateException(
-          "Expected to process a RECORD, but found a \""
-          + elemSchema.getType()
-          + "\" instead.");
+    try {
+      for (ContentHandler contentHandler : contentHandlers) {
+        for (String prefix : prefixes) {
+          contentHandler.endPrefixMapping(prefix);
+        }
+
+        contentHandler.endDocument();
+      }
+    } catch (Exception e) {
+      throw new IOException("Unable to create the new document.", e);
     }
+  }
 
+  private XmlSchemaStateMachineNode getElementStateMachine(Schema elemSchema) {
     final AvroRecordName recordName =
         new AvroRecordName(elemSchema.getNamespace(), elemSchema.getName());
 
@@ -676,6 +1258,263 @@ public class XmlDatumReader implements DatumReader<Document> {
           + stateMachine.getNodeType()
           + ", not ELEMENT.");
     }
+    return stateMachine;
+  }
+
+  /**
+   * The name of the element in the RECORD, with the prefix this reader
+   * gives its namespace.
+   */
+  QName getElementQName(Schema elemSchema) {
+    final QName qName =
+        getElementStateMachine(elemSchema).getElement().getQName();
+    final String prefix = nsContext.getPrefix( qName.getNamespaceURI() );
+    if (prefix == null) {
+      return qName;
+    }
+    return new QName(qName.getNamespaceURI(), qName.getLocalPart(), prefix);
+  }
+
+  // Whether the root element is read as part of a projection, or in full.
+  private boolean isProjected(Schema rootSchema) {
+    if (projectionPlan == null) {
+      return false;
+    }
+
+    /* Even when nothing selected can be in the document,
+     * the root is entered, so there is a document to return.
+     */
+    return !projectionPlan
+              .getAction(rootSchema, projectionPlan.getRootPath())
+              .equals(ProjectionPlan.Action.READ);
+  }
+
+  private void projectChild(
+      List<ContentHandler> contentHandlers,
+      Schema elemSchema,
+      ProjectionPlan.PathNode parentPath,
+      Decoder in) throws IOException {
+
+    switch ( projectionPlan.getAction(elemSchema, parentPath) ) {
+    case READ:
+      processElement(contentHandlers, elemSchema, in);
+      break;
+    case ENTER:
+      enterElement(
+          contentHandlers,
+          elemSchema,
+          projectionPlan.getChildPath(elemSchema, parentPath),
+          in);
+      break;
+    default:
+      projectionPlan.skip(elemSchema, in);
+    }
+  }
+
+  /* Reads an element that may have selected elements inside it.  Its
+   * attributes and text are skipped, and only the element itself and
+   * its children that are selected, or may have selected children,
+   * are passed on to the content handlers.
+   */
+  private void enterElement(
+      List<ContentHandler> contentHandlers,
+      Schema elemSchema,
+      ProjectionPlan.PathNode path,
+      Decoder in) throws IOException {
+
+    final XmlSchemaStateMachineNode stateMachine =
+        getElementStateMachine(elemSchema);
+
+    if (currMetrics != null) {
+      currMetrics.incrementElements();
+    }
+
+    final List<Schema.Field> fields = elemSchema.getFields();
+
+    // The first N-1 fields are attributes.
+    for (int index = 0; index < (fields.size() - 1); ++index) {
+      projectionPlan.skip(fields.get(index).schema(), in);
+    }
+
+    final QName elemQName = stateMachine.getElement().getQName();
+    final String prefix = nsContext.getPrefix(elemQName.getNamespaceURI());
+    String qName = null;
+    if (prefix == null) {
+      qName = elemQName.getLocalPart();
+    } else {
+      qName = prefix + ':' + elemQName.getLocalPart();
+    }
+
+    final AvroAttributes attributes = new AvroAttributes();
+    for (ContentHandler contentHandler : contentHandlers) {
+      try {
+        contentHandler.startElement(
+            elemQName.getNamespaceURI(),
+            elemQName.getLocalPart(),
+            qName,
+            attributes);
+
+      } catch (Exception e) {
+        throw new IOException("Cannot start element " + elemQName + '.', e);
+      }
+    }
+
+    final Schema childSchema =
+        elemSchema.getField( elemSchema.getName() ).schema();
+
+    if (childSchema.getType().equals(Schema.Type.ARRAY)
+        && childSchema
+             .getElementType()
+             .getType()
+             .equals(Schema.Type.UNION)) {
+
+      enterComplexChildren(contentHandlers, childSchema, path, in);
+    } else {
+      // Simple or empty content, or only text.
+      projectionPlan.skip(childSchema, in);
+    }
+
+    for (ContentHandler contentHandler : contentHandlers) {
+      try {
+        contentHandler.endElement(
+            elemQName.getNamespaceURI(),
+            elemQName.getLocalPart(),
+            qName);
+
+      } catch (Exception e) {
+        throw new IOException("Cannot end element " + elemQName + '.', e);
+      }
+    }
+  }
+
+  private void enterComplexChildren(
+      List<ContentHandler> contentHandlers,
+      Schema childSchema,
+      ProjectionPlan.PathNode path,
+      Decoder in) throws IOException {
+
+    final List<Schema> childTypes = childSchema.getElementType().getTypes();
+
+    for (long arrayBlockSize = in.readArrayStart();
+        arrayBlockSize > 0;
+        arrayBlockSize = in.arrayNext()) {
+
+      for (long index = 0; index < arrayBlockSize; ++index) {
+        final Schema unionSchema = childTypes.get( in.readIndex() );
+        switch ( unionSchema.getType() ) {
+        case MAP:
+          {
+            final Schema valueType = unionSchema.getValueType();
+            for (long mapBlockSize = in.readMapStart();
+                 mapBlockSize > 0;
+                 mapBlockSize = in.mapNext()) {
+              for (long mapIdx = 0; mapIdx < mapBlockSize; ++mapIdx) {
+                in.skipString();
+
+                if ( valueType.getType().equals(Schema.Type.UNION) ) {
+                  projectChild(
+                      contentHandlers,
+                      valueType.getTypes().get( in.readIndex() ),
+                      path,
+                      in);
+                } else {
+                  projectChild(contentHandlers, valueType, path, in);
+                }
+              }
+            }
+            break;
+          }
+        case RECORD:
+          projectChild(contentHandlers, unionSchema, path, in);
+          break;
+        default:
+          // Text in a mixed element.
+          projectionPlan.skip(unionSchema, in);
+        }
+      }
+    }
+  }
+
+  /**
+   * The name, attributes and any simple content of an element, as read
+   * from the start of its RECORD.  Complex content is left in the decoder.
+   */
+  static final class ElementStart {
+    final QName qName;
+    final String qualifiedName;
+    final Attributes attributes;
+    final String content;
+    final Schema.Field childField;
+    final XmlSchemaTypeInfo type;
+    final boolean nillable;
+
+    /* Prefixes declared for the QNames in the element's values,
+     * in order, or null if there are none.
+     */
+    final List<String> newPrefixes;
+
+    ElementStart(
+        QName qName,
+        String qualifiedName,
+        Attributes attributes,
+        String content,
+        Schema.Field childField,
+        XmlSchemaTypeInfo type,
+        boolean nillable,
+        List<String> newPrefixes) {
+
+      this.qName = qName;
+      this.qualifiedName = qualifiedName;
+      this.attributes = attributes;
+      this.content = content;
+      this.childField = childField;
+      this.type = type;
+      this.nillable = nillable;
+      this.newPrefixes = newPrefixes;
+    }
+
+    boolean isComplex() {
+      return type.getType().equals(XmlSchemaTypeInfo.Type.COMPLEX);
+    }
+
+    /* Whether the attribute belongs in its namespace in a DOM.
+     * DomBuilderFromSax only places top-level attributes, and those
+     * of the XML Schema Instance namespace, in their namespaces.
+     */
+    boolean isAttributeQualified(int index) {
+      final String ns = attributes.getURI(index);
+      if ( ns.isEmpty() ) {
+        return false;
+      } else if ( ns.equals(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI) ) {
+        return true;
+      }
+      return ((AvroAttributes) attributes).attributes.get(index).topLevel;
+    }
+  }
+
+  /**
+   * Reads the start of the element in the RECORD of <code>elemSchema</code>,
+   * leaving any complex content for the caller to read.  The prefixes of
+   * {@link ElementStart#newPrefixes} are added to the namespace context,
+   * and must be removed with {@link #endElementStart(ElementStart)} once
+   * the element, and everything in it, is read.
+   */
+  ElementStart readElementStart(Schema elemSchema, Decoder in)
+      throws IOException {
+
+    if ( !elemSchema.getType().equals(Schema.Type.RECORD) ) {
+      throw new IllegalStateException(
+          "Expected to process a RECORD, but found a \""
+          + elemSchema.getType()
+          + "\" instead.");
+    }
+
+    final XmlSchemaStateMachineNode stateMachine =
+        getElementStateMachine(elemSchema);
+
+    if (currMetrics != null) {
+      currMetrics.incrementElements();
+    }
 
     final List<XmlSchemaAttrInfo> expectedAttrs =
         stateMachine.getAttributes();
@@ -691,6 +1530,9 @@ public class XmlDatumReader implements DatumReader<Document> {
             createAttribute(expectedAttrs, fields.get(index), in);
         if (attr != null) {
           attributes.addAttribute(attr);
+          if (currMetrics != null) {
+            currMetrics.incrementAttributes();
+          }
         }
       } catch (IOException ioe) {
         throw new IOException(
@@ -728,9 +1570,97 @@ public class XmlDatumReader implements DatumReader<Document> {
     if ((newlyAddedQNamesToNs != null) && !newlyAddedQNamesToNs.isEmpty()) {
       newPrefixes = new ArrayList<String>( newlyAddedQNamesToNs.size() );
       for (QName qName : newlyAddedQNamesToNs) {
-        final String ns = qName.getNamespaceURI();
-        final String prefix = qName.getPrefix();
-        newPrefixes.add(prefix);
+        newPrefixes.add( qName.getPrefix() );
+      }
+      newlyAddedQNamesToNs.clear();
+    }
+
+    // Determine the namespace, local name, and qualified name.
+    final String prefix = nsContext.getPrefix(elemQName.getNamespaceURI());
+    String qName = null;
+    if (prefix == null) {
+      qName = elemQName.getLocalPart();
+    } else {
+      qName = prefix + ':' + elemQName.getLocalPart();
+    }
+
+    return new ElementStart(
+        elemQName,
+        qName,
+        attributes,
+        content,
+        childField,
+        elemType,
+        stateMachine.getElement().isNillable(),
+        newPrefixes);
+  }
+
+  /**
+   * Removes the prefixes the element added from the namespace context.
+   */
+  void endElementStart(ElementStart start) {
+    if (start.newPrefixes != null) {
+      for (String newPrefix : start.newPrefixes) {
+        nsContext.removeNamespace(newPrefix);
+      }
+    }
+  }
+
+  /**
+   * The namespace bound to the prefix in the reader's namespace context.
+   */
+  String getNamespaceURI(String prefix) {
+    return nsContext.getNamespaceURI(prefix);
+  }
+
+  /**
+   * The <code>xsi:schemaLocation</code> of the XML Schemas, as
+   * {@link DomBuilderFromSax} sets it on the root of every document, or
+   * <code>null</code> if their locations are not known.
+   */
+  String getSchemaLocation() {
+    if ((namespaceToLocationMapping == null)
+        || namespaceToLocationMapping.isEmpty()) {
+      return null;
+    }
+
+    final StringBuilder location = new StringBuilder();
+    for (Map.Entry<String, String> entry
+           : namespaceToLocationMapping.entrySet()) {
+      if (location.length() > 0) {
+        location.append(' ');
+      }
+      location.append( entry.getKey() ).append(' ').append( entry.getValue() );
+    }
+    return location.toString();
+  }
+
+  /**
+   * The prefixes the reader declares on the root of every document.
+   */
+  String[] getDeclaredPrefixes() {
+    return nsContext.getDeclaredPrefixes();
+  }
+
+  /**
+   * The namespaces in scope at the element being read.
+   */
+  NamespaceContext getNamespaceContext() {
+    return nsContext;
+  }
+
+  private void processElement(
+      List<ContentHandler> contentHandlers,
+      Schema elemSchema,
+      Decoder in) throws IOException {
+
+    final ElementStart start = readElementStart(elemSchema, in);
+    final QName elemQName = start.qName;
+    final String qName = start.qualifiedName;
+
+    if (start.newPrefixes != null) {
+      for (String prefix : start.newPrefixes) {
+        final String ns = nsContext.getNamespaceURI(prefix);
         for (ContentHandler contentHandler : contentHandlers) {
           try {
             contentHandler.startPrefixMapping(prefix, ns);
@@ -743,16 +1673,6 @@ public class XmlDatumReader implements DatumReader<Document> {
           }
         }
       }
-      newlyAddedQNamesToNs.clear();
-    }
-
-    // Determine the namespace, local name, and qualified name.
-    final String prefix = nsContext.getPrefix(elemQName.getNamespaceURI());
-    String qName = null;
-    if (prefix == null) {
-      qName = elemQName.getLocalPart();
-    } else {
-      qName = prefix + ':' + elemQName.getLocalPart();
     }
 
     // Notify the content handlers an element has begun.
@@ -762,32 +1682,33 @@ public class XmlDatumReader implements DatumReader<Document> {
             elemQName.getNamespaceURI(),
             elemQName.getLocalPart(),
             qName,
-            attributes);
+            start.attributes);
 
       } catch (Exception e) {
         throw new IOException("Cannot start element " + elemQName + '.', e);
       }
     }
 
-    switch ( elemType.getType() ) {
+    switch ( start.type.getType() ) {
     case ATOMIC:
     case LIST:
     case UNION:
       {
-        processContent(contentHandlers, content);
+        processContent(contentHandlers, start.content);
         break;
       }
     case COMPLEX:
       processComplexChildren(
           contentHandlers,
-          childField,
-          stateMachine.getElement(),
-          elemType,
+          start.childField,
+          getElementStateMachine(elemSchema).getElement(),
+          start.type,
           in);
       break;
     default:
       throw new IllegalStateException(
-          elemQName + " has an unrecognized type named " + elemType.getType());
+          elemQName + " has an unrecognized type named "
+          + start.type.getType());
     }
 
     // Notify the content handlers the element has ended.
@@ -798,8 +1719,8 @@ public class XmlDatumReader implements DatumReader<Document> {
             elemQName.getLocalPart(),
             qName);
 
-        if (newPrefixes != null) {
-          for (String newPrefix : newPrefixes) {
+        if (start.newPrefixes != null) {
+          for (String newPrefix : start.newPrefixes) {
             contentHandler.endPrefixMapping(newPrefix);
           }
         }
@@ -810,11 +1731,7 @@ public class XmlDatumReader implements DatumReader<Document> {
     }
 
     // Also remove any newly added prefixes from our namespace context.
-    if (newPrefixes != null) {
-      for (String newPrefix : newPrefixes) {
-        nsContext.removeNamespace(newPrefix);
-      }
-    }
+    endElementStart(start);
   }
 
   private AvroAttribute createAttribute(
@@ -848,7 +1765,8 @@ public class XmlDatumReader implements DatumReader<Document> {
                     attrQName.getNamespaceURI(),
                     attrQName.getLocalPart(),
                     qualifiedName,
-                    value);
+                    value,
+                    attr.isTopLevel());
           }
         } catch (Exception e) {
           throw new IOException(
@@ -1194,6 +2112,9 @@ public class XmlDatumReader implements DatumReader<Document> {
             switch ( unionSchema.getType() ) {
             case MAP:
               {
+                if (currMetrics != null) {
+                  currMetrics.incrementMapClusters();
+                }
                 for (long mapBlockSize = in.readMapStart();
                      mapBlockSize > 0;
                      mapBlockSize = in.mapNext()) {
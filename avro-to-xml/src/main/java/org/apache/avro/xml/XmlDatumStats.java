@@ -0,0 +1,330 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * JVM-wide statistics on the documents converted by every
+ * {@link XmlDatumWriter} and {@link XmlDatumReader}.
+ *
+ * <p>
+ * The single instance is registered with the platform MBean server under
+ * {@link #OBJECT_NAME} the first time a writer or reader is created, so it
+ * can be watched from JConsole or any other JMX client.
+ * </p>
+ *
+ * <p>
+ * Like the per-document {@link XmlDatumMetrics}, the statistics are only
+ * collected when enabled, either by starting the JVM with
+ * <code>-D{@value #ENABLED_PROPERTY}=true</code> or through
+ * {@link #setEnabled(boolean)}.  When disabled, converting a document
+ * neither reads the clock nor touches a counter.  When enabled, each
+ * document costs a handful of atomic updates, and no locks.
+ * </p>
+ */
+public final class XmlDatumStats implements XmlDatumStatsMBean {
+
+  /**
+   * The name this MBean is registered under.
+   */
+  public static final String OBJECT_NAME =
+      "org.apache.avro.xml:type=XmlDatumStats";
+
+  /**
+   * The system property that enables the statistics at startup.
+   */
+  public static final String ENABLED_PROPERTY = "org.apache.avro.xml.stats";
+
+  private static final int WINDOW_SECONDS = 60;
+
+  private static final XmlDatumStats INSTANCE = new XmlDatumStats();
+
+  static {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      if ( !server.isRegistered(name) ) {
+        server.registerMBean(INSTANCE, name);
+      }
+    } catch (Exception e) {
+      /* JMX is unavailable, or this class was loaded by a second class
+       * loader; the statistics are still available from get().
+       */
+    }
+  }
+
+  /**
+   * Counts events in one-second buckets over a sliding window.
+   *
+   * <p>
+   * The buckets are updated without locking.  The thread that moves a
+   * bucket on to a new second also empties it, so an event counted by
+   * another thread in between may be lost; the counts are approximate
+   * only at the turn of each second.
+   * </p>
+   */
+  private static final class RollingCounter {
+    private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray seconds =
+        new AtomicLongArray(WINDOW_SECONDS);
+
+    void increment(long nowSecond) {
+      // System.nanoTime() may be negative, and so may nowSecond.
+      final int index =
+          (int) (((nowSecond % WINDOW_SECONDS) + WINDOW_SECONDS)
+                 % WINDOW_SECONDS);
+      final long second = seconds.get(index);
+      if ((second != nowSecond)
+          && seconds.compareAndSet(index, second, nowSecond)) {
+        counts.set(index, 0);
+      }
+      counts.incrementAndGet(index);
+    }
+
+    long sum(long nowSecond) {
+      long sum = 0;
+      for (int index = 0; index < WINDOW_SECONDS; ++index) {
+        if ((nowSecond - seconds.get(index)) < WINDOW_SECONDS) {
+          sum += counts.get(index);
+        }
+      }
+      return sum;
+    }
+
+    void clear() {
+      for (int index = 0; index < WINDOW_SECONDS; ++index) {
+        counts.set(index, 0);
+      }
+    }
+  }
+
+  private volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+  private final AtomicLong documentsWritten = new AtomicLong();
+  private final AtomicLong documentsRead = new AtomicLong();
+  private final AtomicLong writeFailures = new AtomicLong();
+  private final AtomicLong readFailures = new AtomicLong();
+  private final AtomicInteger writesInFlight = new AtomicInteger();
+  private final AtomicInteger readsInFlight = new AtomicInteger();
+  private final AtomicLong writeNanos = new AtomicLong();
+  private final AtomicLong readNanos = new AtomicLong();
+  private final AtomicLong schemaCompilations = new AtomicLong();
+  private final AtomicLong schemaCompileNanos = new AtomicLong();
+  private final AtomicLong schemaCacheHits = new AtomicLong();
+  private final AtomicLong schemaCacheMisses = new AtomicLong();
+  private final RollingCounter recentWrites = new RollingCounter();
+  private final RollingCounter recentReads = new RollingCounter();
+
+  private XmlDatumStats() {
+  }
+
+  /**
+   * Returns the JVM-wide statistics.
+   */
+  public static XmlDatumStats get() {
+    return INSTANCE;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /* Counts a document as being written, if the statistics are enabled.
+   * Only a document counted here is passed to writeFinished, so that
+   * enabling or disabling the statistics mid-document leaves the
+   * in-flight count balanced.
+   */
+  boolean writeStarted() {
+    if (!enabled) {
+      return false;
+    }
+    writesInFlight.incrementAndGet();
+    return true;
+  }
+
+  void writeFinished(boolean succeeded, long startNanos, long endNanos) {
+    writesInFlight.decrementAndGet();
+    if (succeeded) {
+      documentsWritten.incrementAndGet();
+      writeNanos.addAndGet(endNanos - startNanos);
+      recentWrites.increment( toSeconds(endNanos) );
+    } else {
+      writeFailures.incrementAndGet();
+    }
+  }
+
+  // Counts a document as being read, if the statistics are enabled.
+  boolean readStarted() {
+    if (!enabled) {
+      return false;
+    }
+    readsInFlight.incrementAndGet();
+    return true;
+  }
+
+  void readFinished(boolean succeeded, long startNanos, long endNanos) {
+    readsInFlight.decrementAndGet();
+    if (succeeded) {
+      documentsRead.incrementAndGet();
+      readNanos.addAndGet(endNanos - startNanos);
+      recentReads.increment( toSeconds(endNanos) );
+    } else {
+      readFailures.incrementAndGet();
+    }
+  }
+
+  void schemaCompiled(long nanos) {
+    schemaCompilations.incrementAndGet();
+    schemaCompileNanos.addAndGet(nanos);
+  }
+
+  void schemaCacheHit() {
+    if (enabled) {
+      schemaCacheHits.incrementAndGet();
+    }
+  }
+
+  void schemaCacheMiss() {
+    if (enabled) {
+      schemaCacheMisses.incrementAndGet();
+    }
+  }
+
+  @Override
+  public long getDocumentsWritten() {
+    return documentsWritten.get();
+  }
+
+  @Override
+  public long getDocumentsRead() {
+    return documentsRead.get();
+  }
+
+  @Override
+  public long getWriteFailures() {
+    return writeFailures.get();
+  }
+
+  @Override
+  public long getReadFailures() {
+    return readFailures.get();
+  }
+
+  @Override
+  public int getWritesInFlight() {
+    return writesInFlight.get();
+  }
+
+  @Override
+  public int getReadsInFlight() {
+    return readsInFlight.get();
+  }
+
+  @Override
+  public double getWriteThroughput() {
+    return ((double) recentWrites.sum( toSeconds(System.nanoTime()) ))
+           / WINDOW_SECONDS;
+  }
+
+  @Override
+  public double getReadThroughput() {
+    return ((double) recentReads.sum( toSeconds(System.nanoTime()) ))
+           / WINDOW_SECONDS;
+  }
+
+  @Override
+  public double getMeanWriteMillis() {
+    return meanMillis(writeNanos.get(), documentsWritten.get());
+  }
+
+  @Override
+  public double getMeanReadMillis() {
+    return meanMillis(readNanos.get(), documentsRead.get());
+  }
+
+  @Override
+  public long getSchemaCompilations() {
+    return schemaCompilations.get();
+  }
+
+  @Override
+  public double getMeanSchemaCompileMillis() {
+    return meanMillis(schemaCompileNanos.get(), schemaCompilations.get());
+  }
+
+  @Override
+  public long getSchemaCacheHits() {
+    return schemaCacheHits.get();
+  }
+
+  @Override
+  public long getSchemaCacheMisses() {
+    return schemaCacheMisses.get();
+  }
+
+  @Override
+  public double getSchemaCacheHitRate() {
+    final long hits = schemaCacheHits.get();
+    final long total = hits + schemaCacheMisses.get();
+    if (total == 0) {
+      return 0.0;
+    }
+    return ((double) hits) / total;
+  }
+
+  @Override
+  public void reset() {
+    documentsWritten.set(0);
+    documentsRead.set(0);
+    writeFailures.set(0);
+    readFailures.set(0);
+    writeNanos.set(0);
+    readNanos.set(0);
+    schemaCompilations.set(0);
+    schemaCompileNanos.set(0);
+    schemaCacheHits.set(0);
+    schemaCacheMisses.set(0);
+    recentWrites.clear();
+    recentReads.clear();
+  }
+
+  private static long toSeconds(long nanos) {
+    return nanos / 1000000000L;
+  }
+
+  private static double meanMillis(long totalNanos, long count) {
+    if (count == 0) {
+      return 0.0;
+    }
+    return (totalNanos / 1000000.0) / count;
+  }
+}
@@ -0,0 +1,500 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.file.SeekableInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * A {@link DataFileWriter} that records the {@link XmlDatumBlockStats} of
+ * each block it writes, for the {@link XmlDatumField}s it was created with,
+ * so an {@link XmlDatumQuery} can skip the blocks that cannot match it.
+ * Avro data files only have metadata in their header, which is written
+ * before any blocks, so the statistics are kept in a file beside the data
+ * file instead, named after it with <code>.stats</code> added, and written
+ * when it is closed.
+ *
+ * <p>
+ * With {@link #setIdIndexed(boolean)}, the writer also indexes the IDs of
+ * the elements written as map entries, in a file named after the data
+ * file with <code>.ids</code> added, so an {@link XmlDatumIdLookup} can
+ * find them without reading the rest of the file.  Each block has a Bloom
+ * filter of its IDs, and where each element with an ID starts in it,
+ * unless the block has more than {@link #setMaxIndexedIds(int)} IDs.
+ * Either file may be left out: a writer created without any fields only
+ * writes the index.  The children of the root written as datums of their
+ * own by {@link XmlDatumWriter#writeSplit(org.w3c.dom.Document,
+ * org.apache.avro.io.Encoder)} are not map entries, so only the elements
+ * with IDs nested in them are indexed.
+ * </p>
+ *
+ * <p>
+ * The writer ends each block with {@link #sync()}, so it knows where the
+ * next one starts.  The {@link #setSyncInterval(int)} is still the
+ * approximate number of uncompressed bytes in each block; smaller blocks
+ * let queries skip more precisely, at the cost of less compression.
+ * The interval must be set before the file is created.
+ * </p>
+ *
+ * <p>
+ * Each datum is decoded to find the fields' values, which costs a good
+ * deal less than writing it from XML did.  Appending from other data files
+ * is not supported, as their datums would not have statistics.
+ * </p>
+ */
+public class XmlDatumStatsFileWriter extends DataFileWriter<Object> {
+
+  private static final int DEFAULT_SYNC_INTERVAL = 64000;
+  private static final int DEFAULT_MAX_DISTINCT_VALUES = 16;
+  private static final double DEFAULT_ID_FALSE_POSITIVE_RATE = 0.01;
+
+  // DataFileWriter's limits.
+  private static final int MIN_SYNC_INTERVAL = 32;
+  private static final int MAX_SYNC_INTERVAL = 1 << 30;
+
+  private final Schema schema;
+  private final List<XmlDatumField> fields;
+  private final FieldValueScanner scanner;
+  private final GenericDatumReader<Object> datumReader;
+  private final GenericDatumWriter<Object> datumWriter;
+  private final List<XmlDatumBlockStats> blocks;
+
+  private int syncInterval;
+  private int maxDistinctValues;
+  private File statsFile;
+
+  private boolean idIndexed;
+  private int maxIndexedIds;
+  private double idFalsePositiveRate;
+  private File indexFile;
+  private MapEntryScanner entryScanner;
+  private List<IdIndexFile.Block> idBlocks;
+  private List<IdIndexFile.Entry> blockIds;
+  private BinaryDecoder entryDecoder;
+
+  private Map<XmlDatumField, XmlDatumValueStats> blockStats;
+  private long blockPosition;
+  private long blockDatums;
+  private long blockBytes;
+  private long idBase;
+  private boolean created;
+  private BinaryDecoder decoder;
+  private BinaryEncoder encoder;
+  private ByteArrayOutputStream encoded;
+
+  /**
+   * Creates a writer for datums of the schema, which records statistics
+   * for the fields.  If there are none, only the ID index is written.
+   * The data file is not created until one of the <code>create</code>
+   * methods is called.
+   */
+  public XmlDatumStatsFileWriter(
+      Schema schema,
+      Collection<XmlDatumField> fields) {
+
+    super( new GenericDatumWriter<Object>(schema) );
+
+    if (fields == null) {
+      throw new IllegalArgumentException(
+          "The fields to record statistics for cannot be null.");
+    }
+
+    this.schema = schema;
+    this.fields =
+        Collections.unmodifiableList(
+            new ArrayList<XmlDatumField>(
+                new LinkedHashSet<XmlDatumField>(fields)));
+    this.scanner = new FieldValueScanner(this.fields);
+    this.datumReader = new GenericDatumReader<Object>(schema);
+    this.datumWriter = new GenericDatumWriter<Object>(schema);
+    this.blocks = new ArrayList<XmlDatumBlockStats>();
+    this.syncInterval = DEFAULT_SYNC_INTERVAL;
+    this.maxDistinctValues = DEFAULT_MAX_DISTINCT_VALUES;
+    this.idIndexed = false;
+    this.maxIndexedIds = Integer.MAX_VALUE;
+    this.idFalsePositiveRate = DEFAULT_ID_FALSE_POSITIVE_RATE;
+    this.idBlocks = new ArrayList<IdIndexFile.Block>();
+    this.created = false;
+
+    super.setSyncInterval(DEFAULT_SYNC_INTERVAL);
+  }
+
+  /**
+   * The file the statistics of a data file are kept in.
+   */
+  public static File getStatsFile(File avroFile) {
+    return BlockStatsFile.getStatsFile(avroFile);
+  }
+
+  /**
+   * The file the ID index of a data file is kept in.
+   */
+  public static File getIndexFile(File avroFile) {
+    return IdIndexFile.getIndexFile(avroFile);
+  }
+
+  public List<XmlDatumField> getFields() {
+    return fields;
+  }
+
+  /**
+   * The approximate number of uncompressed bytes in each block.
+   * Defaults to 64,000, the same as {@link DataFileWriter}.
+   */
+  @Override
+  public XmlDatumStatsFileWriter setSyncInterval(int syncInterval) {
+    if ((syncInterval < 1) || (syncInterval > MAX_SYNC_INTERVAL)) {
+      throw new IllegalArgumentException(
+          "The sync interval must be between 1 and " + MAX_SYNC_INTERVAL
+          + ", not " + syncInterval);
+    }
+
+    /* DataFileWriter ends a block when it has as many bytes as the
+     * interval, after the same datum this does, or not at all if the
+     * interval is under its minimum.  Either way, this learns where
+     * the block ended when it calls sync().
+     */
+    super.setSyncInterval( Math.max(MIN_SYNC_INTERVAL, syncInterval) );
+    this.syncInterval = syncInterval;
+    return this;
+  }
+
+  public int getSyncInterval() {
+    return syncInterval;
+  }
+
+  /**
+   * The most distinct values of each field to keep for each block.
+   * Blocks with fewer distinct values than this can be skipped by
+   * queries for values between their smallest and largest.
+   * Defaults to 16.
+   */
+  public void setMaxDistinctValues(int maxDistinctValues) {
+    if (maxDistinctValues < 0) {
+      throw new IllegalArgumentException(
+          "The maximum distinct values cannot be negative, not "
+          + maxDistinctValues);
+    }
+    this.maxDistinctValues = maxDistinctValues;
+  }
+
+  public int getMaxDistinctValues() {
+    return maxDistinctValues;
+  }
+
+  /**
+   * Where to write the statistics when the writer is closed.  Set by
+   * {@link #create(Schema, File)}; a writer created for an output stream
+   * only writes them if this is set.
+   */
+  public void setStatsFile(File statsFile) {
+    this.statsFile = statsFile;
+  }
+
+  public File getStatsFile() {
+    return statsFile;
+  }
+
+  /**
+   * Whether to index the IDs of the elements written as map entries.
+   * Must be set before the file is created.  Defaults to
+   * <code>false</code>.
+   */
+  public void setIdIndexed(boolean idIndexed) {
+    if (created) {
+      throw new IllegalStateException(
+          "IDs must be indexed from the start of the data file.");
+    }
+    this.idIndexed = idIndexed;
+  }
+
+  public boolean isIdIndexed() {
+    return idIndexed;
+  }
+
+  /**
+   * The most IDs to record the positions of in each block.  Blocks
+   * with more only keep their Bloom filter, which keeps the index small
+   * when there are many IDs; lookups read those blocks to find the IDs
+   * they may have.  Defaults to no limit.
+   */
+  public void setMaxIndexedIds(int maxIndexedIds) {
+    if (maxIndexedIds < 0) {
+      throw new IllegalArgumentException(
+          "The maximum indexed IDs cannot be negative, not " + maxIndexedIds);
+    }
+    this.maxIndexedIds = maxIndexedIds;
+  }
+
+  public int getMaxIndexedIds() {
+    return maxIndexedIds;
+  }
+
+  /**
+   * How often each block's Bloom filter may wrongly hold an ID, which
+   * sizes the filter.  Defaults to 1%.
+   */
+  public void setIdFalsePositiveRate(double idFalsePositiveRate) {
+    if ((idFalsePositiveRate <= 0.0) || (idFalsePositiveRate >= 1.0)) {
+      throw new IllegalArgumentException(
+          "The false positive rate must be between zero and one, not "
+          + idFalsePositiveRate);
+    }
+    this.idFalsePositiveRate = idFalsePositiveRate;
+  }
+
+  public double getIdFalsePositiveRate() {
+    return idFalsePositiveRate;
+  }
+
+  /**
+   * Where to write the ID index when the writer is closed.  Set by
+   * {@link #create(Schema, File)}; a writer created for an output stream
+   * only writes it if this is set.
+   */
+  public void setIndexFile(File indexFile) {
+    this.indexFile = indexFile;
+  }
+
+  public File getIndexFile() {
+    return indexFile;
+  }
+
+  @Override
+  public XmlDatumStatsFileWriter create(Schema schema, File file)
+      throws IOException {
+
+    super.create(schema, file);
+    statsFile = getStatsFile(file);
+    indexFile = getIndexFile(file);
+    started();
+    return this;
+  }
+
+  @Override
+  public XmlDatumStatsFileWriter create(Schema schema, OutputStream outs)
+      throws IOException {
+
+    super.create(schema, outs);
+    started();
+    return this;
+  }
+
+  private void started() throws IOException {
+    created = true;
+    blocks.clear();
+    idBlocks.clear();
+    if (idIndexed && (entryScanner == null)) {
+      entryScanner = new MapEntryScanner(schema);
+    }
+    blockPosition = super.sync();
+    startBlock();
+  }
+
+  @Override
+  public XmlDatumStatsFileWriter appendTo(File file) {
+    throw new UnsupportedOperationException(
+        "Block statistics cannot be recorded for existing data files.");
+  }
+
+  @Override
+  public XmlDatumStatsFileWriter appendTo(
+      SeekableInput in,
+      OutputStream out) {
+
+    throw new UnsupportedOperationException(
+        "Block statistics cannot be recorded for existing data files.");
+  }
+
+  @Override
+  public void appendAllFrom(
+      DataFileStream<Object> otherFile,
+      boolean recompress) {
+
+    throw new UnsupportedOperationException(
+        "Block statistics cannot be recorded for the blocks of other files.");
+  }
+
+  @Override
+  public void append(Object datum) throws IOException {
+    if (encoded == null) {
+      encoded = new ByteArrayOutputStream();
+    }
+    encoded.reset();
+    encoder = EncoderFactory.get().binaryEncoder(encoded, encoder);
+    datumWriter.write(datum, encoder);
+    encoder.flush();
+
+    appendEncoded( ByteBuffer.wrap( encoded.toByteArray() ) );
+  }
+
+  @Override
+  public void appendEncoded(ByteBuffer datum) throws IOException {
+    if (!created) {
+      throw new IllegalStateException("The data file was not created.");
+    }
+
+    final int length = datum.remaining();
+    byte[] bytes = null;
+    int offset = 0;
+    if ( datum.hasArray() ) {
+      bytes = datum.array();
+      offset = datum.arrayOffset() + datum.position();
+    } else {
+      bytes = new byte[length];
+      datum.duplicate().get(bytes);
+    }
+
+    if ( !fields.isEmpty() ) {
+      decoder =
+          DecoderFactory.get().binaryDecoder(bytes, offset, length, decoder);
+      scanner.scan(datumReader.read(null, decoder), schema, blockSink);
+    }
+
+    if (idIndexed) {
+      // A direct decoder does not read ahead, so each entry's start is known.
+      final PositionedInput datumInput =
+          new PositionedInput(bytes, offset, length);
+      entryDecoder =
+          DecoderFactory.get().directBinaryDecoder(datumInput, entryDecoder);
+      idBase = blockBytes - offset;
+      entryScanner.scan(datumInput, entryDecoder, idSink);
+    }
+
+    super.appendEncoded(datum);
+
+    ++blockDatums;
+    blockBytes += length;
+    if (blockBytes >= syncInterval) {
+      sync();
+    }
+  }
+
+  /**
+   * Ends the current block, recording its statistics and IDs.
+   */
+  @Override
+  public long sync() throws IOException {
+    final long position = super.sync();
+    if (blockDatums > 0) {
+      blocks.add(
+          new XmlDatumBlockStats(blockPosition, blockDatums, blockStats));
+      if (idIndexed) {
+        final IdBloomFilter filter =
+            new IdBloomFilter(blockIds.size(), idFalsePositiveRate);
+        for (IdIndexFile.Entry entry : blockIds) {
+          filter.add( entry.getId() );
+        }
+        idBlocks.add(
+            new IdIndexFile.Block(
+                blockPosition,
+                blockDatums,
+                filter,
+                (blockIds.size() <= maxIndexedIds) ? blockIds : null));
+      }
+      startBlock();
+    }
+    blockPosition = position;
+    return position;
+  }
+
+  /**
+   * Closes the data file, and writes the statistics of its blocks
+   * to the {@link #getStatsFile()}, and its IDs to the
+   * {@link #getIndexFile()}, if there are any.
+   */
+  @Override
+  public void close() throws IOException {
+    final boolean wasCreated = created;
+    created = false;
+    super.close();
+
+    if (wasCreated && !fields.isEmpty() && (statsFile != null)) {
+      BlockStatsFile.write(statsFile, fields, blocks);
+    }
+    if (wasCreated && idIndexed && (indexFile != null)) {
+      IdIndexFile.write(indexFile, idBlocks);
+    }
+  }
+
+  /**
+   * The statistics of the blocks written so far.
+   */
+  public List<XmlDatumBlockStats> getBlockStats() {
+    return Collections.unmodifiableList(blocks);
+  }
+
+  private void startBlock() {
+    blockStats = new LinkedHashMap<XmlDatumField, XmlDatumValueStats>();
+    for (XmlDatumField field : fields) {
+      blockStats.put(field, new XmlDatumValueStats(maxDistinctValues));
+    }
+    blockIds = new ArrayList<IdIndexFile.Entry>();
+    blockDatums = 0;
+    blockBytes = 0;
+  }
+
+  private final FieldValueScanner.Sink blockSink =
+      new FieldValueScanner.Sink() {
+        @Override
+        public void add(int field, Object value) {
+          blockStats.get( fields.get(field) ).add(value);
+        }
+
+        @Override
+        public void addNull(int field) {
+          blockStats.get( fields.get(field) ).addNull();
+        }
+      };
+
+  // Entries are found in a datum, but recorded by where they are in the block.
+  private final MapEntryScanner.Sink idSink =
+      new MapEntryScanner.Sink() {
+        @Override
+        public void entry(String id, Schema elemSchema, int position) {
+          blockIds.add(
+              new IdIndexFile.Entry(
+                  id,
+                  blockDatums,
+                  (int) (idBase + position),
+                  elemSchema.getFullName()));
+        }
+      };
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+/**
+ * The management interface of {@link XmlDatumStats}, exposing the live
+ * conversion statistics of every {@link XmlDatumWriter} and
+ * {@link XmlDatumReader} in the JVM.
+ */
+public interface XmlDatumStatsMBean {
+
+  /**
+   * Whether documents and schemas are being counted.
+   */
+  boolean isEnabled();
+
+  /**
+   * Starts or stops counting documents and schemas.  Stopping keeps
+   * the counts so far; documents already in flight are still counted
+   * when they finish.
+   */
+  void setEnabled(boolean enabled);
+
+  /**
+   * The number of documents successfully written.
+   */
+  long getDocumentsWritten();
+
+  /**
+   * The number of documents successfully read.
+   */
+  long getDocumentsRead();
+
+  /**
+   * The number of documents that failed to be written.
+   */
+  long getWriteFailures();
+
+  /**
+   * The number of documents that failed to be read.
+   */
+  long getReadFailures();
+
+  /**
+   * The number of documents currently being written.
+   */
+  int getWritesInFlight();
+
+  /**
+   * The number of documents currently being read.
+   */
+  int getReadsInFlight();
+
+  /**
+   * The number of documents written per second, over the last minute.
+   */
+  double getWriteThroughput();
+
+  /**
+   * The number of documents read per second, over the last minute.
+   */
+  double getReadThroughput();
+
+  /**
+   * The mean time, in milliseconds, to write a document.
+   */
+  double getMeanWriteMillis();
+
+  /**
+   * The mean time, in milliseconds, to read a document.
+   */
+  double getMeanReadMillis();
+
+  /**
+   * The number of times an XML Schema was compiled into the
+   * state machine used to write or read documents.
+   */
+  long getSchemaCompilations();
+
+  /**
+   * The mean time, in milliseconds, to compile an XML Schema.
+   */
+  double getMeanSchemaCompileMillis();
+
+  /**
+   * The number of times {@link XmlDatumReader#setSchema} was
+   * able to reuse the schema it had already compiled.
+   */
+  long getSchemaCacheHits();
+
+  /**
+   * The number of times {@link XmlDatumReader#setSchema}
+   * needed to compile a new schema.
+   */
+  long getSchemaCacheMisses();
+
+  /**
+   * The fraction of {@link XmlDatumReader#setSchema} calls that
+   * reused an already-compiled schema, or zero if there were none.
+   */
+  double getSchemaCacheHitRate();
+
+  /**
+   * Resets all of the counters to zero.  Documents currently
+   * in flight remain counted as such.
+   */
+  void reset();
+}
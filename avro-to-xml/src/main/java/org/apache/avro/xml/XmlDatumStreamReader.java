@@ -0,0 +1,761 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.Decoder;
+import org.xml.sax.Attributes;
+
+/**
+ * An {@link XMLStreamReader} that decodes a datum only as far as its
+ * caller has pulled events from it.  It is created by
+ * {@link XmlDatumReader#createXMLStreamReader(Decoder)}.
+ *
+ * <p>
+ * Each element's RECORD is read as a frame on an explicit stack, in the
+ * order {@link XmlDatumReader} reads them recursively.  When an element
+ * starts, its attributes, any simple or mixed content, and the size of
+ * the first block of its children are read; each child is then read only
+ * when the caller moves on to it.  The events describe the same document
+ * as the one {@link XmlDatumReader} builds, with the same attributes,
+ * <code>xsi:schemaLocation</code> and <code>xsi:nil</code>.  A prefix is
+ * declared on the root for the XML Schema Instance namespace if the
+ * reader does not have one.
+ * </p>
+ */
+final class XmlDatumStreamReader implements XMLStreamReader {
+
+  private static final Location NO_LOCATION = new Location() {
+    @Override
+    public int getLineNumber() {
+      return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+      return -1;
+    }
+
+    @Override
+    public int getCharacterOffset() {
+      return -1;
+    }
+
+    @Override
+    public String getPublicId() {
+      return null;
+    }
+
+    @Override
+    public String getSystemId() {
+      return null;
+    }
+  };
+
+  private final XmlDatumReader reader;
+  private final Schema schema;
+  private final Decoder in;
+  private final List<Frame> stack;
+  private final String xsiPrefix;
+  private final boolean declaresXsi;
+  private final NamespaceContext namespaceContext;
+
+  private int eventType;
+  private Frame frame;
+  private String text;
+  private boolean closed;
+
+  private static final class Frame {
+    final XmlDatumReader.ElementStart start;
+    final QName name;
+    final List<QName> attrNames;
+    final List<String> attrValues;
+    final List<String> nsPrefixes;
+    final List<String> nsUris;
+
+    // Simple or mixed content not yet returned.
+    String pendingText;
+
+    // The ARRAY of children, while there are more, and any MAP in it.
+    Schema unionSchema;
+    long itemsLeft;
+    Schema mapValueType;
+    long mapEntriesLeft;
+
+    Frame(XmlDatumReader.ElementStart start) {
+      this.start = start;
+
+      final String qualifiedName = start.qualifiedName;
+      final int colon = qualifiedName.indexOf(':');
+      this.name =
+          new QName(
+              start.qName.getNamespaceURI(),
+              start.qName.getLocalPart(),
+              (colon < 0) ? "" : qualifiedName.substring(0, colon));
+
+      attrNames = new ArrayList<QName>();
+      attrValues = new ArrayList<String>();
+      nsPrefixes = new ArrayList<String>();
+      nsUris = new ArrayList<String>();
+    }
+  }
+
+  XmlDatumStreamReader(XmlDatumReader reader, Schema schema, Decoder in) {
+    this.reader = reader;
+    this.schema = schema;
+    this.in = in;
+    this.stack = new ArrayList<Frame>();
+
+    final NamespaceContext readerContext = reader.getNamespaceContext();
+    final String prefix =
+        readerContext.getPrefix(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+    if (prefix != null) {
+      xsiPrefix = prefix;
+      declaresXsi = false;
+    } else {
+      String candidate = "xsi";
+      for (int suffix = 0;
+          readerContext.getNamespaceURI(candidate) != null
+          && !readerContext.getNamespaceURI(candidate).isEmpty();
+          ++suffix) {
+        candidate = "xsi" + suffix;
+      }
+      xsiPrefix = candidate;
+      declaresXsi = true;
+    }
+    namespaceContext = new StreamNamespaceContext(readerContext);
+
+    eventType = START_DOCUMENT;
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("The property name cannot be null.");
+    }
+    return null;
+  }
+
+  @Override
+  public int next() throws XMLStreamException {
+    if (closed) {
+      throw new XMLStreamException("The stream reader is closed.");
+    } else if (eventType == END_DOCUMENT) {
+      throw new NoSuchElementException("The document has ended.");
+    }
+
+    text = null;
+    try {
+      switch (eventType) {
+      case START_DOCUMENT:
+        {
+          Schema rootSchema = schema;
+          if ( rootSchema.getType().equals(Schema.Type.UNION) ) {
+            rootSchema = rootSchema.getTypes().get( in.readIndex() );
+          }
+          startElement(rootSchema);
+          break;
+        }
+      case END_ELEMENT:
+        endElement();
+        if ( stack.isEmpty() ) {
+          frame = null;
+          eventType = END_DOCUMENT;
+        } else {
+          advance( stack.get(stack.size() - 1) );
+        }
+        break;
+      default:
+        advance( stack.get(stack.size() - 1) );
+      }
+    } catch (IOException e) {
+      throw new XMLStreamException("Cannot read the next event.", e);
+    }
+    return eventType;
+  }
+
+  private void startElement(Schema elemSchema)
+      throws IOException, XMLStreamException {
+
+    final XmlDatumReader.ElementStart start =
+        reader.readElementStart(elemSchema, in);
+    final Frame element = new Frame(start);
+    final boolean isRoot = stack.isEmpty();
+    stack.add(element);
+
+    // The reader's prefixes are declared on the root.
+    if (isRoot) {
+      for (String prefix : reader.getDeclaredPrefixes()) {
+        if (!prefix.equals(XMLConstants.XML_NS_PREFIX)
+            && !prefix.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+          element.nsPrefixes.add(prefix);
+          element.nsUris.add( reader.getNamespaceURI(prefix) );
+        }
+      }
+      if (declaresXsi) {
+        element.nsPrefixes.add(xsiPrefix);
+        element.nsUris.add(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+      }
+    }
+    if (start.newPrefixes != null) {
+      for (String prefix : start.newPrefixes) {
+        element.nsPrefixes.add(prefix);
+        element.nsUris.add( reader.getNamespaceURI(prefix) );
+      }
+    }
+
+    final Attributes attributes = start.attributes;
+    boolean hasSchemaLocation = false;
+    for (int index = 0; index < attributes.getLength(); ++index) {
+      if ( start.isAttributeQualified(index) ) {
+        final String qualifiedName = attributes.getQName(index);
+        final int colon = qualifiedName.indexOf(':');
+        element.attrNames.add(
+            new QName(
+                attributes.getURI(index),
+                attributes.getLocalName(index),
+                (colon < 0) ? "" : qualifiedName.substring(0, colon)));
+        hasSchemaLocation |=
+            XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(
+                attributes.getURI(index))
+            && "schemaLocation".equals( attributes.getLocalName(index) );
+      } else {
+        element.attrNames.add( new QName(attributes.getLocalName(index)) );
+      }
+      element.attrValues.add( attributes.getValue(index) );
+    }
+
+    // Enough of the content is read to know whether there is any.
+    if ( !start.isComplex() ) {
+      element.pendingText = nonEmpty(start.content);
+    } else {
+      final Schema fieldSchema = start.childField.schema();
+      switch ( fieldSchema.getType() ) {
+      case NULL:
+        in.readNull();
+        break;
+      case STRING:
+        element.pendingText = nonEmpty( in.readString() );
+        break;
+      case ARRAY:
+        element.itemsLeft = in.readArrayStart();
+        if (element.itemsLeft > 0) {
+          element.unionSchema = fieldSchema.getElementType();
+        }
+        break;
+      default:
+        throw new XMLStreamException(
+            start.qName
+            + " has an invalid complex content of type "
+            + fieldSchema.getType() + '.');
+      }
+    }
+
+    // As DomBuilderFromSax marks them, and locates the XML Schemas.
+    if ((element.pendingText == null)
+        && (element.unionSchema == null)
+        && start.nillable) {
+      addInstanceAttribute(element, "nil", "true");
+    }
+    if (isRoot && !hasSchemaLocation) {
+      final String schemaLocation = reader.getSchemaLocation();
+      if (schemaLocation != null) {
+        addInstanceAttribute(element, "schemaLocation", schemaLocation);
+      }
+    }
+
+    frame = element;
+    eventType = START_ELEMENT;
+  }
+
+  private void addInstanceAttribute(Frame element, String name, String value) {
+    element.attrNames.add(
+        new QName(
+            XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
+            name,
+            xsiPrefix));
+    element.attrValues.add(value);
+  }
+
+  private static String nonEmpty(String content) {
+    return ((content == null) || content.isEmpty()) ? null : content;
+  }
+
+  /* Moves to the element's next piece of content, or its end,
+   * reading the children as XmlDatumReader.processComplexChildren()
+   * does.
+   */
+  private void advance(Frame element) throws IOException, XMLStreamException {
+    if (element.pendingText != null) {
+      text = element.pendingText;
+      element.pendingText = null;
+      eventType = CHARACTERS;
+      return;
+    }
+
+    while (element.unionSchema != null) {
+      if (element.mapValueType != null) {
+        if (element.mapEntriesLeft == 0) {
+          element.mapEntriesLeft = in.mapNext();
+          if (element.mapEntriesLeft == 0) {
+            element.mapValueType = null;
+          }
+          continue;
+        }
+
+        --element.mapEntriesLeft;
+        in.skipString(); // The key is irrelevant.
+
+        Schema valueType = element.mapValueType;
+        if ( valueType.getType().equals(Schema.Type.UNION) ) {
+          valueType = valueType.getTypes().get( in.readIndex() );
+        }
+        startElement(valueType);
+        return;
+      }
+
+      if (element.itemsLeft == 0) {
+        element.itemsLeft = in.arrayNext();
+        if (element.itemsLeft == 0) {
+          element.unionSchema = null;
+        }
+        continue;
+      }
+
+      --element.itemsLeft;
+      final Schema itemSchema =
+          element.unionSchema.getTypes().get( in.readIndex() );
+
+      switch ( itemSchema.getType() ) {
+      case RECORD:
+        startElement(itemSchema);
+        return;
+      case MAP:
+        element.mapEntriesLeft = in.readMapStart();
+        if (element.mapEntriesLeft > 0) {
+          element.mapValueType = itemSchema.getValueType();
+        }
+        break;
+      case STRING:
+        {
+          final String content = nonEmpty( in.readString() );
+          if (content != null) {
+            text = content;
+            eventType = CHARACTERS;
+            return;
+          }
+          break;
+        }
+      default:
+        throw new XMLStreamException(
+            element.start.qName
+            + " has a child field of ARRAY of UNION with "
+            + itemSchema.getType()
+            + " where ARRAY of UNION of either MAP or RECORD was"
+            + " expected.");
+      }
+    }
+
+    frame = element;
+    eventType = END_ELEMENT;
+  }
+
+  private void endElement() {
+    final Frame element = stack.remove(stack.size() - 1);
+    reader.endElementStart(element.start);
+  }
+
+  @Override
+  public void require(int type, String namespaceURI, String localName)
+      throws XMLStreamException {
+
+    if (type != eventType) {
+      throw new XMLStreamException(
+          "Expected event " + type + ", not " + eventType + '.');
+    }
+    if ((namespaceURI != null)
+        && (!hasName()
+            || !namespaceURI.equals( frame.name.getNamespaceURI() ))) {
+      throw new XMLStreamException(
+          "Expected the namespace " + namespaceURI + '.');
+    }
+    if ((localName != null)
+        && (!hasName()
+            || !localName.equals( frame.name.getLocalPart() ))) {
+      throw new XMLStreamException(
+          "Expected the local name " + localName + '.');
+    }
+  }
+
+  @Override
+  public String getElementText() throws XMLStreamException {
+    if (eventType != START_ELEMENT) {
+      throw new XMLStreamException(
+          "The current event is not the start of an element.");
+    }
+
+    final StringBuilder content = new StringBuilder();
+    while (next() != END_ELEMENT) {
+      if (eventType == CHARACTERS) {
+        content.append(text);
+      } else {
+        throw new XMLStreamException(
+            "Found an element in the text of "
+            + stack.get(stack.size() - 2).name + '.');
+      }
+    }
+    return content.toString();
+  }
+
+  @Override
+  public int nextTag() throws XMLStreamException {
+    next();
+    while ((eventType == CHARACTERS) && isWhiteSpace()) {
+      next();
+    }
+    if ((eventType != START_ELEMENT) && (eventType != END_ELEMENT)) {
+      throw new XMLStreamException(
+          "Expected the start or end of an element, not event "
+          + eventType + '.');
+    }
+    return eventType;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !closed && (eventType != END_DOCUMENT);
+  }
+
+  /**
+   * Stops reading.  The decoder is left wherever the reader stopped,
+   * which may be part way through the datum.
+   */
+  @Override
+  public void close() {
+    if (!closed) {
+      while ( !stack.isEmpty() ) {
+        endElement();
+      }
+      closed = true;
+    }
+  }
+
+  @Override
+  public String getNamespaceURI(String prefix) {
+    if (prefix == null) {
+      throw new IllegalArgumentException("The prefix cannot be null.");
+    }
+    return namespaceContext.getNamespaceURI(prefix);
+  }
+
+  @Override
+  public boolean isStartElement() {
+    return (eventType == START_ELEMENT);
+  }
+
+  @Override
+  public boolean isEndElement() {
+    return (eventType == END_ELEMENT);
+  }
+
+  @Override
+  public boolean isCharacters() {
+    return (eventType == CHARACTERS);
+  }
+
+  @Override
+  public boolean isWhiteSpace() {
+    if (eventType != CHARACTERS) {
+      return false;
+    }
+    for (int index = 0; index < text.length(); ++index) {
+      if ( !Character.isWhitespace( text.charAt(index) ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Frame startedElement() {
+    if (eventType != START_ELEMENT) {
+      throw new IllegalStateException(
+          "Attributes are only available at the start of an element.");
+    }
+    return frame;
+  }
+
+  @Override
+  public String getAttributeValue(String namespaceURI, String localName) {
+    final Frame element = startedElement();
+    for (int index = 0; index < element.attrNames.size(); ++index) {
+      final QName name = element.attrNames.get(index);
+      if (name.getLocalPart().equals(localName)
+          && ((namespaceURI == null)
+              || namespaceURI.equals( name.getNamespaceURI() ))) {
+        return element.attrValues.get(index);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int getAttributeCount() {
+    return startedElement().attrNames.size();
+  }
+
+  @Override
+  public QName getAttributeName(int index) {
+    return startedElement().attrNames.get(index);
+  }
+
+  @Override
+  public String getAttributeNamespace(int index) {
+    final String ns = getAttributeName(index).getNamespaceURI();
+    return ns.isEmpty() ? null : ns;
+  }
+
+  @Override
+  public String getAttributeLocalName(int index) {
+    return getAttributeName(index).getLocalPart();
+  }
+
+  @Override
+  public String getAttributePrefix(int index) {
+    return getAttributeName(index).getPrefix();
+  }
+
+  @Override
+  public String getAttributeType(int index) {
+    getAttributeName(index);
+    return "CDATA";
+  }
+
+  @Override
+  public String getAttributeValue(int index) {
+    return startedElement().attrValues.get(index);
+  }
+
+  @Override
+  public boolean isAttributeSpecified(int index) {
+    getAttributeName(index);
+    return true;
+  }
+
+  private Frame namedElement() {
+    if ( !hasName() ) {
+      throw new IllegalStateException(
+          "Namespaces are only available at the start or end of an element.");
+    }
+    return frame;
+  }
+
+  @Override
+  public int getNamespaceCount() {
+    return namedElement().nsPrefixes.size();
+  }
+
+  @Override
+  public String getNamespacePrefix(int index) {
+    final String prefix = namedElement().nsPrefixes.get(index);
+    return prefix.isEmpty() ? null : prefix;
+  }
+
+  @Override
+  public String getNamespaceURI(int index) {
+    return namedElement().nsUris.get(index);
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return namespaceContext;
+  }
+
+  @Override
+  public int getEventType() {
+    return eventType;
+  }
+
+  @Override
+  public String getText() {
+    if (eventType != CHARACTERS) {
+      throw new IllegalStateException("The current event has no text.");
+    }
+    return text;
+  }
+
+  @Override
+  public char[] getTextCharacters() {
+    return getText().toCharArray();
+  }
+
+  @Override
+  public int getTextCharacters(
+      int sourceStart,
+      char[] target,
+      int targetStart,
+      int length) {
+
+    final String chars = getText();
+    if ((sourceStart < 0) || (sourceStart > chars.length())) {
+      throw new IndexOutOfBoundsException(
+          "The text has " + chars.length() + " characters, not "
+          + sourceStart + '.');
+    }
+    final int copied = Math.min(length, chars.length() - sourceStart);
+    chars.getChars(sourceStart, sourceStart + copied, target, targetStart);
+    return copied;
+  }
+
+  @Override
+  public int getTextStart() {
+    getText();
+    return 0;
+  }
+
+  @Override
+  public int getTextLength() {
+    return getText().length();
+  }
+
+  @Override
+  public String getEncoding() {
+    return null;
+  }
+
+  @Override
+  public boolean hasText() {
+    return (eventType == CHARACTERS);
+  }
+
+  @Override
+  public Location getLocation() {
+    return NO_LOCATION;
+  }
+
+  @Override
+  public QName getName() {
+    return namedElement().name;
+  }
+
+  @Override
+  public String getLocalName() {
+    return getName().getLocalPart();
+  }
+
+  @Override
+  public boolean hasName() {
+    return (eventType == START_ELEMENT) || (eventType == END_ELEMENT);
+  }
+
+  @Override
+  public String getNamespaceURI() {
+    if ( !hasName() ) {
+      return null;
+    }
+    final String ns = frame.name.getNamespaceURI();
+    return ns.isEmpty() ? null : ns;
+  }
+
+  @Override
+  public String getPrefix() {
+    return hasName() ? frame.name.getPrefix() : null;
+  }
+
+  // The version a DOM would report, as there is no XML declaration.
+  @Override
+  public String getVersion() {
+    return "1.0";
+  }
+
+  @Override
+  public boolean isStandalone() {
+    return false;
+  }
+
+  @Override
+  public boolean standaloneSet() {
+    return false;
+  }
+
+  @Override
+  public String getCharacterEncodingScheme() {
+    return null;
+  }
+
+  @Override
+  public String getPITarget() {
+    return null;
+  }
+
+  @Override
+  public String getPIData() {
+    return null;
+  }
+
+  // The reader's namespaces in scope, and the prefix declared for xsi.
+  private final class StreamNamespaceContext implements NamespaceContext {
+    private final NamespaceContext readerContext;
+
+    StreamNamespaceContext(NamespaceContext readerContext) {
+      this.readerContext = readerContext;
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+      if (declaresXsi && xsiPrefix.equals(prefix) && !stack.isEmpty()) {
+        return XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+      }
+      return readerContext.getNamespaceURI(prefix);
+    }
+
+    @Override
+    public String getPrefix(String namespaceURI) {
+      if (declaresXsi
+          && XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespaceURI)
+          && !stack.isEmpty()) {
+        return xsiPrefix;
+      }
+      return readerContext.getPrefix(namespaceURI);
+    }
+
+    @Override
+    public Iterator<String> getPrefixes(String namespaceURI) {
+      final String prefix = getPrefix(namespaceURI);
+      if (prefix == null) {
+        return Collections.<String>emptyList().iterator();
+      }
+      return Collections.singletonList(prefix).iterator();
+    }
+  }
+}
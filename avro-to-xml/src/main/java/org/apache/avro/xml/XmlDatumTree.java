@@ -0,0 +1,248 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Document;
+
+/**
+ * A compact, immutable XML document, read by
+ * {@link XmlDatumReader#readTree(org.apache.avro.io.Decoder)}.
+ *
+ * <p>
+ * Rather than an object per node, the tree is a handful of arrays indexed
+ * by node number, with the root element as node 0 and the rest numbered
+ * in document order.  Each node is either an element or a run of text.
+ * Element and attribute names are indexes into a table of {@link QName}s,
+ * which are shared by every tree the same reader reads, and all text and
+ * attribute values are ranges of one shared string.  A node costs about
+ * 24 bytes, and an attribute 12, plus their text.
+ * </p>
+ *
+ * <p>
+ * Nodes are navigated by number: {@link #NONE} is returned where there is
+ * no parent, child or sibling.  Namespace declarations are attributes in
+ * the <code>http://www.w3.org/2000/xmlns/</code> namespace, as in a DOM,
+ * and the attributes and <code>xsi:nil</code> markers are the same as
+ * those in the {@link Document} {@link XmlDatumReader} reads.
+ * {@link #asDocument()} returns a read-only {@link Document} over the
+ * tree, for code that needs a DOM.
+ * </p>
+ *
+ * <p>
+ * As nothing in a tree can change, it can be shared by any number of
+ * threads.
+ * </p>
+ */
+public final class XmlDatumTree {
+
+  /**
+   * Returned where there is no such node.
+   */
+  public static final int NONE = -1;
+
+  private static final int TEXT = -1;
+
+  private final QName[] names;
+  private final String text;
+
+  // Per node.  The start and length are of the attributes of an element,
+  // and of the text of a text node.
+  private final int[] nameOf;
+  private final int[] parentOf;
+  private final int[] firstChildOf;
+  private final int[] nextSiblingOf;
+  private final int[] startOf;
+  private final int[] lengthOf;
+
+  // Per attribute.
+  private final int[] attrNameOf;
+  private final int[] attrStartOf;
+  private final int[] attrLengthOf;
+
+  XmlDatumTree(
+      QName[] names,
+      String text,
+      int[] nameOf,
+      int[] parentOf,
+      int[] firstChildOf,
+      int[] nextSiblingOf,
+      int[] startOf,
+      int[] lengthOf,
+      int[] attrNameOf,
+      int[] attrStartOf,
+      int[] attrLengthOf) {
+
+    this.names = names;
+    this.text = text;
+    this.nameOf = nameOf;
+    this.parentOf = parentOf;
+    this.firstChildOf = firstChildOf;
+    this.nextSiblingOf = nextSiblingOf;
+    this.startOf = startOf;
+    this.lengthOf = lengthOf;
+    this.attrNameOf = attrNameOf;
+    this.attrStartOf = attrStartOf;
+    this.attrLengthOf = attrLengthOf;
+  }
+
+  /**
+   * The root element, which is always node 0.
+   */
+  public int getRoot() {
+    return 0;
+  }
+
+  /**
+   * The number of nodes, elements and text, in the tree.
+   */
+  public int getNodeCount() {
+    return nameOf.length;
+  }
+
+  public boolean isElement(int node) {
+    return (nameOf[node] != TEXT);
+  }
+
+  public boolean isText(int node) {
+    return (nameOf[node] == TEXT);
+  }
+
+  /**
+   * The element's name, with the prefix of its qualified name,
+   * or <code>null</code> for a text node.
+   */
+  public QName getName(int node) {
+    return isElement(node) ? names[ nameOf[node] ] : null;
+  }
+
+  public int getParent(int node) {
+    return parentOf[node];
+  }
+
+  public int getFirstChild(int node) {
+    return firstChildOf[node];
+  }
+
+  public int getNextSibling(int node) {
+    return nextSiblingOf[node];
+  }
+
+  /**
+   * The text of a text node, or <code>null</code> for an element.
+   */
+  public String getText(int node) {
+    if ( !isText(node) ) {
+      return null;
+    }
+    return text.substring(startOf[node], startOf[node] + lengthOf[node]);
+  }
+
+  /**
+   * The text of the node and all of its descendants, in document order.
+   */
+  public String getTextContent(int node) {
+    if ( isText(node) ) {
+      return getText(node);
+    }
+
+    final StringBuilder content = new StringBuilder();
+    int current = firstChildOf[node];
+    while ((current != NONE) && (current != node)) {
+      if ( isText(current) ) {
+        content.append(
+            text,
+            startOf[current],
+            startOf[current] + lengthOf[current]);
+      } else if (firstChildOf[current] != NONE) {
+        current = firstChildOf[current];
+        continue;
+      }
+
+      // Climb until there is a next sibling, or back to the node.
+      while ((current != node) && (nextSiblingOf[current] == NONE)) {
+        current = parentOf[current];
+      }
+      if (current != node) {
+        current = nextSiblingOf[current];
+      }
+    }
+    return content.toString();
+  }
+
+  /**
+   * The number of attributes of an element, or zero for a text node.
+   */
+  public int getAttributeCount(int node) {
+    return isElement(node) ? lengthOf[node] : 0;
+  }
+
+  /**
+   * The name of an element's attribute, with the prefix of its
+   * qualified name.
+   *
+   * @param index The attribute's index, up to the element's
+   *              {@link #getAttributeCount(int)}.
+   */
+  public QName getAttributeName(int node, int index) {
+    return names[ attrNameOf[ attribute(node, index) ] ];
+  }
+
+  public String getAttributeValue(int node, int index) {
+    final int attr = attribute(node, index);
+    return text.substring(
+        attrStartOf[attr],
+        attrStartOf[attr] + attrLengthOf[attr]);
+  }
+
+  /**
+   * The value of the element's attribute with the namespace and local
+   * name, or <code>null</code> if it does not have one.
+   */
+  public String getAttributeValue(int node, QName name) {
+    final int count = getAttributeCount(node);
+    for (int index = 0; index < count; ++index) {
+      if ( getAttributeName(node, index).equals(name) ) {
+        return getAttributeValue(node, index);
+      }
+    }
+    return null;
+  }
+
+  private int attribute(int node, int index) {
+    if ((index < 0) || (index >= getAttributeCount(node))) {
+      throw new IndexOutOfBoundsException(
+          "Node " + node + " has " + getAttributeCount(node)
+          + " attributes, not " + (index + 1) + '.');
+    }
+    return startOf[node] + index;
+  }
+
+  /**
+   * A read-only {@link Document} over the tree.  Its nodes are made as
+   * they are navigated to, and are not kept, so they should be compared
+   * with {@link org.w3c.dom.Node#isSameNode(org.w3c.dom.Node)} rather
+   * than by identity.  Like the tree, it can be shared between threads.
+   */
+  public Document asDocument() {
+    return new TreeDocument(this);
+  }
+}
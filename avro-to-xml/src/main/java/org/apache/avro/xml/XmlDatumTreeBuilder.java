@@ -0,0 +1,396 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.apache.ws.commons.schema.XmlSchemaCollection;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.docpath.XmlSchemaStateMachineNode;
+import org.apache.ws.commons.schema.walker.XmlSchemaAttrInfo;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Builds an {@link XmlDatumTree} from SAX events, adding the same
+ * namespace declarations, <code>xsi:schemaLocation</code> and
+ * <code>xsi:nil</code> attributes, and placing attributes in the same
+ * namespaces, as {@link org.apache.ws.commons.schema.docpath.DomBuilderFromSax}
+ * does for a DOM.
+ *
+ * <p>
+ * The builder is reused for each document its {@link XmlDatumReader}
+ * reads, and keeps the names it has seen, so every tree shares the same
+ * {@link QName}s.
+ * </p>
+ */
+final class XmlDatumTreeBuilder extends DefaultHandler {
+
+  private static final int INITIAL_NODES = 64;
+
+  private final XmlSchemaCollection schemas;
+  private final Map<QName, XmlSchemaStateMachineNode> stateMachinesByQName;
+  private final String schemaLocation;
+
+  // Namespace -> qualified name -> index into names.
+  private final Map<String, Map<String, Integer>> nameIndexes;
+  private final List<QName> names;
+
+  private final StringBuilder text;
+  private final List<String> newPrefixes;
+  private final List<String> newNamespaces;
+
+  private int nodeCount;
+  private int[] nameOf;
+  private int[] parentOf;
+  private int[] firstChildOf;
+  private int[] lastChildOf;
+  private int[] nextSiblingOf;
+  private int[] startOf;
+  private int[] lengthOf;
+
+  private int attrCount;
+  private int[] attrNameOf;
+  private int[] attrStartOf;
+  private int[] attrLengthOf;
+
+  private int current;
+  private int textStart;
+  private XmlDatumTree tree;
+
+  XmlDatumTreeBuilder(
+      XmlSchemaCollection schemas,
+      Map<QName, XmlSchemaStateMachineNode> stateMachinesByQName,
+      String schemaLocation) {
+
+    this.schemas = schemas;
+    this.stateMachinesByQName = stateMachinesByQName;
+    this.schemaLocation = schemaLocation;
+
+    nameIndexes = new HashMap<String, Map<String, Integer>>();
+    names = new ArrayList<QName>();
+
+    text = new StringBuilder();
+    newPrefixes = new ArrayList<String>();
+    newNamespaces = new ArrayList<String>();
+  }
+
+  /**
+   * The tree of the last document built.
+   */
+  XmlDatumTree getTree() {
+    return tree;
+  }
+
+  @Override
+  public void startDocument() {
+    nodeCount = 0;
+    nameOf = new int[INITIAL_NODES];
+    parentOf = new int[INITIAL_NODES];
+    firstChildOf = new int[INITIAL_NODES];
+    lastChildOf = new int[INITIAL_NODES];
+    nextSiblingOf = new int[INITIAL_NODES];
+    startOf = new int[INITIAL_NODES];
+    lengthOf = new int[INITIAL_NODES];
+
+    attrCount = 0;
+    attrNameOf = new int[INITIAL_NODES];
+    attrStartOf = new int[INITIAL_NODES];
+    attrLengthOf = new int[INITIAL_NODES];
+
+    text.setLength(0);
+    newPrefixes.clear();
+    newNamespaces.clear();
+    current = XmlDatumTree.NONE;
+    textStart = -1;
+    tree = null;
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) {
+    newPrefixes.add(prefix);
+    newNamespaces.add(uri);
+  }
+
+  @Override
+  public void startElement(
+      String uri,
+      String localName,
+      String qName,
+      Attributes atts) {
+
+    addText();
+
+    final int node =
+        addNode( getName(uri, localName, getPrefix(qName)), current );
+    startOf[node] = attrCount;
+
+    for (int index = 0; index < newPrefixes.size(); ++index) {
+      final String prefix = newPrefixes.get(index);
+      if ( prefix.isEmpty() ) {
+        addAttribute(
+            getName(
+                XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                XMLConstants.XMLNS_ATTRIBUTE,
+                ""),
+            newNamespaces.get(index));
+      } else {
+        addAttribute(
+            getName(
+                XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                prefix,
+                XMLConstants.XMLNS_ATTRIBUTE),
+            newNamespaces.get(index));
+      }
+    }
+    newPrefixes.clear();
+    newNamespaces.clear();
+
+    final XmlSchemaStateMachineNode stateMachine =
+        stateMachinesByQName.get( new QName(uri, localName) );
+
+    boolean hasSchemaLocation = false;
+    for (int index = 0; index < atts.getLength(); ++index) {
+      final String attrUri = atts.getURI(index);
+      final String attrLocalName = atts.getLocalName(index);
+
+      if ( isQualified(stateMachine, attrUri, attrLocalName) ) {
+        addAttribute(
+            getName(attrUri, attrLocalName, getPrefix( atts.getQName(index) )),
+            atts.getValue(index));
+        hasSchemaLocation |= isSchemaLocation(attrUri, attrLocalName);
+      } else {
+        addAttribute(getName("", attrLocalName, ""), atts.getValue(index));
+      }
+    }
+
+    if ((node == 0) && !hasSchemaLocation && (schemaLocation != null)) {
+      addAttribute(
+          getName(
+              XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
+              "schemaLocation",
+              ""),
+          schemaLocation);
+    }
+
+    lengthOf[node] = attrCount - startOf[node];
+    current = node;
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    if (textStart < 0) {
+      textStart = text.length();
+    }
+    text.append(ch, start, length);
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) {
+    addText();
+
+    /* An element without children was the last to have attributes
+     * added, so its nil marker joins them.
+     */
+    if ((firstChildOf[current] == XmlDatumTree.NONE)
+        && isNillable(uri, localName)) {
+      addAttribute(
+          getName(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "nil", ""),
+          "true");
+      ++lengthOf[current];
+    }
+
+    current = parentOf[current];
+  }
+
+  @Override
+  public void endDocument() {
+    addText();
+
+    tree =
+        new XmlDatumTree(
+            names.toArray(new QName[names.size()]),
+            text.toString(),
+            Arrays.copyOf(nameOf, nodeCount),
+            Arrays.copyOf(parentOf, nodeCount),
+            Arrays.copyOf(firstChildOf, nodeCount),
+            Arrays.copyOf(nextSiblingOf, nodeCount),
+            Arrays.copyOf(startOf, nodeCount),
+            Arrays.copyOf(lengthOf, nodeCount),
+            Arrays.copyOf(attrNameOf, attrCount),
+            Arrays.copyOf(attrStartOf, attrCount),
+            Arrays.copyOf(attrLengthOf, attrCount));
+
+    // Only the names are kept for the next document.
+    nameOf = null;
+    parentOf = null;
+    firstChildOf = null;
+    lastChildOf = null;
+    nextSiblingOf = null;
+    startOf = null;
+    lengthOf = null;
+    attrNameOf = null;
+    attrStartOf = null;
+    attrLengthOf = null;
+    text.setLength(0);
+    text.trimToSize();
+  }
+
+  // Adjacent text is one node.  Text outside of the root is dropped.
+  private void addText() {
+    if (textStart < 0) {
+      return;
+    }
+
+    final int length = text.length() - textStart;
+    if ((length > 0) && (current != XmlDatumTree.NONE)) {
+      final int node = addNode(-1, current);
+      startOf[node] = textStart;
+      lengthOf[node] = length;
+    } else {
+      text.setLength(textStart);
+    }
+    textStart = -1;
+  }
+
+  private int addNode(int name, int parent) {
+    if (nodeCount == nameOf.length) {
+      final int capacity = nodeCount * 2;
+      nameOf = Arrays.copyOf(nameOf, capacity);
+      parentOf = Arrays.copyOf(parentOf, capacity);
+      firstChildOf = Arrays.copyOf(firstChildOf, capacity);
+      lastChildOf = Arrays.copyOf(lastChildOf, capacity);
+      nextSiblingOf = Arrays.copyOf(nextSiblingOf, capacity);
+      startOf = Arrays.copyOf(startOf, capacity);
+      lengthOf = Arrays.copyOf(lengthOf, capacity);
+    }
+
+    final int node = nodeCount++;
+    nameOf[node] = name;
+    parentOf[node] = parent;
+    firstChildOf[node] = XmlDatumTree.NONE;
+    lastChildOf[node] = XmlDatumTree.NONE;
+    nextSiblingOf[node] = XmlDatumTree.NONE;
+
+    if (parent != XmlDatumTree.NONE) {
+      if (firstChildOf[parent] == XmlDatumTree.NONE) {
+        firstChildOf[parent] = node;
+      } else {
+        nextSiblingOf[ lastChildOf[parent] ] = node;
+      }
+      lastChildOf[parent] = node;
+    }
+    return node;
+  }
+
+  private void addAttribute(int name, String value) {
+    if (attrCount == attrNameOf.length) {
+      final int capacity = attrCount * 2;
+      attrNameOf = Arrays.copyOf(attrNameOf, capacity);
+      attrStartOf = Arrays.copyOf(attrStartOf, capacity);
+      attrLengthOf = Arrays.copyOf(attrLengthOf, capacity);
+    }
+
+    final int attr = attrCount++;
+    attrNameOf[attr] = name;
+    attrStartOf[attr] = text.length();
+    attrLengthOf[attr] = value.length();
+    text.append(value);
+  }
+
+  private int getName(String uri, String localName, String prefix) {
+    final String ns = (uri == null) ? "" : uri;
+    Map<String, Integer> indexes = nameIndexes.get(ns);
+    if (indexes == null) {
+      indexes = new HashMap<String, Integer>();
+      nameIndexes.put(ns, indexes);
+    }
+
+    final String qualifiedName =
+        prefix.isEmpty() ? localName : (prefix + ':' + localName);
+    Integer index = indexes.get(qualifiedName);
+    if (index == null) {
+      index = names.size();
+      names.add( new QName(ns, localName, prefix) );
+      indexes.put(qualifiedName, index);
+    }
+    return index;
+  }
+
+  private static String getPrefix(String qName) {
+    final int colon = qName.indexOf(':');
+    return (colon < 0) ? "" : qName.substring(0, colon);
+  }
+
+  /* Only top-level attributes, and those of the XML Schema Instance
+   * namespace, are in their namespaces, as in DomBuilderFromSax.
+   */
+  private boolean isQualified(
+      XmlSchemaStateMachineNode stateMachine,
+      String uri,
+      String localName) {
+
+    if ((uri == null) || uri.isEmpty()) {
+      return false;
+    } else if ( uri.equals(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI) ) {
+      return true;
+    }
+
+    final QName attrQName = new QName(uri, localName);
+    if ((stateMachine != null) && (stateMachine.getAttributes() != null)) {
+      for (XmlSchemaAttrInfo attr : stateMachine.getAttributes()) {
+        if ( attr.getAttribute().getQName().equals(attrQName) ) {
+          return attr.isTopLevel();
+        }
+      }
+    }
+    return (schemas.getAttributeByQName(attrQName) != null);
+  }
+
+  private static boolean isSchemaLocation(String uri, String localName) {
+    return XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(uri)
+        && "schemaLocation".equals(localName);
+  }
+
+  private boolean isNillable(String uri, String localName) {
+    final QName elemQName = new QName(uri, localName);
+
+    XmlSchemaElement element = null;
+    final XmlSchemaStateMachineNode stateMachine =
+        stateMachinesByQName.get(elemQName);
+    if ((stateMachine != null)
+        && stateMachine
+             .getNodeType()
+             .equals(XmlSchemaStateMachineNode.Type.ELEMENT)) {
+      element = stateMachine.getElement();
+    }
+    if (element == null) {
+      element = schemas.getElementByQName(elemQName);
+    }
+    return (element != null) && element.isNillable();
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Statistics of the values an {@link XmlDatumField} had in one block of an
+ * Avro data file: how many there were, how many were null, the smallest and
+ * largest, and a sample of the distinct values.
+ *
+ * <p>
+ * Values are compared as Avro stores them, not as they were written in the
+ * XML: numbers, including decimals and the dates and times Avro stores as
+ * numbers, are {@link BigDecimal}s; strings and enumerations are
+ * {@link String}s; and booleans are {@link Boolean}s.  Binary values are
+ * counted, but not compared.  Values of different kinds, from fields of
+ * union types, are ordered booleans first, then numbers, then strings.
+ * </p>
+ *
+ * <p>
+ * The sample holds every distinct value until there are more than the
+ * writer's maximum, at which point it is no longer complete, and only
+ * the smallest of them are kept.
+ * </p>
+ */
+public final class XmlDatumValueStats {
+
+  /**
+   * Orders the values this class compares.
+   */
+  static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+    @Override
+    public int compare(Object o1, Object o2) {
+      final int rank1 = rankOf(o1);
+      final int rank2 = rankOf(o2);
+      if (rank1 != rank2) {
+        return (rank1 < rank2) ? -1 : 1;
+      }
+
+      switch (rank1) {
+      case 0:
+        return ((Boolean) o1).compareTo( (Boolean) o2 );
+      case 1:
+        return ((BigDecimal) o1).compareTo( (BigDecimal) o2 );
+      default:
+        return ((String) o1).compareTo( (String) o2 );
+      }
+    }
+  };
+
+  private final int maxDistinctValues;
+  private final TreeSet<Object> distinctValues;
+
+  private long count;
+  private long nullCount;
+  private Object min;
+  private Object max;
+  private boolean sampleComplete;
+
+  XmlDatumValueStats(int maxDistinctValues) {
+    this.maxDistinctValues = maxDistinctValues;
+    this.distinctValues = new TreeSet<Object>(VALUE_ORDER);
+    this.count = 0;
+    this.nullCount = 0;
+    this.min = null;
+    this.max = null;
+    this.sampleComplete = true;
+  }
+
+  // Restores statistics read back from a file.
+  XmlDatumValueStats(
+      long count,
+      long nullCount,
+      Object min,
+      Object max,
+      SortedSet<Object> distinctValues,
+      boolean sampleComplete) {
+
+    this.maxDistinctValues = distinctValues.size();
+    this.distinctValues = new TreeSet<Object>(VALUE_ORDER);
+    this.distinctValues.addAll(distinctValues);
+    this.count = count;
+    this.nullCount = nullCount;
+    this.min = min;
+    this.max = max;
+    this.sampleComplete = sampleComplete;
+  }
+
+  /**
+   * Whether the value is one this class compares.
+   */
+  static boolean isComparable(Object value) {
+    return (value instanceof Boolean)
+        || (value instanceof BigDecimal)
+        || (value instanceof String);
+  }
+
+  static boolean isSameKind(Object value1, Object value2) {
+    return rankOf(value1) == rankOf(value2);
+  }
+
+  private static int rankOf(Object value) {
+    if (value instanceof Boolean) {
+      return 0;
+    } else if (value instanceof BigDecimal) {
+      return 1;
+    } else if (value instanceof String) {
+      return 2;
+    }
+    throw new IllegalArgumentException(
+        "Cannot compare a " + value.getClass().getName());
+  }
+
+  /* Adds a value.  Values that cannot be compared are
+   * counted, but leave the sample incomplete.
+   */
+  void add(Object value) {
+    ++count;
+    if ( !isComparable(value) ) {
+      sampleComplete = false;
+      return;
+    }
+
+    if ((min == null) || (VALUE_ORDER.compare(value, min) < 0)) {
+      min = value;
+    }
+    if ((max == null) || (VALUE_ORDER.compare(value, max) > 0)) {
+      max = value;
+    }
+
+    if ( distinctValues.add(value)
+        && (distinctValues.size() > maxDistinctValues) ) {
+      distinctValues.remove( distinctValues.last() );
+      sampleComplete = false;
+    }
+  }
+
+  void addNull() {
+    ++nullCount;
+  }
+
+  /**
+   * The number of values that were not null.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  public long getNullCount() {
+    return nullCount;
+  }
+
+  /**
+   * The smallest value, or <code>null</code> if there were none to compare.
+   */
+  public Object getMin() {
+    return min;
+  }
+
+  /**
+   * The largest value, or <code>null</code> if there were none to compare.
+   */
+  public Object getMax() {
+    return max;
+  }
+
+  /**
+   * The smallest of the distinct values; all of them if
+   * {@link #isSampleComplete()}.
+   */
+  public SortedSet<Object> getDistinctValues() {
+    return Collections.unmodifiableSortedSet(distinctValues);
+  }
+
+  /**
+   * Whether {@link #getDistinctValues()} holds every value there was.
+   */
+  public boolean isSampleComplete() {
+    return sampleComplete;
+  }
+
+  /**
+   * Whether any of the values could be between <code>lower</code> and
+   * <code>upper</code>, inclusive.  Either may be <code>null</code>
+   * if that end of the range is open.
+   */
+  boolean mayContain(Object lower, Object upper) {
+    if (count == 0) {
+      return false;
+    } else if (min == null) {
+      // Nothing was compared, so nothing can be ruled out.
+      return true;
+    }
+
+    if ((lower != null) && (VALUE_ORDER.compare(lower, max) > 0)) {
+      return false;
+    } else if ((upper != null) && (VALUE_ORDER.compare(upper, min) < 0)) {
+      return false;
+    } else if (!sampleComplete) {
+      return true;
+    }
+
+    final SortedSet<Object> inRange =
+        (lower == null) ? distinctValues : distinctValues.tailSet(lower);
+    return !inRange.isEmpty()
+        && ((upper == null)
+            || (VALUE_ORDER.compare(inRange.first(), upper) <= 0));
+  }
+
+  @Override
+  public String toString() {
+    return "XmlDatumValueStats[count=" + count
+        + ", nulls=" + nullCount
+        + ", min=" + min
+        + ", max=" + max
+        + ", distinct=" + distinctValues
+        + (sampleComplete ? "" : "...")
+        + ']';
+  }
+}
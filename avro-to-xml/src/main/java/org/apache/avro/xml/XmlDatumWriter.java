@@ -18,16 +18,25 @@
 
 package org.apache.avro.xml;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.DatatypeConverter;
@@ -40,13 +49,15 @@ import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
 import org.apache.ws.commons.schema.XmlSchemaAttribute;
 import org.apache.ws.commons.schema.XmlSchemaCollection;
 import org.apache.ws.commons.schema.XmlSchemaElement;
 import org.apache.ws.commons.schema.constants.Constants;
-import org.apache.ws.commons.schema.docpath.SaxWalkerOverDom;
 import org.apache.ws.commons.schema.docpath.XmlSchemaDocumentNode;
 import org.apache.ws.commons.schema.docpath.XmlSchemaNamespaceContext;
 import org.apache.ws.commons.schema.docpath.XmlSchemaPathFinder;
@@ -58,6 +69,10 @@ import org.apache.ws.commons.schema.walker.XmlSchemaBaseSimpleType;
 import org.apache.ws.commons.schema.walker.XmlSchemaTypeInfo;
 import org.apache.ws.commons.schema.walker.XmlSchemaWalker;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -76,18 +91,153 @@ public class XmlDatumWriter implements DatumWriter<Document> {
 
   private final XmlSchemaCollection xmlSchemaCollection;
   private final XmlSchemaStateMachineNode stateMachine;
-  private Schema schema;
+  private final Map<QName, XmlSchemaStateMachineNode> stateMachineNodesByQName;
+  private final XmlDatumConfig config;
+  private volatile Schema schema;
+  private final ConcurrentHashMap<QName, Schema> subtreeSchemas;
+  private volatile SplitSchema splitSchema;
+  private volatile XmlDatumMetricsListener metricsListener;
+  private volatile XmlDatumProfile profile;
+  private volatile boolean trustedInput;
+  private volatile TrustedWritePlan trustedPlan;
 
   private static class StackEntry {
     XmlSchemaDocumentNode<AvroRecordInfo> docNode;
     boolean receivedContent;
 
+    // Only tracked when profiling.
+    long startPosition;
+    long childBytes;
+    long chars;
+    long nanos;
+
     StackEntry(XmlSchemaDocumentNode<AvroRecordInfo> docNode) {
       this.docNode = docNode;
       this.receivedContent = false;
     }
   }
 
+  /**
+   * The off-heap buffer and binary encoder each thread
+   * uses when writing documents directly to a channel.
+   */
+  private static class ChannelSink {
+    final DirectBufferOutputStream buffer = new DirectBufferOutputStream();
+    BinaryEncoder encoder = null;
+    GatheringByteChannel channel = null;
+    long start = -1;
+
+    /* Documents larger than CHANNEL_FLUSH_THRESHOLD are written to the
+     * channel as they are encoded.  If one of those fails, a FileChannel
+     * is truncated back to where the document started.
+     */
+    BinaryEncoder open(GatheringByteChannel channel) throws IOException {
+      this.channel = channel;
+      this.start =
+          (channel instanceof FileChannel)
+          ? ((FileChannel) channel).position()
+          : -1;
+      buffer.setFlushChannel(channel, CHANNEL_FLUSH_THRESHOLD);
+      encoder = EncoderFactory.get().binaryEncoder(buffer, encoder);
+      return encoder;
+    }
+
+    // Returns the number of bytes written to the channel.
+    long finish() throws IOException {
+      encoder.flush();
+      buffer.writeTo(channel);
+      return buffer.size();
+    }
+
+    /* Flushes the encoder before discarding the buffer, so a document
+     * that failed part way does not leave bytes behind in the encoder.
+     * A failed document's buffer is discarded first, so those bytes do
+     * not reach the channel, and nothing here may hide why it failed.
+     */
+    void close(boolean succeeded) throws IOException {
+      try {
+        if (!succeeded) {
+          final long flushed = buffer.flushed();
+          buffer.reset();
+          if ((flushed > 0) && (start >= 0)) {
+            ((FileChannel) channel).truncate(start);
+          }
+        }
+        encoder.flush();
+      } catch (IOException e) {
+        if (succeeded) {
+          throw e;
+        }
+      } finally {
+        buffer.reset();
+        channel = null;
+      }
+    }
+  }
+
+  /**
+   * The UNION each datum of a split document is written as: the root
+   * element's RECORD for the header, then the RECORDs of each element
+   * that may be a child of the root, then NULL to end the document.
+   */
+  private static class SplitSchema {
+    final Schema union;
+    final Map<String, Integer> indexByFullName;
+    final int nullIndex;
+
+    SplitSchema(Schema rootSchema) {
+      if ( !rootSchema.getType().equals(Schema.Type.RECORD) ) {
+        throw new IllegalStateException(
+            "Only documents whose root is a RECORD can be split, not a "
+            + rootSchema.getType());
+      }
+
+      final List<Schema> types = new ArrayList<Schema>();
+      indexByFullName = new HashMap<String, Integer>();
+      add(rootSchema, types);
+
+      final Schema children =
+          rootSchema.getField( rootSchema.getName() ).schema();
+      if ( children.getType().equals(Schema.Type.ARRAY) ) {
+        for (Schema child : children.getElementType().getTypes()) {
+          if ( child.getType().equals(Schema.Type.MAP) ) {
+            child = child.getValueType();
+          }
+          if ( child.getType().equals(Schema.Type.UNION) ) {
+            for (Schema mapValue : child.getTypes()) {
+              add(mapValue, types);
+            }
+          } else {
+            add(child, types);
+          }
+        }
+      }
+
+      nullIndex = types.size();
+      types.add( Schema.create(Schema.Type.NULL) );
+      union = Schema.createUnion(types);
+    }
+
+    // Mixed content is not an element, and has no datum of its own.
+    private void add(Schema record, List<Schema> types) {
+      if (record.getType().equals(Schema.Type.RECORD)
+          && !indexByFullName.containsKey( record.getFullName() )) {
+        indexByFullName.put(record.getFullName(), types.size());
+        types.add(record);
+      }
+    }
+  }
+
+  private static final long CHANNEL_FLUSH_THRESHOLD = 4L * 1024 * 1024;
+
+  private static final ThreadLocal<ChannelSink> CHANNEL_SINKS =
+      new ThreadLocal<ChannelSink>() {
+        @Override
+        protected ChannelSink initialValue() {
+          return new ChannelSink();
+        }
+      };
+
   private static class Writer extends DefaultHandler {
     private static final XmlSchemaTypeInfo XML_MIXED_CONTENT_TYPE =
         new XmlSchemaTypeInfo(XmlSchemaBaseSimpleType.STRING);
@@ -98,24 +248,38 @@ public class XmlDatumWriter implements DatumWriter<Document> {
     private XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> currLocation;
     private StringBuilder content;
     private QName currAnyElem;
+    private XmlSchemaDocumentNode<AvroRecordInfo> currExcludedElem;
+    private int excludedDepth;
     private ArrayList<StackEntry> stack;
 
     private final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path;
     private final Encoder out;
     private final XmlSchemaNamespaceContext nsContext;
+    private final XmlDatumMetrics metrics;
+    private final XmlDatumProfile profile;
+    private final MeteredEncoder meteredOut;
 
     Writer(
         XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path,
-        Encoder out) {
+        Encoder out,
+        XmlDatumMetrics metrics,
+        XmlDatumProfile profile) {
 
       this.path = path;
       this.out = out;
+      this.metrics = metrics;
+      this.profile = profile;
+
+      // When profiling, the output is always metered.
+      meteredOut = (profile == null) ? null : (MeteredEncoder) out;
 
       nsContext = new XmlSchemaNamespaceContext();
       stack = new ArrayList<StackEntry>();
       currLocation = null;
       content = null;
       currAnyElem = null;
+      currExcludedElem = null;
+      excludedDepth = 0;
     }
 
     @Override
@@ -145,6 +309,10 @@ public class XmlDatumWriter implements DatumWriter<Document> {
       if (currAnyElem != null) {
         // We are inside an any element and not processing this one.
         return;
+      } else if (currExcludedElem != null) {
+        // We are inside an element left out of the Avro schema.
+        ++excludedDepth;
+        return;
       }
 
       final QName elemQName = new QName(uri, localName);
@@ -173,6 +341,19 @@ public class XmlDatumWriter implements DatumWriter<Document> {
         return;
       }
 
+      if (currLocation.getDocumentNode().getUserDefinedContent() == null) {
+        /* This element was left out of the Avro schema; like
+         * an any element, it and its children are skipped.
+         */
+        currExcludedElem = currLocation.getDocumentNode();
+        excludedDepth = 1;
+        return;
+      }
+
+      if (metrics != null) {
+        metrics.incrementElements();
+      }
+
       try {
         final XmlSchemaDocumentNode<AvroRecordInfo> doc =
             currLocation.getDocumentNode();
@@ -203,6 +384,10 @@ public class XmlDatumWriter implements DatumWriter<Document> {
         final StackEntry entry =
             new StackEntry(currLocation.getDocumentNode());
 
+        if (profile != null) {
+          entry.startPosition = meteredOut.getPosition();
+        }
+
         if (avroSchema.getType().equals(Schema.Type.RECORD)) {
           if ( !stack.isEmpty() ) {
             out.startItem();
@@ -223,6 +408,9 @@ public class XmlDatumWriter implements DatumWriter<Document> {
           switch ( mapNode.getType() ) {
           case MAP_START:
             {
+              if (metrics != null) {
+                metrics.incrementMapClusters();
+              }
               if ( !stack.isEmpty() ) {
                 out.startItem();
               }
@@ -336,25 +524,29 @@ public class XmlDatumWriter implements DatumWriter<Document> {
           final XmlSchemaTypeInfo typeInfo = attrTypes.get( field.name() );
           final QName attrQName = schemaAttrs.get( field.name() ).getQName();
 
-          String value =
-              getAttrValue(
-                  atts,
-                  attrQName.getNamespaceURI(),
-                  field.name());
-
-          if (value == null) {
-            // See if there is a default or fixed value instead.
-            final XmlSchemaAttribute schemaAttr =
-                schemaAttrs.get( field.name() );
-
-            value = schemaAttr.getDefaultValue();
-            if (value == null) {
-              value = schemaAttr.getFixedValue();
-            }
-          }
+          final String value =
+              getAttrValue(atts, schemaAttrs.get( field.name() ), field.name());
 
           try {
+            final long attrStart = (profile == null) ? 0 : System.nanoTime();
+            final long attrPosition =
+                (profile == null) ? 0 : meteredOut.getPosition();
+
             write(typeInfo, attrQName, field.schema(), value);
+
+            if ((metrics != null) && (value != null)) {
+              metrics.incrementAttributes();
+            }
+            if (profile != null) {
+              final long attrBytes = meteredOut.getPosition() - attrPosition;
+              profile
+                .getAttributeEntry(elemQName, field.name())
+                .add(
+                    attrBytes,
+                    attrBytes,
+                    (value == null) ? 0 : value.length(),
+                    System.nanoTime() - attrStart);
+            }
           } catch (Exception e) {
             throw new RuntimeException(
                 "Could not write "
@@ -434,8 +626,8 @@ public class XmlDatumWriter implements DatumWriter<Document> {
     public void characters(char[] ch, int start, int length)
         throws SAXException {
 
-      if (currAnyElem != null) {
-        // We do not process wildcard elements.
+      if ((currAnyElem != null) || (currExcludedElem != null)) {
+        // We do not process wildcard or excluded elements.
         return;
       }
 
@@ -475,7 +667,8 @@ public class XmlDatumWriter implements DatumWriter<Document> {
       } else {
         currLocation = path;
 
-        if (currLocation.getNext() == null) {
+        // Only the root's content can be the last thing in the path.
+        if ((currLocation.getNext() == null) && (stack.size() > 1)) {
           throw new SAXException(
               "We are processing characters for "
               + stack.get(stack.size() - 1)
@@ -539,6 +732,8 @@ public class XmlDatumWriter implements DatumWriter<Document> {
              .schema();
 
         try {
+          final long writeStart = (profile == null) ? 0 : System.nanoTime();
+
           final AvroPathNode contentPathNode =
               currLocation.getUserDefinedContent();
 
@@ -558,6 +753,11 @@ public class XmlDatumWriter implements DatumWriter<Document> {
             write(elemType, elemQName, avroSchema, result);
           }
           entry.receivedContent = true;
+
+          if (profile != null) {
+            entry.chars += result.length();
+            entry.nanos += System.nanoTime() - writeStart;
+          }
         } catch (Exception e) {
           throw new RuntimeException(
               "Unable to write the content \""
@@ -584,6 +784,13 @@ public class XmlDatumWriter implements DatumWriter<Document> {
           currAnyElem = null;
         }
         return;
+
+      } else if (currExcludedElem != null) {
+        if (--excludedDepth == 0) {
+          walkPastExcludedElement();
+          currExcludedElem = null;
+        }
+        return;
       }
 
       final StackEntry entry = stack.remove(stack.size() - 1);
@@ -594,15 +801,9 @@ public class XmlDatumWriter implements DatumWriter<Document> {
 
       if (!entry.receivedContent) {
 
-        /* Look for either the default value
-         * or fixed value and apply it, if any.
-         */
-        String value =
-            docNode.getStateMachineNode().getElement().getDefaultValue();
-
-        if (value == null) {
-          value = docNode.getStateMachineNode().getElement().getFixedValue();
-        }
+        // Apply either the default value or fixed value, if any.
+        final String value =
+            getDefaultValue( docNode.getStateMachineNode().getElement() );
 
         final AvroRecordInfo record = docNode.getUserDefinedContent();
 
@@ -619,7 +820,14 @@ public class XmlDatumWriter implements DatumWriter<Document> {
         avroSchema = avroSchema.getField(localName).schema();
 
         try {
+          final long writeStart = (profile == null) ? 0 : System.nanoTime();
+
           write(elemType, elemQName, avroSchema, value);
+
+          if (profile != null) {
+            entry.chars += (value == null) ? 0 : value.length();
+            entry.nanos += System.nanoTime() - writeStart;
+          }
         } catch (IOException e) {
           throw new RuntimeException(
               "Attempted to write a default value of \""
@@ -690,6 +898,22 @@ public class XmlDatumWriter implements DatumWriter<Document> {
         }
 
       }
+
+      if (profile != null) {
+        final long totalBytes = meteredOut.getPosition() - entry.startPosition;
+
+        profile
+          .getElementEntry(elemQName)
+          .add(
+              totalBytes - entry.childBytes,
+              totalBytes,
+              entry.chars,
+              entry.nanos);
+
+        if ( !stack.isEmpty() ) {
+          stack.get(stack.size() - 1).childBytes += totalBytes;
+        }
+      }
     }
 
     @Override
@@ -711,6 +935,38 @@ public class XmlDatumWriter implements DatumWriter<Document> {
       }
     }
 
+    /* Unlike an any element, the path includes everything inside an
+     * excluded element.  Moves past all of it, to the last node of the
+     * path still in the excluded element's scope.
+     */
+    private void walkPastExcludedElement() {
+      XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> next =
+          currLocation.getNext();
+
+      while ((next != null)
+          && !(next.getDirection().equals(XmlSchemaPathNode.Direction.SIBLING)
+               && (next.getDocumentNode() == currExcludedElem))
+          && isWithin(next.getDocumentNode(), currExcludedElem)) {
+
+        currLocation = next;
+        next = currLocation.getNext();
+      }
+    }
+
+    private static boolean isWithin(
+        XmlSchemaDocumentNode<AvroRecordInfo> docNode,
+        XmlSchemaDocumentNode<AvroRecordInfo> ancestor) {
+
+      for (XmlSchemaDocumentNode<AvroRecordInfo> node = docNode;
+           node != null;
+           node = node.getParent()) {
+        if (node == ancestor) {
+          return true;
+        }
+      }
+      return false;
+    }
+
     private void walkToElement(QName elemName) {
       if (stack.isEmpty()
           && currLocation
@@ -894,7 +1150,7 @@ public class XmlDatumWriter implements DatumWriter<Document> {
                    .equals(AvroPathNode.Type.MAP_END));
     }
 
-    private static String getAttrValue(
+    static String getAttrValue(
         Attributes atts,
         String namespaceUri,
         String name) {
@@ -921,6 +1177,32 @@ public class XmlDatumWriter implements DatumWriter<Document> {
       return value;
     }
 
+    /* The value of the attribute for the field, or if the element does
+     * not have it, the attribute's default or fixed value, if any.
+     */
+    static String getAttrValue(
+        Attributes atts,
+        XmlSchemaAttribute schemaAttr,
+        String name) {
+
+      final String value =
+          getAttrValue(atts, schemaAttr.getQName().getNamespaceURI(), name);
+      if (value != null) {
+        return value;
+      } else if (schemaAttr.getDefaultValue() != null) {
+        return schemaAttr.getDefaultValue();
+      }
+      return schemaAttr.getFixedValue();
+    }
+
+    // The content of an empty element: its default or fixed value, if any.
+    static String getDefaultValue(XmlSchemaElement element) {
+      if (element.getDefaultValue() != null) {
+        return element.getDefaultValue();
+      }
+      return element.getFixedValue();
+    }
+
     private void write(
         XmlSchemaTypeInfo xmlType,
         QName xmlQName,
@@ -1127,6 +1409,10 @@ public class XmlDatumWriter implements DatumWriter<Document> {
               out.writeIndex(textIndex);
               out.writeString(data);
 
+              if (metrics != null) {
+                metrics.incrementUnionFallbacks();
+              }
+
             } else if (!written) {
               throw new IOException(
                   "Cannot write \""
@@ -1363,210 +1649,1819 @@ public class XmlDatumWriter implements DatumWriter<Document> {
     }
   }
 
-  public XmlDatumWriter(XmlDatumConfig config, Schema avroSchema)
-      throws IOException {
-
-    if (config == null) {
-      throw new IllegalArgumentException("XmlDatumConfig cannot be null.");
-    }
-
-    xmlSchemaCollection = new XmlSchemaCollection();
-    xmlSchemaCollection.setBaseUri(config.getBaseUri());
-    for (StreamSource source : config.getSources()) {
-      xmlSchemaCollection.read(source);
+  /* Writes a trusted document in a single walk of its DOM, following the
+   * TrustedWritePlan rather than a path through the XML Schema.  The
+   * values themselves are written as the Writer writes them, and the
+   * limits of the XmlDatumConfig are enforced as the walk reaches them.
+   */
+  private static class TrustedWriter {
+    private final TrustedWritePlan plan;
+    private final Writer values;
+    private final Encoder out;
+    private final XmlDatumMetrics metrics;
+    private final DomContentWalker.NodeAttributes attributes;
+
+    private final boolean limited;
+    private final int maxDepth;
+    private final long maxElements;
+    private final int maxTextLength;
+    private final int maxAttributes;
+    private final long maxMapSize;
+
+    private int depth;
+    private long elements;
+
+    // A run of MAP entries, written as one item of their parent's ARRAY.
+    private static class MapCluster {
+      final TrustedWritePlan.ChildPlan child;
+      final List<Element> entries;
+
+      MapCluster(TrustedWritePlan.ChildPlan child) {
+        this.child = child;
+        this.entries = new ArrayList<Element>();
+      }
     }
 
-    final XmlSchemaStateMachineGenerator stateMachineGen =
-        new XmlSchemaStateMachineGenerator();
+    // The items of an element's ARRAY of children, as they are found.
+    private static class ChildItems {
+      final List<Object> items = new ArrayList<Object>();
+      StringBuilder text;
+      MapCluster cluster;
 
-    final XmlSchemaWalker walker =
-        new XmlSchemaWalker(xmlSchemaCollection, stateMachineGen);
-    walker.setUserRecognizedTypes( Utils.getAvroRecognizedTypes() );
+      // The length of the text since the last child element.
+      long textLength;
 
-    AvroSchemaGenerator avroSchemaGen = null;
-    if (avroSchema == null) {
-      avroSchemaGen =
-          new AvroSchemaGenerator(
-              config.getBaseUri(),
-              config.getSchemaUrls(),
-              config.getSchemaFiles());
-      walker.addVisitor(avroSchemaGen);
+      void endText() {
+        if ((text != null) && (text.length() > 0)) {
+          items.add( text.toString() );
+          text.setLength(0);
+        }
+      }
     }
 
-    final XmlSchemaElement rootElement =
-        xmlSchemaCollection.getElementByQName(config.getRootTagName());
-    walker.walk(rootElement);
-
-    stateMachine = stateMachineGen.getStartNode();
+    TrustedWriter(
+        TrustedWritePlan plan,
+        Encoder out,
+        XmlDatumMetrics metrics,
+        XmlDatumConfig config) {
 
-    if (avroSchema == null) {
-      schema = avroSchemaGen.getSchema();
-    } else {
-      schema = avroSchema;
+      this.plan = plan;
+      this.values = new Writer(null, out, metrics, null);
+      this.out = out;
+      this.metrics = metrics;
+      this.attributes = new DomContentWalker.NodeAttributes();
+
+      this.limited = LimitEnforcingHandler.isLimited(config);
+      this.maxDepth = config.getMaxDepth();
+      this.maxElements = config.getMaxElements();
+      this.maxTextLength = config.getMaxTextLength();
+      this.maxAttributes = config.getMaxAttributes();
+      this.maxMapSize = config.getMaxMapSize();
     }
-  }
 
-  public XmlDatumWriter(XmlDatumConfig config) throws IOException {
-    this(config, null);
-  }
+    void write(Node node, QName rootName, Schema avroSchema)
+        throws IOException {
 
-  /**
-   * Returns the {@link Schema} this <code>XmlDatumWriter</code> is
-   * writing against - either the one automatically generated from
-   * the {@link XmlDatumConfig} or the {@link Schema} set after that.
-   */
-  public Schema getSchema() {
-    return schema;
-  }
+      Element root = null;
+      if (node instanceof Document) {
+        root = ((Document) node).getDocumentElement();
+      } else {
+        root = (Element) node;
+
+        // Prefixes declared above a subtree are in scope inside of it.
+        final List<String> inherited =
+            DomContentWalker.getInheritedPrefixes(root);
+        for (int index = 0; index < inherited.size(); index += 2) {
+          values.nsContext.addNamespace(
+              inherited.get(index),
+              inherited.get(index + 1));
+        }
+      }
 
-  /**
-   * Sets the schema to use when writing the XML
-   * {@link Document} to the {@link Encoder}.
-   *
-   * @see org.apache.avro.io.DatumWriter#setSchema(org.apache.avro.Schema)
-   */
-  @Override
-  public void setSchema(Schema schema) {
-    if (schema == null) {
-      throw new IllegalArgumentException("Avro schema cannot be null.");
-    }
-    this.schema = schema;
-  }
+      final QName rootQName =
+          (rootName == null) ? DomContentWalker.getQName(root) : rootName;
 
-  /**
-   * Writes the {@link Document} to the {@link Encoder} in accordance
-   * with the {@link Schema} set in {@link #setSchema(Schema)}.
-   *
-   * <p>
-   * If no {@link Schema} was provided, builds one from the {@link Document}
-   * and its {@link XmlSchemaCollection}.  The schema can then be retrieved
-   * from {@link #getSchema()}.
-   * </p>
-   *
-   * @see DatumWriter#write(java.lang.Object, org.apache.avro.io.Encoder)
-   */
-  @Override
-  public void write(Document doc, Encoder out) throws IOException {
-    // 1. Build the path through the schema that describes the document.
-    final XmlSchemaPathFinder pathFinder =
-        new XmlSchemaPathFinder(stateMachine);
-    final SaxWalkerOverDom walker = new SaxWalkerOverDom(pathFinder);
-    try {
-      walker.walk(doc);
-    } catch (Exception se) {
-      throw new IOException("Unable to parse the document.", se);
+      Schema rootSchema = avroSchema;
+      if ( rootSchema.getType().equals(Schema.Type.UNION) ) {
+        final int rootIndex = plan.getRootIndex(rootSchema, rootQName);
+        if (rootIndex < 0) {
+          throw new IOException(
+              "Element \"" + rootQName + "\" is not a root of the schema.");
+        }
+        out.writeIndex(rootIndex);
+        rootSchema = rootSchema.getTypes().get(rootIndex);
+
+      } else if ( !plan.describes(rootSchema, rootQName) ) {
+        throw new IOException(
+            "Element \""
+            + rootQName
+            + "\" is not the root of the schema, "
+            + rootSchema.getFullName()
+            + '.');
+      }
+
+      writeElement(root, plan.getPlan(rootSchema));
     }
-    final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path =
-        pathFinder.getXmlSchemaTraversal();
 
-    // 2. Apply Avro schema metadata on top of the document. 
-    final AvroSchemaApplier applier = new AvroSchemaApplier(schema, false);
-    applier.apply(path);
+    private void writeElement(
+        Element element,
+        TrustedWritePlan.ElementPlan elemPlan) throws IOException {
 
-    // 3. Encode the document.
-    walker.removeContentHandler(pathFinder);
-    walker.addContentHandler( new Writer(path, out) );
+      final NamedNodeMap attrs = element.getAttributes();
+      startPrefixMappings(attrs);
 
-    try {
-      walker.walk(doc);
-    } catch (SAXException e) {
-      throw new IOException("Unable to encode the document.", e);
-    }
-  }
+      if (metrics != null) {
+        metrics.incrementElements();
+      }
 
-  /**
-   * Writes the XML in the provided {@link File} to the {@link Encoder} in
-   * accordance with the {@link Schema} set in {@link #setSchema(Schema)}.
-   *
-   * <p>
-   * If no {@link Schema} was provided, builds one from the {@link Document}
-   * and its {@link XmlSchemaCollection}.  The schema can then be retrieved
-   * from {@link #getSchema()}.
-   * </p>
-   */
-  public void write(File xmlFile, Encoder out)
-      throws IOException, ParserConfigurationException, SAXException {
+      attributes.setAttributes(attrs);
+      startElement(elemPlan.qName);
 
-    final SAXParserFactory factory = SAXParserFactory.newInstance();
-    factory.setNamespaceAware(true);
+      for (int index = 0; index < elemPlan.attrFields.length; ++index) {
+        final Schema.Field field = elemPlan.attrFields[index];
+        final XmlSchemaAttribute schemaAttr = elemPlan.attrs[index];
 
-    // 1. Build the path through the schema that describes the document.
-    final SAXParser pathFindingParser = factory.newSAXParser();
+        final String value =
+            Writer.getAttrValue(attributes, schemaAttr, field.name());
 
-    final XmlSchemaPathFinder pathFinder =
-        new XmlSchemaPathFinder(stateMachine);
-    pathFindingParser.parse(xmlFile, pathFinder);
+        try {
+          values.write(
+              elemPlan.attrTypes[index],
+              schemaAttr.getQName(),
+              field.schema(),
+              value);
+        } catch (IOException e) {
+          throw new IOException(
+              "Could not write "
+              + field.name()
+              + " for element "
+              + elemPlan.qName,
+              e);
+        }
 
-    final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path =
-        pathFinder.getXmlSchemaTraversal();
+        if ((metrics != null) && (value != null)) {
+          metrics.incrementAttributes();
+        }
+      }
 
-    // 2. Apply Avro schema metadata on top of the document. 
-    final AvroSchemaApplier applier = new AvroSchemaApplier(schema, false);
-    applier.apply(path);
+      if (elemPlan.hasChildren) {
+        writeChildren(element, elemPlan);
 
-    // 3. Encode the document.
-    final SAXParser encodingParser = factory.newSAXParser();
-    encodingParser.parse(xmlFile, new Writer(path, out));
-  }
+      } else if ( elemPlan.contentSchema.getType().equals(Schema.Type.NULL) ) {
+        out.writeNull();
 
-  /**
-   * Writes the XML retrieved from the provided {@link URL} to the
-   * {@link Encoder} in accordance with the {@link Schema} set in
-   * {@link #setSchema(Schema)}.
-   *
-   * <p>
-   * If no {@link Schema} was provided, builds one from the {@link Document}
-   * and its {@link XmlSchemaCollection}.  The schema can then be retrieved
-   * from {@link #getSchema()}.
-   * </p>
-   */
-  public void write(URL xmlUrl, Encoder out)
-      throws IOException, ParserConfigurationException, SAXException {
+      } else {
+        final int nilIndex =
+            attributes.getIndex(
+                NIL_ATTR.getNamespaceURI(),
+                NIL_ATTR.getLocalPart());
 
-    final SAXParserFactory factory = SAXParserFactory.newInstance();
-    factory.setNamespaceAware(true);
+        final StringBuilder text = new StringBuilder();
+        DomContentWalker.appendText(element.getFirstChild(), text);
+        checkTextLength(text.length(), elemPlan.qName);
 
-    // 1. Build the path through the schema that describes the document.
-    final SAXParser pathFindingParser = factory.newSAXParser();
+        String content = null;
+        if ((nilIndex < 0)
+            || !Boolean.parseBoolean( attributes.getValue(nilIndex) )) {
 
-    final XmlSchemaPathFinder pathFinder =
-        new XmlSchemaPathFinder(stateMachine);
+          if (text.length() > 0) {
+            content = text.toString();
+          } else {
+            content =
+                Writer.getDefaultValue( elemPlan.stateMachine.getElement() );
+          }
+        }
 
-    InputStream pathFindingStream = null;
-    try {
-      pathFindingStream = xmlUrl.openStream();
-      pathFindingParser.parse(pathFindingStream, pathFinder);
+        try {
+          values.write(
+              elemPlan.type,
+              elemPlan.qName,
+              elemPlan.contentSchema,
+              content);
+        } catch (IOException e) {
+          throw new IOException(
+              "Unable to write the content \""
+              + content
+              + "\" for "
+              + elemPlan.qName,
+              e);
+        }
+      }
+
+      --depth;
+      endPrefixMappings(attrs);
+    }
+
+    /* The items are found first, as the ARRAY's length, and the size
+     * of each of its MAPs, are written before the items themselves.
+     */
+    private void writeChildren(
+        Element element,
+        TrustedWritePlan.ElementPlan elemPlan) throws IOException {
+
+      final ChildItems children = new ChildItems();
+      findChildren(element.getFirstChild(), elemPlan, children);
+      children.endText();
+
+      out.writeArrayStart();
+      out.setItemCount( children.items.size() );
+
+      for (Object item : children.items) {
+        out.startItem();
+
+        if (item instanceof Element) {
+          final Element child = (Element) item;
+          final TrustedWritePlan.ChildPlan childPlan =
+              elemPlan.children.get( DomContentWalker.getQName(child) );
+          out.writeIndex(childPlan.unionIndex);
+          writeElement(child, plan.getPlan(childPlan.record));
+
+        } else if (item instanceof MapCluster) {
+          writeMap((MapCluster) item);
+
+        } else {
+          out.writeIndex(elemPlan.mixedIndex);
+          out.writeString( (String) item );
+        }
+      }
+
+      out.writeArrayEnd();
+    }
+
+    private void findChildren(
+        Node firstChild,
+        TrustedWritePlan.ElementPlan elemPlan,
+        ChildItems children) throws IOException {
+
+      for (Node child = firstChild;
+          child != null;
+          child = child.getNextSibling()) {
+
+        switch ( child.getNodeType() ) {
+        case Node.ELEMENT_NODE:
+          {
+            final QName childQName = DomContentWalker.getQName(child);
+            final TrustedWritePlan.ChildPlan childPlan =
+                elemPlan.children.get(childQName);
+
+            children.textLength = 0;
+
+            if (childPlan == null) {
+              if (!elemPlan.allowsAny
+                  && !elemPlan.excludedChildren.contains(childQName)) {
+                throw new IOException(
+                    "Element \""
+                    + childQName
+                    + "\" cannot be a child of \""
+                    + elemPlan.qName
+                    + "\".");
+              }
+
+              /* Children left out of the Avro schema, and wildcard
+               * content, are not written, but still end a MAP.
+               */
+              children.endText();
+              children.cluster = null;
+              skipElement((Element) child, childQName);
+              break;
+            }
+
+            children.endText();
+            if (!childPlan.isMap) {
+              children.items.add(child);
+              children.cluster = null;
+
+            } else if ((children.cluster != null)
+                && (children.cluster.child == childPlan)) {
+              children.cluster.entries.add((Element) child);
+
+            } else {
+              children.cluster = new MapCluster(childPlan);
+              children.cluster.entries.add((Element) child);
+              children.items.add(children.cluster);
+            }
+            break;
+          }
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          {
+            final String data = ((Text) child).getData();
+
+            children.textLength += data.length();
+            checkTextLength(children.textLength, elemPlan.qName);
+
+            if (elemPlan.mixedIndex >= 0) {
+              if ( !data.isEmpty() ) {
+                if (children.text == null) {
+                  children.text = new StringBuilder();
+                }
+                children.text.append(data);
+                children.cluster = null;
+              }
+            } else if ( !data.trim().isEmpty() ) {
+              throw new IOException(
+                  "Element \""
+                  + elemPlan.qName
+                  + "\" cannot have the text \""
+                  + data.trim()
+                  + "\".");
+            }
+            break;
+          }
+        case Node.ENTITY_REFERENCE_NODE:
+          findChildren(child.getFirstChild(), elemPlan, children);
+          break;
+        default:
+          // Comments and processing instructions carry no content.
+        }
+      }
+    }
+
+    /* Walks an element that is not written only as far as
+     * needed to hold it to the same limits as the rest.
+     */
+    private void skipElement(Element element, QName elemQName)
+        throws IOException {
+
+      if (!limited) {
+        return;
+      }
+
+      attributes.setAttributes( element.getAttributes() );
+      startElement(elemQName);
+      skipChildren(element.getFirstChild(), elemQName, new long[1]);
+      --depth;
+    }
+
+    private void skipChildren(
+        Node firstChild,
+        QName parentQName,
+        long[] textLength) throws IOException {
+
+      for (Node child = firstChild;
+          child != null;
+          child = child.getNextSibling()) {
+
+        switch ( child.getNodeType() ) {
+        case Node.ELEMENT_NODE:
+          textLength[0] = 0;
+          skipElement((Element) child, DomContentWalker.getQName(child));
+          break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          textLength[0] += ((Text) child).getLength();
+          checkTextLength(textLength[0], parentQName);
+          break;
+        case Node.ENTITY_REFERENCE_NODE:
+          skipChildren(child.getFirstChild(), parentQName, textLength);
+          break;
+        default:
+          // Comments and processing instructions carry no content.
+        }
+      }
+    }
+
+    private void writeMap(MapCluster cluster) throws IOException {
+      final TrustedWritePlan.ElementPlan entryPlan =
+          plan.getPlan(cluster.child.record);
+
+      if (cluster.entries.size() > maxMapSize) {
+        throw new XmlDatumLimitExceededException(
+            XmlDatumLimitExceededException.Limit.MAP_SIZE,
+            maxMapSize,
+            entryPlan.qName);
+      }
+      if (entryPlan.keyAttr < 0) {
+        throw new IOException(
+            "Unable to find key for element " + entryPlan.qName);
+      }
+      if (metrics != null) {
+        metrics.incrementMapClusters();
+      }
+
+      final Schema.Field keyField = entryPlan.attrFields[entryPlan.keyAttr];
+      final XmlSchemaAttribute keyAttr = entryPlan.attrs[entryPlan.keyAttr];
+
+      out.writeIndex(cluster.child.unionIndex);
+      out.writeMapStart();
+      out.setItemCount( cluster.entries.size() );
+
+      for (Element entry : cluster.entries) {
+        out.startItem();
+
+        attributes.setAttributes( entry.getAttributes() );
+        final String key =
+            Writer.getAttrValue(
+                attributes,
+                keyAttr.getQName().getNamespaceURI(),
+                keyField.name());
+        if (key == null) {
+          throw new IOException(
+              "Attribute value for "
+              + keyAttr.getQName()
+              + " of element "
+              + entryPlan.qName
+              + " is null.");
+        }
+        out.writeString(key);
+
+        if (cluster.child.mapUnionIndex >= 0) {
+          out.writeIndex(cluster.child.mapUnionIndex);
+        }
+        writeElement(entry, entryPlan);
+      }
+
+      out.writeMapEnd();
+    }
+
+    /* Counts the element, whose attributes are the current ones, against
+     * the depth, element and attribute limits, as LimitEnforcingHandler
+     * does for documents written with the path finder.
+     */
+    private void startElement(QName elemQName)
+        throws XmlDatumLimitExceededException {
+
+      ++depth;
+      if (!limited) {
+        return;
+      }
+
+      if (depth > maxDepth) {
+        throw new XmlDatumLimitExceededException(
+            XmlDatumLimitExceededException.Limit.DEPTH,
+            maxDepth,
+            elemQName);
+      }
+      if (++elements > maxElements) {
+        throw new XmlDatumLimitExceededException(
+            XmlDatumLimitExceededException.Limit.ELEMENTS,
+            maxElements,
+            elemQName);
+      }
+      if (attributes.getLength() > maxAttributes) {
+        throw new XmlDatumLimitExceededException(
+            XmlDatumLimitExceededException.Limit.ATTRIBUTES,
+            maxAttributes,
+            elemQName);
+      }
+    }
+
+    private void checkTextLength(long textLength, QName elemQName)
+        throws XmlDatumLimitExceededException {
+
+      if (textLength > maxTextLength) {
+        throw new XmlDatumLimitExceededException(
+            XmlDatumLimitExceededException.Limit.TEXT_LENGTH,
+            maxTextLength,
+            elemQName);
+      }
+    }
+
+    private void startPrefixMappings(NamedNodeMap attrs) throws IOException {
+      try {
+        DomContentWalker.startPrefixMappings(attrs, values);
+      } catch (SAXException e) {
+        throw new IOException("Unable to declare the namespaces.", e);
+      }
+    }
+
+    private void endPrefixMappings(NamedNodeMap attrs) throws IOException {
+      try {
+        DomContentWalker.endPrefixMappings(attrs, values);
+      } catch (SAXException e) {
+        throw new IOException("Unable to remove the namespaces.", e);
+      }
+    }
+  }
+
+  public XmlDatumWriter(XmlDatumConfig config, Schema avroSchema)
+      throws IOException {
+
+    if (config == null) {
+      throw new IllegalArgumentException("XmlDatumConfig cannot be null.");
+    }
+
+    final XmlDatumStats stats = XmlDatumStats.get();
+    final boolean counted = stats.isEnabled();
+    final long compileStart = counted ? System.nanoTime() : 0;
+
+    this.config = config;
+
+    xmlSchemaCollection = new XmlSchemaCollection();
+    xmlSchemaCollection.setBaseUri(config.getBaseUri());
+    for (StreamSource source : config.getSources()) {
+      xmlSchemaCollection.read(source);
+    }
+
+    final XmlSchemaStateMachineGenerator stateMachineGen =
+        new XmlSchemaStateMachineGenerator();
+
+    final XmlSchemaWalker walker =
+        new XmlSchemaWalker(xmlSchemaCollection, stateMachineGen);
+    walker.setUserRecognizedTypes( Utils.getAvroRecognizedTypes() );
+
+    if ( config.getExcludedElements().contains(config.getRootTagName()) ) {
+      throw new IllegalArgumentException(
+          "The root element " + config.getRootTagName() + " cannot be excluded.");
+    }
+
+    /* Which elements are left out by the included ones depends on how
+     * they nest, so those schemas are walked for the state machine first.
+     */
+    final boolean walkSeparately =
+        (avroSchema == null) && !config.getIncludedElements().isEmpty();
+
+    AvroSchemaGenerator avroSchemaGen = null;
+    if ((avroSchema == null) && !walkSeparately) {
+      avroSchemaGen =
+          new AvroSchemaGenerator(config, config.getExcludedElements());
+      walker.addVisitor(avroSchemaGen);
+    }
+
+    final XmlSchemaElement rootElement =
+        xmlSchemaCollection.getElementByQName(config.getRootTagName());
+    walker.walk(rootElement);
+
+    stateMachine = stateMachineGen.getStartNode();
+    stateMachineNodesByQName = stateMachineGen.getStateMachineNodesByQName();
+
+    if (walkSeparately) {
+      avroSchemaGen =
+          new AvroSchemaGenerator(
+              config,
+              getExcludedElements(config, stateMachineNodesByQName));
+
+      final XmlSchemaWalker schemaWalker =
+          new XmlSchemaWalker(xmlSchemaCollection, avroSchemaGen);
+      schemaWalker.setUserRecognizedTypes( Utils.getAvroRecognizedTypes() );
+      schemaWalker.walk(rootElement);
+    }
+    subtreeSchemas = new ConcurrentHashMap<QName, Schema>();
+
+    if (avroSchema == null) {
+      schema = avroSchemaGen.getSchema();
+    } else {
+      schema = avroSchema;
+    }
+
+    if (counted) {
+      stats.schemaCompiled(System.nanoTime() - compileStart);
+    }
+  }
+
+  public XmlDatumWriter(XmlDatumConfig config) throws IOException {
+    this(config, null);
+  }
+
+  /* The elements explicitly excluded, and when some are included, every
+   * element that is neither included, inside an included element, nor
+   * able to contain one.
+   */
+  private static Set<QName> getExcludedElements(
+      XmlDatumConfig config,
+      Map<QName, XmlSchemaStateMachineNode> elements) {
+
+    final Set<QName> excluded =
+        new HashSet<QName>( config.getExcludedElements() );
+
+    final Map<QName, Set<QName>> childrenOf = new HashMap<QName, Set<QName>>();
+    final Map<QName, Set<QName>> parentsOf = new HashMap<QName, Set<QName>>();
+    for (QName element : elements.keySet()) {
+      childrenOf.put(element, new HashSet<QName>());
+      parentsOf.put(element, new HashSet<QName>());
+    }
+
+    for (Map.Entry<QName, XmlSchemaStateMachineNode> entry :
+           elements.entrySet()) {
+
+      final Set<QName> children = childrenOf.get( entry.getKey() );
+      addChildElements(
+          entry.getValue(),
+          children,
+          new HashSet<XmlSchemaStateMachineNode>());
+
+      for (QName child : children) {
+        parentsOf.get(child).add( entry.getKey() );
+      }
+    }
+
+    final Set<QName> kept = new HashSet<QName>();
+    kept.add( config.getRootTagName() );
+    addReachable(config.getIncludedElements(), childrenOf, kept);
+    addReachable(config.getIncludedElements(), parentsOf, kept);
+
+    for (QName element : elements.keySet()) {
+      if ( !kept.contains(element) ) {
+        excluded.add(element);
+      }
+    }
+    return excluded;
+  }
+
+  // An element's next states are the groups of its children.
+  private static void addChildElements(
+      XmlSchemaStateMachineNode node,
+      Set<QName> children,
+      Set<XmlSchemaStateMachineNode> visited) {
+
+    if (node.getPossibleNextStates() == null) {
+      return;
+    }
+
+    for (XmlSchemaStateMachineNode next : node.getPossibleNextStates()) {
+      if ( !visited.add(next) ) {
+        continue;
+      }
+      if ( next
+             .getNodeType()
+             .equals(XmlSchemaStateMachineNode.Type.ELEMENT) ) {
+        children.add( next.getElement().getQName() );
+      } else {
+        addChildElements(next, children, visited);
+      }
+    }
+  }
+
+  private static void addReachable(
+      Set<QName> starts,
+      Map<QName, Set<QName>> edges,
+      Set<QName> reached) {
+
+    final List<QName> toVisit = new ArrayList<QName>(starts);
+    final Set<QName> visited = new HashSet<QName>(starts);
+
+    while ( !toVisit.isEmpty() ) {
+      final QName element = toVisit.remove(toVisit.size() - 1);
+      reached.add(element);
+
+      final Set<QName> next = edges.get(element);
+      if (next != null) {
+        for (QName nextElement : next) {
+          if ( visited.add(nextElement) ) {
+            toVisit.add(nextElement);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link Schema} this <code>XmlDatumWriter</code> is
+   * writing against - either the one automatically generated from
+   * the {@link XmlDatumConfig} or the {@link Schema} set after that.
+   */
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Sets the schema to use when writing the XML
+   * {@link Document} to the {@link Encoder}.
+   *
+   * @see org.apache.avro.io.DatumWriter#setSchema(org.apache.avro.Schema)
+   */
+  @Override
+  public void setSchema(Schema schema) {
+    if (schema == null) {
+      throw new IllegalArgumentException("Avro schema cannot be null.");
+    }
+    this.schema = schema;
+    subtreeSchemas.clear();
+    splitSchema = null;
+    trustedPlan = null;
+  }
+
+  /**
+   * Returns the {@link Schema} of the datums written by
+   * {@link #write(Element, QName, Encoder)} for subtrees rooted at
+   * the element with the provided {@link QName}.  This is the RECORD
+   * describing that element within {@link #getSchema()}.
+   *
+   * @throws IllegalArgumentException If the element is not
+   *         part of the document {@link #getSchema()} describes.
+   */
+  public Schema getSchema(QName elemQName) {
+    final Schema docSchema = schema;
+    Schema subtreeSchema = subtreeSchemas.get(elemQName);
+    if (subtreeSchema == null) {
+      subtreeSchema = findRecord(docSchema, elemQName);
+      if (subtreeSchema == null) {
+        throw new IllegalArgumentException(
+            "Element \"" + elemQName + "\" has no RECORD in the Avro schema.");
+      }
+      subtreeSchemas.put(elemQName, subtreeSchema);
+    }
+    return subtreeSchema;
+  }
+
+  /**
+   * Sets the {@link XmlDatumProfile} to add the cost of each element and
+   * attribute to as documents are written, or <code>null</code> to stop
+   * profiling.  Profiling reads the clock around every value written, so
+   * it is meant for finding expensive parts of a schema, not for regular
+   * production use.
+   */
+  public void setProfile(XmlDatumProfile profile) {
+    this.profile = profile;
+  }
+
+  /**
+   * The {@link XmlDatumProfile} documents are
+   * being profiled into, or <code>null</code> if none.
+   */
+  public XmlDatumProfile getProfile() {
+    return profile;
+  }
+
+  /**
+   * Whether the documents written are trusted to conform to the XML
+   * Schema, such as when they were validated against it before reaching
+   * this writer.  Trusted documents are written in a single walk of the
+   * DOM, without the path finder: each element is written as the first
+   * member of its parent's UNION of children with its name, as decided
+   * once per RECORD of the Avro schema, and in the order of the document.
+   * Only elements and text that cannot be written at all are reported;
+   * an element out of the order of the XML Schema is written as it is.
+   *
+   * <p>
+   * Only documents and subtrees are written this way.  Files and URLs,
+   * only some of the root's children, and profiled documents are written
+   * with the path finder, as is every document if this is
+   * <code>false</code>, the default.
+   * </p>
+   *
+   * <p>
+   * The limits of the {@link XmlDatumConfig} are checked during the same
+   * walk, so a trusted document that exceeds one may be partly written
+   * before it is rejected.
+   * </p>
+   */
+  public void setTrustedInput(boolean trustedInput) {
+    this.trustedInput = trustedInput;
+  }
+
+  public boolean isTrustedInput() {
+    return trustedInput;
+  }
+
+  private TrustedWritePlan getTrustedPlan() {
+    TrustedWritePlan plan = trustedPlan;
+    if (plan == null) {
+      plan = new TrustedWritePlan(stateMachineNodesByQName);
+      trustedPlan = plan;
+    }
+    return plan;
+  }
+
+  /**
+   * Registers the {@link XmlDatumMetricsListener} to notify after each
+   * document is written, or <code>null</code> to stop collecting metrics.
+   */
+  public void setMetricsListener(XmlDatumMetricsListener listener) {
+    this.metricsListener = listener;
+  }
+
+  /**
+   * The {@link XmlDatumMetricsListener} notified after each
+   * document is written, or <code>null</code> if none.
+   */
+  public XmlDatumMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  /**
+   * Writes the {@link Document} to the {@link Encoder} in accordance
+   * with the {@link Schema} set in {@link #setSchema(Schema)}.
+   *
+   * <p>
+   * If no {@link Schema} was provided, builds one from the {@link Document}
+   * and its {@link XmlSchemaCollection}.  The schema can then be retrieved
+   * from {@link #getSchema()}.
+   * </p>
+   *
+   * @see DatumWriter#write(java.lang.Object, org.apache.avro.io.Encoder)
+   */
+  @Override
+  public void write(Document doc, Encoder out) throws IOException {
+    write(doc, null, stateMachine, schema, out);
+  }
+
+  /**
+   * Writes the subtree starting at the {@link Element} to the
+   * {@link Encoder}, as a datum of its own, without copying it
+   * out of the {@link Document} that contains it.
+   *
+   * <p>
+   * The subtree is checked against the declaration of the element named
+   * <code>rootOverride</code>, or of the element's own name if that is
+   * <code>null</code>, and is written as the RECORD returned by
+   * {@link #getSchema(QName)} for that name.  The element must be
+   * declared somewhere under the root element of the
+   * {@link XmlDatumConfig}.  Namespace prefixes declared on the element's
+   * ancestors are in scope inside the subtree, as they are in the
+   * containing document.
+   * </p>
+   */
+  public void write(Element element, QName rootOverride, Encoder out)
+      throws IOException {
+
+    QName rootQName = rootOverride;
+    if (rootQName == null) {
+      rootQName =
+          new QName(
+              (element.getNamespaceURI() == null)
+                ? ""
+                : element.getNamespaceURI(),
+              element.getLocalName());
+    }
+
+    final XmlSchemaStateMachineNode startNode =
+        stateMachineNodesByQName.get(rootQName);
+    if (startNode == null) {
+      throw new IllegalArgumentException(
+          "Element \"" + rootQName + "\" is not declared in the XML Schema.");
+    }
+
+    write(element, rootOverride, startNode, getSchema(rootQName), out);
+  }
+
+  /**
+   * Returns the {@link Schema} of the datums written by
+   * {@link #writeSplit(Document, Encoder)}.  This is a UNION of the
+   * root element's RECORD, the RECORDs of the elements that may be
+   * children of the root, and NULL.
+   *
+   * @throws IllegalStateException If the root element is not a RECORD.
+   */
+  public Schema getSplitSchema() {
+    return getSplit().union;
+  }
+
+  /**
+   * Writes the {@link Document} as a series of datums, one for each child
+   * of the root element, rather than as a single datum.  Readers can then
+   * decode any one child without decoding the children before it.
+   *
+   * <p>
+   * All of the datums are of the UNION returned by
+   * {@link #getSplitSchema()}.  The first is a header: the root element,
+   * with its attributes but no children.  Each child of the root follows,
+   * written as that child's RECORD, as by
+   * {@link #write(Element, QName, Encoder)}.  A NULL ends the document.
+   * {@link XmlDatumReader#readSplit(Decoder)} reads the datums back into
+   * one document.
+   * </p>
+   *
+   * <p>
+   * Each datum is checked against the limits in the
+   * {@link XmlDatumConfig} separately, and reported to the
+   * {@link XmlDatumMetricsListener} as a document of its own.
+   * </p>
+   */
+  public void writeSplit(Document doc, Encoder out) throws IOException {
+    final SplitSchema split = getSplit();
+    final Element root = doc.getDocumentElement();
+
+    writeSplitHeader(split, root, out);
+
+    for (Node child = root.getFirstChild();
+        child != null;
+        child = child.getNextSibling()) {
+
+      if (child instanceof Element) {
+        writeSplitChild(split, (Element) child, out);
+
+      } else if ((child instanceof Text)
+          && !((Text) child).getData().trim().isEmpty()) {
+        throw new IOException(
+            "Text directly under the root element cannot be split: \""
+            + ((Text) child).getData().trim()
+            + '"');
+      }
+    }
+
+    out.writeIndex(split.nullIndex);
+    out.writeNull();
+  }
+
+  /**
+   * Writes the XML in the provided {@link File} as a series of datums, as
+   * {@link #writeSplit(Document, Encoder)} does.  The file is parsed once,
+   * and each child of the root element is written as soon as its end tag
+   * is read, so only one child at a time is held in memory.
+   */
+  public void writeSplit(File xmlFile, Encoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    writeSplit(xmlFile, out, null);
+  }
+
+  /**
+   * Writes the XML in the provided {@link File} as a series of datums, as
+   * {@link #writeSplit(File, Encoder)} does, appending each one to the
+   * {@link DataFileWriter} with
+   * {@link DataFileWriter#appendEncoded(ByteBuffer)} as soon as it is
+   * written.  Only one child of the root element, and its datum, is held
+   * in memory at a time.  The data file must have been created with the
+   * {@link #getSplitSchema()}.
+   */
+  public void writeSplit(File xmlFile, final DataFileWriter<?> out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+
+    writeSplit(xmlFile, encoder, new SplitDatumListener() {
+      @Override
+      public void datumWritten() throws IOException {
+        encoder.flush();
+        out.appendEncoded( ByteBuffer.wrap( bytes.toByteArray() ) );
+        bytes.reset();
+      }
+    });
+  }
+
+  // Told after each datum the File is split into has been written.
+  private interface SplitDatumListener {
+    void datumWritten() throws IOException;
+  }
+
+  private void writeSplit(
+      File xmlFile,
+      final Encoder out,
+      final SplitDatumListener listener)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final SplitSchema split = getSplit();
+
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+
+    final SubtreeSplitter splitter =
+        new SubtreeSplitter(new SubtreeSplitter.Listener() {
+          @Override
+          public void rootStarted(Element root) throws IOException {
+            writeSplitHeader(split, root, out);
+            if (listener != null) {
+              listener.datumWritten();
+            }
+          }
+
+          @Override
+          public void childFinished(Element child) throws IOException {
+            writeSplitChild(split, child, out);
+            if (listener != null) {
+              listener.datumWritten();
+            }
+          }
+        });
+
+    try {
+      factory.newSAXParser().parse(xmlFile, splitter);
+    } catch (SAXException e) {
+      if (e.getException() instanceof IOException) {
+        throw (IOException) e.getException();
+      }
+      throw e;
+    }
+
+    out.writeIndex(split.nullIndex);
+    out.writeNull();
+    if (listener != null) {
+      listener.datumWritten();
+    }
+  }
+
+  private SplitSchema getSplit() {
+    SplitSchema split = splitSchema;
+    if (split == null) {
+      split = new SplitSchema(schema);
+      splitSchema = split;
+    }
+    return split;
+  }
+
+  // The header is the root element with its attributes, but no children.
+  private void writeSplitHeader(SplitSchema split, Element root, Encoder out)
+      throws IOException {
+
+    out.writeIndex(0);
+    write(
+        root.cloneNode(false),
+        null,
+        stateMachine,
+        split.union.getTypes().get(0),
+        out);
+  }
+
+  private void writeSplitChild(SplitSchema split, Element child, Encoder out)
+      throws IOException {
+
+    final QName childQName =
+        new QName(
+            (child.getNamespaceURI() == null) ? "" : child.getNamespaceURI(),
+            child.getLocalName());
+
+    final Integer index =
+        split.indexByFullName.get( getSchema(childQName).getFullName() );
+    if (index == null) {
+      throw new IOException(
+          "Element \"" + childQName + "\" cannot be a child of the root.");
+    }
+
+    out.writeIndex(index);
+    write(child, null, out);
+  }
+
+  /* Writes a Document, or the subtree under an Element, starting from
+   * the provided state machine node and encoding against avroSchema.
+   */
+  private void write(
+      Node node,
+      QName rootName,
+      XmlSchemaStateMachineNode startNode,
+      Schema avroSchema,
+      Encoder out) throws IOException {
+
+    final XmlDatumMetrics metrics = startMetrics();
+    final boolean counted = XmlDatumStats.get().writeStarted();
+    final long start = startClock(metrics, counted);
+    final XmlDatumProfile profile = this.profile;
+    final Encoder encoder = meter(out, metrics, profile);
+    boolean succeeded = false;
+
+    try {
+      encode(node, rootName, startNode, avroSchema, encoder, metrics, profile);
+      succeeded = true;
+
+    } catch (IOException e) {
+      throw failed(metrics, e);
+    } catch (RuntimeException e) {
+      throw failed(metrics, e);
+    } finally {
+      finish(metrics, counted, start, encoder, succeeded);
+    }
+  }
+
+  /* Writes the node to the encoder, without recording it as a document;
+   * the caller records it.  The encoder is metered if there are metrics
+   * or a profile.
+   */
+  private void encode(
+      Node node,
+      QName rootName,
+      XmlSchemaStateMachineNode startNode,
+      Schema avroSchema,
+      Encoder encoder,
+      XmlDatumMetrics metrics,
+      XmlDatumProfile profile) throws IOException {
+
+    final long start = (metrics == null) ? 0 : System.nanoTime();
+    final XmlDatumProfile docProfile =
+        (profile == null) ? null : new XmlDatumProfile();
+
+    if (trustedInput && (docProfile == null)) {
+      writeTrusted(node, rootName, avroSchema, encoder, metrics);
+      lap(metrics, XmlDatumMetrics.Phase.ENCODE, start);
+      return;
+    }
+
+    // 1. Build the path through the schema that describes the document.
+    final XmlSchemaPathFinder pathFinder =
+        new XmlSchemaPathFinder(startNode);
+    try {
+      walk(new DomContentWalker( limit(pathFinder) ), node, rootName);
+    } catch (Exception se) {
+      final XmlDatumLimitExceededException limitExceeded =
+          XmlDatumLimitExceededException.findIn(se);
+      if (limitExceeded != null) {
+        throw limitExceeded;
+      }
+      throw new IOException("Unable to parse the document.", se);
+    }
+    final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path =
+        pathFinder.getXmlSchemaTraversal();
+
+    lap(metrics, XmlDatumMetrics.Phase.PATH_FINDING, start);
+
+    // 2. Apply Avro schema metadata on top of the document. 
+    final AvroSchemaApplier applier =
+        new AvroSchemaApplier(avroSchema, false);
+    applier.apply(path, metrics);
+    checkMapSizes(path);
+
+    final long encodeStart = (metrics == null) ? 0 : System.nanoTime();
+
+    /* 3. Encode the document.  Array lengths and map sizes must be
+     *    written before their contents, and are only known after the
+     *    first two steps, so the DOM is walked a second time here.
+     */
+    final DomContentWalker walker =
+        new DomContentWalker(
+            new Writer(path, encoder, metrics, docProfile) );
+    try {
+      walk(walker, node, rootName);
+    } catch (SAXException e) {
+      throw new IOException("Unable to encode the document.", e);
+    }
+
+    lap(metrics, XmlDatumMetrics.Phase.ENCODE, encodeStart);
+
+    if (docProfile != null) {
+      profile.merge(docProfile);
+    }
+  }
+
+  // The TrustedWriter enforces the limits of the XmlDatumConfig itself.
+  private void writeTrusted(
+      Node node,
+      QName rootName,
+      Schema avroSchema,
+      Encoder out,
+      XmlDatumMetrics metrics) throws IOException {
+
+    new TrustedWriter(
+        getTrustedPlan(),
+        out,
+        metrics,
+        config).write(node, rootName, avroSchema);
+  }
+
+  /**
+   * Writes the XML in the provided {@link File} to the {@link Encoder} in
+   * accordance with the {@link Schema} set in {@link #setSchema(Schema)}.
+   *
+   * <p>
+   * If no {@link Schema} was provided, builds one from the {@link Document}
+   * and its {@link XmlSchemaCollection}.  The schema can then be retrieved
+   * from {@link #getSchema()}.
+   * </p>
+   */
+  public void write(File xmlFile, Encoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    /* The file is read into memory once, and both
+     * passes over the document parse the same copy.
+     */
+    write(MappedFileInput.open(xmlFile), out);
+  }
+
+  /* Writes the XML document in the input, parsing it once to find
+   * its path through the schema, and again to encode it.
+   */
+  void write(MappedFileInput input, Encoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    encode(findPath(input), out);
+  }
+
+  /**
+   * A document whose path through the XML Schema has been found, waiting
+   * to have its Avro schema applied and be encoded.  The two halves of
+   * a write may run on different threads.
+   */
+  static final class PendingWrite {
+    final MappedFileInput input;
+    final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path;
+    final XmlDatumMetrics metrics;
+    final boolean counted;
+    final long start;
+
+    PendingWrite(
+        MappedFileInput input,
+        XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path,
+        XmlDatumMetrics metrics,
+        boolean counted,
+        long start) {
+
+      this.input = input;
+      this.path = path;
+      this.metrics = metrics;
+      this.counted = counted;
+      this.start = start;
+    }
+  }
+
+  /* The first half of write(MappedFileInput, Encoder):
+   * parses the document to find its path through the schema.
+   */
+  PendingWrite findPath(MappedFileInput input)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final XmlDatumMetrics metrics = startMetrics();
+    final boolean counted = XmlDatumStats.get().writeStarted();
+    final long start = startClock(metrics, counted);
+    boolean succeeded = false;
+
+    try {
+      final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path =
+          findPath(input, metrics, start);
+
+      succeeded = true;
+      return new PendingWrite(input, path, metrics, counted, start);
+
+    } catch (IOException e) {
+      throw failed(metrics, e);
+    } catch (SAXException e) {
+      throw failed(metrics, e);
+    } catch (ParserConfigurationException e) {
+      throw failed(metrics, e);
+    } catch (RuntimeException e) {
+      throw failed(metrics, e);
     } finally {
-      if (pathFindingStream != null) {
-        try {
-          pathFindingStream.close();
-        } catch (IOException ioe) {
-          ioe.printStackTrace();
-        }
+      if (!succeeded) {
+        finish(metrics, counted, start, null, false);
       }
     }
+  }
 
-    final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path =
-        pathFinder.getXmlSchemaTraversal();
+  // Parses the document in the input to find its path through the schema.
+  private XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> findPath(
+      MappedFileInput input,
+      XmlDatumMetrics metrics,
+      long start)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+
+    // 1. Build the path through the schema that describes the document.
+    final SAXParser pathFindingParser = factory.newSAXParser();
+
+    final XmlSchemaPathFinder pathFinder =
+        new XmlSchemaPathFinder(stateMachine);
+    try {
+      pathFindingParser.parse(input.openInputSource(), limit(pathFinder));
+    } catch (SAXException e) {
+      rethrowIfLimitExceeded(e);
+      throw e;
+    }
+
+    lap(metrics, XmlDatumMetrics.Phase.PATH_FINDING, start);
+    return pathFinder.getXmlSchemaTraversal();
+  }
+
+  /* Records a document whose path was found, but which will never be
+   * encoded, as a failure, finishing what findPath started.
+   */
+  void abandon(PendingWrite pending, Throwable cause) {
+    failed(pending.metrics, cause);
+    finish(
+        pending.metrics,
+        pending.counted,
+        pending.start,
+        null,
+        false);
+  }
+
+  /* The second half of write(MappedFileInput, Encoder): applies
+   * the Avro schema to the path, and parses the document again
+   * to encode it.
+   */
+  void encode(PendingWrite pending, Encoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final XmlDatumMetrics metrics = pending.metrics;
+    final XmlDatumProfile profile = this.profile;
+    final Encoder encoder = meter(out, metrics, profile);
+    boolean succeeded = false;
+
+    try {
+      encode(pending.input, pending.path, encoder, metrics, profile);
+      succeeded = true;
+
+    } catch (IOException e) {
+      throw failed(metrics, e);
+    } catch (SAXException e) {
+      throw failed(metrics, e);
+    } catch (ParserConfigurationException e) {
+      throw failed(metrics, e);
+    } catch (RuntimeException e) {
+      throw failed(metrics, e);
+    } finally {
+      finish(
+          metrics,
+          pending.counted,
+          pending.start,
+          encoder,
+          succeeded);
+    }
+  }
+
+  /* Applies the Avro schema to the path, and parses the document in the
+   * input again to encode it.  The encoder is metered if there are metrics
+   * or a profile.
+   */
+  private void encode(
+      MappedFileInput input,
+      XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path,
+      Encoder encoder,
+      XmlDatumMetrics metrics,
+      XmlDatumProfile profile)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final XmlDatumProfile docProfile =
+        (profile == null) ? null : new XmlDatumProfile();
 
     // 2. Apply Avro schema metadata on top of the document. 
     final AvroSchemaApplier applier = new AvroSchemaApplier(schema, false);
-    applier.apply(path);
+    applier.apply(path, metrics);
+    checkMapSizes(path);
+
+    final long encodeStart = (metrics == null) ? 0 : System.nanoTime();
 
     // 3. Encode the document.
-    InputStream encodingStream = null;
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+
+    final SAXParser encodingParser = factory.newSAXParser();
+    encodingParser.parse(
+        input.openInputSource(),
+        new Writer(path, encoder, metrics, docProfile));
+
+    lap(metrics, XmlDatumMetrics.Phase.ENCODE, encodeStart);
+
+    if (docProfile != null) {
+      profile.merge(docProfile);
+    }
+  }
+
+  /**
+   * A document written in parts, such as the chunks of an
+   * {@link XmlDatumParallelWriter}, but recorded in the metrics and
+   * statistics as the one document it is.  The parts' metrics are added
+   * together, so a phase's time is the sum over every thread, and the
+   * root element is counted once in each part.
+   */
+  static final class PartedWrite {
+    private final XmlDatumMetrics metrics;
+    private final boolean counted;
+    private final long start;
+    private final Encoder out;
+    private boolean finished;
+
+    PartedWrite(
+        XmlDatumMetrics metrics,
+        boolean counted,
+        long start,
+        Encoder out) {
+
+      this.metrics = metrics;
+      this.counted = counted;
+      this.start = start;
+      this.out = out;
+    }
+
+    // The encoder to write the whole document to.
+    Encoder getEncoder() {
+      return out;
+    }
+
+    <T extends Throwable> T failed(T failure) {
+      return XmlDatumWriter.failed(metrics, failure);
+    }
+
+    /* Parts still running when the write finishes, because another
+     * part failed, are left out of the metrics.
+     */
+    synchronized void add(XmlDatumMetrics partMetrics) {
+      if (!finished) {
+        metrics.add(partMetrics);
+      }
+    }
+  }
+
+  // Starts a document that will be written to out in parts.
+  PartedWrite startParts(Encoder out) {
+    final XmlDatumMetrics metrics = startMetrics();
+    final boolean counted = XmlDatumStats.get().writeStarted();
+    final long start = startClock(metrics, counted);
+    return new PartedWrite(
+        metrics,
+        counted,
+        start,
+        meter(out, metrics, null));
+  }
+
+  /* Writes the document in the input, which is one part of the parted
+   * document, to out, without recording it as a document of its own.
+   * May be called from any thread.
+   */
+  void writePart(PartedWrite parts, MappedFileInput input, Encoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final XmlDatumMetrics metrics =
+        (parts.metrics == null) ? null : new XmlDatumMetrics(true);
+    final long start = (metrics == null) ? 0 : System.nanoTime();
+    final XmlDatumProfile profile = this.profile;
+    final Encoder encoder = meter(out, metrics, profile);
+
     try {
-      encodingStream = xmlUrl.openStream();
-      final SAXParser encodingParser = factory.newSAXParser();
-      encodingParser.parse(encodingStream, new Writer(path, out));
+      encode(
+          input,
+          findPath(input, metrics, start),
+          encoder,
+          metrics,
+          profile);
     } finally {
-      if (encodingStream != null) {
-        try {
-          encodingStream.close();
-        } catch (IOException ioe) {
-          ioe.printStackTrace();
+      if (metrics != null) {
+        parts.add(metrics);
+      }
+    }
+  }
+
+  /* Writes the Document, which is one part of the parted
+   * document, to out, without recording it as a document of its own.
+   * May be called from any thread.
+   */
+  void writePart(PartedWrite parts, Document doc, Encoder out)
+      throws IOException {
+
+    final XmlDatumMetrics metrics =
+        (parts.metrics == null) ? null : new XmlDatumMetrics(true);
+    final XmlDatumProfile profile = this.profile;
+    final Encoder encoder = meter(out, metrics, profile);
+
+    try {
+      encode(doc, null, stateMachine, schema, encoder, metrics, profile);
+    } finally {
+      if (metrics != null) {
+        parts.add(metrics);
+      }
+    }
+  }
+
+  // Records the parted document as one document, written or failed.
+  void finishParts(PartedWrite parts, boolean succeeded) {
+    synchronized (parts) {
+      parts.finished = true;
+    }
+    finish(parts.metrics, parts.counted, parts.start, parts.out, succeeded);
+  }
+
+  /**
+   * Writes the {@link Document} to the channel in the Avro binary encoding.
+   *
+   * <p>
+   * The document is encoded into pooled, off-heap buffers, which are then
+   * written to the channel in a single gathering write.  Nothing is
+   * written to the channel if the document cannot be encoded.
+   * </p>
+   *
+   * <p>
+   * Documents of more than a few megabytes are written to the channel
+   * in gathering writes as they are encoded instead, so they are never
+   * held off-heap whole.  If one of them cannot be encoded, a
+   * {@link FileChannel} is truncated back to where it started, but other
+   * channels are left with the part that was written.
+   * </p>
+   *
+   * @return The number of bytes written to the channel.
+   * @throws IllegalArgumentException If the channel is non-blocking.
+   */
+  public long write(Document doc, GatheringByteChannel channel)
+      throws IOException {
+
+    final ChannelSink sink = CHANNEL_SINKS.get();
+    final BinaryEncoder encoder = sink.open(channel);
+    boolean succeeded = false;
+    try {
+      write(doc, encoder);
+      final long written = sink.finish();
+      succeeded = true;
+      return written;
+    } finally {
+      sink.close(succeeded);
+    }
+  }
+
+  /**
+   * Writes the XML in the provided {@link File} to
+   * the channel in the Avro binary encoding.
+   *
+   * @return The number of bytes written to the channel.
+   *
+   * @see #write(Document, GatheringByteChannel)
+   */
+  public long write(File xmlFile, GatheringByteChannel channel)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final ChannelSink sink = CHANNEL_SINKS.get();
+    final BinaryEncoder encoder = sink.open(channel);
+    boolean succeeded = false;
+    try {
+      write(xmlFile, encoder);
+      final long written = sink.finish();
+      succeeded = true;
+      return written;
+    } finally {
+      sink.close(succeeded);
+    }
+  }
+
+  /**
+   * Writes the XML retrieved from the provided {@link URL} to the
+   * {@link Encoder} in accordance with the {@link Schema} set in
+   * {@link #setSchema(Schema)}.
+   *
+   * <p>
+   * If no {@link Schema} was provided, builds one from the {@link Document}
+   * and its {@link XmlSchemaCollection}.  The schema can then be retrieved
+   * from {@link #getSchema()}.
+   * </p>
+   */
+  public void write(URL xmlUrl, Encoder out)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    final XmlDatumMetrics metrics = startMetrics();
+    final boolean counted = XmlDatumStats.get().writeStarted();
+    final long start = startClock(metrics, counted);
+    final XmlDatumProfile profile = this.profile;
+    final XmlDatumProfile docProfile =
+        (profile == null) ? null : new XmlDatumProfile();
+    final Encoder encoder = meter(out, metrics, docProfile);
+    boolean succeeded = false;
+
+    try {
+      final SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+
+      // 1. Build the path through the schema that describes the document.
+      final SAXParser pathFindingParser = factory.newSAXParser();
+
+      final XmlSchemaPathFinder pathFinder =
+          new XmlSchemaPathFinder(stateMachine);
+
+      InputStream pathFindingStream = null;
+      try {
+        pathFindingStream = xmlUrl.openStream();
+        pathFindingParser.parse(pathFindingStream, limit(pathFinder));
+      } catch (SAXException e) {
+        rethrowIfLimitExceeded(e);
+        throw e;
+      } finally {
+        if (pathFindingStream != null) {
+          try {
+            pathFindingStream.close();
+          } catch (IOException ioe) {
+            ioe.printStackTrace();
+          }
+        }
+      }
+
+      final XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path =
+          pathFinder.getXmlSchemaTraversal();
+
+      lap(metrics, XmlDatumMetrics.Phase.PATH_FINDING, start);
+
+      // 2. Apply Avro schema metadata on top of the document. 
+      final AvroSchemaApplier applier = new AvroSchemaApplier(schema, false);
+      applier.apply(path, metrics);
+      checkMapSizes(path);
+
+      final long encodeStart = (metrics == null) ? 0 : System.nanoTime();
+
+      // 3. Encode the document.
+      InputStream encodingStream = null;
+      try {
+        encodingStream = xmlUrl.openStream();
+        final SAXParser encodingParser = factory.newSAXParser();
+        encodingParser.parse(
+            encodingStream,
+            new Writer(path, encoder, metrics, docProfile));
+      } finally {
+        if (encodingStream != null) {
+          try {
+            encodingStream.close();
+          } catch (IOException ioe) {
+            ioe.printStackTrace();
+          }
+        }
+      }
+
+      lap(metrics, XmlDatumMetrics.Phase.ENCODE, encodeStart);
+
+      if (docProfile != null) {
+        profile.merge(docProfile);
+      }
+      succeeded = true;
+
+    } catch (IOException e) {
+      throw failed(metrics, e);
+    } catch (SAXException e) {
+      throw failed(metrics, e);
+    } catch (ParserConfigurationException e) {
+      throw failed(metrics, e);
+    } catch (RuntimeException e) {
+      throw failed(metrics, e);
+    } finally {
+      finish(metrics, counted, start, encoder, succeeded);
+    }
+  }
+
+  private static void walk(DomContentWalker walker, Node node, QName rootName)
+      throws SAXException {
+
+    if (node instanceof Element) {
+      walker.walk((Element) node, rootName);
+    } else {
+      walker.walk(node);
+    }
+  }
+
+  /* Finds the RECORD describing the element in the Avro schema, looking
+   * through the values of MAPs, as a subtree is a single element.
+   */
+  private static Schema findRecord(Schema avroSchema, QName elemQName) {
+    String avroNamespace = null;
+    if ( !elemQName.getNamespaceURI().isEmpty() ) {
+      try {
+        avroNamespace =
+            Utils.getAvroNamespaceFor( elemQName.getNamespaceURI() );
+      } catch (URISyntaxException e) {
+        throw new IllegalArgumentException(
+            "Element \""
+            + elemQName
+            + "\" has an invalid namespace of \""
+            + elemQName.getNamespaceURI() + "\"", e);
+      }
+    }
+
+    final ArrayList<Schema> toVisit = new ArrayList<Schema>();
+    final Set<String> visited = new HashSet<String>();
+    toVisit.add(avroSchema);
+
+    while ( !toVisit.isEmpty() ) {
+      final Schema next = toVisit.remove(toVisit.size() - 1);
+      switch ( next.getType() ) {
+      case RECORD:
+        if ( !visited.add( next.getFullName() ) ) {
+          break;
         }
+        if (next.getName().equals( elemQName.getLocalPart() )
+            && isSameNamespace(avroNamespace, next.getNamespace())) {
+          return next;
+        }
+        for (Schema.Field field : next.getFields()) {
+          toVisit.add( field.schema() );
+        }
+        break;
+      case ARRAY:
+        toVisit.add( next.getElementType() );
+        break;
+      case MAP:
+        toVisit.add( next.getValueType() );
+        break;
+      case UNION:
+        toVisit.addAll( next.getTypes() );
+        break;
+      default:
+        // Primitive types describe attributes and content, not elements.
+      }
+    }
+    return null;
+  }
+
+  private static boolean isSameNamespace(String expected, String actual) {
+    if (expected == null) {
+      return (actual == null) || actual.isEmpty();
+    }
+    return expected.equals(actual);
+  }
+
+  /* Places the limits of the XmlDatumConfig in front of
+   * the path finder, if there are any limits to enforce.
+   */
+  private DefaultHandler limit(XmlSchemaPathFinder pathFinder) {
+    if ( LimitEnforcingHandler.isLimited(config) ) {
+      return new LimitEnforcingHandler(pathFinder, config);
+    }
+    return pathFinder;
+  }
+
+  private static void rethrowIfLimitExceeded(SAXException e)
+      throws XmlDatumLimitExceededException {
+
+    final XmlDatumLimitExceededException limitExceeded =
+        XmlDatumLimitExceededException.findIn(e);
+    if (limitExceeded != null) {
+      throw limitExceeded;
+    }
+  }
+
+  /* Map sizes are only known once AvroSchemaApplier has found the
+   * maps, so they are checked after that, but before encoding.
+   */
+  private void checkMapSizes(
+      XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> path)
+      throws XmlDatumLimitExceededException {
+
+    final long maxMapSize = config.getMaxMapSize();
+    if (maxMapSize == Long.MAX_VALUE) {
+      return;
+    }
+
+    for (XmlSchemaPathNode<AvroRecordInfo, AvroPathNode> node = path;
+        node != null;
+        node = node.getNext()) {
+
+      final AvroPathNode mapNode = node.getUserDefinedContent();
+      if ((mapNode != null)
+          && mapNode.getType().equals(AvroPathNode.Type.MAP_START)
+          && (mapNode.getMapSize() > maxMapSize)) {
+
+        throw new XmlDatumLimitExceededException(
+            XmlDatumLimitExceededException.Limit.MAP_SIZE,
+            maxMapSize,
+            node.getStateMachineNode().getElement().getQName());
       }
     }
   }
+
+  private XmlDatumMetrics startMetrics() {
+    if (metricsListener == null) {
+      return null;
+    }
+    return new XmlDatumMetrics(true);
+  }
+
+  /* The clock is only read for the metrics or statistics that need it;
+   * with both disabled, a document is written without reading it.
+   */
+  private static long startClock(XmlDatumMetrics metrics, boolean counted) {
+    if ((metrics == null) && !counted) {
+      return 0;
+    }
+    return System.nanoTime();
+  }
+
+  /* When collecting metrics or profiling, the output
+   * is wrapped in order to count the bytes written to it.
+   */
+  private static Encoder meter(
+      Encoder out,
+      XmlDatumMetrics metrics,
+      XmlDatumProfile profile) {
+
+    if ((metrics == null) && (profile == null)) {
+      return out;
+    }
+    return new MeteredEncoder(out);
+  }
+
+  // Adds the time since phaseStart to the phase.
+  private static void lap(
+      XmlDatumMetrics metrics,
+      XmlDatumMetrics.Phase phase,
+      long phaseStart) {
+
+    if (metrics != null) {
+      metrics.addPhaseNanos(phase, System.nanoTime() - phaseStart);
+    }
+  }
+
+  private static <T extends Throwable> T failed(
+      XmlDatumMetrics metrics,
+      T failure) {
+
+    if (metrics != null) {
+      metrics.setFailure(failure);
+    }
+    return failure;
+  }
+
+  private void finish(
+      XmlDatumMetrics metrics,
+      boolean counted,
+      long start,
+      Encoder encoder,
+      boolean succeeded) {
+
+    if ((metrics == null) && !counted) {
+      return;
+    }
+
+    final long end = System.nanoTime();
+    if (counted) {
+      XmlDatumStats.get().writeFinished(succeeded, start, end);
+    }
+
+    if (metrics == null) {
+      return;
+    }
+
+    metrics.setTotalNanos(end - start);
+    if (encoder != null) {
+      metrics.addBytes( ((MeteredEncoder) encoder).getPosition() );
+    }
+
+    /* The listener may have been unregistered by
+     * another thread while this document was written.
+     */
+    final XmlDatumMetricsListener listener = metricsListener;
+    if (listener != null) {
+      listener.documentFinished(metrics);
+    }
+  }
 }
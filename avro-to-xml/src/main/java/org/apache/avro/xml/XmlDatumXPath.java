@@ -0,0 +1,1184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.namespace.QName;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericEnumSymbol;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Decoder;
+
+/**
+ * An XPath expression, from the subset below, compiled against the Avro
+ * {@link Schema} of the documents written by {@link XmlDatumWriter}, and
+ * evaluated directly over each document's datum in a {@link Decoder}.  No
+ * DOM is built: the elements that cannot lead to a match are skipped with
+ * an {@link AvroSkipper}, and only the attributes and content that the
+ * expression needs are decoded.
+ *
+ * <p>
+ * The subset is:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Absolute location paths of child (<code>/</code>) and descendant
+ *     (<code>//</code>) steps, each naming an element, or any element
+ *     with <code>*</code> or <code>prefix:*</code>.
+ *   </li>
+ *   <li>
+ *     Predicates on a step testing an attribute, <code>[@name]</code>, or
+ *     the element's content, <code>[text()]</code>, for being there, or
+ *     comparing either with a string or number literal, using
+ *     <code>=</code>, <code>!=</code>, <code>&lt;</code>,
+ *     <code>&lt;=</code>, <code>&gt;</code> or <code>&gt;=</code>.
+ *     All of a step's predicates must hold.
+ *   </li>
+ *   <li>
+ *     A last step of <code>@name</code> or <code>text()</code>, selecting
+ *     the attribute or the content of the elements the path matches.
+ *   </li>
+ *   <li>
+ *     <code>count(path)</code>.
+ *   </li>
+ * </ul>
+ *
+ * <p>
+ * Values are returned as Java values of the type Avro stores them as,
+ * rather than as nodes: numbers as {@link Integer}, {@link Long},
+ * {@link Float}, {@link Double} or {@link BigDecimal};
+ * <code>xs:date</code>, <code>xs:time</code> and <code>xs:dateTime</code>
+ * as {@link Date}s; <code>xs:duration</code> as a
+ * {@link javax.xml.datatype.Duration}; <code>xs:QName</code> as a
+ * {@link QName}; binary data as a <code>byte[]</code>; lists as a
+ * {@link List} of their items; booleans as {@link Boolean}s; and
+ * everything else as a {@link String}.  A path ending in an element
+ * selects its content, so elements with child elements instead are only
+ * counted.
+ * </p>
+ *
+ * <p>
+ * Comparisons are made with the stored values as well.  A number literal,
+ * or a string literal that is a number, is compared with numbers
+ * numerically, and a literal in the lexical form of the value's date or
+ * time type is compared with it the way {@link XmlDatumWriter} stored it.
+ * Anything else is compared as a string.  Lists compare true if any of
+ * their items do.  Attributes are named by their local names, as the Avro
+ * fields are.
+ * </p>
+ */
+public final class XmlDatumXPath {
+
+  // The mask of steps is a long, and the step after the last needs a bit.
+  private static final int MAX_STEPS = 62;
+
+  private enum Target {
+    ELEMENT,
+    ATTRIBUTE,
+    TEXT
+  }
+
+  private enum Operator {
+    EQ("="),
+    NE("!="),
+    LT("<"),
+    LE("<="),
+    GT(">"),
+    GE(">=");
+
+    private final String symbol;
+
+    Operator(String symbol) {
+      this.symbol = symbol;
+    }
+
+    boolean holds(int comparison) {
+      switch (this) {
+      case EQ:
+        return (comparison == 0);
+      case NE:
+        return (comparison != 0);
+      case LT:
+        return (comparison < 0);
+      case LE:
+        return (comparison <= 0);
+      case GT:
+        return (comparison > 0);
+      default:
+        return (comparison >= 0);
+      }
+    }
+  }
+
+  private static final class Step {
+    final boolean descendant;
+    final String namespace;
+    final String localName;
+    final List<Predicate> predicates;
+
+    /* The namespace is the Avro namespace of the element's RECORD, or
+     * null for any.  The local name is null for any as well.
+     */
+    Step(boolean descendant, String namespace, String localName) {
+      this.descendant = descendant;
+      this.namespace = namespace;
+      this.localName = localName;
+      this.predicates = new ArrayList<Predicate>();
+    }
+
+    boolean matches(Schema record) {
+      if ((localName != null) && !localName.equals( record.getName() )) {
+        return false;
+      }
+      if (namespace == null) {
+        return true;
+      }
+      final String recordNs = record.getNamespace();
+      return namespace.equals( (recordNs == null) ? "" : recordNs );
+    }
+  }
+
+  /**
+   * A test of an attribute, or of the content if the attribute is
+   * <code>null</code>, for being there, or for comparing with a literal.
+   */
+  private static final class Predicate {
+    final String attribute;
+    final Operator operator;
+    final String literal;
+
+    // The literal as each of the types it may be compared with.
+    final BigDecimal number;
+    final Boolean bool;
+    final Integer days;
+    final Integer timeMillis;
+    final Long dateTimeMillis;
+
+    Predicate(String attribute, Operator operator, String literal) {
+      this.attribute = attribute;
+      this.operator = operator;
+      this.literal = literal;
+
+      if (literal == null) {
+        number = null;
+        bool = null;
+        days = null;
+        timeMillis = null;
+        dateTimeMillis = null;
+        return;
+      }
+
+      number = parseNumber(literal);
+      bool = parseBoolean(literal);
+      days = parseDays(literal);
+      timeMillis = parseTimeMillis(literal);
+      dateTimeMillis = parseDateTimeMillis(literal);
+    }
+
+    // Whether the value of the attribute or content, as Avro stores it.
+    boolean holds(Object value, Schema schema) {
+      if (value == null) {
+        return false;
+      } else if (operator == null) {
+        return true;
+      }
+
+      if ( schema.getType().equals(Schema.Type.UNION) ) {
+        final int branch = GenericData.get().resolveUnion(schema, value);
+        schema = schema.getTypes().get(branch);
+      }
+
+      final String logicalType = schema.getProp("logicalType");
+      switch ( schema.getType() ) {
+      case ARRAY:
+        if ( !"duration".equals(logicalType) ) {
+          for (Object item : (List<?>) value) {
+            if ( holds(item, schema.getElementType()) ) {
+              return true;
+            }
+          }
+          return false;
+        }
+        break;
+      case INT:
+        if ( "date".equals(logicalType) ) {
+          return compare((Integer) value, days);
+        } else if ( "time".equals(logicalType) ) {
+          return compare((Integer) value, timeMillis);
+        }
+        return compare(new BigDecimal((Integer) value), number);
+      case LONG:
+        if ( "timestamp".equals(logicalType) ) {
+          return compare((Long) value, dateTimeMillis);
+        }
+        return compare(new BigDecimal((Long) value), number);
+      case FLOAT:
+      case DOUBLE:
+        {
+          final double doubleValue = ((Number) value).doubleValue();
+          if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+            return operator.equals(Operator.NE);
+          }
+          return compare(new BigDecimal( value.toString() ), number);
+        }
+      case BYTES:
+        if ( "decimal".equals(logicalType) ) {
+          return compare((BigDecimal) toJava(value, schema), number);
+        }
+        break;
+      case BOOLEAN:
+        return compare((Boolean) value, bool);
+      default:
+        // Compared as a string.
+      }
+
+      final Object javaValue = toJava(value, schema);
+      final String string =
+          (javaValue instanceof byte[])
+          ? DatatypeConverter.printHexBinary( (byte[]) javaValue )
+          : javaValue.toString();
+      return operator.holds( string.compareTo(literal) );
+    }
+
+    // A literal of another type is unequal to everything.
+    private <T extends Comparable<T>> boolean compare(T value, T other) {
+      if (other == null) {
+        return operator.equals(Operator.NE);
+      }
+      return operator.holds( value.compareTo(other) );
+    }
+
+    @Override
+    public String toString() {
+      final String subject =
+          (attribute == null) ? "text()" : ('@' + attribute);
+      if (operator == null) {
+        return '[' + subject + ']';
+      }
+      return '[' + subject + ' ' + operator.symbol + " '" + literal + "']";
+    }
+  }
+
+  /**
+   * How to read the elements of one RECORD.
+   */
+  private static final class RecordPlan {
+    final Schema record;
+    final int numAttributes;
+    final Map<String, Integer> attributes;
+    final boolean[] attributeWanted;
+    final AvroSkipper[] skippers;
+    final List<GenericDatumReader<Object>> readers;
+    final boolean hasChildren;
+    final long nameMatches;
+
+    RecordPlan(
+        Schema record,
+        List<Step> steps,
+        List<String> wantedAttributes,
+        Map<Schema, AvroSkipper> compiled) {
+
+      this.record = record;
+
+      final List<Schema.Field> fields = record.getFields();
+      numAttributes = fields.size() - 1;
+      attributes = new HashMap<String, Integer>();
+      attributeWanted = new boolean[numAttributes];
+      skippers = new AvroSkipper[ fields.size() ];
+      readers = new ArrayList<GenericDatumReader<Object>>( fields.size() );
+
+      for (int index = 0; index < fields.size(); ++index) {
+        final Schema fieldSchema = fields.get(index).schema();
+        skippers[index] = AvroSkipper.compile(fieldSchema, compiled);
+        readers.add( new GenericDatumReader<Object>(fieldSchema) );
+
+        if (index < numAttributes) {
+          final String name = fields.get(index).name();
+          attributes.put(name, index);
+          attributeWanted[index] = wantedAttributes.contains(name);
+        }
+      }
+
+      hasChildren = hasChildren( getContentSchema() );
+
+      long matches = 0;
+      for (int index = 0; index < steps.size(); ++index) {
+        if ( steps.get(index).matches(record) ) {
+          matches |= (1L << index);
+        }
+      }
+      nameMatches = matches;
+    }
+
+    Schema getContentSchema() {
+      return record.getFields().get(numAttributes).schema();
+    }
+
+    Schema getAttributeSchema(int index) {
+      return record.getFields().get(index).schema();
+    }
+  }
+
+  // The values selected from one document, or how many there were.
+  private static final class Results {
+    final boolean counting;
+    final List<Object> values;
+    long count;
+
+    Results(boolean counting) {
+      this.counting = counting;
+      this.values = counting ? null : new ArrayList<Object>();
+      this.count = 0;
+    }
+
+    void add(Object value, Schema schema) {
+      if (counting) {
+        ++count;
+      } else {
+        values.add( toJava(value, schema) );
+      }
+    }
+  }
+
+  private final String expression;
+  private final List<Step> steps;
+  private final Target target;
+  private final String targetAttribute;
+  private final boolean isCount;
+
+  private final Schema schema;
+  private final Map<Schema, RecordPlan> plans;
+  private final Map<Schema, AvroSkipper> skippers;
+  private final long descendantSteps;
+  private final long lastStep;
+  private final long allSteps;
+
+  private XmlDatumXPath(
+      String expression,
+      Parser parsed,
+      Schema schema) {
+
+    this.expression = expression;
+    this.steps = parsed.steps;
+    this.target = parsed.target;
+    this.targetAttribute = parsed.targetAttribute;
+    this.isCount = parsed.isCount;
+    this.schema = schema;
+
+    long descendants = 0;
+    final List<String> wantedAttributes = new ArrayList<String>();
+    for (int index = 0; index < steps.size(); ++index) {
+      final Step step = steps.get(index);
+      if (step.descendant) {
+        descendants |= (1L << index);
+      }
+      for (Predicate predicate : step.predicates) {
+        if (predicate.attribute != null) {
+          wantedAttributes.add(predicate.attribute);
+        }
+      }
+    }
+    if (targetAttribute != null) {
+      wantedAttributes.add(targetAttribute);
+    }
+
+    this.descendantSteps = descendants;
+    this.lastStep = 1L << (steps.size() - 1);
+    this.allSteps = (1L << steps.size()) - 1;
+
+    this.skippers = new IdentityHashMap<Schema, AvroSkipper>();
+    this.plans = new IdentityHashMap<Schema, RecordPlan>();
+    for (Schema record : findElementRecords(schema)) {
+      plans.put(
+          record,
+          new RecordPlan(record, steps, wantedAttributes, skippers));
+    }
+  }
+
+  /**
+   * Compiles the expression for documents of the Avro schema, which must
+   * have been generated by {@link XmlDatumWriter}.
+   *
+   * @param expression The XPath expression, from the subset above.
+   * @param namespaces The namespace URIs of the prefixes in the expression.
+   *                   Names without a prefix are in no namespace.
+   * @param schema     The Avro schema of the documents.
+   *
+   * @throws IllegalArgumentException If the expression is not of the
+   *                                  subset, or uses an unknown prefix.
+   */
+  public static XmlDatumXPath compile(
+      String expression,
+      Map<String, String> namespaces,
+      Schema schema) {
+
+    if (expression == null) {
+      throw new IllegalArgumentException("The expression cannot be null.");
+    } else if (schema == null) {
+      throw new IllegalArgumentException("The Avro schema cannot be null.");
+    }
+
+    final Map<String, String> prefixes =
+        (namespaces == null)
+        ? Collections.<String, String>emptyMap()
+        : namespaces;
+
+    final Parser parser = new Parser(expression, prefixes);
+    parser.parse();
+    return new XmlDatumXPath(expression, parser, schema);
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Whether the expression is a <code>count()</code>.
+   */
+  public boolean isCount() {
+    return isCount;
+  }
+
+  /**
+   * Evaluates the expression over the next document in the decoder.
+   * A <code>count()</code> is returned as a {@link Long}, and anything
+   * else as a {@link List} of the values selected, in document order.
+   */
+  public Object evaluate(Decoder in) throws IOException {
+    if (isCount) {
+      return count(in);
+    }
+    return select(in);
+  }
+
+  /**
+   * The values the path selects from the next document in the decoder,
+   * in document order.
+   *
+   * @throws IllegalStateException If the expression is a <code>count()</code>.
+   */
+  public List<Object> select(Decoder in) throws IOException {
+    if (isCount) {
+      throw new IllegalStateException(
+          expression + " counts, and does not select values.");
+    }
+    final Results results = new Results(false);
+    evaluate(in, results);
+    return results.values;
+  }
+
+  /**
+   * How many nodes the path, or the path counted, matches
+   * in the next document in the decoder.
+   */
+  public long count(Decoder in) throws IOException {
+    final Results results = new Results(true);
+    evaluate(in, results);
+    return results.count;
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+  private void evaluate(Decoder in, Results results) throws IOException {
+    Schema rootSchema = schema;
+    if ( rootSchema.getType().equals(Schema.Type.UNION) ) {
+      rootSchema = rootSchema.getTypes().get( in.readIndex() );
+    }
+
+    if ( rootSchema.getType().equals(Schema.Type.RECORD) ) {
+      visit(rootSchema, 1L, in, results);
+    } else {
+      skipper(rootSchema).skip(in);
+    }
+  }
+
+  /* The active steps are those the element may match: the next step
+   * of each path through its ancestors, and any descendant steps of
+   * them.  Elements no step is active for are skipped whole.
+   */
+  private void visit(Schema record, long active, Decoder in, Results results)
+      throws IOException {
+
+    final RecordPlan plan = plans.get(record);
+    if (plan == null) {
+      throw new IllegalStateException(
+          record.getFullName() + " is not an element of " + expression);
+    }
+    final long named = active & plan.nameMatches;
+
+    // The attributes come first.
+    Object[] attributes = null;
+    for (int index = 0; index < plan.numAttributes; ++index) {
+      if ((named != 0) && plan.attributeWanted[index]) {
+        if (attributes == null) {
+          attributes = new Object[plan.numAttributes];
+        }
+        attributes[index] = plan.readers.get(index).read(null, in);
+      } else {
+        plan.skippers[index].skip(in);
+      }
+    }
+
+    // Simple content comes next; child elements are read later.
+    Object content = null;
+    if (!plan.hasChildren) {
+      if (named != 0) {
+        content = plan.readers.get(plan.numAttributes).read(null, in);
+      } else {
+        plan.skippers[plan.numAttributes].skip(in);
+      }
+    }
+
+    long matched = 0;
+    for (int index = 0; index < steps.size(); ++index) {
+      final long bit = 1L << index;
+      if (((named & bit) != 0)
+          && holds(steps.get(index).predicates, plan, attributes, content)) {
+        matched |= bit;
+      }
+    }
+
+    if ((matched & lastStep) != 0) {
+      select(plan, attributes, content, results);
+    }
+
+    if (plan.hasChildren) {
+      final long childActive =
+          ((matched << 1) & allSteps) | (active & descendantSteps);
+      if (childActive == 0) {
+        plan.skippers[plan.numAttributes].skip(in);
+      } else {
+        visitChildren(plan.getContentSchema(), childActive, in, results);
+      }
+    }
+  }
+
+  private void visitChildren(
+      Schema contentSchema,
+      long active,
+      Decoder in,
+      Results results) throws IOException {
+
+    final Schema itemSchema = contentSchema.getElementType();
+    for (long blockSize = in.readArrayStart();
+         blockSize > 0;
+         blockSize = in.arrayNext()) {
+
+      for (long index = 0; index < blockSize; ++index) {
+        Schema childSchema = itemSchema;
+        if ( childSchema.getType().equals(Schema.Type.UNION) ) {
+          childSchema = childSchema.getTypes().get( in.readIndex() );
+        }
+
+        switch ( childSchema.getType() ) {
+        case RECORD:
+          visit(childSchema, active, in, results);
+          break;
+        case MAP:
+          for (long mapBlockSize = in.readMapStart();
+               mapBlockSize > 0;
+               mapBlockSize = in.mapNext()) {
+            for (long mapIndex = 0; mapIndex < mapBlockSize; ++mapIndex) {
+              in.skipString(); // The ID is the element's attribute too.
+
+              Schema valueSchema = childSchema.getValueType();
+              if ( valueSchema.getType().equals(Schema.Type.UNION) ) {
+                valueSchema = valueSchema.getTypes().get( in.readIndex() );
+              }
+              visit(valueSchema, active, in, results);
+            }
+          }
+          break;
+        default:
+          // Mixed text is not selectable.
+          skipper(childSchema).skip(in);
+        }
+      }
+    }
+  }
+
+  private boolean holds(
+      List<Predicate> predicates,
+      RecordPlan plan,
+      Object[] attributes,
+      Object content) {
+
+    for (Predicate predicate : predicates) {
+      if (predicate.attribute == null) {
+        if (plan.hasChildren
+            || !predicate.holds(content, plan.getContentSchema())) {
+          return false;
+        }
+      } else {
+        final Integer index = plan.attributes.get(predicate.attribute);
+        if ((index == null)
+            || !predicate.holds(
+                   attributes[index],
+                   plan.getAttributeSchema(index))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void select(
+      RecordPlan plan,
+      Object[] attributes,
+      Object content,
+      Results results) {
+
+    switch (target) {
+    case ATTRIBUTE:
+      {
+        final Integer index = plan.attributes.get(targetAttribute);
+        if ((index != null) && (attributes[index] != null)) {
+          results.add(attributes[index], plan.getAttributeSchema(index));
+        }
+        break;
+      }
+    case TEXT:
+      if (!plan.hasChildren && (content != null)) {
+        results.add(content, plan.getContentSchema());
+      }
+      break;
+    default:
+      if (results.counting) {
+        ++results.count;
+      } else if (!plan.hasChildren && (content != null)) {
+        results.add(content, plan.getContentSchema());
+      }
+    }
+  }
+
+  private AvroSkipper skipper(Schema skipped) {
+    synchronized (skippers) {
+      return AvroSkipper.compile(skipped, skippers);
+    }
+  }
+
+  // Complex content is an ARRAY of the element's children.
+  private static boolean hasChildren(Schema contentSchema) {
+    if ( !contentSchema.getType().equals(Schema.Type.ARRAY) ) {
+      return false;
+    }
+    final Schema itemSchema = contentSchema.getElementType();
+    if ( !itemSchema.getType().equals(Schema.Type.UNION) ) {
+      return false;
+    }
+    for (Schema type : itemSchema.getTypes()) {
+      if (type.getType().equals(Schema.Type.RECORD)
+          || type.getType().equals(Schema.Type.MAP)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The RECORDs of the elements, from the root down.
+  private static List<Schema> findElementRecords(Schema root) {
+    final List<Schema> records = new ArrayList<Schema>();
+    final Map<Schema, Boolean> seen = new IdentityHashMap<Schema, Boolean>();
+
+    if ( root.getType().equals(Schema.Type.UNION) ) {
+      for (Schema type : root.getTypes()) {
+        addElementRecord(type, records, seen);
+      }
+    } else {
+      addElementRecord(root, records, seen);
+    }
+
+    for (int index = 0; index < records.size(); ++index) {
+      final Schema record = records.get(index);
+      final List<Schema.Field> fields = record.getFields();
+      final Schema content = fields.get(fields.size() - 1).schema();
+      if ( !hasChildren(content) ) {
+        continue;
+      }
+
+      for (Schema type : content.getElementType().getTypes()) {
+        if ( type.getType().equals(Schema.Type.MAP) ) {
+          final Schema valueSchema = type.getValueType();
+          if ( valueSchema.getType().equals(Schema.Type.UNION) ) {
+            for (Schema valueType : valueSchema.getTypes()) {
+              addElementRecord(valueType, records, seen);
+            }
+          } else {
+            addElementRecord(valueSchema, records, seen);
+          }
+        } else {
+          addElementRecord(type, records, seen);
+        }
+      }
+    }
+    return records;
+  }
+
+  private static void addElementRecord(
+      Schema schema,
+      List<Schema> records,
+      Map<Schema, Boolean> seen) {
+
+    if (schema.getType().equals(Schema.Type.RECORD)
+        && !seen.containsKey(schema)) {
+      seen.put(schema, Boolean.TRUE);
+      records.add(schema);
+    }
+  }
+
+  /**
+   * Converts a value as Avro decoded it to the
+   * Java value it is returned as.
+   */
+  static Object toJava(Object value, Schema schema) {
+    if (value == null) {
+      return null;
+    }
+
+    if ( schema.getType().equals(Schema.Type.UNION) ) {
+      final int branch = GenericData.get().resolveUnion(schema, value);
+      schema = schema.getTypes().get(branch);
+    }
+
+    final String logicalType = schema.getProp("logicalType");
+    switch ( schema.getType() ) {
+    case INT:
+      if ( "date".equals(logicalType) ) {
+        return new Date(
+            Utils.getUnixEpoch().getTimeInMillis()
+            + TimeUnit.MILLISECONDS.convert((Integer) value, TimeUnit.DAYS));
+      } else if ( "time".equals(logicalType) ) {
+        return new Date( ((Integer) value).longValue() );
+      }
+      return value;
+    case LONG:
+      if ( "timestamp".equals(logicalType) ) {
+        return new Date( (Long) value );
+      }
+      return value;
+    case BYTES:
+      {
+        final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        final byte[] bytes = new byte[ buffer.remaining() ];
+        buffer.get(bytes);
+        if ( "decimal".equals(logicalType) ) {
+          return Utils.createBigDecimalFrom(bytes, schema);
+        }
+        return bytes;
+      }
+    case STRING:
+      return value.toString();
+    case ENUM:
+      return ((GenericEnumSymbol) value).toString();
+    case ARRAY:
+      {
+        final List<?> items = (List<?>) value;
+        if ( "duration".equals(logicalType) ) {
+          return toDuration(items);
+        }
+        final List<Object> javaItems = new ArrayList<Object>( items.size() );
+        for (Object item : items) {
+          javaItems.add( toJava(item, schema.getElementType()) );
+        }
+        return javaItems;
+      }
+    case RECORD:
+      {
+        // QNames are the only simple type stored as a RECORD.
+        final GenericRecord record = (GenericRecord) value;
+        return new QName(
+            record.get("namespace").toString(),
+            record.get("localPart").toString());
+      }
+    default:
+      return value;
+    }
+  }
+
+  // Months, days and milliseconds, as XmlDatumWriter stores them.
+  private static Object toDuration(List<?> parts) {
+    final int months = ((Integer) parts.get(0));
+    final int days = ((Integer) parts.get(1));
+    final int millis = ((Integer) parts.get(2));
+
+    return Utils.getDatatypeFactory().newDuration(
+        true,
+        BigInteger.valueOf(months / 12),
+        BigInteger.valueOf(months % 12),
+        BigInteger.valueOf(days),
+        BigInteger.valueOf(millis / 1000 / 60 / 60),
+        BigInteger.valueOf(millis / 1000 / 60 % 60),
+        BigDecimal.valueOf(millis % 60000, 3));
+  }
+
+  private static BigDecimal parseNumber(String literal) {
+    try {
+      return new BigDecimal( literal.trim() );
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static Boolean parseBoolean(String literal) {
+    final String trimmed = literal.trim();
+    if (trimmed.equals("true") || trimmed.equals("1")) {
+      return Boolean.TRUE;
+    } else if (trimmed.equals("false") || trimmed.equals("0")) {
+      return Boolean.FALSE;
+    }
+    return null;
+  }
+
+  // As XmlDatumWriter converts xs:date, xs:time and xs:dateTime.
+  private static Integer parseDays(String literal) {
+    try {
+      final Calendar date = DatatypeConverter.parseDate( literal.trim() );
+      date.setTimeZone( Utils.getGmtTimeZone() );
+      final long millis =
+          date.getTimeInMillis() - Utils.getUnixEpoch().getTimeInMillis();
+      return (int) TimeUnit.DAYS.convert(millis, TimeUnit.MILLISECONDS);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static Integer parseTimeMillis(String literal) {
+    try {
+      final Calendar time = DatatypeConverter.parseTime( literal.trim() );
+      time.setTimeZone( Utils.getGmtTimeZone() );
+      return (int) time.getTimeInMillis();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static Long parseDateTimeMillis(String literal) {
+    try {
+      final Calendar dateTime =
+          DatatypeConverter.parseDateTime( literal.trim() );
+      dateTime.setTimeZone( Utils.getGmtTimeZone() );
+      return dateTime.getTimeInMillis();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Parses the subset of XPath this evaluates.
+   */
+  private static final class Parser {
+    private final String expression;
+    private final Map<String, String> namespaces;
+    private int position;
+
+    final List<Step> steps;
+    Target target;
+    String targetAttribute;
+    boolean isCount;
+
+    Parser(String expression, Map<String, String> namespaces) {
+      this.expression = expression;
+      this.namespaces = namespaces;
+      this.position = 0;
+      this.steps = new ArrayList<Step>();
+      this.target = Target.ELEMENT;
+    }
+
+    void parse() {
+      skipSpace();
+      if ( lookingAtFunction("count") ) {
+        isCount = true;
+        position += "count".length();
+        expect('(');
+        parsePath();
+        expect(')');
+      } else {
+        parsePath();
+      }
+
+      skipSpace();
+      if (position < expression.length()) {
+        throw error("Unexpected \"" + expression.substring(position) + '"');
+      }
+    }
+
+    private void parsePath() {
+      skipSpace();
+      if ( !lookingAt("/") ) {
+        throw error("Only absolute location paths are supported");
+      }
+
+      while (true) {
+        skipSpace();
+        boolean descendant = false;
+        if ( lookingAt("//") ) {
+          descendant = true;
+          position += 2;
+        } else if ( lookingAt("/") ) {
+          position += 1;
+        } else {
+          break;
+        }
+        skipSpace();
+
+        if ( lookingAt("@") || lookingAtFunction("text") ) {
+          if ( steps.isEmpty() || descendant ) {
+            throw error("Attributes and text() must follow an element step");
+          }
+          if ( lookingAt("@") ) {
+            ++position;
+            target = Target.ATTRIBUTE;
+            targetAttribute = parseAttributeName();
+          } else {
+            parseText();
+            target = Target.TEXT;
+          }
+          break;
+        }
+
+        steps.add( parseStep(descendant) );
+      }
+
+      if ( steps.isEmpty() ) {
+        throw error("At least one element step is required");
+      } else if (steps.size() > MAX_STEPS) {
+        throw error("No more than " + MAX_STEPS + " steps are supported");
+      }
+    }
+
+    private Step parseStep(boolean descendant) {
+      String namespace = null;
+      String localName = null;
+
+      if ( lookingAt("*") ) {
+        ++position;
+      } else {
+        final String name = parseName();
+        final int colon = name.indexOf(':');
+        String namespaceUri = "";
+        if (colon >= 0) {
+          namespaceUri = getNamespace( name.substring(0, colon) );
+          localName = name.substring(colon + 1);
+        } else {
+          localName = name;
+        }
+
+        if ( "*".equals(localName) ) {
+          localName = null;
+        }
+        try {
+          namespace =
+              namespaceUri.isEmpty()
+              ? ""
+              : Utils.getAvroNamespaceFor(namespaceUri);
+        } catch (URISyntaxException e) {
+          throw new IllegalArgumentException(
+              namespaceUri + " is not a valid namespace URI.", e);
+        }
+      }
+
+      final Step step = new Step(descendant, namespace, localName);
+
+      skipSpace();
+      while ( lookingAt("[") ) {
+        ++position;
+        step.predicates.add( parsePredicate() );
+        expect(']');
+        skipSpace();
+      }
+      return step;
+    }
+
+    private Predicate parsePredicate() {
+      skipSpace();
+      String attribute = null;
+      if ( lookingAt("@") ) {
+        ++position;
+        attribute = parseAttributeName();
+      } else if ( lookingAtFunction("text") ) {
+        parseText();
+      } else {
+        throw error("Predicates must test an attribute or text()");
+      }
+
+      skipSpace();
+      Operator operator = null;
+      for (Operator candidate : new Operator[] {
+            Operator.NE, Operator.LE, Operator.GE,
+            Operator.EQ, Operator.LT, Operator.GT }) {
+        if ( lookingAt(candidate.symbol) ) {
+          operator = candidate;
+          position += candidate.symbol.length();
+          break;
+        }
+      }
+
+      String literal = null;
+      if (operator != null) {
+        skipSpace();
+        literal = parseLiteral();
+      }
+      return new Predicate(attribute, operator, literal);
+    }
+
+    private void parseText() {
+      position += "text".length();
+      expect('(');
+      expect(')');
+    }
+
+    // Attributes are Avro fields named after their local names.
+    private String parseAttributeName() {
+      final String name = parseName();
+      final int colon = name.indexOf(':');
+      if (colon >= 0) {
+        getNamespace( name.substring(0, colon) );
+        return name.substring(colon + 1);
+      }
+      return name;
+    }
+
+    private String parseLiteral() {
+      if (position >= expression.length()) {
+        throw error("A literal is missing");
+      }
+
+      final char quote = expression.charAt(position);
+      if ((quote == '\'') || (quote == '"')) {
+        final int end = expression.indexOf(quote, position + 1);
+        if (end < 0) {
+          throw error("The literal is not closed");
+        }
+        final String literal = expression.substring(position + 1, end);
+        position = end + 1;
+        return literal;
+      }
+
+      final int start = position;
+      if ( lookingAt("-") ) {
+        ++position;
+      }
+      while ((position < expression.length())
+          && (Character.isDigit( expression.charAt(position) )
+              || (expression.charAt(position) == '.'))) {
+        ++position;
+      }
+      final String literal = expression.substring(start, position);
+      if (parseNumber(literal) == null) {
+        throw error("Expected a string or number literal");
+      }
+      return literal;
+    }
+
+    private String parseName() {
+      final int start = position;
+      while (position < expression.length()) {
+        final char ch = expression.charAt(position);
+        if (Character.isLetterOrDigit(ch)
+            || (ch == '_') || (ch == '-') || (ch == '.') || (ch == ':')
+            || ((ch == '*') && (position > start)
+                && (expression.charAt(position - 1) == ':'))) {
+          ++position;
+        } else {
+          break;
+        }
+      }
+
+      final String name = expression.substring(start, position);
+      if (name.isEmpty()
+          || !(Character.isLetter( name.charAt(0) ) || name.charAt(0) == '_')
+          || name.endsWith(":")
+          || (name.indexOf(':') != name.lastIndexOf(':'))) {
+        throw error("Expected a name");
+      }
+      return name;
+    }
+
+    private String getNamespace(String prefix) {
+      final String namespace = namespaces.get(prefix);
+      if (namespace == null) {
+        throw error("The prefix \"" + prefix + "\" is not bound");
+      }
+      return namespace;
+    }
+
+    private boolean lookingAt(String text) {
+      return expression.startsWith(text, position);
+    }
+
+    // The name of a function, followed by its opening parenthesis.
+    private boolean lookingAtFunction(String name) {
+      if ( !lookingAt(name) ) {
+        return false;
+      }
+      int next = position + name.length();
+      while ((next < expression.length())
+          && Character.isWhitespace( expression.charAt(next) )) {
+        ++next;
+      }
+      return (next < expression.length()) && (expression.charAt(next) == '(');
+    }
+
+    private void expect(char ch) {
+      skipSpace();
+      if ((position >= expression.length())
+          || (expression.charAt(position) != ch)) {
+        throw error("Expected '" + ch + '\'');
+      }
+      ++position;
+    }
+
+    private void skipSpace() {
+      while ((position < expression.length())
+          && Character.isWhitespace( expression.charAt(position) )) {
+        ++position;
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(
+          message + " at position " + position + " of \"" + expression + '"');
+    }
+  }
+}
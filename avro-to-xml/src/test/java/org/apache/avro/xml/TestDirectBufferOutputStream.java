@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.util.Random;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link DirectBufferOutputStream} and writing
+ * documents directly to a {@link FileChannel}.
+ */
+public class TestDirectBufferOutputStream {
+
+  private File outFile;
+  private RandomAccessFile raf;
+
+  @Before
+  public void setUp() throws Exception {
+    outFile = File.createTempFile("direct", ".avro");
+    raf = new RandomAccessFile(outFile, "rw");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    raf.close();
+    outFile.delete();
+  }
+
+  @Test
+  public void testWriteTo() throws Exception {
+    final byte[] expected = new byte[3 * DirectBufferPool.CHUNK_SIZE + 17];
+    new Random(42).nextBytes(expected);
+
+    final DirectBufferOutputStream out = new DirectBufferOutputStream();
+    out.write(expected[0]);
+    out.write(expected, 1, expected.length - 1);
+    assertEquals(expected.length, out.size());
+
+    final FileChannel channel = raf.getChannel();
+    assertEquals(expected.length, out.writeTo(channel));
+    assertArrayEquals(expected, readBack(channel));
+
+    // The stream is empty, and reusable, after a reset.
+    out.reset();
+    assertEquals(0, out.size());
+    out.write(expected, 0, 10);
+    assertEquals(10, out.size());
+    out.close();
+  }
+
+  @Test
+  public void testFlushChannel() throws Exception {
+    final byte[] expected = new byte[5 * DirectBufferPool.CHUNK_SIZE + 17];
+    new Random(42).nextBytes(expected);
+
+    final FileChannel channel = raf.getChannel();
+    final DirectBufferOutputStream out = new DirectBufferOutputStream();
+    out.setFlushChannel(channel, 2 * DirectBufferPool.CHUNK_SIZE);
+
+    // Full chunks are written as soon as two of them are held.
+    out.write(expected, 0, 2 * DirectBufferPool.CHUNK_SIZE);
+    assertEquals(0, channel.size());
+    out.write(expected[2 * DirectBufferPool.CHUNK_SIZE]);
+    assertEquals(2 * DirectBufferPool.CHUNK_SIZE, channel.size());
+
+    out.write(
+        expected,
+        2 * DirectBufferPool.CHUNK_SIZE + 1,
+        expected.length - 2 * DirectBufferPool.CHUNK_SIZE - 1);
+    assertEquals(expected.length, out.size());
+    assertEquals(4 * DirectBufferPool.CHUNK_SIZE, out.flushed());
+
+    // Only the rest are written by writeTo.
+    assertEquals(
+        expected.length - 4 * DirectBufferPool.CHUNK_SIZE,
+        out.writeTo(channel));
+    assertArrayEquals(expected, readBack(channel));
+
+    // A reset forgets the channel.
+    out.reset();
+    out.write(expected, 0, 3 * DirectBufferPool.CHUNK_SIZE);
+    assertEquals(0, out.flushed());
+    out.close();
+  }
+
+  @Test
+  public void testNonBlockingChannel() throws Exception {
+    final Pipe pipe = Pipe.open();
+    try {
+      pipe.sink().configureBlocking(false);
+
+      final DirectBufferOutputStream out = new DirectBufferOutputStream();
+      out.write(1);
+      try {
+        out.writeTo( pipe.sink() );
+        fail("Non-blocking channels are not supported.");
+      } catch (IllegalArgumentException e) {
+        // Expected.
+      }
+      try {
+        out.setFlushChannel(pipe.sink(), 1);
+        fail("Non-blocking channels are not supported.");
+      } catch (IllegalArgumentException e) {
+        // Expected.
+      }
+      out.close();
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+
+  @Test
+  public void testWriteDocument() throws Exception {
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            schemaFile,
+            "http://avro.apache.org/AvroTest",
+            root);
+
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(expected, null);
+    writer.write(xmlFile, encoder);
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    final FileChannel channel = raf.getChannel();
+    assertEquals(expected.size() / 2, writer.write(xmlFile, channel));
+    assertEquals(expected.size() / 2, writer.write(xmlFile, channel));
+
+    assertArrayEquals(expected.toByteArray(), readBack(channel));
+
+    // A document that fails to encode writes nothing.
+    config.setMaxDepth(2);
+    final long position = channel.position();
+    try {
+      new XmlDatumWriter(config).write(xmlFile, channel);
+      fail("Expected the depth limit to be exceeded.");
+    } catch (XmlDatumLimitExceededException e) {
+      // Expected.
+    }
+    assertEquals(position, channel.position());
+  }
+
+  private static byte[] readBack(FileChannel channel) throws Exception {
+    final ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+    channel.read(contents, 0);
+    return contents.array();
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.ws.commons.schema.docpath.SaxWalkerOverDom;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Verifies {@link DomContentWalker} reports the same
+ * events as {@link SaxWalkerOverDom} for the same DOM.
+ */
+public class TestDomContentWalker {
+
+  @Test
+  public void testSameEventsAsSaxWalkerOverDom() throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+
+    final String[] fileNames = {
+      "test1_root.xml",
+      "test2_children.xml",
+      "test3_grandchildren.xml",
+      "complex_test1.xml",
+    };
+
+    for (String fileName : fileNames) {
+      final File xmlFile =
+          UtilsForTests.buildFile("src", "test", "resources", fileName);
+      final Document doc = dbf.newDocumentBuilder().parse(xmlFile);
+
+      final EventRecorder expected = new EventRecorder();
+      new SaxWalkerOverDom(expected).walk(doc);
+
+      // The walker is reusable; both walks should match.
+      final EventRecorder actual = new EventRecorder();
+      final DomContentWalker walker = new DomContentWalker(actual);
+      walker.walk(doc);
+      assertEquals(fileName, expected.events, actual.events);
+
+      actual.events.clear();
+      walker.walk(doc);
+      assertEquals(fileName, expected.events, actual.events);
+    }
+  }
+
+  @Test
+  public void testAttributeLookups() throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+
+    final Document doc =
+        dbf.newDocumentBuilder().parse(
+            new InputSource(
+                new StringReader(
+                    "<a:e xmlns:a=\"urn:a\" a:x=\"1\" y=\"2\"/>")));
+
+    final List<String> checked = new ArrayList<String>();
+    new DomContentWalker(new DefaultHandler() {
+      @Override
+      public void startElement(
+          String uri,
+          String localName,
+          String qName,
+          Attributes atts) {
+
+        assertEquals("urn:a", uri);
+        assertEquals("e", localName);
+        assertEquals("a:e", qName);
+
+        // The namespace declaration is not an attribute.
+        assertEquals(2, atts.getLength());
+        assertEquals("1", atts.getValue("urn:a", "x"));
+        assertEquals("2", atts.getValue("", "y"));
+        assertEquals("1", atts.getValue("a:x"));
+        assertEquals("CDATA", atts.getType("y"));
+        assertEquals(-1, atts.getIndex("xmlns:a"));
+        assertNull(atts.getValue(2));
+        checked.add(qName);
+      }
+    }).walk(doc);
+
+    assertEquals(1, checked.size());
+  }
+
+  private static class EventRecorder extends DefaultHandler {
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void startDocument() {
+      events.add("startDocument");
+    }
+
+    @Override
+    public void endDocument() {
+      events.add("endDocument");
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+      events.add("startPrefixMapping " + prefix + "=" + uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) {
+      events.add("endPrefixMapping " + prefix);
+    }
+
+    @Override
+    public void startElement(
+        String uri,
+        String localName,
+        String qName,
+        Attributes atts) throws SAXException {
+
+      final StringBuilder event = new StringBuilder("startElement {");
+      event.append(uri).append('}').append(localName).append(' ');
+      event.append(qName);
+      for (int index = 0; index < atts.getLength(); ++index) {
+        event.append(" {").append( atts.getURI(index) ).append('}');
+        event.append( atts.getLocalName(index) ).append('=');
+        event.append( atts.getValue(index) );
+      }
+      events.add( event.toString() );
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      events.add("endElement {" + uri + '}' + localName + ' ' + qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      events.add("characters " + new String(ch, start, length));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link MappedFileInput}, and that writing a large file through
+ * it produces the same output as writing the equivalent DOM.
+ */
+public class TestMappedFileInput {
+
+  private File largeFile;
+
+  @Before
+  public void setUp() throws Exception {
+    largeFile = File.createTempFile("mapped", ".xml");
+
+    final Writer writer =
+        new OutputStreamWriter(new FileOutputStream(largeFile), "UTF-8");
+    try {
+      writer.write(
+          "<avro:root xmlns:avro=\"http://avro.apache.org/AvroTest\">\n");
+      for (int index = 0; index < 2000; ++index) {
+        writer.write(
+            "  <avro:record><avro:primitive>int</avro:primitive>"
+            + "</avro:record>\n");
+      }
+      writer.write("</avro:root>\n");
+    } finally {
+      writer.close();
+    }
+
+    assertTrue(largeFile.length() > MappedFileInput.MIN_MAPPED_SIZE);
+  }
+
+  @After
+  public void tearDown() {
+    largeFile.delete();
+  }
+
+  @Test
+  public void testStreams() throws Exception {
+    final File smallFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test1_root.xml");
+    assertTrue(smallFile.length() < MappedFileInput.MIN_MAPPED_SIZE);
+
+    for (File file : new File[] { smallFile, largeFile }) {
+      final byte[] expected = readFully( new FileInputStream(file) );
+      final MappedFileInput input = MappedFileInput.open(file);
+
+      // Streams are independent, and may be read more than once.
+      final InputStream first = input.openStream();
+      final InputStream second = input.openStream();
+      assertEquals(expected[0], (byte) first.read());
+      assertArrayEquals(expected, readFully(second));
+      assertEquals(expected.length - 1, first.skip(expected.length - 1));
+      assertEquals(-1, first.read());
+    }
+  }
+
+  @Test
+  public void testWriteLargeFile() throws Exception {
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            schemaFile,
+            "http://avro.apache.org/AvroTest",
+            root);
+
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+
+    final ByteArrayOutputStream fromFile = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(fromFile, null);
+    writer.write(largeFile, encoder);
+    encoder.flush();
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+
+    final ByteArrayOutputStream fromDom = new ByteArrayOutputStream();
+    encoder = EncoderFactory.get().binaryEncoder(fromDom, encoder);
+    writer.write(dbf.newDocumentBuilder().parse(largeFile), encoder);
+    encoder.flush();
+
+    assertTrue(fromFile.size() > 0);
+    assertArrayEquals(fromDom.toByteArray(), fromFile.toByteArray());
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      final byte[] buffer = new byte[4096];
+      int numRead = 0;
+      while ((numRead = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, numRead);
+      }
+    } finally {
+      in.close();
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link XmlDatumBatchWriter} converts each file in a directory as
+ * {@link XmlDatumWriter} would, whatever the memory budget.
+ */
+public class TestXmlDatumBatchWriter {
+
+  private static final String NS = "http://avro.apache.org/AvroTest";
+
+  private static final String[] NAMES = {
+    "test1_root.xml",
+    "test2_children.xml",
+    "test3_grandchildren.xml",
+  };
+
+  private File inputDir;
+  private File outputDir;
+  private XmlDatumWriter writer;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    inputDir = File.createTempFile("batch", "in");
+    inputDir.delete();
+    inputDir.mkdirs();
+
+    outputDir = File.createTempFile("batch", "out");
+    outputDir.delete();
+
+    for (String name : NAMES) {
+      copy(
+          UtilsForTests.buildFile("src", "test", "resources", name),
+          new File(inputDir, name));
+    }
+
+    writer =
+        new XmlDatumWriter(
+            new XmlDatumConfig(
+                UtilsForTests.buildFile(
+                    "src",
+                    "test",
+                    "resources",
+                    "test_schema.xsd"),
+                NS,
+                new QName(NS, "root")));
+
+    executor = Executors.newFixedThreadPool(3);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    for (File dir : new File[] { inputDir, outputDir }) {
+      final File[] files = dir.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testConvertsEachFile() throws Exception {
+    // From a budget smaller than any one file, to one larger than them all.
+    for (long budget : new long[] { 1, 4096, 1L << 30 }) {
+      final XmlDatumBatchWriter batch =
+          new XmlDatumBatchWriter(writer, executor, 3, budget);
+      batch.setCodec( CodecFactory.deflateCodec(1) );
+
+      final Map<File, Exception> failures = batch.write(inputDir, outputDir);
+      assertTrue(failures.toString(), failures.isEmpty());
+
+      for (String name : NAMES) {
+        final File avroFile =
+            new File(outputDir, name.replace(".xml", ".avro"));
+
+        final DataFileReader<Object> reader =
+            new DataFileReader<Object>(
+                avroFile,
+                new GenericDatumReader<Object>());
+        try {
+          assertTrue(reader.hasNext());
+          assertEquals(
+              name + " with a budget of " + budget,
+              writeSequential( new File(inputDir, name) ),
+              reader.next());
+          assertFalse(reader.hasNext());
+        } finally {
+          reader.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFailuresDoNotStopTheBatch() throws Exception {
+    final FileOutputStream out =
+        new FileOutputStream( new File(inputDir, "broken.xml") );
+    try {
+      out.write("<avro:root xmlns:avro=\"".getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+
+    final XmlDatumBatchWriter batch =
+        new XmlDatumBatchWriter(writer, executor, 2, 1L << 20);
+
+    final Map<File, Exception> failures = batch.write(inputDir, outputDir);
+    assertEquals(1, failures.size());
+    assertEquals(
+        "broken.xml",
+        failures.keySet().iterator().next().getName());
+
+    for (String name : NAMES) {
+      assertTrue(
+          name,
+          new File(outputDir, name.replace(".xml", ".avro")).isFile());
+    }
+  }
+
+  @Test
+  public void testSameNamesInDifferentDirectories() throws Exception {
+    final File otherDir = new File(inputDir, "other");
+    otherDir.mkdirs();
+    final File otherFile = new File(otherDir, NAMES[0]);
+    copy(new File(inputDir, NAMES[0]), otherFile);
+
+    final XmlDatumBatchWriter batch =
+        new XmlDatumBatchWriter(writer, executor, 2, 1L << 20);
+    try {
+      batch.write(
+          Arrays.asList(new File(inputDir, NAMES[0]), otherFile),
+          outputDir);
+      fail("Both files would have been written to the same Avro file.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    } finally {
+      otherFile.delete();
+      otherDir.delete();
+    }
+    assertFalse( outputDir.exists() );
+  }
+
+  private Object writeSequential(File xmlFile) throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    return new GenericDatumReader<Object>( writer.getSchema() ).read(
+        null,
+        DecoderFactory.get().binaryDecoder(bytes.toByteArray(), null));
+  }
+
+  private static void copy(File from, File to) throws Exception {
+    final InputStream in = new FileInputStream(from);
+    final OutputStream out = new FileOutputStream(to);
+    try {
+      final byte[] buffer = new byte[4096];
+      int read = 0;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests {@link XmlDatumStatsFileWriter} indexes the IDs of map entries,
+ * and {@link XmlDatumIdLookup} finds and reads just those elements, with
+ * or without their positions in the index.
+ */
+public class TestXmlDatumIdLookup {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private static final int NUM_DOCUMENTS = 20;
+
+  private XmlDatumWriter writer;
+  private File avroFile;
+
+  @Before
+  public void setUp() throws Exception {
+    writer = UtilsForTests.createTestWriter();
+
+    avroFile = File.createTempFile("lookup", ".avro");
+  }
+
+  @After
+  public void tearDown() {
+    XmlDatumStatsFileWriter.getIndexFile(avroFile).delete();
+    XmlDatumStatsFileWriter.getStatsFile(avroFile).delete();
+    avroFile.delete();
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    write(1, Integer.MAX_VALUE);
+    assertFalse( XmlDatumStatsFileWriter.getStatsFile(avroFile).exists() );
+
+    final XmlDatumIdLookup lookup = new XmlDatumIdLookup(avroFile);
+    try {
+      final List<Element> found = lookup.lookup("id3-7");
+      assertEquals(1, found.size());
+      assertEquivalent(getMap(7, "id3-7"), found.get(0));
+
+      // The entries in the index rule out the Bloom filter's mistakes.
+      assertEquals(1, lookup.getBlocksRead());
+      assertEquals(NUM_DOCUMENTS - 1, lookup.getBlocksSkipped());
+
+      // Maps inside of maps are indexed as well.
+      assertEquivalent(getMap(12, "id5-12"), lookup.lookup("id5-12").get(0));
+
+      assertTrue( lookup.lookup("id6-1").isEmpty() );
+      assertEquals(2, lookup.getBlocksRead());
+    } finally {
+      lookup.close();
+    }
+  }
+
+  @Test
+  public void testLookupWithBloomFiltersOnly() throws Exception {
+    write(1, 0);
+
+    final List<IdIndexFile.Block> blocks =
+        IdIndexFile.read( XmlDatumStatsFileWriter.getIndexFile(avroFile) );
+    assertEquals(NUM_DOCUMENTS, blocks.size());
+    for (IdIndexFile.Block block : blocks) {
+      assertFalse( block.hasEntries() );
+    }
+
+    final XmlDatumIdLookup lookup = new XmlDatumIdLookup(avroFile);
+    try {
+      final List<Element> found = lookup.lookup("id4-3");
+      assertEquals(1, found.size());
+      assertEquivalent(getMap(3, "id4-3"), found.get(0));
+      assertTrue(lookup.getBlocksRead() < NUM_DOCUMENTS);
+    } finally {
+      lookup.close();
+    }
+  }
+
+  @Test
+  public void testLookupInOneBlock() throws Exception {
+    // All of the documents, and the entries, in one block.
+    write(1 << 20, Integer.MAX_VALUE);
+
+    final List<IdIndexFile.Block> blocks =
+        IdIndexFile.read( XmlDatumStatsFileWriter.getIndexFile(avroFile) );
+    assertEquals(1, blocks.size());
+    assertEquals(NUM_DOCUMENTS, blocks.get(0).getDatumCount());
+    assertEquals(5 * NUM_DOCUMENTS, blocks.get(0).getEntries().size());
+
+    final XmlDatumIdLookup lookup = new XmlDatumIdLookup(avroFile);
+    try {
+      for (int index = 0; index < NUM_DOCUMENTS; ++index) {
+        final String id = "id1-" + index;
+        final List<Element> found = lookup.lookup(id);
+        assertEquals(1, found.size());
+        assertEquivalent(getMap(index, id), found.get(0));
+      }
+    } finally {
+      lookup.close();
+    }
+  }
+
+  @Test(expected = java.io.IOException.class)
+  public void testLookupWithoutIndex() throws Exception {
+    write(1, Integer.MAX_VALUE);
+    assertTrue( XmlDatumStatsFileWriter.getIndexFile(avroFile).delete() );
+
+    new XmlDatumIdLookup(avroFile);
+  }
+
+  private void write(int syncInterval, int maxIndexedIds) throws Exception {
+    final XmlDatumStatsFileWriter out =
+        new XmlDatumStatsFileWriter(
+            writer.getSchema(),
+            Collections.<XmlDatumField>emptyList());
+    out.setSyncInterval(syncInterval);
+    out.setIdIndexed(true);
+    out.setMaxIndexedIds(maxIndexedIds);
+    out.create(writer.getSchema(), avroFile);
+    try {
+      for (int index = 0; index < NUM_DOCUMENTS; ++index) {
+        final byte[] datum =
+            UtilsForTests.write(writer, buildDocument(index));
+        out.appendEncoded( ByteBuffer.wrap(datum) );
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  // The grandchildren, with the document's index added to each ID.
+  private static Document buildDocument(int index) throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    final Document doc =
+        dbf.newDocumentBuilder().parse(
+            UtilsForTests.buildFile(
+                "src",
+                "test",
+                "resources",
+                "test3_grandchildren.xml"));
+
+    final NodeList maps = doc.getElementsByTagNameNS(NS, "map");
+    for (int mapIndex = 0; mapIndex < maps.getLength(); ++mapIndex) {
+      final Element map = (Element) maps.item(mapIndex);
+      map.setAttributeNS(
+          NS,
+          "avro:id",
+          map.getAttributeNS(NS, "id") + '-' + index);
+    }
+    return doc;
+  }
+
+  private static Element getMap(int index, String id) throws Exception {
+    final NodeList maps =
+        buildDocument(index).getElementsByTagNameNS(NS, "map");
+    for (int mapIndex = 0; mapIndex < maps.getLength(); ++mapIndex) {
+      final Element map = (Element) maps.item(mapIndex);
+      if ( map.getAttributeNS(NS, "id").equals(id) ) {
+        return map;
+      }
+    }
+    throw new IllegalArgumentException(id + " is not in document " + index);
+  }
+
+  private static void assertEquivalent(Element expected, Element actual)
+      throws Exception {
+
+    UtilsForTests.assertEquivalent(asDocument(expected), asDocument(actual));
+  }
+
+  private static Document asDocument(Element element) throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    final Document doc = dbf.newDocumentBuilder().newDocument();
+    doc.appendChild( doc.importNode(element, true) );
+    return doc;
+  }
+}
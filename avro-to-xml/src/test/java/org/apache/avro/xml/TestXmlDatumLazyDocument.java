@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests the document {@link XmlDatumReader#readLazily(ByteBuffer)} returns
+ * is the same as the one read eagerly, and decodes only what is visited.
+ */
+public class TestXmlDatumLazyDocument {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private XmlDatumWriter writer;
+  private XmlDatumReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    writer = UtilsForTests.createTestWriter();
+
+    reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+  }
+
+  @Test
+  public void testSameAsEager() throws Exception {
+    for (String name : UtilsForTests.TEST_DOCUMENTS) {
+      final byte[] datum =
+          UtilsForTests.write(writer, UtilsForTests.parse(name));
+      final Document eager =
+          reader.read(
+              (Document) null,
+              DecoderFactory.get().binaryDecoder(datum, null));
+
+      for (boolean evictable : new boolean[] { false, true }) {
+        final Document lazy =
+            reader.readLazily(ByteBuffer.wrap(datum), evictable);
+        UtilsForTests.assertEquivalent(eager, lazy);
+
+        // A modifiable copy can be made by importing it.
+        final Document copy = UtilsForTests.newDocument();
+        copy.appendChild( copy.importNode(lazy.getDocumentElement(), true) );
+        UtilsForTests.assertEquivalent(eager, copy);
+        assertTrue(
+            name,
+            lazy.getDocumentElement().isEqualNode(
+                copy.getDocumentElement()));
+      }
+    }
+  }
+
+  @Test
+  public void testXPath() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(
+            writer,
+            UtilsForTests.parse("test3_grandchildren.xml"));
+    final Document lazy = reader.readLazily( ByteBuffer.wrap(datum) );
+
+    final XPath xpath = XPathFactory.newInstance().newXPath();
+    final NodeList ids =
+        (NodeList) xpath.evaluate(
+            "//*[local-name()='map']/@*[local-name()='id']",
+            lazy,
+            XPathConstants.NODESET);
+
+    assertEquals(5, ids.getLength());
+    for (int index = 0; index < ids.getLength(); ++index) {
+      assertEquals("id" + (index + 1), ids.item(index).getNodeValue());
+    }
+  }
+
+  @Test
+  public void testDecodesOnNavigation() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(
+            writer,
+            UtilsForTests.parse("test3_grandchildren.xml"));
+    final LazyAvroDocument lazy =
+        (LazyAvroDocument) reader.readLazily( ByteBuffer.wrap(datum) );
+
+    // The name comes from the schema.
+    final Element root = lazy.getDocumentElement();
+    assertEquals(NS, root.getNamespaceURI());
+    assertEquals("root", root.getLocalName());
+    assertEquals(0, lazy.getElementsDecoded());
+
+    final Element first = (Element) root.getFirstChild();
+    assertEquals("primitive", first.getLocalName());
+    assertEquals(1, lazy.getElementsDecoded());
+
+    assertEquals("decimal", first.getTextContent());
+    assertEquals(2, lazy.getElementsDecoded());
+
+    // Only the map's ancestors, siblings and itself are decoded.
+    Element map = null;
+    for (Node child = first; child != null; child = child.getNextSibling()) {
+      if ( "id3".equals( ((Element) child).getAttributeNS(NS, "id") ) ) {
+        map = (Element) child;
+      }
+    }
+    assertNotNull(map);
+    final long decoded = lazy.getElementsDecoded();
+    assertEquals(root.getChildNodes().getLength() + 1, decoded);
+
+    assertEquals("string", map.getFirstChild().getTextContent());
+    assertEquals(decoded + 1, lazy.getElementsDecoded());
+
+    final NodeList all = root.getElementsByTagNameNS(NS, "*");
+    assertEquals(all.getLength() + 1, lazy.getElementsDecoded());
+
+    // Nodes are ordered as they are in the document.
+    assertEquals(
+        Node.DOCUMENT_POSITION_FOLLOWING,
+        first.compareDocumentPosition(map));
+    assertEquals(
+        Node.DOCUMENT_POSITION_CONTAINED_BY | Node.DOCUMENT_POSITION_FOLLOWING,
+        map.compareDocumentPosition( map.getFirstChild() ));
+    assertEquals(
+        Node.DOCUMENT_POSITION_FOLLOWING,
+        map.getAttributeNodeNS(NS, "id").compareDocumentPosition(
+            map.getFirstChild()));
+  }
+
+  @Test
+  public void testReadOnly() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(writer, UtilsForTests.parse("test1_root.xml"));
+    final Document lazy = reader.readLazily( ByteBuffer.wrap(datum) );
+    final Element root = lazy.getDocumentElement();
+
+    assertEquals("2147483647", root.getAttribute("int"));
+    assertEquals(NS, root.lookupNamespaceURI( root.getPrefix() ));
+
+    try {
+      root.setAttribute("int", "0");
+      fail("The attribute should not have been set.");
+    } catch (DOMException e) {
+      assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+    }
+
+    try {
+      root.appendChild( root.getFirstChild() );
+      fail("The child should not have been appended.");
+    } catch (DOMException e) {
+      assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+    }
+
+    try {
+      lazy.createElementNS(NS, "root");
+      fail("The element should not have been created.");
+    } catch (DOMException e) {
+      assertEquals(DOMException.NOT_SUPPORTED_ERR, e.code);
+    }
+    assertEquals("2147483647", root.getAttribute("int"));
+  }
+}
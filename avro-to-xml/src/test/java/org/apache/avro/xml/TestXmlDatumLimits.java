@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the document limits set in {@link XmlDatumConfig}.
+ */
+public class TestXmlDatumLimits {
+
+  private XmlDatumConfig config;
+  private File xmlFile;
+
+  @Before
+  public void setUp() throws Exception {
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    config =
+        new XmlDatumConfig(
+            schemaFile,
+            "http://avro.apache.org/AvroTest",
+            root);
+  }
+
+  @Test
+  public void testWithinLimits() throws Exception {
+    // The document is exactly as large as these limits allow.
+    config.setMaxDepth(4);
+    config.setMaxElements(18);
+    config.setMaxTextLength(7);
+    config.setMaxAttributes(1);
+    config.setMaxMapSize(2);
+
+    assertTrue(write() > 0);
+  }
+
+  @Test
+  public void testDepth() throws Exception {
+    config.setMaxDepth(3);
+    assertExceeded(
+        XmlDatumLimitExceededException.Limit.DEPTH,
+        "nonNullPrimitive");
+  }
+
+  @Test
+  public void testElements() throws Exception {
+    config.setMaxElements(17);
+    assertExceeded(
+        XmlDatumLimitExceededException.Limit.ELEMENTS,
+        "nonNullPrimitive");
+  }
+
+  @Test
+  public void testTextLength() throws Exception {
+    config.setMaxTextLength(6);
+    assertExceeded(
+        XmlDatumLimitExceededException.Limit.TEXT_LENGTH,
+        "primitive");
+  }
+
+  @Test
+  public void testAttributes() throws Exception {
+    config.setMaxAttributes(0);
+    assertExceeded(
+        XmlDatumLimitExceededException.Limit.ATTRIBUTES,
+        "root");
+  }
+
+  @Test
+  public void testMapSize() throws Exception {
+    config.setMaxMapSize(1);
+    assertExceeded(
+        XmlDatumLimitExceededException.Limit.MAP_SIZE,
+        "map");
+  }
+
+  @Test
+  public void testDocument() throws Exception {
+    config.setMaxDepth(3);
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(new ByteArrayOutputStream(), null);
+
+    try {
+      writer.write(dbf.newDocumentBuilder().parse(xmlFile), encoder);
+      fail("Expected the depth limit to be exceeded.");
+    } catch (XmlDatumLimitExceededException e) {
+      assertEquals(XmlDatumLimitExceededException.Limit.DEPTH, e.getLimit());
+    }
+  }
+
+  @Test
+  public void testTrustedDocument() throws Exception {
+    // Trusted documents are held to the same limits, in the same places.
+    config.setMaxDepth(4);
+    config.setMaxElements(18);
+    config.setMaxTextLength(7);
+    config.setMaxAttributes(1);
+    config.setMaxMapSize(2);
+    writeTrusted();
+
+    config.setMaxDepth(3);
+    assertTrustedExceeded(
+        XmlDatumLimitExceededException.Limit.DEPTH,
+        "nonNullPrimitive");
+    config.setMaxDepth(4);
+
+    config.setMaxElements(17);
+    assertTrustedExceeded(
+        XmlDatumLimitExceededException.Limit.ELEMENTS,
+        "nonNullPrimitive");
+    config.setMaxElements(18);
+
+    config.setMaxTextLength(6);
+    assertTrustedExceeded(
+        XmlDatumLimitExceededException.Limit.TEXT_LENGTH,
+        "primitive");
+    config.setMaxTextLength(7);
+
+    config.setMaxAttributes(0);
+    assertTrustedExceeded(
+        XmlDatumLimitExceededException.Limit.ATTRIBUTES,
+        "root");
+    config.setMaxAttributes(1);
+
+    config.setMaxMapSize(1);
+    assertTrustedExceeded(
+        XmlDatumLimitExceededException.Limit.MAP_SIZE,
+        "map");
+  }
+
+  private void assertTrustedExceeded(
+      XmlDatumLimitExceededException.Limit limit,
+      String localName) throws Exception {
+
+    try {
+      writeTrusted();
+      fail("Expected the " + limit + " limit to be exceeded.");
+    } catch (XmlDatumLimitExceededException e) {
+      assertEquals(limit, e.getLimit());
+      assertEquals(localName, e.getElementQName().getLocalPart());
+    }
+  }
+
+  private void writeTrusted() throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    writer.setTrustedInput(true);
+
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(new ByteArrayOutputStream(), null);
+    writer.write(dbf.newDocumentBuilder().parse(xmlFile), encoder);
+  }
+
+  private void assertExceeded(
+      XmlDatumLimitExceededException.Limit limit,
+      String localName) throws Exception {
+
+    final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(outBytes, null);
+
+    try {
+      new XmlDatumWriter(config).write(xmlFile, encoder);
+      fail("Expected the " + limit + " limit to be exceeded.");
+    } catch (XmlDatumLimitExceededException e) {
+      assertEquals(limit, e.getLimit());
+      assertEquals(localName, e.getElementQName().getLocalPart());
+    }
+
+    // Nothing is written.
+    encoder.flush();
+    assertEquals(0, outBytes.size());
+  }
+
+  private int write() throws Exception {
+    final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(outBytes, null);
+
+    new XmlDatumWriter(config).write(xmlFile, encoder);
+    encoder.flush();
+    return outBytes.size();
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link XmlDatumMetrics} reported by
+ * {@link XmlDatumWriter} and {@link XmlDatumReader}.
+ */
+public class TestXmlDatumMetrics {
+
+  private static class CollectingListener
+      implements XmlDatumMetricsListener {
+
+    final List<XmlDatumMetrics> metrics = new ArrayList<XmlDatumMetrics>();
+
+    @Override
+    public void documentFinished(XmlDatumMetrics docMetrics) {
+      metrics.add(docMetrics);
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            schemaFile,
+            "http://avro.apache.org/AvroTest",
+            root);
+
+    final CollectingListener writeListener = new CollectingListener();
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    writer.setMetricsListener(writeListener);
+
+    final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(outBytes, null);
+
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    assertEquals(1, writeListener.metrics.size());
+    final XmlDatumMetrics written = writeListener.metrics.get(0);
+
+    assertTrue( written.isWrite() );
+    assertNull( written.getFailure() );
+    assertEquals(18, written.getElementCount());
+    assertEquals(3, written.getMapClusterCount());
+    assertTrue(written.getAttributeCount() > 0);
+    assertEquals(outBytes.size(), written.getByteCount());
+    assertTrue(
+        written.getPhaseNanos(XmlDatumMetrics.Phase.PATH_FINDING) > 0);
+    assertTrue(written.getPhaseNanos(XmlDatumMetrics.Phase.ENCODE) > 0);
+    assertEquals(0, written.getPhaseNanos(XmlDatumMetrics.Phase.DECODE));
+
+    final CollectingListener readListener = new CollectingListener();
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+    reader.setMetricsListener(readListener);
+
+    reader.read(
+        (Document) null,
+        DecoderFactory.get().binaryDecoder(outBytes.toByteArray(), null));
+
+    assertEquals(1, readListener.metrics.size());
+    final XmlDatumMetrics read = readListener.metrics.get(0);
+
+    assertFalse( read.isWrite() );
+    assertNull( read.getFailure() );
+    assertEquals(written.getElementCount(), read.getElementCount());
+    assertEquals(written.getMapClusterCount(), read.getMapClusterCount());
+    assertEquals(written.getAttributeCount(), read.getAttributeCount());
+    assertTrue(read.getPhaseNanos(XmlDatumMetrics.Phase.PATH_FINDING) > 0);
+    assertEquals(
+        read.getTotalNanos(),
+        read.getPhaseNanos(XmlDatumMetrics.Phase.PATH_FINDING)
+        + read.getPhaseNanos(XmlDatumMetrics.Phase.DECODE));
+  }
+
+  @Test
+  public void testVarLongSize() {
+    assertEquals(1, MeteredEncoder.varLongSize(0));
+    assertEquals(1, MeteredEncoder.varLongSize(-64));
+    assertEquals(2, MeteredEncoder.varLongSize(64));
+    assertEquals(2, MeteredEncoder.varLongSize(-65));
+    assertEquals(10, MeteredEncoder.varLongSize(Long.MIN_VALUE));
+  }
+}
@@ -0,0 +1,431 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Tests {@link XmlDatumParallelWriter} writes the same datum as
+ * {@link XmlDatumWriter#write(File, org.apache.avro.io.Encoder)},
+ * from both files and {@link Document}s.
+ */
+public class TestXmlDatumParallelWriter {
+
+  private static final String NS = "http://avro.apache.org/AvroTest";
+
+  private File largeFile;
+  private XmlDatumWriter writer;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    largeFile = File.createTempFile("parallel", ".xml");
+
+    /* Runs of maps of different lengths between other elements, so
+     * chunks start both inside and outside of a run of maps.
+     */
+    final Writer out =
+        new OutputStreamWriter(new FileOutputStream(largeFile), "UTF-8");
+    try {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      out.write("<!-- <avro:map avro:id=\"comment\"> -->\n");
+      out.write("<avro:root xmlns:avro=\"" + NS + "\" gYear=\"2014\">\n");
+      int nextId = 0;
+      for (int run = 0; run < 200; ++run) {
+        out.write("  <avro:record><avro:primitive>int</avro:primitive>");
+        out.write("<!-- <avro:map> --><?pi <avro:map>?></avro:record>\n");
+        for (int map = 0; map < run % 5; ++map) {
+          out.write("  <avro:map avro:id=\"id" + (nextId++) + "\">");
+          out.write("<avro:nonNullPrimitive>long</avro:nonNullPrimitive>");
+          out.write("</avro:map>\n");
+        }
+        out.write("  <avro:nonNullPrimitive>string</avro:nonNullPrimitive>\n");
+        if (run % 7 == 0) {
+          out.write("  <avro:map avro:id=\"id" + (nextId++) + "\"/>\n");
+        }
+      }
+      out.write("</avro:root>\n");
+    } finally {
+      out.close();
+    }
+
+    writer =
+        new XmlDatumWriter(
+            new XmlDatumConfig(
+                UtilsForTests.buildFile(
+                    "src",
+                    "test",
+                    "resources",
+                    "test_schema.xsd"),
+                NS,
+                new QName(NS, "root")));
+
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    largeFile.delete();
+  }
+
+  @Test
+  public void testSameDatumAsSequential() throws Exception {
+    final byte[] sequential = writeSequential();
+    final Object expected = read(sequential);
+
+    for (QName splitElement : new QName[] {
+        new QName(NS, "map"),
+        new QName(NS, "record") }) {
+
+      for (long chunkSize : new long[] { 1, 100, 1000, 1L << 30 }) {
+        final XmlDatumParallelWriter parallel =
+            new XmlDatumParallelWriter(writer, splitElement, executor);
+        parallel.setChunkSize(chunkSize);
+        parallel.setMaxChunksInFlight(3);
+
+        final byte[] bytes = writeParallel(parallel);
+        assertEquals(
+            splitElement + " in chunks of " + chunkSize,
+            expected,
+            read(bytes));
+
+        // Only a file too small to split is written the same way.
+        assertEquals(
+            chunkSize > largeFile.length(),
+            Arrays.equals(sequential, bytes));
+      }
+    }
+
+    // The map runs are still single maps, of all of the runs' entries.
+    final List<?> children = (List<?>) ((GenericRecord) expected).get("root");
+    int numMaps = 0;
+    int numEntries = 0;
+    for (Object child : children) {
+      if (child instanceof Map) {
+        ++numMaps;
+        numEntries += ((Map<?, ?>) child).size();
+      }
+    }
+    assertTrue(numMaps < numEntries);
+  }
+
+  @Test
+  public void testDocument() throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    final Document doc = dbf.newDocumentBuilder().parse(largeFile);
+
+    final Object expected = read( writeSequential() );
+
+    for (long chunkSize : new long[] { 1, 100, 1000, 1L << 30 }) {
+      final XmlDatumParallelWriter parallel =
+          new XmlDatumParallelWriter(writer, new QName(NS, "map"), executor);
+      parallel.setChunkSize(chunkSize);
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final BinaryEncoder encoder =
+          EncoderFactory.get().binaryEncoder(bytes, null);
+      parallel.write(doc, encoder);
+      encoder.flush();
+
+      assertEquals(
+          "Chunks of " + chunkSize,
+          expected,
+          read( bytes.toByteArray() ));
+    }
+  }
+
+  @Test
+  public void testRecordedAsOneDocument() throws Exception {
+    final List<XmlDatumMetrics> metrics = new ArrayList<XmlDatumMetrics>();
+    writer.setMetricsListener(new XmlDatumMetricsListener() {
+      @Override
+      public void documentFinished(XmlDatumMetrics docMetrics) {
+        metrics.add(docMetrics);
+      }
+    });
+
+    final XmlDatumStats stats = XmlDatumStats.get();
+    final boolean enabled = stats.isEnabled();
+    stats.setEnabled(true);
+    try {
+      final long written = stats.getDocumentsWritten();
+      final long failures = stats.getWriteFailures();
+
+      final XmlDatumParallelWriter parallel =
+          new XmlDatumParallelWriter(writer, new QName(NS, "map"), executor);
+      parallel.setChunkSize(100);
+      final byte[] bytes = writeParallel(parallel);
+
+      assertEquals(written + 1, stats.getDocumentsWritten());
+      assertEquals(1, metrics.size());
+      assertNull( metrics.get(0).getFailure() );
+      assertEquals(bytes.length, metrics.get(0).getByteCount());
+      assertTrue(metrics.get(0).getElementCount() > 0);
+
+      // A failed file is one failure, however many of its chunks fail.
+      final File file = File.createTempFile("parallel", ".xml");
+      try {
+        writeFile(file, getXmlWithBadLastChild());
+        try {
+          parallel.write(
+              file,
+              EncoderFactory.get().binaryEncoder(
+                  new ByteArrayOutputStream(),
+                  null));
+          fail("The last chunk should not have been encoded.");
+        } catch (Exception e) {
+          // Expected.
+        }
+      } finally {
+        file.delete();
+      }
+
+      assertEquals(failures + 1, stats.getWriteFailures());
+      assertEquals(2, metrics.size());
+      assertNotNull( metrics.get(1).getFailure() );
+
+    } finally {
+      stats.setEnabled(enabled);
+      writer.setMetricsListener(null);
+    }
+  }
+
+  @Test
+  public void testEarlierChunksWrittenIfLaterChunkFails() throws Exception {
+    final File file = File.createTempFile("parallel", ".xml");
+    try {
+      writeFile(file, getXmlWithBadLastChild());
+
+      final XmlDatumParallelWriter parallel =
+          new XmlDatumParallelWriter(writer, new QName(NS, "map"), executor);
+      parallel.setChunkSize(100);
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final BinaryEncoder encoder =
+          EncoderFactory.get().binaryEncoder(bytes, null);
+      try {
+        parallel.write(file, encoder);
+        fail("The last chunk should not have been encoded.");
+      } catch (Exception e) {
+        // Expected.
+      }
+
+      // The chunks are not buffered until the last one is encoded.
+      encoder.flush();
+      assertTrue(bytes.size() > 0);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testEarlierRunsWrittenIfLaterRunFails() throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    final Document doc =
+        dbf.newDocumentBuilder().parse(
+            new InputSource( new StringReader( getXmlWithBadLastChild() ) ));
+
+    final XmlDatumParallelWriter parallel =
+        new XmlDatumParallelWriter(writer, new QName(NS, "map"), executor);
+    parallel.setChunkSize(100);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    try {
+      parallel.write(doc, encoder);
+      fail("The last run should not have been encoded.");
+    } catch (Exception e) {
+      // Expected.
+    }
+
+    // The runs are not buffered until the last one is encoded.
+    encoder.flush();
+    assertTrue(bytes.size() > 0);
+  }
+
+  @Test
+  public void testTruncatedFile() throws Exception {
+    final File file = File.createTempFile("parallel", ".xml");
+    try {
+      writeFile(
+          file,
+          "<avro:root xmlns:avro=\"" + NS + "\"><avro:map avro:id=\"a\"/>"
+          + "<avro:map");
+
+      final XmlDatumParallelWriter parallel =
+          new XmlDatumParallelWriter(writer, new QName(NS, "map"), executor);
+      parallel.setChunkSize(1);
+      try {
+        parallel.write(
+            file,
+            EncoderFactory.get().binaryEncoder(
+                new ByteArrayOutputStream(),
+                null));
+        fail("A truncated file should not have been written.");
+      } catch (IOException e) {
+        // Expected.
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testMalformedEncoding() throws Exception {
+    final File file = File.createTempFile("parallel", ".xml");
+    try {
+      for (String encoding : new String[] { "\"UTF-8", "UTF-8", "'" }) {
+        writeFile(
+            file,
+            "<?xml version=\"1.0\" encoding=" + encoding + "?>"
+            + "<avro:root xmlns:avro=\"" + NS + "\"><avro:map avro:id=\"a\"/>"
+            + "<avro:map avro:id=\"b\"/></avro:root>");
+
+        final XmlDatumParallelWriter parallel =
+            new XmlDatumParallelWriter(writer, new QName(NS, "map"), executor);
+        parallel.setChunkSize(1);
+
+        // Left to the parser, which rejects the declaration.
+        try {
+          parallel.write(
+              file,
+              EncoderFactory.get().binaryEncoder(
+                  new ByteArrayOutputStream(),
+                  null));
+          fail("The encoding " + encoding + " should not have been read.");
+        } catch (SAXException e) {
+          // Expected.
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testEmptyRoot() throws Exception {
+    final File file = File.createTempFile("parallel", ".xml");
+    try {
+      writeFile(file, "<avro:root xmlns:avro=\"" + NS + "\"/>");
+
+      final XmlDatumParallelWriter parallel =
+          new XmlDatumParallelWriter(writer, new QName(NS, "map"), executor);
+      parallel.setChunkSize(1);
+
+      final ByteArrayOutputStream parallelBytes = new ByteArrayOutputStream();
+      BinaryEncoder encoder =
+          EncoderFactory.get().binaryEncoder(parallelBytes, null);
+      parallel.write(file, encoder);
+      encoder.flush();
+
+      final ByteArrayOutputStream sequentialBytes =
+          new ByteArrayOutputStream();
+      encoder = EncoderFactory.get().binaryEncoder(sequentialBytes, null);
+      writer.write(file, encoder);
+      encoder.flush();
+
+      assertArrayEquals(
+          sequentialBytes.toByteArray(),
+          parallelBytes.toByteArray());
+    } finally {
+      file.delete();
+    }
+  }
+
+  // Many valid maps, followed by one the last chunk cannot encode.
+  private static String getXmlWithBadLastChild() {
+    final StringBuilder xml = new StringBuilder();
+    xml.append("<avro:root xmlns:avro=\"").append(NS).append("\">");
+    for (int map = 0; map < 100; ++map) {
+      xml.append("<avro:map avro:id=\"id").append(map).append("\"/>");
+    }
+    xml.append("<avro:map avro:id=\"last\"><avro:unknown/></avro:map>");
+    xml.append("</avro:root>");
+    return xml.toString();
+  }
+
+  private static void writeFile(File file, String xml) throws IOException {
+    final Writer out =
+        new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write(xml);
+    } finally {
+      out.close();
+    }
+  }
+
+  private byte[] writeSequential() throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    writer.write(largeFile, encoder);
+    encoder.flush();
+    return bytes.toByteArray();
+  }
+
+  private byte[] writeParallel(XmlDatumParallelWriter parallel)
+      throws Exception {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    parallel.write(largeFile, encoder);
+    encoder.flush();
+    return bytes.toByteArray();
+  }
+
+  private Object read(byte[] bytes) throws Exception {
+    return new GenericDatumReader<Object>( writer.getSchema() ).read(
+        null,
+        DecoderFactory.get().binaryDecoder(bytes, null));
+  }
+}
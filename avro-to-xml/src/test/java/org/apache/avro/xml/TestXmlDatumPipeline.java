@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link XmlDatumPipeline} writes each document as
+ * {@link XmlDatumWriter} would, in order.
+ */
+public class TestXmlDatumPipeline {
+
+  private static final String NS = "http://avro.apache.org/AvroTest";
+
+  private XmlDatumWriter writer;
+  private ExecutorService parsePool;
+  private ExecutorService encodePool;
+  private ExecutorService outputPool;
+  private List<File> xmlFiles;
+
+  @Before
+  public void setUp() throws Exception {
+    writer =
+        new XmlDatumWriter(
+            new XmlDatumConfig(
+                UtilsForTests.buildFile(
+                    "src",
+                    "test",
+                    "resources",
+                    "test_schema.xsd"),
+                NS,
+                new QName(NS, "root")));
+
+    parsePool = Executors.newFixedThreadPool(2);
+    encodePool = Executors.newFixedThreadPool(3);
+    outputPool = Executors.newSingleThreadExecutor();
+
+    final String[] names = {
+      "test1_root.xml",
+      "test2_children.xml",
+      "test3_grandchildren.xml",
+    };
+
+    xmlFiles = new ArrayList<File>();
+    for (int index = 0; index < 30; ++index) {
+      xmlFiles.add(
+          UtilsForTests.buildFile(
+              "src",
+              "test",
+              "resources",
+              names[index % names.length]));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    parsePool.shutdownNow();
+    encodePool.shutdownNow();
+    outputPool.shutdownNow();
+  }
+
+  @Test
+  public void testDocumentsInOrder() throws Exception {
+    final XmlDatumPipeline pipeline =
+        new XmlDatumPipeline(writer, parsePool, encodePool, outputPool);
+    pipeline.setMaxDocumentsInFlight(4);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataFileWriter<Object> out =
+        new DataFileWriter<Object>(
+            new GenericDatumWriter<Object>( writer.getSchema() ));
+    out.setCodec( CodecFactory.deflateCodec(1) );
+    out.create(writer.getSchema(), bytes);
+
+    assertEquals(
+        xmlFiles.size(),
+        pipeline.write(xmlFiles.iterator(), out));
+    out.close();
+
+    final DataFileStream<Object> in =
+        new DataFileStream<Object>(
+            new ByteArrayInputStream( bytes.toByteArray() ),
+            new GenericDatumReader<Object>());
+
+    int index = 0;
+    for (Object actual : in) {
+      assertEquals(
+          xmlFiles.get(index).getName(),
+          writeSequential( xmlFiles.get(index) ),
+          actual);
+      ++index;
+    }
+    in.close();
+    assertEquals(xmlFiles.size(), index);
+  }
+
+  @Test
+  public void testFailureStopsThePipeline() throws Exception {
+    xmlFiles.add(5, new File("does-not-exist.xml"));
+
+    final XmlDatumPipeline pipeline =
+        new XmlDatumPipeline(writer, parsePool, encodePool, outputPool);
+    pipeline.setMaxDocumentsInFlight(2);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataFileWriter<Object> out =
+        new DataFileWriter<Object>(
+            new GenericDatumWriter<Object>( writer.getSchema() ));
+    out.create(writer.getSchema(), bytes);
+
+    try {
+      pipeline.write(xmlFiles.iterator(), out);
+      fail("does-not-exist.xml does not exist.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("does-not-exist"));
+    }
+    out.close();
+
+    // The documents before the failure were still written.
+    final DataFileStream<Object> in =
+        new DataFileStream<Object>(
+            new ByteArrayInputStream( bytes.toByteArray() ),
+            new GenericDatumReader<Object>());
+    int numWritten = 0;
+    for (Object datum : in) {
+      assertNotNull(datum);
+      ++numWritten;
+    }
+    in.close();
+    assertEquals(5, numWritten);
+  }
+
+  @Test
+  public void testDiscardedDocumentsFail() throws Exception {
+    // Holds the only thread, so the documents wait in the queue.
+    final ThreadPoolExecutor discardingPool =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    discardingPool.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+          // Shut down.
+        }
+      }
+    });
+
+    // Discards the documents once two are waiting to be encoded.
+    final Thread shutdown = new Thread() {
+      @Override
+      public void run() {
+        while (discardingPool.getQueue().size() < 2) {
+          Thread.yield();
+        }
+        discardingPool.shutdownNow();
+      }
+    };
+    shutdown.start();
+
+    final XmlDatumStats stats = XmlDatumStats.get();
+    final boolean enabled = stats.isEnabled();
+    stats.setEnabled(true);
+    final int writesInFlight = stats.getWritesInFlight();
+
+    final XmlDatumPipeline pipeline =
+        new XmlDatumPipeline(writer, parsePool, discardingPool, outputPool);
+    pipeline.setMaxDocumentsInFlight(2);
+
+    final DataFileWriter<Object> out =
+        new DataFileWriter<Object>(
+            new GenericDatumWriter<Object>( writer.getSchema() ));
+    out.create(writer.getSchema(), new ByteArrayOutputStream());
+    try {
+      pipeline.write(xmlFiles.iterator(), out);
+      fail("The documents were never encoded.");
+    } catch (IOException e) {
+      // Expected.
+    } finally {
+      out.close();
+      shutdown.join();
+      stats.setEnabled(enabled);
+    }
+
+    // The documents whose paths were found are no longer being written.
+    assertEquals(writesInFlight, stats.getWritesInFlight());
+  }
+
+  @Test(timeout = 60000)
+  public void testFailedAppendStopsThePipeline() throws Exception {
+    final XmlDatumPipeline pipeline =
+        new XmlDatumPipeline(writer, parsePool, encodePool, outputPool);
+    pipeline.setMaxDocumentsInFlight(1);
+
+    // Never created, so every append fails.
+    final DataFileWriter<Object> out =
+        new DataFileWriter<Object>(
+            new GenericDatumWriter<Object>( writer.getSchema() ));
+    try {
+      pipeline.write(xmlFiles.iterator(), out);
+      fail("The output was never created.");
+    } catch (AvroRuntimeException e) {
+      // Expected.
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testDiscardedOutputFails() throws Exception {
+    // Holds the only thread, so the output stage waits in the queue.
+    final ThreadPoolExecutor discardingPool =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    discardingPool.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+          // Shut down.
+        }
+      }
+    });
+
+    // Discards the output stage once it is waiting.
+    final Thread shutdown = new Thread() {
+      @Override
+      public void run() {
+        while ( discardingPool.getQueue().isEmpty() ) {
+          Thread.yield();
+        }
+        discardingPool.shutdownNow();
+      }
+    };
+    shutdown.start();
+
+    final XmlDatumStats stats = XmlDatumStats.get();
+    final boolean enabled = stats.isEnabled();
+    stats.setEnabled(true);
+    final int writesInFlight = stats.getWritesInFlight();
+
+    final XmlDatumPipeline pipeline =
+        new XmlDatumPipeline(writer, parsePool, encodePool, discardingPool);
+    pipeline.setMaxDocumentsInFlight(2);
+
+    final DataFileWriter<Object> out =
+        new DataFileWriter<Object>(
+            new GenericDatumWriter<Object>( writer.getSchema() ));
+    out.create(writer.getSchema(), new ByteArrayOutputStream());
+    try {
+      pipeline.write(xmlFiles.iterator(), out);
+      fail("The documents were never written.");
+    } catch (IOException e) {
+      // Expected.
+    } finally {
+      out.close();
+      shutdown.join();
+      stats.setEnabled(enabled);
+    }
+
+    // The documents already started are no longer being written.
+    assertEquals(writesInFlight, stats.getWritesInFlight());
+  }
+
+  private Object writeSequential(File xmlFile) throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    return new GenericDatumReader<Object>( writer.getSchema() ).read(
+        null,
+        DecoderFactory.get().binaryDecoder(bytes.toByteArray(), null));
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+/**
+ * Tests the per-element costs gathered by an {@link XmlDatumProfile}.
+ */
+public class TestXmlDatumProfile {
+
+  @Test
+  public void testGrandchildren() throws Exception {
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            schemaFile,
+            "http://avro.apache.org/AvroTest",
+            root);
+
+    final XmlDatumProfile profile = new XmlDatumProfile();
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    writer.setProfile(profile);
+
+    final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(outBytes, null);
+
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    final List<XmlDatumProfile.Entry> entries = profile.getEntries();
+    assertFalse( entries.isEmpty() );
+
+    long selfBytes = 0;
+    XmlDatumProfile.Entry rootEntry = null;
+    XmlDatumProfile.Entry mapEntry = null;
+    XmlDatumProfile.Entry previous = null;
+
+    for (XmlDatumProfile.Entry entry : entries) {
+      if (previous != null) {
+        assertTrue(previous.getBytes() >= entry.getBytes());
+      }
+      previous = entry;
+
+      if (entry.getAttributeName() != null) {
+        assertEquals(entry.getBytes(), entry.getTotalBytes());
+        continue;
+      }
+
+      selfBytes += entry.getBytes();
+      if ( entry.getElementQName().equals(root) ) {
+        rootEntry = entry;
+      } else if (entry.getElementQName().getLocalPart().equals("map")) {
+        mapEntry = entry;
+      }
+    }
+
+    // Every byte belongs to exactly one element.
+    assertEquals(outBytes.size(), selfBytes);
+
+    assertNotNull(rootEntry);
+    assertEquals(1, rootEntry.getCount());
+    assertEquals(outBytes.size(), rootEntry.getTotalBytes());
+
+    assertNotNull(mapEntry);
+    assertEquals(5, mapEntry.getCount());
+    assertTrue(mapEntry.getTotalBytes() > mapEntry.getBytes());
+
+    final StringBuilder report = new StringBuilder();
+    profile.writeReport(report);
+    assertTrue(report.indexOf( root.toString() ) > 0);
+
+    // A second document doubles all of the counts.
+    outBytes.reset();
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    for (XmlDatumProfile.Entry entry : profile.getEntries()) {
+      if ((entry.getAttributeName() == null)
+          && entry.getElementQName().equals(root)) {
+        assertEquals(2, entry.getCount());
+        assertEquals(2 * outBytes.size(), entry.getTotalBytes());
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests {@link XmlDatumReader} reads only the parts of a document
+ * selected by an {@link XmlDatumProjection}, and skips the rest.
+ */
+public class TestXmlDatumProjection {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private static final QName ROOT = new QName(NS, "root");
+  private static final QName MAP = new QName(NS, "map");
+  private static final QName PRIMITIVE = new QName(NS, "primitive");
+  private static final QName NON_NULL_PRIMITIVE =
+      new QName(NS, "nonNullPrimitive");
+
+  private XmlDatumWriter writer;
+  private Document doc;
+  private Document expected;
+
+  @Before
+  public void setUp() throws Exception {
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    doc = dbf.newDocumentBuilder().parse(xmlFile);
+
+    writer = new XmlDatumWriter(new XmlDatumConfig(schemaFile, NS, ROOT));
+
+    // The whole document, as the reader returns it.
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    expected =
+        reader.read(
+            (Document) null,
+            DecoderFactory.get().binaryDecoder(datum, null));
+  }
+
+  @Test
+  public void testElementsByName() throws Exception {
+    final XmlDatumProjection projection = new XmlDatumProjection();
+    projection.addElement(NON_NULL_PRIMITIVE);
+
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+    reader.setProjection(projection);
+
+    // Twice from one stream, so the first must have been read exactly.
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    final BinaryDecoder decoder =
+        DecoderFactory.get().binaryDecoder(concat(datum, datum), null);
+
+    for (int pass = 0; pass < 2; ++pass) {
+      final Document actual = reader.read((Document) null, decoder);
+
+      assertEquals(
+          textsOf(expected, NON_NULL_PRIMITIVE),
+          textsOf(actual, NON_NULL_PRIMITIVE));
+      assertTrue( textsOf(actual, PRIMITIVE).isEmpty() );
+
+      // The maps they are in are kept, but only as bare elements.
+      final NodeList maps =
+          actual.getElementsByTagNameNS(NS, MAP.getLocalPart());
+      assertTrue(maps.getLength() > 0);
+      for (int index = 0; index < maps.getLength(); ++index) {
+        assertFalse( ((Element) maps.item(index)).hasAttributeNS(NS, "id") );
+      }
+    }
+    assertTrue( decoder.isEnd() );
+
+    // Without the projection, the whole document is read again.
+    reader.setProjection(null);
+    final Document whole =
+        reader.read(
+            (Document) null,
+            DecoderFactory.get().binaryDecoder(datum, null));
+    assertEquals(textsOf(expected, PRIMITIVE), textsOf(whole, PRIMITIVE));
+  }
+
+  @Test
+  public void testPath() throws Exception {
+    final XmlDatumProjection projection = new XmlDatumProjection();
+    projection.addPath(ROOT, MAP, PRIMITIVE);
+
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setProjection(projection);
+    reader.setSchema( writer.getSchema() );
+
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    final BinaryDecoder decoder =
+        DecoderFactory.get().binaryDecoder(datum, null);
+    final Document actual = reader.read((Document) null, decoder);
+    assertTrue( decoder.isEnd() );
+
+    // Only the primitives in the maps at the top of the document.
+    final List<String> inTopMaps = new ArrayList<String>();
+    for (Element map : childrenOf(expected.getDocumentElement(), MAP)) {
+      for (Element primitive : childrenOf(map, PRIMITIVE)) {
+        inTopMaps.add( primitive.getTextContent() );
+      }
+    }
+    assertFalse( inTopMaps.isEmpty() );
+
+    assertEquals(inTopMaps, textsOf(actual, PRIMITIVE));
+    assertTrue( textsOf(actual, NON_NULL_PRIMITIVE).isEmpty() );
+
+    // The maps inside the maps are not on the path.
+    for (Element map : childrenOf(actual.getDocumentElement(), MAP)) {
+      assertTrue( childrenOf(map, MAP).isEmpty() );
+    }
+  }
+
+  @Test
+  public void testSplit() throws Exception {
+    final XmlDatumProjection projection = new XmlDatumProjection();
+    projection.addElement(NON_NULL_PRIMITIVE);
+
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSplitSchema() );
+    reader.setProjection(projection);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    writer.writeSplit(doc, encoder);
+    encoder.flush();
+
+    final BinaryDecoder decoder =
+        DecoderFactory.get().binaryDecoder(bytes.toByteArray(), null);
+    final Document actual = reader.readSplit(decoder);
+    assertTrue( decoder.isEnd() );
+
+    assertEquals(
+        textsOf(expected, NON_NULL_PRIMITIVE),
+        textsOf(actual, NON_NULL_PRIMITIVE));
+    assertTrue( textsOf(actual, PRIMITIVE).isEmpty() );
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    final byte[] both = new byte[first.length + second.length];
+    System.arraycopy(first, 0, both, 0, first.length);
+    System.arraycopy(second, 0, both, first.length, second.length);
+    return both;
+  }
+
+  private static List<String> textsOf(Document document, QName element) {
+    final NodeList elements =
+        document.getElementsByTagNameNS(
+            element.getNamespaceURI(),
+            element.getLocalPart());
+
+    final List<String> texts = new ArrayList<String>();
+    for (int index = 0; index < elements.getLength(); ++index) {
+      texts.add( elements.item(index).getTextContent() );
+    }
+    return texts;
+  }
+
+  private static List<Element> childrenOf(Element parent, QName element) {
+    final List<Element> children = new ArrayList<Element>();
+    for (Node child = parent.getFirstChild();
+         child != null;
+         child = child.getNextSibling()) {
+
+      if ((child.getNodeType() == Node.ELEMENT_NODE)
+          && element.getNamespaceURI().equals( child.getNamespaceURI() )
+          && element.getLocalPart().equals( child.getLocalName() )) {
+        children.add( (Element) child );
+      }
+    }
+    return children;
+  }
+}
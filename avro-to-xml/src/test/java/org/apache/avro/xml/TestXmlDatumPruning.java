@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests {@link XmlDatumWriter} leaves the elements and attributes excluded
+ * by its {@link XmlDatumConfig} out of both the Avro schema and the datum.
+ */
+public class TestXmlDatumPruning {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private static final QName ROOT = new QName(NS, "root");
+  private static final QName MAP = new QName(NS, "map");
+  private static final QName ID = new QName(NS, "id");
+  private static final QName PRIMITIVE = new QName(NS, "primitive");
+  private static final QName NON_NULL_PRIMITIVE =
+      new QName(NS, "nonNullPrimitive");
+
+  private File schemaFile;
+  private Document doc;
+  private Document expected;
+  private int expectedSize;
+
+  @Before
+  public void setUp() throws Exception {
+    schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    doc = dbf.newDocumentBuilder().parse(xmlFile);
+
+    final XmlDatumWriter writer = new XmlDatumWriter( createConfig() );
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    expectedSize = datum.length;
+    expected = read(writer.getSchema(), datum);
+  }
+
+  @Test
+  public void testExcludedElement() throws Exception {
+    final XmlDatumConfig config = createConfig();
+    config.addExcludedElement(PRIMITIVE);
+
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    assertFalse( getRecordNames( writer.getSchema() ).contains("primitive") );
+
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    assertTrue(datum.length < expectedSize);
+
+    final Document actual = read(writer.getSchema(), datum);
+    assertTrue( textsOf(actual, PRIMITIVE).isEmpty() );
+    assertEquals(
+        textsOf(expected, NON_NULL_PRIMITIVE),
+        textsOf(actual, NON_NULL_PRIMITIVE));
+    assertEquals(idsOf(expected), idsOf(actual));
+  }
+
+  @Test
+  public void testExcludedAttribute() throws Exception {
+    final XmlDatumConfig config = createConfig();
+    config.addExcludedAttribute(MAP, ID);
+
+    // Without its ID, the map is an ordinary record.
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    final Schema mapSchema = findRecord(writer.getSchema(), "map");
+    assertNotNull(mapSchema);
+    assertNull( mapSchema.getField("id") );
+
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    final Document actual = read(writer.getSchema(), datum);
+
+    final NodeList maps = actual.getElementsByTagNameNS(NS, "map");
+    assertEquals(
+        expected.getElementsByTagNameNS(NS, "map").getLength(),
+        maps.getLength());
+    for (int index = 0; index < maps.getLength(); ++index) {
+      assertFalse( ((Element) maps.item(index)).hasAttributeNS(NS, "id") );
+    }
+
+    assertEquals(textsOf(expected, PRIMITIVE), textsOf(actual, PRIMITIVE));
+    assertEquals(
+        textsOf(expected, NON_NULL_PRIMITIVE),
+        textsOf(actual, NON_NULL_PRIMITIVE));
+  }
+
+  @Test
+  public void testIncludedElement() throws Exception {
+    final XmlDatumConfig config = createConfig();
+    config.addIncludedElement(NON_NULL_PRIMITIVE);
+
+    /* The elements nonNullPrimitive can be nested in are kept;
+     * the primitives beside it are not.
+     */
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    final Set<String> recordNames = getRecordNames( writer.getSchema() );
+    assertTrue( recordNames.contains("nonNullPrimitive") );
+    assertTrue( recordNames.contains("map") );
+    assertTrue( recordNames.contains("record") );
+    assertFalse( recordNames.contains("primitive") );
+
+    final Document actual =
+        read(writer.getSchema(), UtilsForTests.write(writer, doc));
+    assertTrue( textsOf(actual, PRIMITIVE).isEmpty() );
+    assertEquals(
+        textsOf(expected, NON_NULL_PRIMITIVE),
+        textsOf(actual, NON_NULL_PRIMITIVE));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExcludedRoot() throws Exception {
+    final XmlDatumConfig config = createConfig();
+    config.addExcludedElement(ROOT);
+    new XmlDatumWriter(config);
+  }
+
+  private XmlDatumConfig createConfig() {
+    return new XmlDatumConfig(schemaFile, NS, ROOT);
+  }
+
+  private static Document read(Schema schema, byte[] datum) throws Exception {
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema(schema);
+
+    final BinaryDecoder decoder =
+        DecoderFactory.get().binaryDecoder(datum, null);
+    final Document document = reader.read((Document) null, decoder);
+    assertTrue( decoder.isEnd() );
+    return document;
+  }
+
+  private static Set<String> getRecordNames(Schema schema) {
+    final Map<Schema, Schema> records = new IdentityHashMap<Schema, Schema>();
+    addRecords(schema, records);
+
+    final Set<String> names = new HashSet<String>();
+    for (Schema record : records.keySet()) {
+      names.add( record.getName() );
+    }
+    return names;
+  }
+
+  private static Schema findRecord(Schema schema, String name) {
+    final Map<Schema, Schema> records = new IdentityHashMap<Schema, Schema>();
+    addRecords(schema, records);
+
+    for (Schema record : records.keySet()) {
+      if ( record.getName().equals(name) ) {
+        return record;
+      }
+    }
+    return null;
+  }
+
+  private static void addRecords(Schema schema, Map<Schema, Schema> records) {
+    switch ( schema.getType() ) {
+    case RECORD:
+      if (records.put(schema, schema) == null) {
+        for (Schema.Field field : schema.getFields()) {
+          addRecords(field.schema(), records);
+        }
+      }
+      break;
+    case UNION:
+      for (Schema type : schema.getTypes()) {
+        addRecords(type, records);
+      }
+      break;
+    case ARRAY:
+      addRecords(schema.getElementType(), records);
+      break;
+    case MAP:
+      addRecords(schema.getValueType(), records);
+      break;
+    default:
+    }
+  }
+
+  private static List<String> textsOf(Document document, QName element) {
+    final NodeList elements =
+        document.getElementsByTagNameNS(
+            element.getNamespaceURI(),
+            element.getLocalPart());
+
+    final List<String> texts = new ArrayList<String>();
+    for (int index = 0; index < elements.getLength(); ++index) {
+      texts.add( elements.item(index).getTextContent().trim() );
+    }
+    return texts;
+  }
+
+  private static List<String> idsOf(Document document) {
+    final NodeList maps = document.getElementsByTagNameNS(NS, "map");
+    final List<String> ids = new ArrayList<String>();
+    for (int index = 0; index < maps.getLength(); ++index) {
+      ids.add( ((Element) maps.item(index)).getAttributeNS(NS, "id") );
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests {@link XmlDatumStatsFileWriter} records the statistics of each
+ * block, and {@link XmlDatumQuery} uses them to skip blocks, but finds
+ * the same documents with or without them.
+ */
+public class TestXmlDatumQuery {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private static final int NUM_DOCUMENTS = 20;
+
+  private static final XmlDatumField INT =
+      new XmlDatumField(new QName(NS, "root"), new QName("int"));
+
+  private static final XmlDatumField DATE =
+      new XmlDatumField(new QName(NS, "root"), new QName("date"));
+
+  private static final XmlDatumField NON_NULL_PRIMITIVE =
+      new XmlDatumField(new QName(NS, "nonNullPrimitive"));
+
+  private XmlDatumWriter writer;
+  private File avroFile;
+  private List<XmlDatumBlockStats> written;
+
+  @Before
+  public void setUp() throws Exception {
+    writer = UtilsForTests.createTestWriter();
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    final Document doc =
+        dbf.newDocumentBuilder().parse(
+            UtilsForTests.buildFile(
+                "src",
+                "test",
+                "resources",
+                "test3_grandchildren.xml"));
+
+    avroFile = File.createTempFile("query", ".avro");
+
+    // Each document in a block of its own.
+    final XmlDatumStatsFileWriter out =
+        new XmlDatumStatsFileWriter(
+            writer.getSchema(),
+            Arrays.asList(INT, DATE, NON_NULL_PRIMITIVE));
+    out.setSyncInterval(1);
+    out.create(writer.getSchema(), avroFile);
+    try {
+      for (int index = 0; index < NUM_DOCUMENTS; ++index) {
+        doc.getDocumentElement().setAttribute("int", Integer.toString(index));
+        doc.getDocumentElement().setAttribute(
+            "date",
+            String.format("2014-01-%02d", index + 1));
+        out.appendEncoded(
+            ByteBuffer.wrap( UtilsForTests.write(writer, doc) ) );
+      }
+    } finally {
+      out.close();
+    }
+    written = out.getBlockStats();
+  }
+
+  @After
+  public void tearDown() {
+    XmlDatumStatsFileWriter.getStatsFile(avroFile).delete();
+    avroFile.delete();
+  }
+
+  @Test
+  public void testBlockStats() throws Exception {
+    assertEquals(NUM_DOCUMENTS, written.size());
+
+    final List<XmlDatumBlockStats> read =
+        BlockStatsFile.read( XmlDatumStatsFileWriter.getStatsFile(avroFile) );
+    assertEquals(written.size(), read.size());
+
+    for (int index = 0; index < NUM_DOCUMENTS; ++index) {
+      final XmlDatumBlockStats block = read.get(index);
+      assertEquals(written.get(index).getPosition(), block.getPosition());
+      assertEquals(1, block.getDatumCount());
+
+      final XmlDatumValueStats ints = block.getStats(INT);
+      assertEquals(1, ints.getCount());
+      assertEquals(0, ints.getNullCount());
+      assertEquals(0, BigDecimal.valueOf(index).compareTo(
+          (BigDecimal) ints.getMin() ));
+      assertEquals(ints.getMin(), ints.getMax());
+
+      // The enumeration's values are compared as strings.
+      final XmlDatumValueStats primitives = block.getStats(NON_NULL_PRIMITIVE);
+      assertEquals(6, primitives.getCount());
+      assertTrue( primitives.isSampleComplete() );
+      assertEquals(
+          Arrays.<Object>asList(
+              "boolean", "decimal", "float", "int", "long", "string"),
+          new ArrayList<Object>( primitives.getDistinctValues() ));
+    }
+  }
+
+  @Test
+  public void testQuery() throws Exception {
+    final XmlDatumQuery query = new XmlDatumQuery();
+    query.addPredicate( XmlDatumPredicate.between(INT, 5, 7) );
+    query.addPredicate( XmlDatumPredicate.equalTo(NON_NULL_PRIMITIVE, "int") );
+
+    assertEquals(Arrays.asList("5", "6", "7"), intsOf( query.read(avroFile) ));
+    assertEquals(3, query.getBlocksRead());
+    assertEquals(NUM_DOCUMENTS - 3, query.getBlocksSkipped());
+    assertEquals(3, query.getDatumsScanned());
+
+    // No block has this value, though it is between the others.
+    final XmlDatumQuery none = new XmlDatumQuery();
+    none.addPredicate(
+        XmlDatumPredicate.equalTo(NON_NULL_PRIMITIVE, "double"));
+    assertTrue( none.read(avroFile).isEmpty() );
+    assertEquals(0, none.getBlocksRead());
+  }
+
+  @Test
+  public void testQueryByDate() throws Exception {
+    final Calendar date = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+    date.clear();
+    date.set(2014, Calendar.JANUARY, 18);
+
+    final XmlDatumQuery query = new XmlDatumQuery();
+    query.addPredicate( XmlDatumPredicate.atLeast(DATE, date.getTime()) );
+
+    assertEquals(
+        Arrays.asList("17", "18", "19"),
+        intsOf( query.read(avroFile) ));
+    assertEquals(NUM_DOCUMENTS - 3, query.getBlocksSkipped());
+  }
+
+  @Test
+  public void testQueryWithoutStats() throws Exception {
+    assertTrue( XmlDatumStatsFileWriter.getStatsFile(avroFile).delete() );
+
+    final XmlDatumQuery query = new XmlDatumQuery();
+    query.addPredicate( XmlDatumPredicate.between(INT, 5, 7) );
+
+    assertEquals(Arrays.asList("5", "6", "7"), intsOf( query.read(avroFile) ));
+    assertEquals(0, query.getBlocksSkipped());
+    assertEquals(NUM_DOCUMENTS, query.getDatumsScanned());
+    assertEquals(3, query.getDatumsMatched());
+  }
+
+  private static List<String> intsOf(List<Document> documents) {
+    final List<String> ints = new ArrayList<String>();
+    for (Document document : documents) {
+      ints.add( document.getDocumentElement().getAttribute("int") );
+    }
+    return ints;
+  }
+}
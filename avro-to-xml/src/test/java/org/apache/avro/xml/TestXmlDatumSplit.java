@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests writing documents as one datum per child of the root with
+ * {@link XmlDatumWriter#writeSplit(Document, org.apache.avro.io.Encoder)},
+ * and reading them back with {@link XmlDatumReader#readSplit}.
+ */
+public class TestXmlDatumSplit {
+
+  private File xmlFile;
+  private Document doc;
+  private XmlDatumWriter writer;
+
+  @Before
+  public void setUp() throws Exception {
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    doc = dbf.newDocumentBuilder().parse(xmlFile);
+
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+    writer =
+        new XmlDatumWriter(
+            new XmlDatumConfig(
+                schemaFile,
+                "http://avro.apache.org/AvroTest",
+                root));
+  }
+
+  @Test
+  public void testOneDatumPerChild() throws Exception {
+    final Schema splitSchema = writer.getSplitSchema();
+    assertEquals(Schema.Type.UNION, splitSchema.getType());
+
+    final List<Schema> types = splitSchema.getTypes();
+    assertEquals("root", types.get(0).getName());
+    assertEquals(Schema.Type.NULL, types.get(types.size() - 1).getType());
+
+    final byte[] fromDom = writeSplit(doc);
+
+    final ByteArrayOutputStream fromFile = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(fromFile, null);
+    writer.writeSplit(xmlFile, encoder);
+    encoder.flush();
+
+    assertArrayEquals(fromDom, fromFile.toByteArray());
+
+    // A header, the root's eight children, and the trailing NULL.
+    final GenericDatumReader<Object> reader =
+        new GenericDatumReader<Object>(splitSchema);
+    final BinaryDecoder decoder =
+        DecoderFactory.get().binaryDecoder(fromDom, null);
+
+    final List<Object> datums = new ArrayList<Object>();
+    Object datum = null;
+    do {
+      datum = reader.read(null, decoder);
+      datums.add(datum);
+    } while (datum != null);
+
+    assertEquals(10, datums.size());
+    assertTrue(decoder.isEnd());
+
+    final GenericRecord header = (GenericRecord) datums.get(0);
+    assertEquals("root", header.getSchema().getName());
+    assertTrue(((List<?>) header.get("root")).isEmpty());
+
+    assertEquals(
+        "map",
+        ((GenericRecord) datums.get(3)).getSchema().getName());
+  }
+
+  @Test
+  public void testStitchedDocument() throws Exception {
+    final XmlDatumReader reader = new XmlDatumReader();
+
+    // The document as one datum.
+    reader.setSchema( writer.getSchema() );
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    final Document expected =
+        reader.read(
+            (Document) null,
+            DecoderFactory.get().binaryDecoder(datum, null));
+
+    // The document as one datum per child, read twice from one stream.
+    final byte[] split = writeSplit(doc);
+    final byte[] twice = new byte[2 * split.length];
+    System.arraycopy(split, 0, twice, 0, split.length);
+    System.arraycopy(split, 0, twice, split.length, split.length);
+
+    final BinaryDecoder decoder =
+        DecoderFactory.get().binaryDecoder(twice, null);
+
+    reader.setSchema( writer.getSplitSchema() );
+    for (int pass = 0; pass < 2; ++pass) {
+      final Document actual = reader.readSplit(decoder);
+      assertTrue(
+          "Document " + pass + " differs.",
+          expected.getDocumentElement().isEqualNode(
+              actual.getDocumentElement()));
+    }
+    assertTrue(decoder.isEnd());
+  }
+
+  @Test
+  public void testDataFile() throws Exception {
+    final Schema splitSchema = writer.getSplitSchema();
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataFileWriter<Object> out =
+        new DataFileWriter<Object>(
+            new GenericDatumWriter<Object>(splitSchema));
+    out.create(splitSchema, bytes);
+    try {
+      writer.writeSplit(xmlFile, out);
+    } finally {
+      out.close();
+    }
+
+    // Each datum is appended on its own, the same as writeSplit encodes it.
+    final BinaryDecoder expected =
+        DecoderFactory.get().binaryDecoder(writeSplit(doc), null);
+    final GenericDatumReader<Object> reader =
+        new GenericDatumReader<Object>(splitSchema);
+
+    final DataFileStream<Object> actual =
+        new DataFileStream<Object>(
+            new ByteArrayInputStream( bytes.toByteArray() ),
+            new GenericDatumReader<Object>(splitSchema));
+    int numDatums = 0;
+    while ( actual.hasNext() ) {
+      assertEquals(reader.read(null, expected), actual.next());
+      ++numDatums;
+    }
+    actual.close();
+
+    assertEquals(10, numDatums);
+    assertTrue(expected.isEnd());
+  }
+
+  private byte[] writeSplit(Document document) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    writer.writeSplit(document, encoder);
+    encoder.flush();
+    return out.toByteArray();
+  }
+}
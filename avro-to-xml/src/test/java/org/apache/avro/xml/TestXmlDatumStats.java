@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.namespace.QName;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the JVM-wide {@link XmlDatumStats}.
+ */
+public class TestXmlDatumStats {
+
+  private boolean enabled;
+
+  @Before
+  public void setUp() {
+    enabled = XmlDatumStats.get().isEnabled();
+    XmlDatumStats.get().setEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    XmlDatumStats.get().setEnabled(enabled);
+  }
+
+  @Test
+  public void testCounters() throws Exception {
+    final XmlDatumStats stats = XmlDatumStats.get();
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertTrue(
+        server.isRegistered(new ObjectName(XmlDatumStats.OBJECT_NAME)));
+
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test1_root.xml");
+
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            schemaFile,
+            "http://avro.apache.org/AvroTest",
+            root);
+
+    final long compilations = stats.getSchemaCompilations();
+    final XmlDatumWriter writer = new XmlDatumWriter(config);
+    assertEquals(compilations + 1, stats.getSchemaCompilations());
+
+    final long written = stats.getDocumentsWritten();
+    final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(outBytes, null);
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    assertEquals(written + 1, stats.getDocumentsWritten());
+    assertEquals(0, stats.getWritesInFlight());
+    assertTrue(stats.getWriteThroughput() > 0.0);
+
+    final long hits = stats.getSchemaCacheHits();
+    final long misses = stats.getSchemaCacheMisses();
+
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+    reader.setSchema( writer.getSchema() );
+
+    assertEquals(misses + 1, stats.getSchemaCacheMisses());
+    assertEquals(hits + 1, stats.getSchemaCacheHits());
+
+    final long read = stats.getDocumentsRead();
+    reader.read(
+        (Document) null,
+        DecoderFactory.get().binaryDecoder(outBytes.toByteArray(), null));
+
+    assertEquals(read + 1, stats.getDocumentsRead());
+    assertEquals(0, stats.getReadsInFlight());
+
+    // Validating is not counted as a read.
+    reader.validate(
+        DecoderFactory.get().binaryDecoder(outBytes.toByteArray(), null));
+    assertEquals(read + 1, stats.getDocumentsRead());
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    final XmlDatumStats stats = XmlDatumStats.get();
+    stats.setEnabled(false);
+
+    final QName root = new QName("http://avro.apache.org/AvroTest", "root");
+
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test1_root.xml");
+
+    final long compilations = stats.getSchemaCompilations();
+    final long written = stats.getDocumentsWritten();
+    final long misses = stats.getSchemaCacheMisses();
+    final long read = stats.getDocumentsRead();
+
+    final XmlDatumWriter writer =
+        new XmlDatumWriter(
+            new XmlDatumConfig(
+                schemaFile,
+                "http://avro.apache.org/AvroTest",
+                root));
+
+    final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(outBytes, null);
+    writer.write(xmlFile, encoder);
+    encoder.flush();
+
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+    reader.read(
+        (Document) null,
+        DecoderFactory.get().binaryDecoder(outBytes.toByteArray(), null));
+
+    assertEquals(compilations, stats.getSchemaCompilations());
+    assertEquals(written, stats.getDocumentsWritten());
+    assertEquals(misses, stats.getSchemaCacheMisses());
+    assertEquals(read, stats.getDocumentsRead());
+  }
+}
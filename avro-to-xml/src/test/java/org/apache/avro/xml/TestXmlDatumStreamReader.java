@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stax.StAXSource;
+
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the events of {@link XmlDatumReader#createXMLStreamReader(Decoder)}
+ * describe the same document as is read eagerly, and that a caller which
+ * stops early leaves the rest of the datum undecoded.
+ */
+public class TestXmlDatumStreamReader {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private XmlDatumWriter writer;
+  private XmlDatumReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    writer = UtilsForTests.createTestWriter();
+
+    reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+  }
+
+  @Test
+  public void testSameAsDom() throws Exception {
+    for (String name : UtilsForTests.TEST_DOCUMENTS) {
+      final byte[] datum =
+          UtilsForTests.write(writer, UtilsForTests.parse(name));
+      final Document expected =
+          reader.read(
+              (Document) null,
+              DecoderFactory.get().binaryDecoder(datum, null));
+
+      final XMLStreamReader stream =
+          reader.createXMLStreamReader(
+              DecoderFactory.get().binaryDecoder(datum, null));
+      final DOMResult result = new DOMResult();
+      TransformerFactory.newInstance().newTransformer().transform(
+          new StAXSource(stream),
+          result);
+      assertFalse(name, stream.hasNext());
+
+      UtilsForTests.assertEquivalent(expected, (Document) result.getNode());
+    }
+  }
+
+  @Test
+  public void testNavigation() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(
+            writer,
+            UtilsForTests.parse("test3_grandchildren.xml"));
+    final XMLStreamReader stream =
+        reader.createXMLStreamReader(
+            DecoderFactory.get().binaryDecoder(datum, null));
+
+    assertEquals(XMLStreamConstants.START_DOCUMENT, stream.getEventType());
+    assertEquals(XMLStreamConstants.START_ELEMENT, stream.nextTag());
+    assertEquals(new QName(NS, "root"), stream.getName());
+    assertEquals(
+        "http://avro.apache.org/AvroTest test_schema.xsd",
+        stream.getAttributeValue(
+            "http://www.w3.org/2001/XMLSchema-instance",
+            "schemaLocation"));
+    assertEquals(
+        NS,
+        stream.getNamespaceContext().getNamespaceURI(
+            stream.getPrefix() ));
+
+    assertEquals(XMLStreamConstants.START_ELEMENT, stream.nextTag());
+    stream.require(XMLStreamConstants.START_ELEMENT, NS, "primitive");
+    assertEquals("decimal", stream.getElementText());
+    stream.require(XMLStreamConstants.END_ELEMENT, NS, "primitive");
+
+    assertEquals(XMLStreamConstants.START_ELEMENT, stream.nextTag());
+    assertEquals("nonNullPrimitive", stream.getLocalName());
+    assertEquals("int", stream.getElementText());
+
+    // The map's entries are read as the children they are.
+    assertEquals(XMLStreamConstants.START_ELEMENT, stream.nextTag());
+    assertEquals("map", stream.getLocalName());
+    assertEquals("id1", stream.getAttributeValue(NS, "id"));
+    stream.close();
+    assertFalse( stream.hasNext() );
+  }
+
+  @Test
+  public void testStopsEarly() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(
+            writer,
+            UtilsForTests.parse("test3_grandchildren.xml"));
+    final int prefixes = reader.getDeclaredPrefixes().length;
+
+    // A direct decoder does not read ahead of what it has decoded.
+    final PositionedInput in = new PositionedInput(datum, 0, datum.length);
+    final Decoder decoder = DecoderFactory.get().directBinaryDecoder(in, null);
+    final XMLStreamReader stream = reader.createXMLStreamReader(decoder);
+
+    stream.nextTag();
+    stream.nextTag();
+    assertEquals("decimal", stream.getElementText());
+    stream.close();
+
+    assertTrue(in.position() < datum.length / 2);
+
+    // The reader is left as it was.
+    assertEquals(prefixes, reader.getDeclaredPrefixes().length);
+    UtilsForTests.assertEquivalent(
+        reader.read(
+            (Document) null,
+            DecoderFactory.get().binaryDecoder(datum, null)),
+        reader.read(
+            (Document) null,
+            DecoderFactory.get().binaryDecoder(datum, null)));
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Tests the {@link XmlDatumTree} read by {@link XmlDatumReader} holds the
+ * same document as the {@link Document} it reads, and can be navigated
+ * by many threads at once.
+ */
+public class TestXmlDatumTree {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private XmlDatumWriter writer;
+  private XmlDatumReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    writer = UtilsForTests.createTestWriter();
+
+    reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+  }
+
+  @Test
+  public void testSameAsDom() throws Exception {
+    for (String name : UtilsForTests.TEST_DOCUMENTS) {
+      final byte[] datum =
+          UtilsForTests.write(writer, UtilsForTests.parse(name));
+      final Document eager =
+          reader.read(
+              (Document) null,
+              DecoderFactory.get().binaryDecoder(datum, null));
+      final XmlDatumTree tree =
+          reader.readTree( DecoderFactory.get().binaryDecoder(datum, null) );
+
+      final Document adapted = tree.asDocument();
+      UtilsForTests.assertEquivalent(eager, adapted);
+
+      final Document copy = UtilsForTests.newDocument();
+      copy.appendChild( copy.importNode(adapted.getDocumentElement(), true) );
+      UtilsForTests.assertEquivalent(eager, copy);
+      assertTrue(
+          name,
+          adapted.getDocumentElement().isEqualNode(
+              copy.getDocumentElement()));
+    }
+  }
+
+  @Test
+  public void testNavigation() throws Exception {
+    final XmlDatumTree tree = read("test3_grandchildren.xml");
+    final int root = tree.getRoot();
+
+    assertEquals(new QName(NS, "root"), tree.getName(root));
+    assertEquals(XmlDatumTree.NONE, tree.getParent(root));
+    assertEquals(XmlDatumTree.NONE, tree.getNextSibling(root));
+
+    final int primitive = tree.getFirstChild(root);
+    assertTrue( tree.isElement(primitive) );
+    assertEquals(new QName(NS, "primitive"), tree.getName(primitive));
+    assertEquals(root, tree.getParent(primitive));
+
+    final int text = tree.getFirstChild(primitive);
+    assertTrue( tree.isText(text) );
+    assertNull( tree.getName(text) );
+    assertEquals("decimal", tree.getText(text));
+    assertEquals(0, tree.getAttributeCount(text));
+
+    // The maps, in document order, with their IDs and all of their text.
+    final List<String> ids = new ArrayList<String>();
+    final List<String> content = new ArrayList<String>();
+    for (int node = 0; node < tree.getNodeCount(); ++node) {
+      if ( new QName(NS, "map").equals( tree.getName(node) ) ) {
+        ids.add( tree.getAttributeValue(node, new QName(NS, "id")) );
+        content.add( tree.getTextContent(node) );
+      }
+    }
+    assertEquals(5, ids.size());
+    for (int index = 0; index < ids.size(); ++index) {
+      assertEquals("id" + (index + 1), ids.get(index));
+    }
+    assertEquals("stringstringlong", content.get(2));
+    assertNull( tree.getAttributeValue(root, new QName(NS, "id")) );
+
+    // Names are shared by the trees the reader reads.
+    final XmlDatumTree other = read("test2_children.xml");
+    assertSame(tree.getName(root), other.getName( other.getRoot() ));
+  }
+
+  @Test
+  public void testSharedBetweenThreads() throws Exception {
+    final XmlDatumTree tree = read("test3_grandchildren.xml");
+    final Document document = tree.asDocument();
+    final String expected = tree.getTextContent( tree.getRoot() );
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int task = 0; task < 16; ++task) {
+        results.add(executor.submit(new Callable<String>() {
+          @Override
+          public String call() {
+            final StringBuilder text = new StringBuilder();
+            appendText(document.getDocumentElement(), text);
+            return text.toString();
+          }
+        }));
+      }
+      for (Future<String> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void appendText(Node node, StringBuilder text) {
+    for (Node child = node.getFirstChild();
+        child != null;
+        child = child.getNextSibling()) {
+      if (child instanceof Element) {
+        appendText(child, text);
+      } else {
+        text.append( child.getNodeValue() );
+      }
+    }
+  }
+
+  private XmlDatumTree read(String name) throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(writer, UtilsForTests.parse(name));
+    return reader.readTree( DecoderFactory.get().binaryDecoder(datum, null) );
+  }
+}
@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests trusted input is read back to the same documents without being
+ * validated, except for the ones sampled, and written to the same bytes
+ * without the path finder.
+ */
+public class TestXmlDatumTrustedInput {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private static final String XSI_NS =
+      "http://www.w3.org/2001/XMLSchema-instance";
+
+  private static class CollectingListener
+      implements XmlDatumMetricsListener {
+
+    final List<XmlDatumMetrics> metrics = new ArrayList<XmlDatumMetrics>();
+
+    @Override
+    public void documentFinished(XmlDatumMetrics docMetrics) {
+      metrics.add(docMetrics);
+    }
+  }
+
+  private XmlDatumWriter writer;
+
+  @Before
+  public void setUp() throws Exception {
+    writer = UtilsForTests.createTestWriter();
+  }
+
+  @Test
+  public void testTrustedRead() throws Exception {
+    final XmlDatumReader validating = new XmlDatumReader();
+    validating.setSchema( writer.getSchema() );
+
+    final XmlDatumReader trusted = new XmlDatumReader();
+    trusted.setSchema( writer.getSchema() );
+    trusted.setTrustedInput(true);
+    final CollectingListener listener = new CollectingListener();
+    trusted.setMetricsListener(listener);
+
+    for (String name : UtilsForTests.TEST_DOCUMENTS) {
+      final byte[] datum =
+          UtilsForTests.write(writer, UtilsForTests.parse(name));
+      UtilsForTests.assertEquivalent(
+          validating.read(
+              (Document) null,
+              DecoderFactory.get().binaryDecoder(datum, null)),
+          trusted.read(
+              (Document) null,
+              DecoderFactory.get().binaryDecoder(datum, null)));
+
+      // It can still be validated on request.
+      trusted.validate( DecoderFactory.get().binaryDecoder(datum, null) );
+    }
+
+    // Only the reads are reported, none of which used the path finder.
+    assertEquals(UtilsForTests.TEST_DOCUMENTS.length, listener.metrics.size());
+    for (XmlDatumMetrics docMetrics : listener.metrics) {
+      assertEquals(
+          0,
+          docMetrics.getPhaseNanos(XmlDatumMetrics.Phase.PATH_FINDING));
+    }
+  }
+
+  @Test
+  public void testSampledValidation() throws Exception {
+    final XmlDatumReader reader = new XmlDatumReader();
+    reader.setSchema( writer.getSchema() );
+    reader.setTrustedInput(true);
+    reader.setValidationInterval(3);
+    final CollectingListener listener = new CollectingListener();
+    reader.setMetricsListener(listener);
+
+    final byte[] datum =
+        UtilsForTests.write(
+            writer,
+            UtilsForTests.parse("test3_grandchildren.xml"));
+    for (int index = 0; index < 9; ++index) {
+      reader.read(
+          (Document) null,
+          DecoderFactory.get().binaryDecoder(datum, null));
+    }
+
+    for (int index = 0; index < listener.metrics.size(); ++index) {
+      final long pathFinding =
+          listener.metrics.get(index).getPhaseNanos(
+              XmlDatumMetrics.Phase.PATH_FINDING);
+      assertEquals(
+          "Document " + index,
+          (index % 3) == 2,
+          pathFinding > 0);
+    }
+  }
+
+  @Test
+  public void testTrustedWrite() throws Exception {
+    final XmlDatumWriter trusted =
+        new XmlDatumWriter(
+            new XmlDatumConfig(
+                UtilsForTests.buildFile(
+                    "src",
+                    "test",
+                    "resources",
+                    "test_schema.xsd"),
+                NS,
+                new QName(NS, "root")));
+    trusted.setTrustedInput(true);
+
+    final CollectingListener listener = new CollectingListener();
+    trusted.setMetricsListener(listener);
+
+    for (String name : UtilsForTests.TEST_DOCUMENTS) {
+      final Document doc = UtilsForTests.parse(name);
+      assertArrayEquals(
+          name,
+          UtilsForTests.write(writer, doc),
+          UtilsForTests.write(trusted, doc));
+    }
+
+    for (XmlDatumMetrics metrics : listener.metrics) {
+      assertEquals(
+          0,
+          metrics.getPhaseNanos(XmlDatumMetrics.Phase.PATH_FINDING));
+      assertTrue(metrics.getElementCount() > 0);
+    }
+  }
+
+  @Test
+  public void testTrustedWriteOfComplexDocument() throws Exception {
+    final QName root = new QName("urn:avro:complex_schema", "root");
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            UtilsForTests.buildFile(
+                "src",
+                "test",
+                "resources",
+                "complex_schema.xsd"),
+            "urn:avro:complex_schema",
+            root);
+    config.addSchemaFile(
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd"));
+
+    final XmlDatumWriter validating = new XmlDatumWriter(config);
+    final XmlDatumWriter trusted = new XmlDatumWriter(config);
+    trusted.setTrustedInput(true);
+
+    // Substitution groups, mixed content, wildcards and default values.
+    final Document doc = UtilsForTests.parse("complex_test1.xml");
+    assertArrayEquals(
+        UtilsForTests.write(validating, doc),
+        UtilsForTests.write(trusted, doc));
+  }
+
+  @Test
+  public void testTrustedWriteOfPrunedSchemas() throws Exception {
+    final QName map = new QName(NS, "map");
+
+    final XmlDatumConfig excludedElement = createConfig();
+    excludedElement.addExcludedElement( new QName(NS, "primitive") );
+
+    final XmlDatumConfig excludedAttribute = createConfig();
+    excludedAttribute.addExcludedAttribute(map, new QName(NS, "id"));
+
+    final XmlDatumConfig includedElement = createConfig();
+    includedElement.addIncludedElement( new QName(NS, "nonNullPrimitive") );
+
+    for (String name : UtilsForTests.TEST_DOCUMENTS) {
+      final Document doc = UtilsForTests.parse(name);
+      assertSameBytes(excludedElement, doc);
+      assertSameBytes(excludedAttribute, doc);
+      assertSameBytes(includedElement, doc);
+    }
+  }
+
+  @Test
+  public void testTrustedWriteOfNil() throws Exception {
+    final XmlDatumConfig config = createComplexConfig();
+    final Document doc = UtilsForTests.parse("complex_test1.xml");
+    final NodeList values =
+        doc.getElementsByTagNameNS("urn:avro:complex_schema", "value");
+
+    // Every value is nil.
+    for (int index = 0; index < values.getLength(); ++index) {
+      ((Element) values.item(index)).setAttributeNS(XSI_NS, "xsi:nil", "true");
+    }
+    assertSameBytes(config, doc);
+
+    // No value is nil, and one is explicitly not.
+    for (int index = 0; index < values.getLength(); ++index) {
+      ((Element) values.item(index)).setAttributeNS(
+          XSI_NS,
+          "xsi:nil",
+          "false");
+      values.item(index).setTextContent( Integer.toString(index) );
+    }
+    assertSameBytes(config, doc);
+  }
+
+  @Test
+  public void testTrustedWriteOfWildcardsBetweenMapEntries()
+      throws Exception {
+
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            UtilsForTests.buildFile(
+                "src",
+                "test",
+                "resources",
+                "wildcard_schema.xsd"),
+            "urn:avro:wildcard_schema",
+            new QName("urn:avro:wildcard_schema", "root"));
+
+    assertSameBytes(config, UtilsForTests.parse("wildcard_test1.xml"));
+  }
+
+  @Test
+  public void testTrustedWriteOfMapsBrokenByComments() throws Exception {
+    final Document doc = UtilsForTests.parse("test3_grandchildren.xml");
+    final NodeList maps = doc.getElementsByTagNameNS(NS, "map");
+
+    // Comments, processing instructions and whitespace between entries.
+    for (int index = 0; index < maps.getLength(); ++index) {
+      final Node entry = maps.item(index);
+      entry.getParentNode().insertBefore(
+          doc.createComment("Entry " + index),
+          entry);
+      entry.getParentNode().insertBefore(
+          doc.createProcessingInstruction("entry", Integer.toString(index)),
+          entry);
+      entry.getParentNode().insertBefore(
+          doc.createTextNode("\n\t  \n"),
+          entry);
+    }
+
+    assertSameBytes(createConfig(), doc);
+  }
+
+  @Test
+  public void testTrustedWriteOfSubtree() throws Exception {
+    final Document doc = UtilsForTests.parse("test3_grandchildren.xml");
+    final Element record =
+        (Element)
+          doc.getDocumentElement().getElementsByTagNameNS(NS, "record").item(0);
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(expected, null);
+    writer.write(record, null, encoder);
+    encoder.flush();
+
+    writer.setTrustedInput(true);
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    encoder = EncoderFactory.get().binaryEncoder(actual, encoder);
+    writer.write(record, null, encoder);
+    encoder.flush();
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  @Test
+  public void testTrustedWriteOfMismatch() throws Exception {
+    final Document doc = UtilsForTests.parse("test3_grandchildren.xml");
+    doc.getDocumentElement().appendChild(
+        doc.createElementNS(NS, "avro:unknown"));
+
+    writer.setTrustedInput(true);
+    try {
+      UtilsForTests.write(writer, doc);
+      fail("The unknown element should not have been written.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("unknown"));
+    }
+  }
+
+  @Test
+  public void testTrustedWriteOfWrongRoot() throws Exception {
+    final Document doc = UtilsForTests.parse("test3_grandchildren.xml");
+    doc.renameNode(doc.getDocumentElement(), NS, "avro:unknown");
+
+    writer.setTrustedInput(true);
+    try {
+      UtilsForTests.write(writer, doc);
+      fail("The unknown root should not have been written.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("unknown"));
+    }
+  }
+
+  private static XmlDatumConfig createConfig() {
+    return new XmlDatumConfig(
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd"),
+        NS,
+        new QName(NS, "root"));
+  }
+
+  private static XmlDatumConfig createComplexConfig() {
+    final XmlDatumConfig config =
+        new XmlDatumConfig(
+            UtilsForTests.buildFile(
+                "src",
+                "test",
+                "resources",
+                "complex_schema.xsd"),
+            "urn:avro:complex_schema",
+            new QName("urn:avro:complex_schema", "root"));
+    config.addSchemaFile(
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd"));
+    return config;
+  }
+
+  // The trusted writer writes the same bytes as the path finder.
+  private static void assertSameBytes(XmlDatumConfig config, Document doc)
+      throws Exception {
+
+    final XmlDatumWriter validating = new XmlDatumWriter(config);
+    final XmlDatumWriter trusted = new XmlDatumWriter(config);
+    trusted.setTrustedInput(true);
+    assertArrayEquals(
+        UtilsForTests.write(validating, doc),
+        UtilsForTests.write(trusted, doc));
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Tests writing subtrees of a {@link Document} with
+ * {@link XmlDatumWriter#write(Element, QName, org.apache.avro.io.Encoder)}.
+ */
+public class TestXmlDatumWriterSubtrees {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  @Test
+  public void testSubtreesMatchTheDocument() throws Exception {
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final File xmlFile =
+        UtilsForTests.buildFile(
+            "src",
+            "test",
+            "resources",
+            "test3_grandchildren.xml");
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    final Document doc = dbf.newDocumentBuilder().parse(xmlFile);
+
+    final XmlDatumWriter writer =
+        new XmlDatumWriter(
+            new XmlDatumConfig(schemaFile, NS, new QName(NS, "root")));
+
+    /* Collect the records the root's children were written as in the
+     * whole document.  Map entries are keyed by their IDs, and the rest
+     * are kept in document order.
+     */
+    final byte[] datum = UtilsForTests.write(writer, doc);
+    final GenericRecord root =
+        (GenericRecord) read(writer.getSchema(), datum);
+
+    final Map<String, Object> mapEntries = new HashMap<String, Object>();
+    final List<Object> records = new ArrayList<Object>();
+    for (Object child : (List<?>) root.get("root")) {
+      if (child instanceof Map) {
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) child).entrySet()) {
+          mapEntries.put(entry.getKey().toString(), entry.getValue());
+        }
+      } else {
+        records.add(child);
+      }
+    }
+
+    int numSubtrees = 0;
+    int recordIndex = 0;
+    for (Node child = doc.getDocumentElement().getFirstChild();
+        child != null;
+        child = child.getNextSibling()) {
+
+      if ( !(child instanceof Element) ) {
+        continue;
+      }
+      final Element element = (Element) child;
+      final QName elemQName =
+          new QName(element.getNamespaceURI(), element.getLocalName());
+
+      Object expected = null;
+      if ( element.hasAttributeNS(NS, "id") ) {
+        expected = mapEntries.get( element.getAttributeNS(NS, "id") );
+      } else {
+        expected = records.get(recordIndex++);
+      }
+
+      final Schema subtreeSchema = writer.getSchema(elemQName);
+      assertEquals(Schema.Type.RECORD, subtreeSchema.getType());
+      assertEquals(elemQName.getLocalPart(), subtreeSchema.getName());
+
+      final Object actual =
+          read(subtreeSchema, write(writer, element, null));
+
+      assertEquals(elemQName.toString(), expected, actual);
+      ++numSubtrees;
+    }
+
+    assertEquals(8, numSubtrees);
+  }
+
+  @Test
+  public void testRootOverride() throws Exception {
+    final File schemaFile =
+        UtilsForTests.buildFile("src", "test", "resources", "test_schema.xsd");
+
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    final Document doc = dbf.newDocumentBuilder().newDocument();
+
+    // A wrapper declares the prefix; the subtree only uses it.
+    final Element wrapper = doc.createElementNS("urn:wrapper", "w:wrapper");
+    wrapper.setAttributeNS(
+        "http://www.w3.org/2000/xmlns/",
+        "xmlns:avro",
+        NS);
+    doc.appendChild(wrapper);
+
+    final Element fact = doc.createElementNS("urn:wrapper", "w:fact");
+    wrapper.appendChild(fact);
+    final Element primitive = doc.createElementNS(NS, "avro:primitive");
+    primitive.setTextContent("int");
+    fact.appendChild(primitive);
+
+    final XmlDatumWriter writer =
+        new XmlDatumWriter(
+            new XmlDatumConfig(schemaFile, NS, new QName(NS, "root")));
+
+    final QName recordQName = new QName(NS, "record");
+    final Object datum =
+        read(writer.getSchema(recordQName), write(writer, fact, recordQName));
+    assertTrue(datum.toString(), datum.toString().contains("int"));
+
+    try {
+      write(writer, fact, null);
+      fail("{urn:wrapper}fact is not declared in the XML Schema.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  private static byte[] write(
+      XmlDatumWriter writer,
+      Element element,
+      QName rootOverride) throws Exception {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    writer.write(element, rootOverride, encoder);
+    encoder.flush();
+    return out.toByteArray();
+  }
+
+  private static Object read(Schema schema, byte[] bytes) throws Exception {
+    return new GenericDatumReader<Object>(schema).read(
+        null,
+        DecoderFactory.get().binaryDecoder(bytes, null));
+  }
+}
@@ -0,0 +1,252 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avro.xml;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests {@link XmlDatumXPath} finds the same values over the Avro
+ * datum as XPath does over the document it was written from.
+ */
+public class TestXmlDatumXPath {
+
+  private static final String NS = UtilsForTests.TEST_NS;
+
+  private static final Map<String, String> NAMESPACES =
+      Collections.singletonMap("t", NS);
+
+  private XmlDatumWriter writer;
+
+  @Before
+  public void setUp() throws Exception {
+    writer = UtilsForTests.createTestWriter();
+  }
+
+  @Test
+  public void testSameAsDom() throws Exception {
+    final Document doc = UtilsForTests.parse("test3_grandchildren.xml");
+    final byte[] datum = UtilsForTests.write(writer, doc);
+
+    final String[] expressions = {
+      "/t:root/t:primitive",
+      "//t:primitive",
+      "//t:map/@t:id",
+      "/t:root/t:map/@t:id",
+      "/t:root//t:map/t:map/t:nonNullPrimitive",
+      "//t:map[@t:id='id3']//t:primitive/text()",
+      "//t:map[@t:id!='id3'][@t:id!='id1']/t:primitive",
+      "/t:root/t:*",
+      "/t:root/*",
+      "//t:record/t:nonNullPrimitive",
+      "//t:nonNullPrimitive[text() = 'long']",
+      "//t:map[@t:id != 'id2']/@t:id",
+    };
+
+    final XPath xpath = XPathFactory.newInstance().newXPath();
+    xpath.setNamespaceContext(new TestNamespaceContext());
+
+    for (String expression : expressions) {
+      final List<String> expected = new ArrayList<String>();
+      final NodeList nodes =
+          (NodeList) xpath.evaluate(expression, doc, XPathConstants.NODESET);
+      for (int index = 0; index < nodes.getLength(); ++index) {
+        expected.add( nodes.item(index).getTextContent() );
+      }
+
+      final List<String> actual = new ArrayList<String>();
+      final XmlDatumXPath compiled =
+          XmlDatumXPath.compile(expression, NAMESPACES, writer.getSchema());
+      for (Object value : compiled.select( decoder(datum) )) {
+        actual.add( value.toString() );
+      }
+
+      // Elements with children are not selected, only counted.
+      if ( expression.contains("*") ) {
+        assertEquals(
+            expression,
+            ((Number) xpath.evaluate(
+                "count(" + expression + ")",
+                doc,
+                XPathConstants.NUMBER)).longValue(),
+            XmlDatumXPath
+              .compile(
+                  "count(" + expression + ")",
+                  NAMESPACES,
+                  writer.getSchema())
+              .count( decoder(datum) ));
+        continue;
+      }
+
+      assertEquals(expression, expected, actual);
+    }
+  }
+
+  @Test
+  public void testCount() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(
+            writer,
+            UtilsForTests.parse("test3_grandchildren.xml"));
+
+    assertEquals(5L, evaluate("count(//t:map)", datum));
+    assertEquals(3L, evaluate("count(/t:root/t:map)", datum));
+    assertEquals(2L, evaluate("count(//t:map/t:map/@id)", datum));
+    assertEquals(
+        1L,
+        evaluate("count(//t:nonNullPrimitive[text()='long'])", datum));
+    assertEquals(0L, evaluate("count(//t:nope)", datum));
+
+    // Unlike XPath 1.0, strings that are not numbers are ordered as strings.
+    assertEquals(3L, evaluate("count(//t:map[@id > 'id2'])", datum));
+  }
+
+  @Test
+  public void testTypedValues() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(writer, UtilsForTests.parse("test1_root.xml"));
+
+    assertEquals(
+        Arrays.<Object>asList(2147483647),
+        evaluate("/t:root/@int", datum));
+    assertEquals(
+        Arrays.<Object>asList(Boolean.TRUE),
+        evaluate("/t:root/@boolean", datum));
+    assertEquals(
+        Arrays.<Object>asList(new BigDecimal("65536")),
+        evaluate("/t:root/@decimal", datum));
+    assertEquals(
+        Arrays.<Object>asList("hello"),
+        evaluate("/t:root/@string", datum));
+
+    final Date date = (Date) select("/t:root/@date", datum).get(0);
+    final Calendar calendar = Calendar.getInstance( Utils.getGmtTimeZone() );
+    calendar.setTime(date);
+    assertEquals(2014, calendar.get(Calendar.YEAR));
+    assertEquals(Calendar.JULY, calendar.get(Calendar.MONTH));
+    assertEquals(27, calendar.get(Calendar.DAY_OF_MONTH));
+
+    assertArrayEquals(
+        new byte[] { 0x0F, 0x00 },
+        (byte[]) select("/t:root/@hexBinary", datum).get(0));
+  }
+
+  @Test
+  public void testTypedPredicates() throws Exception {
+    final byte[] datum =
+        UtilsForTests.write(writer, UtilsForTests.parse("test1_root.xml"));
+
+    assertEquals(1L, evaluate("count(/t:root[@int > 2147483646])", datum));
+    assertEquals(0L, evaluate("count(/t:root[@int < '2147483647'])", datum));
+    assertEquals(1L, evaluate("count(/t:root[@decimal = 65536.0])", datum));
+    assertEquals(1L, evaluate("count(/t:root[@boolean = 'true'])", datum));
+    assertEquals(1L, evaluate("count(/t:root[@date = '2014-07-27'])", datum));
+    assertEquals(0L, evaluate("count(/t:root[@date > '2014-07-27'])", datum));
+    assertEquals(1L, evaluate("count(/t:root[@date < '2014-08-01'])", datum));
+    assertEquals(
+        1L,
+        evaluate("count(/t:root[@dateTime >= '2014-07-27T12:47:30'])", datum));
+    assertEquals(1L, evaluate("count(/t:root[@time = '12:47:30'])", datum));
+    assertEquals(1L, evaluate("count(/t:root[@string][@int])", datum));
+    assertEquals(0L, evaluate("count(/t:root[@string = 'bye'])", datum));
+    assertEquals(0L, evaluate("count(/t:root[@nope])", datum));
+  }
+
+  @Test
+  public void testInvalidExpressions() {
+    final String[] invalid = {
+      "t:root",
+      "/x:root",
+      "/t:root[",
+      "/t:root[t:child]",
+      "//@id",
+      "/t:root/@id/t:child",
+      "/t:root[@id = ]",
+      "count(/t:root",
+      "/t:root[@id = 'a]",
+    };
+
+    for (String expression : invalid) {
+      try {
+        XmlDatumXPath.compile(expression, NAMESPACES, writer.getSchema());
+        fail(expression + " should not have compiled.");
+      } catch (IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+
+  private Object evaluate(String expression, byte[] datum) throws Exception {
+    return XmlDatumXPath
+        .compile(expression, NAMESPACES, writer.getSchema())
+        .evaluate( decoder(datum) );
+  }
+
+  private List<Object> select(String expression, byte[] datum)
+      throws Exception {
+
+    return XmlDatumXPath
+        .compile(expression, NAMESPACES, writer.getSchema())
+        .select( decoder(datum) );
+  }
+
+  private static Decoder decoder(byte[] datum) {
+    return DecoderFactory.get().binaryDecoder(datum, null);
+  }
+
+  private static final class TestNamespaceContext
+      implements NamespaceContext {
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+      return "t".equals(prefix) ? NS : null;
+    }
+
+    @Override
+    public String getPrefix(String namespaceURI) {
+      return NS.equals(namespaceURI) ? "t" : null;
+    }
+
+    @Override
+    public Iterator<String> getPrefixes(String namespaceURI) {
+      return Collections.singletonList( getPrefix(namespaceURI) ).iterator();
+    }
+  }
+}
@@ -20,13 +20,19 @@ package org.apache.avro.xml;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
 import org.custommonkey.xmlunit.DetailedDiff;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.w3c.dom.Document;
@@ -38,10 +44,21 @@ import org.w3c.dom.Document;
  *   <li>Compare two {@link Document}s for equivalence.</li>
  *   <li>Compare two Avro {@link Schema}s for equivalence</li>
  *   <li>Build a file path in a cross-platform way.</li>
+ *   <li>Parse the test documents, and write them with a writer.</li>
  * </ul>
  */
 final class UtilsForTests {
 
+  // The target namespace of test_schema.xsd.
+  static final String TEST_NS = "http://avro.apache.org/AvroTest";
+
+  // The documents conforming to test_schema.xsd, smallest first.
+  static final String[] TEST_DOCUMENTS = {
+    "test1_root.xml",
+    "test2_children.xml",
+    "test3_grandchildren.xml",
+  };
+
   static void assertEquivalent(Document expected, Document actual) {
     XMLUnit.setIgnoreWhitespace(true);
     XMLUnit.setIgnoreAttributeOrder(true);
@@ -214,4 +231,37 @@ final class UtilsForTests {
 
     return file;
   }
+
+  // A writer of documents conforming to test_schema.xsd.
+  static XmlDatumWriter createTestWriter() throws Exception {
+    return new XmlDatumWriter(
+        new XmlDatumConfig(
+            buildFile("src", "test", "resources", "test_schema.xsd"),
+            TEST_NS,
+            new QName(TEST_NS, "root")));
+  }
+
+  // Parses the named file in src/test/resources.
+  static Document parse(String name) throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    return dbf.newDocumentBuilder().parse(
+        buildFile("src", "test", "resources", name));
+  }
+
+  static Document newDocument() throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    return dbf.newDocumentBuilder().newDocument();
+  }
+
+  // The bytes of the document, as the writer writes it.
+  static byte[] write(XmlDatumWriter writer, Document doc) throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEncoder encoder =
+        EncoderFactory.get().binaryEncoder(bytes, null);
+    writer.write(doc, encoder);
+    encoder.flush();
+    return bytes.toByteArray();
+  }
 }